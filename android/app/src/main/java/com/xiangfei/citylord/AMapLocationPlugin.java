@@ -17,14 +17,15 @@ import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import androidx.core.content.ContextCompat;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
 import com.amap.api.location.AMapLocation;
 import com.amap.api.location.AMapLocationClient;
-import com.amap.api.location.AMapLocationClientOption;
 import com.amap.api.location.AMapLocationListener;
+import com.getcapacitor.Bridge;
 import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import org.json.JSONException;
@@ -36,6 +37,12 @@ import com.getcapacitor.annotation.CapacitorPlugin;
 import com.xiangfei.citylord.db.AppDatabase;
 import com.xiangfei.citylord.db.LocationDao;
 import com.xiangfei.citylord.db.LocationEntity;
+import com.xiangfei.citylord.db.PersonalRecord;
+import com.xiangfei.citylord.db.SessionHit;
+import com.xiangfei.citylord.db.SessionSummaryDao;
+import com.xiangfei.citylord.db.SessionSummaryEntity;
+import com.xiangfei.citylord.db.StepBucketDao;
+import com.xiangfei.citylord.db.StepBucketEntity;
 
 /**
  * AMapLocationPlugin — Capacitor 插件：Android 高德定位 SDK
@@ -49,8 +56,12 @@ public class AMapLocationPlugin extends Plugin {
 
     private static final String TAG = "AMapLocationPlugin";
 
-    private AMapLocationClient onceClient = null;
-    private AMapLocationClient watchClient = null;
+    /** 临时定位（最后已知位置）默认可接受的最大年龄：超过一天大概率已不在同一城市 */
+    private static final long DEFAULT_PROVISIONAL_MAX_AGE_MS = 24L * 60 * 60 * 1000;
+
+    // LocationEngine 订阅句柄（一次定位 / 连续定位共享进程内唯一的高德 client）
+    private LocationEngine.Subscription onceSubscription = null;
+    private LocationEngine.Subscription watchSubscription = null;
     private boolean privacyShown = false;
     private boolean privacyAgreed = false;
 
@@ -59,11 +70,28 @@ public class AMapLocationPlugin extends Plugin {
     private BroadcastReceiver trackingErrorReceiver = null;
     private BroadcastReceiver trackingLogReceiver = null;
     private BroadcastReceiver batteryOptReceiver = null;
+    private BroadcastReceiver trackReconciledReceiver = null;
+    private BroadcastReceiver cellEnteredReceiver = null;
+    private BroadcastReceiver loopClosedReceiver = null;
+    private BroadcastReceiver territoryReceiver = null;
+    private BroadcastReceiver routeReceiver = null;
+    private BroadcastReceiver splitReceiver = null;
     private boolean isTracking = false;
 
     // Room 数据库异步执行器
     private ExecutorService dbQueryExecutor = null;
 
+    // 每次定位引擎启动后的首个有效定位 → JS firstFix 事件（TTFF 埋点）
+    private final LocationEngine.FirstFixListener firstFixListener = (ttffMs, warm, startedBy, location) -> {
+        JSObject data = new JSObject();
+        data.put("ttffMs", ttffMs);
+        data.put("warm", warm);
+        data.put("startedBy", startedBy);
+        data.put("accuracy", location.getAccuracy());
+        data.put("locationType", location.getLocationType());
+        notifyListeners("firstFix", data);
+    };
+
     // -----------------------------------------------------------------------
     // Plugin lifecycle
     // -----------------------------------------------------------------------
@@ -84,6 +112,13 @@ public class AMapLocationPlugin extends Plugin {
             Log.e(TAG, "Privacy compliance failed in load(): " + e.getMessage(), e);
         }
 
+        // 预热定位引擎：提前创建高德 client，首次 startTracking / getCurrentPosition 免去初始化耗时
+        LocationEngine engine = LocationEngine.getInstance(getContext());
+        engine.addFirstFixListener(firstFixListener);
+        if (privacyAgreed) {
+            engine.prewarm();
+        }
+
         // 初始化 Room 查询线程池
         dbQueryExecutor = Executors.newSingleThreadExecutor();
     }
@@ -144,7 +179,7 @@ public class AMapLocationPlugin extends Plugin {
      *
      * 返回:
      * - locations: JSArray，每个元素包含 id, lat, lng, accuracy, speed, bearing,
-     * timestamp, isMock
+     * timestamp, isMock, interpolated
      */
     @PluginMethod()
     public void getOfflineLocations(PluginCall call) {
@@ -178,6 +213,13 @@ public class AMapLocationPlugin extends Plugin {
                     obj.put("bearing", record.bearing);
                     obj.put("timestamp", record.timestamp);
                     obj.put("isMock", record.isMock);
+                    obj.put("interpolated", record.isInterpolated);
+                    obj.put("cadence", record.cadence);
+                    obj.put("strideLength", record.strideLength);
+                    obj.put("groundContactMs", record.groundContactMs);
+                    if (record.altitude != null) {
+                        obj.put("altitude", record.altitude.doubleValue());
+                    }
                     obj.put("coordSystem", "gcj02");
                     jsArray.put(obj);
                 }
@@ -201,7 +243,7 @@ public class AMapLocationPlugin extends Plugin {
 
     /**
      * 接收 ID 数组，将 Room 数据库中对应记录标记为已同步 (isAcked=true)。
-     * JS 层确认处理完毕后调用。
+     * JS 层确认处理完毕（已送达服务端）后调用；同时标记 isUploaded，原生上传不再重发这些点。
      *
      * 参数:
      * - ids (number[], 必须): 需要标记的记录 ID 数组
@@ -260,9 +302,12 @@ public class AMapLocationPlugin extends Plugin {
     // -----------------------------------------------------------------------
 
     /**
-     * 根据 sessionId 和 sinceTimestamp 从 Room 数据库查询增量定位记录。
+     * 根据 sessionId 和 sinceTimestamp 查询增量定位记录。
      * 用于亮屏恢复时从原生黑匣子拉取息屏期间丢失的坐标点，实现轨迹缝合。
      *
+     * 当前跑步优先读取进程内 TrackBuffer（二分定位起点，无磁盘 IO）；
+     * 进程被杀后缓冲不完整，回退 Room 查询。
+     *
      * 参数:
      * - sessionId (String, 必须): 跑步会话 ID
      * - sinceTimestamp (long, 必须): 起始时间戳（毫秒），仅返回此时间之后的点
@@ -271,6 +316,7 @@ public class AMapLocationPlugin extends Plugin {
      * - points: JSArray，每个元素包含 lat, lng, timestamp, accuracy, speed, bearing
      * - count: 返回的点数
      * - capped: 是否触发了 1000 点安全上限
+     * - source: "memory" | "room"，本次数据来源
      */
     @PluginMethod()
     public void hydrateOfflinePoints(PluginCall call) {
@@ -298,35 +344,68 @@ public class AMapLocationPlugin extends Plugin {
 
         dbQueryExecutor.execute(() -> {
             try {
-                LocationDao dao = AppDatabase.getInstance(getContext()).locationDao();
-                List<LocationEntity> records = dao.getPointsAfter(sessionId, queryTimestamp);
+                long startNs = System.nanoTime();
+                JSArray jsArray = new JSArray();
+                int count;
+                boolean capped;
+                String source;
+
+                TrackBuffer.Slice slice = TrackBuffer.getInstance()
+                        .sliceAfter(sessionId, queryTimestamp, MAX_HYDRATION_POINTS);
+                if (slice != null) {
+                    for (int i = 0; i < slice.count; i++) {
+                        JSObject obj = new JSObject();
+                        obj.put("lat", slice.lat(i));
+                        obj.put("lng", slice.lng(i));
+                        obj.put("timestamp", slice.timestamp(i));
+                        obj.put("accuracy", slice.accuracy(i));
+                        obj.put("speed", slice.speed(i));
+                        obj.put("bearing", slice.bearing(i));
+                        obj.put("interpolated", slice.interpolated(i));
+                        jsArray.put(obj);
+                    }
+                    count = slice.count;
+                    capped = slice.capped;
+                    source = "memory";
+                } else {
+                    LocationDao dao = AppDatabase.getInstance(getContext()).locationDao();
+                    List<LocationEntity> records = dao.getPointsAfter(sessionId, queryTimestamp);
+
+                    capped = false;
+                    if (records.size() > MAX_HYDRATION_POINTS) {
+                        records = records.subList(0, MAX_HYDRATION_POINTS);
+                        capped = true;
+                    }
 
-                boolean capped = false;
-                if (records.size() > MAX_HYDRATION_POINTS) {
-                    records = records.subList(0, MAX_HYDRATION_POINTS);
-                    capped = true;
-                    Log.w(TAG, "hydrateOfflinePoints: 触发安全上限，截断至 " + MAX_HYDRATION_POINTS + " 点");
+                    for (LocationEntity record : records) {
+                        JSObject obj = new JSObject();
+                        obj.put("lat", record.latitude);
+                        obj.put("lng", record.longitude);
+                        obj.put("timestamp", record.timestamp);
+                        obj.put("accuracy", record.accuracy);
+                        obj.put("speed", record.speed);
+                        obj.put("bearing", record.bearing);
+                        obj.put("interpolated", record.isInterpolated);
+                        jsArray.put(obj);
+                    }
+                    count = records.size();
+                    source = "room";
                 }
 
-                JSArray jsArray = new JSArray();
-                for (LocationEntity record : records) {
-                    JSObject obj = new JSObject();
-                    obj.put("lat", record.latitude);
-                    obj.put("lng", record.longitude);
-                    obj.put("timestamp", record.timestamp);
-                    obj.put("accuracy", record.accuracy);
-                    obj.put("speed", record.speed);
-                    obj.put("bearing", record.bearing);
-                    jsArray.put(obj);
+                if (capped) {
+                    Log.w(TAG, "hydrateOfflinePoints: 触发安全上限，截断至 " + MAX_HYDRATION_POINTS + " 点");
                 }
 
                 JSObject ret = new JSObject();
                 ret.put("points", jsArray);
-                ret.put("count", records.size());
+                ret.put("count", count);
                 ret.put("capped", capped);
+                ret.put("source", source);
                 call.resolve(ret);
 
-                Log.i(TAG, "hydrateOfflinePoints 返回 " + records.size() + " 条记录 (capped=" + capped + ")");
+                long tookUs = (System.nanoTime() - startNs) / 1000;
+                Log.i(TAG, "hydrateOfflinePoints 返回 " + count + " 条记录 (capped=" + capped
+                        + ", source=" + source + ", took=" + tookUs + "us)");
             } catch (Exception e) {
                 Log.e(TAG, "hydrateOfflinePoints 查询失败: " + e.getMessage(), e);
                 call.reject("hydrateOfflinePoints error: " + e.getMessage());
@@ -346,81 +425,69 @@ public class AMapLocationPlugin extends Plugin {
         String mode = call.getString("mode", "fast");
         int timeout = call.getInt("timeout", 8000);
         int cacheMaxAge = call.getInt("cacheMaxAge", 5000);
+        boolean allowProvisional = call.getBoolean("allowProvisional", false);
+        long provisionalMaxAge = call.getLong("provisionalMaxAge", DEFAULT_PROVISIONAL_MAX_AGE_MS);
 
-        Log.i(TAG, "getCurrentPosition: mode=" + mode + " timeout=" + timeout + " cacheMaxAge=" + cacheMaxAge);
+        Log.i(TAG, "getCurrentPosition: mode=" + mode + " timeout=" + timeout + " cacheMaxAge=" + cacheMaxAge
+                + " allowProvisional=" + allowProvisional);
 
-        try {
-            // 每次一次定位创建新 client，避免复用导致回调混乱
-            if (onceClient != null) {
-                try {
-                    onceClient.stopLocation();
-                    onceClient.onDestroy();
-                } catch (Exception e) {
-                    Log.w(TAG, "onceClient cleanup error: " + e.getMessage());
-                }
-            }
+        LocationEngine engine = LocationEngine.getInstance(getContext());
 
-            onceClient = new AMapLocationClient(getContext());
-
-            AMapLocationClientOption option = new AMapLocationClientOption();
-            option.setLocationMode(AMapLocationClientOption.AMapLocationMode.Hight_Accuracy);
-            option.setOnceLocation(true);
-            option.setOnceLocationLatest(true);
-            option.setHttpTimeOut(timeout);
-            option.setNeedAddress(false);
-
-            // cacheMaxAge: 允许接受最近几秒的 SDK 缓存（冷启动避免永远等待）
-            if ("fast".equals(mode) && cacheMaxAge > 0) {
-                // AMap SDK 没有直接 cacheMaxAge 参数，但通过不设置 interval=0
-                // + setOnceLocationLatest(true) 可以获取 SDK 内部缓存
-                option.setLocationCacheEnable(true);
-            } else {
-                option.setLocationCacheEnable(false);
-            }
-
-            onceClient.setLocationOption(option);
-            onceClient.setLocationListener(new AMapLocationListener() {
-                @Override
-                public void onLocationChanged(AMapLocation location) {
-                    if (location == null) {
-                        Log.e(TAG, "getCurrentPosition: null location returned");
-                        call.reject("Location is null");
-                        return;
-                    }
+        // 引擎正在为跑步/浏览连续定位时，两个周期内的实时点视为“当前位置”，直接返回
+        long liveWindow = Math.max(0L, engine.getEffectiveInterval()) * 2;
+        long maxAge = ("fast".equals(mode) && cacheMaxAge > 0) ? Math.max(cacheMaxAge, liveWindow) : liveWindow;
+        // 没有实时流时：fast 模式允许 cacheMaxAge 内的 SDK 缓存（冷启动不必等 GPS）
+        long sdkCacheMaxAge = "fast".equals(mode) ? Math.max(0, cacheMaxAge) : 0;
 
-                    if (location.getErrorCode() != 0) {
-                        Log.e(TAG, "getCurrentPosition error: code=" + location.getErrorCode()
-                                + " info=" + location.getErrorInfo());
-                        JSObject error = new JSObject();
-                        error.put("code", location.getErrorCode());
-                        error.put("message", location.getErrorInfo());
-                        call.reject("Location error: " + location.getErrorInfo(),
-                                String.valueOf(location.getErrorCode()), (Exception) null);
-                        return;
-                    }
+        // 只保留最新一次请求，避免回调混乱
+        if (onceSubscription != null) {
+            engine.cancel(onceSubscription);
+            onceSubscription = null;
+        }
 
+        // settled: call 已被 resolve（临时定位或真实定位二者只 resolve 一次）
+        final AtomicBoolean settled = new AtomicBoolean(false);
+        try {
+            onceSubscription = engine.requestSingleFix(maxAge, sdkCacheMaxAge, timeout, new LocationEngine.SingleFixCallback() {
+                @Override
+                public void onFix(AMapLocation location, boolean fromLiveStream) {
                     JSObject result = locationToJSObject(location);
                     Log.i(TAG, "getCurrentPosition success: lat=" + location.getLatitude()
                             + " lng=" + location.getLongitude()
                             + " accuracy=" + location.getAccuracy()
-                            + " type=" + location.getLocationType());
-                    call.resolve(result);
-
-                    // 清理一次性 client
-                    try {
-                        if (onceClient != null) {
-                            onceClient.stopLocation();
-                            onceClient.onDestroy();
-                            onceClient = null;
-                        }
-                    } catch (Exception e) {
-                        Log.w(TAG, "onceClient cleanup after success: " + e.getMessage());
+                            + " type=" + location.getLocationType()
+                            + " live=" + fromLiveStream);
+                    if (settled.compareAndSet(false, true)) {
+                        call.resolve(result);
+                    } else {
+                        // 已返回临时定位：真实定位通过事件修正
+                        notifyListeners("locationRefined", result);
                     }
                 }
-            });
 
-            onceClient.startLocation();
+                @Override
+                public void onError(int code, String message) {
+                    Log.e(TAG, "getCurrentPosition error: code=" + code + " info=" + message);
+                    if (settled.compareAndSet(false, true)) {
+                        call.reject("Location error: " + message, String.valueOf(code), (Exception) null);
+                    } else {
+                        // 已返回临时定位：真实定位失败同样通过事件告知，UI 可停止等待修正
+                        JSObject error = new JSObject();
+                        error.put("code", code);
+                        error.put("message", message);
+                        notifyListeners("locationRefineFailed", error);
+                    }
+                }
+            });
 
+            // 需要等待真实定位：先用最后已知位置立即返回，地图可马上居中
+            if (allowProvisional && onceSubscription != null) {
+                LastKnownLocation last = LastKnownLocation.read(getContext(), provisionalMaxAge);
+                if (last != null && settled.compareAndSet(false, true)) {
+                    Log.i(TAG, "getCurrentPosition provisional: ageMs=" + last.ageMs() + " accuracy=" + last.accuracy);
+                    call.resolve(last.toJSObject());
+                }
+            }
         } catch (Exception e) {
             Log.e(TAG, "getCurrentPosition exception: " + e.getMessage(), e);
             call.reject("getCurrentPosition failed: " + e.getMessage());
@@ -446,52 +513,13 @@ public class AMapLocationPlugin extends Plugin {
             // 先 stop 已有 watch
             stopWatchInternal();
 
-            watchClient = new AMapLocationClient(getContext());
-
-            AMapLocationClientOption option = new AMapLocationClientOption();
-
             // ===== BUG FIX: Both modes use Hight_Accuracy (GPS+Network hybrid) =====
             // Previously browse used Battery_Saving (network-only, coarse fixes)
             // and running used Device_Sensors (GPS-only, fails indoors).
             // Hight_Accuracy gives the best of both: accurate like GPS, reliable like
-            // network.
-            option.setLocationMode(AMapLocationClientOption.AMapLocationMode.Hight_Accuracy);
-            option.setSensorEnable(true);
-            // 无论是 running 还是 browse 模式，均开启高精度 GPS 优先并禁用缓存，确保从启动起就持续高精度定位
-            option.setLocationCacheEnable(false);
-            option.setGpsFirst(true);
-            option.setGpsFirstTimeout(5000);
-            
-            // [P0 Fix] 开启 WIFI 扫描和禁用模拟定位
-            option.setWifiScan(true);
-            option.setMockEnable(false);
-
-            option.setInterval(interval);
-            option.setNeedAddress(false);
-
-            watchClient.setLocationOption(option);
-            watchClient.setLocationListener(new AMapLocationListener() {
-                @Override
-                public void onLocationChanged(AMapLocation location) {
-                    if (location == null)
-                        return;
-
-                    if (location.getErrorCode() != 0) {
-                        Log.w(TAG, "watch error: code=" + location.getErrorCode()
-                                + " info=" + location.getErrorInfo());
-                        JSObject error = new JSObject();
-                        error.put("code", location.getErrorCode());
-                        error.put("message", location.getErrorInfo());
-                        notifyListeners("locationError", error);
-                        return;
-                    }
-
-                    JSObject result = locationToJSObject(location);
-                    notifyListeners("locationUpdate", result);
-                }
-            });
-
-            watchClient.startLocation();
+            // network. 引擎侧统一 GPS 优先、禁用缓存、开启 WIFI 扫描并禁用模拟定位。
+            watchSubscription = LocationEngine.getInstance(getContext()).subscribe(
+                    "watch", interval, distanceFilter, true, new WatchListener());
 
             JSObject ret = new JSObject();
             ret.put("watchId", "amap-watch-" + System.currentTimeMillis());
@@ -503,6 +531,36 @@ public class AMapLocationPlugin extends Plugin {
         }
     }
 
+    /** watch 订阅的回调：定位错误与引擎启动 / 配置失败都以 locationError 事件告知 JS */
+    private class WatchListener implements AMapLocationListener, LocationEngine.ErrorAware {
+        @Override
+        public void onLocationChanged(AMapLocation location) {
+            if (location == null)
+                return;
+
+            if (location.getErrorCode() != 0) {
+                notifyWatchError(location.getErrorCode(), location.getErrorInfo());
+                return;
+            }
+
+            JSObject result = locationToJSObject(location);
+            notifyListeners("locationUpdate", result);
+        }
+
+        @Override
+        public void onEngineError(int code, String message) {
+            notifyWatchError(code, message);
+        }
+
+        private void notifyWatchError(int code, String message) {
+            Log.w(TAG, "watch error: code=" + code + " info=" + message);
+            JSObject error = new JSObject();
+            error.put("code", code);
+            error.put("message", message);
+            notifyListeners("locationError", error);
+        }
+    }
+
     // -----------------------------------------------------------------------
     // stopWatch — 停止连续定位
     // -----------------------------------------------------------------------
@@ -515,14 +573,24 @@ public class AMapLocationPlugin extends Plugin {
     }
 
     private void stopWatchInternal() {
-        if (watchClient != null) {
+        if (watchSubscription != null) {
             try {
-                watchClient.stopLocation();
-                watchClient.onDestroy();
+                LocationEngine.getInstance(getContext()).unsubscribe(watchSubscription);
             } catch (Exception e) {
                 Log.w(TAG, "stopWatch error: " + e.getMessage());
             }
-            watchClient = null;
+            watchSubscription = null;
+        }
+    }
+
+    private void cancelOnceInternal() {
+        if (onceSubscription != null) {
+            try {
+                LocationEngine.getInstance(getContext()).cancel(onceSubscription);
+            } catch (Exception e) {
+                Log.w(TAG, "once subscription cleanup error: " + e.getMessage());
+            }
+            onceSubscription = null;
         }
     }
 
@@ -532,18 +600,11 @@ public class AMapLocationPlugin extends Plugin {
 
     @Override
     protected void handleOnDestroy() {
-        Log.i(TAG, "handleOnDestroy — cleaning up all clients");
+        Log.i(TAG, "handleOnDestroy — cleaning up all subscriptions");
         stopWatchInternal();
         stopTrackingInternal();
-        if (onceClient != null) {
-            try {
-                onceClient.stopLocation();
-                onceClient.onDestroy();
-            } catch (Exception e) {
-                Log.w(TAG, "onceClient cleanup in onDestroy: " + e.getMessage());
-            }
-            onceClient = null;
-        }
+        cancelOnceInternal();
+        LocationEngine.getInstance(getContext()).removeFirstFixListener(firstFixListener);
 
         // 关闭数据库查询线程池
         if (dbQueryExecutor != null && !dbQueryExecutor.isShutdown()) {
@@ -559,35 +620,17 @@ public class AMapLocationPlugin extends Plugin {
     // -----------------------------------------------------------------------
 
     /**
-     * 强制销毁所有 AMapLocationClient 实例。
+     * 强制注销本插件在 LocationEngine 上的所有订阅（watch + 一次定位）。
      * 在 TS 层 safeStopWatch 检测到 stopWatch 超时时调用。
+     * 引擎在没有任何订阅后自动停止高德 client（保留实例以便下次快速启动）；前台服务的订阅不受影响。
      * 清理所有资源并通过 locationError 事件通知 TS 层。
      */
     @PluginMethod()
     public void forceDestroy(PluginCall call) {
-        Log.w(TAG, "forceDestroy — forcibly destroying all location clients");
-
-        // 销毁 watchClient
-        if (watchClient != null) {
-            try {
-                watchClient.stopLocation();
-                watchClient.onDestroy();
-            } catch (Exception e) {
-                Log.e(TAG, "forceDestroy watchClient error: " + e.getMessage());
-            }
-            watchClient = null;
-        }
+        Log.w(TAG, "forceDestroy — forcibly removing all plugin location subscriptions");
 
-        // 销毁 onceClient
-        if (onceClient != null) {
-            try {
-                onceClient.stopLocation();
-                onceClient.onDestroy();
-            } catch (Exception e) {
-                Log.e(TAG, "forceDestroy onceClient error: " + e.getMessage());
-            }
-            onceClient = null;
-        }
+        stopWatchInternal();
+        cancelOnceInternal();
 
         // 通知 TS 层（错误事件，保持向后兼容）
         JSObject error = new JSObject();
@@ -617,6 +660,9 @@ public class AMapLocationPlugin extends Plugin {
      * Options:
      * - notificationTitle: 通知标题（默认 "City Lord"）
      * - notificationBody: 通知内容（默认 "正在追踪您的位置…"）
+     *
+     * 返回 { provisional }：存在最后已知位置时立即带回（provisional=true, ageMs, accuracy），
+     * 首个真实定位随后通过 locationUpdate 事件到达。
      */
     @PluginMethod()
     public void startTracking(PluginCall call) {
@@ -625,6 +671,9 @@ public class AMapLocationPlugin extends Plugin {
         // 1. Register BroadcastReceivers to relay Service → JS
         registerTrackingReceivers();
 
+        // 1.5 允许 Service 异常死亡后自动恢复（清除上次 stopTracking 的标记）
+        RestartCoordinator.clearUserStopped(getContext());
+
         // 2. Start foreground service
         Intent serviceIntent = new Intent(getContext(), LocationForegroundService.class);
 
@@ -640,6 +689,7 @@ public class AMapLocationPlugin extends Plugin {
         serviceIntent.putExtra(LocationForegroundService.EXTRA_STARTED_AT, startedAt);
         serviceIntent.putExtra(LocationForegroundService.EXTRA_INTERVAL, (long) call.getInt("interval", 1000));
         serviceIntent.putExtra("voiceEnabled", voiceEnabled);
+        serviceIntent.putExtra(LocationForegroundService.EXTRA_CADENCE_ENABLED, call.getBoolean("cadence", false));
 
         // Android O+ requires startForegroundService
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
@@ -650,7 +700,13 @@ public class AMapLocationPlugin extends Plugin {
 
         isTracking = true;
         Log.i(TAG, "startTracking — foreground service started/updated, receivers registered");
-        call.resolve();
+
+        JSObject result = new JSObject();
+        LastKnownLocation last = LastKnownLocation.read(getContext(), DEFAULT_PROVISIONAL_MAX_AGE_MS);
+        if (last != null) {
+            result.put("provisional", last.toJSObject());
+        }
+        call.resolve(result);
     }
 
     /**
@@ -660,108 +716,1201 @@ public class AMapLocationPlugin extends Plugin {
     @PluginMethod()
     public void stopTracking(PluginCall call) {
         Log.i(TAG, "stopTracking called");
+        // 用户主动停止：Service onDestroy 不再安排闹钟 / WorkManager 重启
+        RestartCoordinator.markUserStopped(getContext());
         stopTrackingInternal();
         call.resolve();
     }
 
     /**
-     * 更新前台通知的步数显示。
-     * 通知格式："今日 X 步 · 每日跑步语录"
+     * 会话连续性报告（增量统计，不扫描 location_records）：
+     * { report: { coveragePct, longestGapMs, gapCount, causes, gaps: [[startTs, durationMs, cause]] ... } | null }
+     *
+     * Options:
+     * - sessionId: 跑步会话 ID（即 runId）
      */
     @PluginMethod()
-    public void updateNotificationSteps(PluginCall call) {
-        int steps = call.getInt("steps", 0);
-        Log.d(TAG, "updateNotificationSteps: " + steps);
-
-        if (!isTracking) {
-            Log.w(TAG, "updateNotificationSteps: not tracking, ignoring");
-            call.resolve();
+    public void getContinuityReport(PluginCall call) {
+        String sessionId = call.getString("sessionId");
+        if (sessionId == null || sessionId.isEmpty()) {
+            call.reject("sessionId is required");
             return;
         }
-
-        // Cannot directly access the service instance here, so we send a broadcast
-        Intent intent = new Intent("com.xiangfei.citylord.UPDATE_STEPS");
-        intent.putExtra("steps", steps);
-        androidx.localbroadcastmanager.content.LocalBroadcastManager.getInstance(getContext()).sendBroadcast(intent);
-        call.resolve();
+        try {
+            String json = ContinuityTracker.getInstance(getContext()).getReport(sessionId);
+            JSObject result = new JSObject();
+            result.put("report", json != null ? new JSObject(json) : null);
+            call.resolve(result);
+        } catch (JSONException e) {
+            call.reject("getContinuityReport failed: " + e.getMessage());
+        }
     }
 
     /**
-     * 全生命周期预热控制：通知 LocationForegroundService 切换预热模式。
-     * @param command "start_prewarm" | "resume_high_freq"
+     * 跑步会话汇总：{ summary: { sessionId, startedAt, updatedAt, elevationGain, elevationLoss,
+     * minAltitude?, maxAltitude?, hasBarometer, distance, durationMs, best1kMs?, best5kMs?, best10kMs?, splits } | null }
+     * 跑步中约每 30 秒更新一次，停止追踪时写入最终值。尚未计算分段的历史会话在此按需回填并缓存。
      */
     @PluginMethod()
-    public void sendPrewarmCommand(PluginCall call) {
-        String command = call.getString("command", "");
-        Log.i(TAG, "[SmartPrewarm] sendPrewarmCommand: " + command);
-
-        Intent intent = new Intent(LocationForegroundService.ACTION_PREWARM_CONTROL);
-        intent.putExtra("command", command);
-        androidx.localbroadcastmanager.content.LocalBroadcastManager.getInstance(getContext()).sendBroadcast(intent);
-        call.resolve();
+    public void getSessionSummary(PluginCall call) {
+        String sessionId = call.getString("sessionId");
+        if (sessionId == null || sessionId.isEmpty()) {
+            call.reject("sessionId is required");
+            return;
+        }
+        if (dbQueryExecutor == null) {
+            call.reject("数据库查询执行器未初始化");
+            return;
+        }
+        dbQueryExecutor.execute(() -> {
+            try {
+                AppDatabase db = AppDatabase.getInstance(getContext());
+                SessionSummaryEntity row = db.sessionSummaryDao().get(sessionId);
+                if (row == null || row.splits == null) {
+                    row = backfillEfforts(db, sessionId, row);
+                }
+                JSObject ret = new JSObject();
+                if (row == null) {
+                    ret.put("summary", null);
+                } else {
+                    JSObject summary = new JSObject();
+                    summary.put("sessionId", row.sessionId);
+                    summary.put("startedAt", row.startedAt);
+                    summary.put("updatedAt", row.updatedAt);
+                    summary.put("elevationGain", row.elevationGain);
+                    summary.put("elevationLoss", row.elevationLoss);
+                    if (row.minAltitude != null) summary.put("minAltitude", row.minAltitude.doubleValue());
+                    if (row.maxAltitude != null) summary.put("maxAltitude", row.maxAltitude.doubleValue());
+                    summary.put("hasBarometer", row.hasBarometer);
+                    summary.put("distance", row.distance);
+                    summary.put("durationMs", row.durationMs);
+                    if (row.best1kMs != null) summary.put("best1kMs", row.best1kMs.longValue());
+                    if (row.best5kMs != null) summary.put("best5kMs", row.best5kMs.longValue());
+                    if (row.best10kMs != null) summary.put("best10kMs", row.best10kMs.longValue());
+                    JSArray splits = new JSArray();
+                    for (long split : BestEfforts.parseSplits(row.splits)) splits.put(split);
+                    summary.put("splits", splits);
+                    ret.put("summary", summary);
+                }
+                call.resolve(ret);
+            } catch (Exception e) {
+                Log.e(TAG, "getSessionSummary 查询失败: " + e.getMessage(), e);
+                call.reject("getSessionSummary error: " + e.getMessage());
+            }
+        });
     }
 
-    private void stopTrackingInternal() {
-        if (!isTracking) {
-            Log.d(TAG, "stopTrackingInternal: not tracking, skipping");
+    /**
+     * 全部会话的最快 1 / 5 / 10 公里与单次最长里程：
+     * { records: [{ distance, durationMs, sessionId, startedAt }], longestDistance, backfilled }
+     * 先为尚未计算分段的历史会话回填汇总（每个会话只做一次），之后直接走 session_summaries。
+     */
+    @PluginMethod()
+    public void getPersonalRecords(PluginCall call) {
+        if (dbQueryExecutor == null) {
+            call.reject("数据库查询执行器未初始化");
             return;
         }
+        dbQueryExecutor.execute(() -> {
+            try {
+                AppDatabase db = AppDatabase.getInstance(getContext());
+                SessionSummaryDao summaryDao = db.sessionSummaryDao();
+                List<String> pending = db.locationDao().getSessionsWithoutEfforts();
+                for (String sessionId : pending) {
+                    backfillEfforts(db, sessionId, summaryDao.get(sessionId));
+                }
+                PersonalRecord[] best = {summaryDao.getBest1k(), summaryDao.getBest5k(), summaryDao.getBest10k()};
+                JSArray records = new JSArray();
+                for (int k = 0; k < best.length; k++) {
+                    if (best[k] == null) continue;
+                    JSObject record = new JSObject();
+                    record.put("distance", BestEfforts.TARGET_METERS[k]);
+                    record.put("durationMs", best[k].durationMs);
+                    record.put("sessionId", best[k].sessionId);
+                    record.put("startedAt", best[k].startedAt);
+                    records.put(record);
+                }
+                Double longest = summaryDao.getLongestDistance();
+                JSObject ret = new JSObject();
+                ret.put("records", records);
+                ret.put("longestDistance", longest == null ? 0.0 : longest);
+                ret.put("backfilled", pending.size());
+                call.resolve(ret);
+            } catch (Exception e) {
+                Log.e(TAG, "getPersonalRecords 查询失败: " + e.getMessage(), e);
+                call.reject("getPersonalRecords error: " + e.getMessage());
+            }
+        });
+    }
 
-        // 1. Stop foreground service
-        try {
-            Intent serviceIntent = new Intent(getContext(), LocationForegroundService.class);
-            getContext().stopService(serviceIntent);
-            Log.i(TAG, "Foreground service stopped");
-        } catch (Exception e) {
-            Log.e(TAG, "Error stopping foreground service: " + e.getMessage(), e);
+    /**
+     * 按定位点的 cumDistance / elapsedMs 列回放会话，补算并缓存汇总中的分段与最快用时（dbQueryExecutor）。
+     * 保留已有汇总的其余字段；会话没有定位点时原样返回 row。
+     */
+    private SessionSummaryEntity backfillEfforts(AppDatabase db, String sessionId, SessionSummaryEntity row) {
+        List<LocationEntity> points = db.locationDao().getPointsAfter(sessionId, 0);
+        if (points.isEmpty()) return row;
+        BestEfforts efforts = new BestEfforts();
+        efforts.reset(sessionId);
+        for (LocationEntity p : points) {
+            efforts.replay(p.cumDistance, p.elapsedMs, p.latitude, p.longitude, p.timestamp);
         }
-
-        // 2. Unregister receivers
-        unregisterTrackingReceivers();
-
-        isTracking = false;
-        Log.i(TAG, "stopTrackingInternal complete — service stopped, receivers unregistered");
+        if (row == null) {
+            row = new SessionSummaryEntity();
+            row.sessionId = sessionId;
+            row.startedAt = points.get(0).timestamp - points.get(0).elapsedMs;
+        }
+        row.updatedAt = System.currentTimeMillis();
+        efforts.fillSummary(row);
+        db.sessionSummaryDao().upsert(row);
+        return row;
     }
 
-    private void registerTrackingReceivers() {
-        unregisterTrackingReceivers();
-        LocalBroadcastManager lbm = LocalBroadcastManager.getInstance(getContext());
+    /** 空间查询单次返回的点数上限（未传 limit 时），避免一次性跨桥传输过大 */
+    private static final int SPATIAL_QUERY_DEFAULT_LIMIT = 10000;
 
-        // Location update receiver
-        trackingLocationReceiver = new BroadcastReceiver() {
-            @Override
-            public void onReceive(Context context, Intent intent) {
-                JSObject result = new JSObject();
-                result.put("lat", intent.getDoubleExtra(LocationForegroundService.EXTRA_LAT, 0));
-                result.put("lng", intent.getDoubleExtra(LocationForegroundService.EXTRA_LNG, 0));
-                result.put("accuracy", intent.getFloatExtra(LocationForegroundService.EXTRA_ACCURACY, 0));
-                result.put("bearing", intent.getFloatExtra(LocationForegroundService.EXTRA_BEARING, 0));
-                result.put("speed", intent.getFloatExtra(LocationForegroundService.EXTRA_SPEED, 0));
-                result.put("timestamp", intent.getLongExtra(LocationForegroundService.EXTRA_TIMESTAMP, 0));
-                result.put("coordSystem", "gcj02");
-                result.put("locationType", intent.getIntExtra(LocationForegroundService.EXTRA_LOCATION_TYPE, 0));
+    /**
+     * 矩形内的历史定位点（跨会话，走 spatialKey 索引）：
+     * { minLat, minLng, maxLat, maxLng, sessionId?, limit? } → { locations, count }，按 sessionId、timestamp 排序。
+     */
+    @PluginMethod()
+    public void queryPointsInBounds(PluginCall call) {
+        Double minLat = call.getDouble("minLat");
+        Double minLng = call.getDouble("minLng");
+        Double maxLat = call.getDouble("maxLat");
+        Double maxLng = call.getDouble("maxLng");
+        if (minLat == null || minLng == null || maxLat == null || maxLng == null
+                || minLat > maxLat || minLng > maxLng) {
+            call.reject("minLat/minLng/maxLat/maxLng are required and must form a non-empty box");
+            return;
+        }
+        String sessionId = call.getString("sessionId");
+        int limit = call.getInt("limit", SPATIAL_QUERY_DEFAULT_LIMIT);
+        if (dbQueryExecutor == null) {
+            call.reject("数据库查询执行器未初始化");
+            return;
+        }
+        dbQueryExecutor.execute(() -> {
+            try {
+                List<LocationEntity> records = AppDatabase.getInstance(getContext()).locationDao()
+                        .getPointsInBounds(minLat, minLng, maxLat, maxLng, sessionId, limit);
+                call.resolve(spatialResult(records));
+            } catch (Exception e) {
+                Log.e(TAG, "queryPointsInBounds 查询失败: " + e.getMessage(), e);
+                call.reject("queryPointsInBounds error: " + e.getMessage());
+            }
+        });
+    }
 
-                // Anti-cheat mock detection
-                result.put("isMock", intent.getBooleanExtra(LocationForegroundService.EXTRA_IS_MOCK, false));
-                result.put("isEmulator", isEmulator());
-                result.put("isDebug", isDebugBuild());
+    /**
+     * 距某点 radius 米以内的历史定位点：{ lat, lng, radius, sessionId?, limit? } → { locations, count }
+     */
+    @PluginMethod()
+    public void queryPointsNearby(PluginCall call) {
+        Double lat = call.getDouble("lat");
+        Double lng = call.getDouble("lng");
+        Double radius = call.getDouble("radius");
+        if (lat == null || lng == null || radius == null || radius <= 0) {
+            call.reject("lat, lng and a positive radius are required");
+            return;
+        }
+        String sessionId = call.getString("sessionId");
+        int limit = call.getInt("limit", SPATIAL_QUERY_DEFAULT_LIMIT);
+        if (dbQueryExecutor == null) {
+            call.reject("数据库查询执行器未初始化");
+            return;
+        }
+        dbQueryExecutor.execute(() -> {
+            try {
+                List<LocationEntity> records = AppDatabase.getInstance(getContext()).locationDao()
+                        .getPointsWithinRadius(lat, lng, radius, sessionId, limit);
+                call.resolve(spatialResult(records));
+            } catch (Exception e) {
+                Log.e(TAG, "queryPointsNearby 查询失败: " + e.getMessage(), e);
+                call.reject("queryPointsNearby error: " + e.getMessage());
+            }
+        });
+    }
 
-                String provider = intent.getStringExtra(LocationForegroundService.EXTRA_PROVIDER);
-                if (provider != null && !provider.isEmpty()) {
-                    result.put("provider", provider);
-                }
-                String address = intent.getStringExtra(LocationForegroundService.EXTRA_ADDRESS);
-                if (address != null && !address.isEmpty()) {
-                    result.put("address", address);
+    /**
+     * 经过矩形的历史跑步：{ minLat, minLng, maxLat, maxLng } →
+     * { sessions: [{ sessionId, pointCount, firstTimestamp, lastTimestamp }] }，最近的在前。
+     */
+    @PluginMethod()
+    public void getSessionsInBounds(PluginCall call) {
+        Double minLat = call.getDouble("minLat");
+        Double minLng = call.getDouble("minLng");
+        Double maxLat = call.getDouble("maxLat");
+        Double maxLng = call.getDouble("maxLng");
+        if (minLat == null || minLng == null || maxLat == null || maxLng == null
+                || minLat > maxLat || minLng > maxLng) {
+            call.reject("minLat/minLng/maxLat/maxLng are required and must form a non-empty box");
+            return;
+        }
+        if (dbQueryExecutor == null) {
+            call.reject("数据库查询执行器未初始化");
+            return;
+        }
+        dbQueryExecutor.execute(() -> {
+            try {
+                List<SessionHit> hits = AppDatabase.getInstance(getContext()).locationDao()
+                        .getSessionsInBounds(minLat, minLng, maxLat, maxLng);
+                JSArray sessions = new JSArray();
+                for (SessionHit hit : hits) {
+                    JSObject obj = new JSObject();
+                    obj.put("sessionId", hit.sessionId);
+                    obj.put("pointCount", hit.pointCount);
+                    obj.put("firstTimestamp", hit.firstTimestamp);
+                    obj.put("lastTimestamp", hit.lastTimestamp);
+                    sessions.put(obj);
                 }
-
-                notifyListeners("locationUpdate", result);
+                JSObject ret = new JSObject();
+                ret.put("sessions", sessions);
+                call.resolve(ret);
+            } catch (Exception e) {
+                Log.e(TAG, "getSessionsInBounds 查询失败: " + e.getMessage(), e);
+                call.reject("getSessionsInBounds error: " + e.getMessage());
             }
-        };
-        lbm.registerReceiver(trackingLocationReceiver,
-                new IntentFilter(LocationForegroundService.ACTION_LOCATION_UPDATE));
+        });
+    }
 
-        trackingErrorReceiver = new BroadcastReceiver() {
+    /**
+     * 个人热力图瓦片：{ zoom, minLat, minLng, maxLat, maxLng } →
+     * { zoom, bins, tiles: [{ x, y, total, max, counts }] }
+     * zoom 夹到 [10, 16]；只返回有访问记录的瓦片。counts 为 base64 打包数组：
+     * bins × bins 个 int32 大端，行优先、第 0 行在北。首次查询某瓦片时从历史轨迹补算，之后增量维护。
+     */
+    @PluginMethod()
+    public void getHeatmapTiles(PluginCall call) {
+        Integer zoom = call.getInt("zoom");
+        Double minLat = call.getDouble("minLat");
+        Double minLng = call.getDouble("minLng");
+        Double maxLat = call.getDouble("maxLat");
+        Double maxLng = call.getDouble("maxLng");
+        if (zoom == null || minLat == null || minLng == null || maxLat == null || maxLng == null
+                || minLat > maxLat || minLng > maxLng) {
+            call.reject("zoom and minLat/minLng/maxLat/maxLng are required and must form a non-empty box");
+            return;
+        }
+        if (dbQueryExecutor == null) {
+            call.reject("数据库查询执行器未初始化");
+            return;
+        }
+        dbQueryExecutor.execute(() -> {
+            try {
+                List<HeatmapStore.Tile> tiles = HeatmapStore.getInstance(getContext())
+                        .query(zoom, minLat, minLng, maxLat, maxLng);
+                java.util.Base64.Encoder encoder = java.util.Base64.getEncoder();
+                JSArray list = new JSArray();
+                for (HeatmapStore.Tile tile : tiles) {
+                    JSObject obj = new JSObject();
+                    obj.put("x", tile.x);
+                    obj.put("y", tile.y);
+                    obj.put("total", tile.total);
+                    obj.put("max", tile.max);
+                    obj.put("counts", encoder.encodeToString(HeatmapStore.encode(tile.counts)));
+                    list.put(obj);
+                }
+                JSObject ret = new JSObject();
+                ret.put("zoom", HeatmapStore.clampZoom(zoom));
+                ret.put("bins", HeatmapStore.BINS);
+                ret.put("tiles", list);
+                call.resolve(ret);
+            } catch (IllegalArgumentException e) {
+                call.reject(e.getMessage());
+            } catch (Exception e) {
+                Log.e(TAG, "getHeatmapTiles 查询失败: " + e.getMessage(), e);
+                call.reject("getHeatmapTiles error: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 视口内的会话轨迹（多分辨率金字塔，按 zoom 取简化层级，只返回与视口相交的部分）：
+     * { sessionId, minLat, minLng, maxLat, maxLng, zoom } →
+     * { data, parts, vertices, totalPoints, levelZoom }
+     * data 为 base64 的 int32 大端 (latE6, lngE6) 顶点对（GCJ-02，1e-6 度）；parts 为各段折线的顶点数，
+     * 视口外的块使轨迹断开成多段。levelZoom 为 -1 表示返回的是原始点。会话无轨迹点时 vertices 为 0。
+     */
+    @PluginMethod()
+    public void getTrackForViewport(PluginCall call) {
+        String sessionId = call.getString("sessionId");
+        Integer zoom = call.getInt("zoom");
+        Double minLat = call.getDouble("minLat");
+        Double minLng = call.getDouble("minLng");
+        Double maxLat = call.getDouble("maxLat");
+        Double maxLng = call.getDouble("maxLng");
+        if (sessionId == null || sessionId.isEmpty()) {
+            call.reject("sessionId 参数不能为空");
+            return;
+        }
+        if (zoom == null || minLat == null || minLng == null || maxLat == null || maxLng == null
+                || minLat > maxLat || minLng > maxLng) {
+            call.reject("zoom and minLat/minLng/maxLat/maxLng are required and must form a non-empty box");
+            return;
+        }
+        if (dbQueryExecutor == null) {
+            call.reject("数据库查询执行器未初始化");
+            return;
+        }
+        dbQueryExecutor.execute(() -> {
+            try {
+                TrackPyramid pyramid = TrackPyramidCache.getInstance(getContext()).get(sessionId);
+                JSObject ret = new JSObject();
+                if (pyramid == null) {
+                    ret.put("data", "");
+                    ret.put("parts", new JSArray());
+                    ret.put("vertices", 0);
+                    ret.put("totalPoints", 0);
+                    ret.put("levelZoom", -1);
+                    call.resolve(ret);
+                    return;
+                }
+                TrackPyramid.Slice slice;
+                int totalPoints;
+                synchronized (pyramid) {
+                    slice = pyramid.query(minLat, minLng, maxLat, maxLng, zoom);
+                    totalPoints = pyramid.getPointCount();
+                }
+                JSArray parts = new JSArray();
+                for (int i = 0; i < slice.partCount; i++) parts.put(slice.partSizes[i]);
+                ret.put("data", java.util.Base64.getEncoder().encodeToString(slice.encode()));
+                ret.put("parts", parts);
+                ret.put("vertices", slice.vertexCount);
+                ret.put("totalPoints", totalPoints);
+                ret.put("levelZoom", slice.levelZoom);
+                call.resolve(ret);
+            } catch (IllegalArgumentException e) {
+                call.reject(e.getMessage());
+            } catch (Exception e) {
+                Log.e(TAG, "getTrackForViewport 查询失败: " + e.getMessage(), e);
+                call.reject("getTrackForViewport error: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 会话轨迹缩略图（原生后台渲染 PNG，磁盘 LRU 缓存）：{ sessionId, width?, height? } →
+     * { url, path, cached, width, height }
+     * url 经 Capacitor 本地服务器映射，可直接作为 img src；width / height 为像素（默认 320 × 200）。
+     */
+    @PluginMethod()
+    public void getTrackThumbnail(PluginCall call) {
+        String sessionId = call.getString("sessionId");
+        if (sessionId == null || sessionId.isEmpty()) {
+            call.reject("sessionId 参数不能为空");
+            return;
+        }
+        int width = call.getInt("width", 320);
+        int height = call.getInt("height", 200);
+        TrackThumbnailRenderer.getInstance(getContext()).render(sessionId, width, height,
+                new TrackThumbnailRenderer.Callback() {
+                    @Override
+                    public void onResult(java.io.File file, boolean cached) {
+                        JSObject ret = new JSObject();
+                        ret.put("url", getBridge().getLocalUrl() + Bridge.CAPACITOR_FILE_START + file.getAbsolutePath());
+                        ret.put("path", file.getAbsolutePath());
+                        ret.put("cached", cached);
+                        ret.put("width", TrackThumbnailRenderer.clampSize(width));
+                        ret.put("height", TrackThumbnailRenderer.clampSize(height));
+                        call.resolve(ret);
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        call.reject(message);
+                    }
+                });
+    }
+
+    /**
+     * 会话轨迹导出为 GPX / TCX 文件（原生 Cursor 流式写入，可选 gzip）：
+     * { sessionId, format: 'gpx' | 'tcx', gzip?, coordSystem?: 'wgs84' | 'gcj02' } →
+     * { path, url, format, gzip, points, bytes }
+     * 默认转换为 WGS-84（GPX / TCX 消费方的坐标系）；长会话导出期间通过 'exportProgress' 事件报告进度。
+     */
+    @PluginMethod()
+    public void exportSession(PluginCall call) {
+        String sessionId = call.getString("sessionId");
+        if (sessionId == null || sessionId.isEmpty()) {
+            call.reject("sessionId 参数不能为空");
+            return;
+        }
+        String format = call.getString("format", TrackExporter.FORMAT_GPX);
+        boolean gzip = call.getBoolean("gzip", false);
+        boolean wgs84 = !"gcj02".equals(call.getString("coordSystem", "wgs84"));
+        TrackExporter.getInstance(getContext()).export(sessionId, format, gzip, wgs84,
+                new TrackExporter.Callback() {
+                    @Override
+                    public void onProgress(int written, int total) {
+                        JSObject data = new JSObject();
+                        data.put("sessionId", sessionId);
+                        data.put("written", written);
+                        data.put("total", total);
+                        notifyListeners("exportProgress", data);
+                    }
+
+                    @Override
+                    public void onResult(TrackExporter.Result result) {
+                        JSObject ret = new JSObject();
+                        ret.put("path", result.file.getAbsolutePath());
+                        ret.put("url", getBridge().getLocalUrl() + Bridge.CAPACITOR_FILE_START + result.file.getAbsolutePath());
+                        ret.put("format", format);
+                        ret.put("gzip", gzip);
+                        ret.put("points", result.points);
+                        ret.put("bytes", result.bytes);
+                        call.resolve(ret);
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        call.reject(message);
+                    }
+                });
+    }
+
+    /**
+     * 会话轨迹编码为紧凑二进制上传格式（TrackCodec v1）：
+     * { sessionId, compression?: 'none' | 'deflate' | 'gzip' } → { data: base64, bytes, points, version }
+     * 默认 gzip；格式说明见 TrackCodec。
+     */
+    @PluginMethod()
+    public void encodeSession(PluginCall call) {
+        String sessionId = call.getString("sessionId");
+        if (sessionId == null || sessionId.isEmpty()) {
+            call.reject("sessionId 参数不能为空");
+            return;
+        }
+        String compressionName = call.getString("compression", "gzip");
+        int compression;
+        switch (compressionName) {
+            case "none": compression = TrackCodec.COMPRESSION_NONE; break;
+            case "deflate": compression = TrackCodec.COMPRESSION_DEFLATE; break;
+            case "gzip": compression = TrackCodec.COMPRESSION_GZIP; break;
+            default:
+                call.reject("compression 只能为 none / deflate / gzip");
+                return;
+        }
+        if (dbQueryExecutor == null) {
+            call.reject("数据库查询执行器未初始化");
+            return;
+        }
+        dbQueryExecutor.execute(() -> {
+            try {
+                List<LocationEntity> points = AppDatabase.getInstance(getContext())
+                        .locationDao().getPointsAfter(sessionId, 0);
+                byte[] encoded = TrackCodec.encode(sessionId, points, compression);
+                JSObject ret = new JSObject();
+                ret.put("data", java.util.Base64.getEncoder().encodeToString(encoded));
+                ret.put("bytes", encoded.length);
+                ret.put("points", points.size());
+                ret.put("version", TrackCodec.VERSION);
+                call.resolve(ret);
+            } catch (Exception e) {
+                Log.e(TAG, "encodeSession 查询失败: " + e.getMessage(), e);
+                call.reject("encodeSession error: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 原生轨迹上传（TrackSyncWorker）配置：{ endpoint?, authToken?, requiresCharging?, unmeteredOnly? }
+     * endpoint 为空时关闭并取消已排队的任务；配置变更后立即按新约束重新排队。
+     */
+    @PluginMethod()
+    public void configureTrackSync(PluginCall call) {
+        String endpoint = call.getString("endpoint");
+        if (endpoint != null && !endpoint.isEmpty()) {
+            try {
+                new java.net.URL(endpoint);
+            } catch (java.net.MalformedURLException e) {
+                call.reject("endpoint 不是合法的 URL: " + endpoint);
+                return;
+            }
+        }
+        getContext().getSharedPreferences(TrackSyncWorker.PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putString(TrackSyncWorker.KEY_ENDPOINT, endpoint)
+                .putString(TrackSyncWorker.KEY_AUTH_TOKEN, call.getString("authToken"))
+                .putBoolean(TrackSyncWorker.KEY_REQUIRES_CHARGING, call.getBoolean("requiresCharging", false))
+                .putBoolean(TrackSyncWorker.KEY_UNMETERED_ONLY, call.getBoolean("unmeteredOnly", false))
+                .commit();
+        TrackSyncWorker.reschedule(getContext());
+        JSObject ret = new JSObject();
+        ret.put("enabled", TrackSyncWorker.isConfigured(getContext()));
+        call.resolve(ret);
+    }
+
+    /**
+     * 原生轨迹上传状态与累计指标：{ enabled, pendingPoints, totalPoints, totalBytes, totalChunks,
+     * lastRunAt, lastOutcome, lastError, lastPointsPerSec, lastBytesPerSec }；pendingPoints 为跑步会话中 isUploaded = 0 的点数
+     */
+    @PluginMethod()
+    public void getTrackSyncStatus(PluginCall call) {
+        if (dbQueryExecutor == null) {
+            call.reject("数据库查询执行器未初始化");
+            return;
+        }
+        dbQueryExecutor.execute(() -> {
+            try {
+                int pending = AppDatabase.getInstance(getContext()).locationDao().getUnuploadedRunPointCount();
+                android.content.SharedPreferences sp = getContext()
+                        .getSharedPreferences(TrackSyncWorker.PREFS_NAME, Context.MODE_PRIVATE);
+                JSObject ret = new JSObject();
+                ret.put("enabled", TrackSyncWorker.isConfigured(getContext()));
+                ret.put("pendingPoints", pending);
+                ret.put("totalPoints", sp.getLong(TrackSyncWorker.KEY_TOTAL_POINTS, 0));
+                ret.put("totalBytes", sp.getLong(TrackSyncWorker.KEY_TOTAL_BYTES, 0));
+                ret.put("totalChunks", sp.getLong(TrackSyncWorker.KEY_TOTAL_CHUNKS, 0));
+                long lastRunAt = sp.getLong(TrackSyncWorker.KEY_LAST_RUN_AT, 0);
+                if (lastRunAt > 0) {
+                    ret.put("lastRunAt", lastRunAt);
+                    ret.put("lastOutcome", sp.getString(TrackSyncWorker.KEY_LAST_OUTCOME, null));
+                    String lastError = sp.getString(TrackSyncWorker.KEY_LAST_ERROR, null);
+                    if (lastError != null) ret.put("lastError", lastError);
+                    ret.put("lastPointsPerSec", sp.getFloat(TrackSyncWorker.KEY_LAST_POINTS_PER_SEC, 0f));
+                    ret.put("lastBytesPerSec", sp.getFloat(TrackSyncWorker.KEY_LAST_BYTES_PER_SEC, 0f));
+                }
+                call.resolve(ret);
+            } catch (Exception e) {
+                Log.e(TAG, "getTrackSyncStatus 查询失败: " + e.getMessage(), e);
+                call.reject("getTrackSyncStatus error: " + e.getMessage());
+            }
+        });
+    }
+
+    private static JSObject spatialResult(List<LocationEntity> records) {
+        JSArray list = new JSArray();
+        for (LocationEntity record : records) {
+            JSObject obj = new JSObject();
+            obj.put("id", record.id);
+            obj.put("sessionId", record.sessionId);
+            obj.put("lat", record.latitude);
+            obj.put("lng", record.longitude);
+            obj.put("accuracy", record.accuracy);
+            obj.put("speed", record.speed);
+            obj.put("timestamp", record.timestamp);
+            obj.put("interpolated", record.isInterpolated);
+            obj.put("coordSystem", "gcj02");
+            list.put(obj);
+        }
+        JSObject ret = new JSObject();
+        ret.put("locations", list);
+        ret.put("count", records.size());
+        return ret;
+    }
+
+    /**
+     * 本次跑步经过的领地格：{ sessionId, count, cells: string[] }
+     * cells 为 16 进制 cell ID（与 cellEntered 事件的 cellId 相同），无序。
+     */
+    @PluginMethod()
+    public void getRunCells(PluginCall call) {
+        RunCellTracker tracker = RunCellTracker.getInstance();
+        long[] cells;
+        String sessionId;
+        synchronized (tracker) {
+            sessionId = tracker.getSessionId();
+            cells = tracker.getCells();
+        }
+        JSArray list = new JSArray();
+        for (long cell : cells) {
+            list.put(HexGrid.toString(cell));
+        }
+        JSObject ret = new JSObject();
+        ret.put("sessionId", sessionId);
+        ret.put("count", cells.length);
+        ret.put("cells", list);
+        call.resolve(ret);
+    }
+
+    /**
+     * 任意闭合环覆盖的领地格（格子中心在环内即计入，与 cellEntered / loopClosed 同一格网）：
+     * points: [{ lat, lng }] → { cells: string[] }，按行排列、无重复。
+     * 大环按行切条带在多核上并行计算。
+     */
+    @PluginMethod()
+    public void polyfillLoop(PluginCall call) {
+        double[][] ring = readLoopPoints(call);
+        if (ring == null) return;
+        long[] cells = HexPolyfill.polyfill(HexGrid.getDefault(), ring[0], ring[1]);
+        JSArray list = new JSArray();
+        for (long cell : cells) {
+            list.put(HexGrid.toString(cell));
+        }
+        JSObject ret = new JSObject();
+        ret.put("cells", list);
+        call.resolve(ret);
+    }
+
+    /**
+     * 闭合环上传前的本地拓扑预检与最小修复（去重复点 / 尖刺，自交处拆成多个简单环）：
+     * points: [{ lat, lng }] →
+     * { status: 'valid' | 'repaired' | 'invalid', kinkCount, rawArea, finalArea,
+     *   rings: [[{ lat, lng }]], issues: [{ code, index, lat, lng, value }] }
+     * rings 为逆时针、首尾不重复；index 为输入顶点下标（交点为 -1）。
+     */
+    @PluginMethod()
+    public void validateLoop(PluginCall call) {
+        double[][] ring = readLoopPoints(call);
+        if (ring == null) return;
+        PolygonValidator.Result result = PolygonValidator.validate(ring[0], ring[1]);
+
+        JSArray rings = new JSArray();
+        for (PolygonValidator.Ring r : result.rings) {
+            JSArray pts = new JSArray();
+            for (int i = 0; i < r.lats.length; i++) {
+                JSObject p = new JSObject();
+                p.put("lat", r.lats[i]);
+                p.put("lng", r.lngs[i]);
+                pts.put(p);
+            }
+            rings.put(pts);
+        }
+        JSArray issues = new JSArray();
+        for (PolygonValidator.Issue issue : result.issues) {
+            JSObject o = new JSObject();
+            o.put("code", issue.code);
+            o.put("index", issue.index);
+            o.put("lat", issue.lat);
+            o.put("lng", issue.lng);
+            o.put("value", issue.value);
+            issues.put(o);
+        }
+        JSObject ret = new JSObject();
+        ret.put("status", result.status);
+        ret.put("kinkCount", result.kinkCount);
+        ret.put("rawArea", result.rawArea);
+        ret.put("finalArea", result.finalArea);
+        ret.put("rings", rings);
+        ret.put("issues", issues);
+        call.resolve(ret);
+    }
+
+    /** 解析 points: [{ lat, lng }]，失败时已 reject 并返回 null */
+    private double[][] readLoopPoints(PluginCall call) {
+        JSArray points = call.getArray("points");
+        if (points == null || points.length() < 3) {
+            call.reject("points 至少需要 3 个顶点");
+            return null;
+        }
+        double[] lats = new double[points.length()];
+        double[] lngs = new double[points.length()];
+        try {
+            for (int i = 0; i < points.length(); i++) {
+                lats[i] = points.getJSONObject(i).getDouble("lat");
+                lngs[i] = points.getJSONObject(i).getDouble("lng");
+            }
+        } catch (JSONException e) {
+            call.reject("points 参数解析失败 (JSONException): " + e.getMessage());
+            return null;
+        }
+        return new double[][]{lats, lngs};
+    }
+
+    /**
+     * 设置规划路线（原生逐点匹配，息屏时照常播报偏航）：
+     * { routeId?, points: [{ lat, lng }] } → { points, length }
+     * 路线落盘，服务被杀恢复后自动重新加载；跑步中每个定位点的进度随 locationUpdate 返回。
+     */
+    @PluginMethod()
+    public void setPlannedRoute(PluginCall call) {
+        JSArray points = call.getArray("points");
+        if (points == null || points.length() < 2) {
+            call.reject("points 至少需要 2 个点");
+            return;
+        }
+        double[] lats = new double[points.length()];
+        double[] lngs = new double[points.length()];
+        try {
+            for (int i = 0; i < points.length(); i++) {
+                lats[i] = points.getJSONObject(i).getDouble("lat");
+                lngs[i] = points.getJSONObject(i).getDouble("lng");
+            }
+        } catch (JSONException e) {
+            call.reject("points 参数解析失败 (JSONException): " + e.getMessage());
+            return;
+        }
+        RouteFollower follower = RouteFollower.getInstance();
+        try {
+            follower.setRoute(call.getString("routeId"), lats, lngs);
+        } catch (IllegalArgumentException e) {
+            call.reject(e.getMessage());
+            return;
+        }
+        savePlannedRoute(follower);
+        JSObject ret = new JSObject();
+        ret.put("points", follower.getPointCount());
+        ret.put("length", follower.getTotalLength());
+        call.resolve(ret);
+    }
+
+    /** 清除规划路线（同时删除落盘文件） */
+    @PluginMethod()
+    public void clearPlannedRoute(PluginCall call) {
+        RouteFollower follower = RouteFollower.getInstance();
+        follower.clear();
+        savePlannedRoute(follower);
+        call.resolve();
+    }
+
+    /**
+     * 当前路线跟随状态：{ active, routeId?, length, matched, segmentIndex?, crossTrack?, progress, remaining, offCourse }
+     */
+    @PluginMethod()
+    public void getRouteProgress(PluginCall call) {
+        RouteFollower follower = RouteFollower.getInstance();
+        RouteFollower.Progress progress;
+        JSObject ret = new JSObject();
+        synchronized (follower) {
+            ret.put("active", follower.hasRoute());
+            ret.put("routeId", follower.getRouteId());
+            ret.put("length", follower.getTotalLength());
+            progress = follower.getProgress();
+        }
+        ret.put("matched", progress.matched);
+        if (progress.matched) {
+            ret.put("segmentIndex", progress.segmentIndex);
+            ret.put("crossTrack", progress.crossTrack);
+        }
+        ret.put("progress", progress.progress);
+        ret.put("remaining", progress.remaining);
+        ret.put("offCourse", progress.offCourse);
+        call.resolve(ret);
+    }
+
+    /**
+     * 启动幽灵跑者：把历史会话的轨迹一次性载入原生内存，跑步中每个定位点的领先 / 落后随 locationUpdate 返回，
+     * 并定期语音播报。{ sessionId } → { sessionId, points, distance, duration }
+     * 会话 ID 写入 citylord_service_config，服务被杀恢复后自动重新载入。
+     */
+    @PluginMethod()
+    public void startGhost(PluginCall call) {
+        String sessionId = call.getString("sessionId");
+        if (sessionId == null || sessionId.isEmpty()) {
+            call.reject("sessionId 参数不能为空");
+            return;
+        }
+        if (dbQueryExecutor == null) {
+            call.reject("数据库查询执行器未初始化");
+            return;
+        }
+        dbQueryExecutor.execute(() -> {
+            try {
+                AppDatabase db = AppDatabase.getInstance(getContext());
+                List<LocationEntity> points = db.locationDao().getPointsAfter(sessionId, 0);
+                if (points.isEmpty()) {
+                    call.reject("会话 " + sessionId + " 在本机没有轨迹点（已同步的轨迹只保留最近 3 天，更早的跑步无法作为幽灵）");
+                    return;
+                }
+                SessionSummaryEntity summary = db.sessionSummaryDao().get(sessionId);
+                GhostRunner ghost = GhostRunner.getInstance();
+                ghost.loadSession(sessionId, summary != null ? summary.startedAt : 0, points);
+                getContext().getSharedPreferences("citylord_service_config", Context.MODE_PRIVATE).edit()
+                        .putString(LocationForegroundService.PREF_GHOST_SESSION_ID, sessionId)
+                        .apply();
+                JSObject ret = new JSObject();
+                synchronized (ghost) {
+                    ret.put("sessionId", sessionId);
+                    ret.put("points", ghost.getPointCount());
+                    ret.put("distance", ghost.getTotalDistance());
+                    ret.put("duration", ghost.getDuration());
+                }
+                call.resolve(ret);
+            } catch (IllegalArgumentException e) {
+                call.reject(e.getMessage());
+            } catch (Exception e) {
+                Log.e(TAG, "startGhost 失败: " + e.getMessage(), e);
+                call.reject("startGhost error: " + e.getMessage());
+            }
+        });
+    }
+
+    /** 停止幽灵跑者（同时清除保存的会话 ID） */
+    @PluginMethod()
+    public void stopGhost(PluginCall call) {
+        GhostRunner.getInstance().clear();
+        getContext().getSharedPreferences("citylord_service_config", Context.MODE_PRIVATE).edit()
+                .remove(LocationForegroundService.PREF_GHOST_SESSION_ID)
+                .apply();
+        call.resolve();
+    }
+
+    /**
+     * 当前幽灵对比状态：{ active, sessionId?, distance, duration, valid,
+     * ghostLat?, ghostLng?, ghostDistance?, leadMeters?, leadSeconds?, ghostFinished? }
+     */
+    @PluginMethod()
+    public void getGhostStatus(PluginCall call) {
+        GhostRunner ghost = GhostRunner.getInstance();
+        GhostRunner.State state;
+        JSObject ret = new JSObject();
+        synchronized (ghost) {
+            ret.put("active", ghost.isActive());
+            ret.put("sessionId", ghost.getSessionId());
+            ret.put("distance", ghost.getTotalDistance());
+            ret.put("duration", ghost.getDuration());
+            state = ghost.getState();
+        }
+        ret.put("valid", state.valid);
+        if (state.valid) {
+            ret.put("ghostLat", state.ghostLat);
+            ret.put("ghostLng", state.ghostLng);
+            ret.put("ghostDistance", state.ghostDistance);
+            ret.put("leadMeters", state.leadMeters);
+            if (!Double.isNaN(state.leadSeconds)) ret.put("leadSeconds", state.leadSeconds);
+            ret.put("ghostFinished", state.ghostFinished);
+        }
+        call.resolve(ret);
+    }
+
+    private void savePlannedRoute(RouteFollower follower) {
+        if (dbQueryExecutor == null) return;
+        final java.io.File file = new java.io.File(getContext().getFilesDir(), RouteFollower.ROUTE_FILE);
+        dbQueryExecutor.execute(() -> {
+            try {
+                follower.save(file);
+            } catch (Exception e) {
+                Log.w(TAG, "规划路线保存失败: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 整体下发领地归属快照（替换原有缓存并落盘，进程重启后自动恢复）：
+     * - owners: [{ ownerId, faction? }]，下标 i 对应领主序号 i + 1
+     * - data: base64 紧凑记录，每条 12 字节：cell ID（int64 大端）+ 领主序号（int32 大端）
+     * - selfOwnerId / selfFaction: 用于计算 relation（self / ally / enemy）
+     * 返回 { cells, memoryBytes }
+     */
+    @PluginMethod()
+    public void loadTerritorySnapshot(PluginCall call) {
+        final TerritoryCache.Owner[] owners;
+        final byte[] records;
+        try {
+            owners = readTerritoryOwners(call.getArray("owners"), null);
+            records = java.util.Base64.getDecoder().decode(call.getString("data", ""));
+        } catch (Exception e) {
+            call.reject("loadTerritorySnapshot 参数解析失败: " + e.getMessage());
+            return;
+        }
+        final String selfOwnerId = call.getString("selfOwnerId");
+        final String selfFaction = call.getString("selfFaction");
+        if (dbQueryExecutor == null) {
+            call.reject("数据库查询执行器未初始化");
+            return;
+        }
+        dbQueryExecutor.execute(() -> {
+            try {
+                TerritoryCache cache = TerritoryCache.getInstance(getContext());
+                cache.loadSnapshot(owners, records, selfOwnerId, selfFaction);
+                JSObject ret = new JSObject();
+                ret.put("cells", cache.size());
+                ret.put("memoryBytes", cache.memoryBytes());
+                call.resolve(ret);
+            } catch (Exception e) {
+                Log.e(TAG, "loadTerritorySnapshot 失败: " + e.getMessage(), e);
+                call.reject("loadTerritorySnapshot error: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 增量更新领地归属：
+     * - owners?: [{ index, ownerId, faction? }] 新增 / 更新领主（index 从 1 开始）
+     * - data: base64 紧凑记录（格式同快照），领主序号 0 表示该格变为无主
+     * 返回 { applied, cells }
+     */
+    @PluginMethod()
+    public void applyTerritoryDelta(PluginCall call) {
+        final TerritoryCache.Owner[] owners;
+        final int[] indexes;
+        final byte[] records;
+        try {
+            JSArray ownerArray = call.getArray("owners");
+            indexes = new int[ownerArray != null ? ownerArray.length() : 0];
+            owners = readTerritoryOwners(ownerArray, indexes);
+            records = java.util.Base64.getDecoder().decode(call.getString("data", ""));
+        } catch (Exception e) {
+            call.reject("applyTerritoryDelta 参数解析失败: " + e.getMessage());
+            return;
+        }
+        if (dbQueryExecutor == null) {
+            call.reject("数据库查询执行器未初始化");
+            return;
+        }
+        dbQueryExecutor.execute(() -> {
+            try {
+                TerritoryCache cache = TerritoryCache.getInstance(getContext());
+                int applied = cache.applyDelta(indexes, owners, records);
+                JSObject ret = new JSObject();
+                ret.put("applied", applied);
+                ret.put("cells", cache.size());
+                call.resolve(ret);
+            } catch (Exception e) {
+                Log.e(TAG, "applyTerritoryDelta 失败: " + e.getMessage(), e);
+                call.reject("applyTerritoryDelta error: " + e.getMessage());
+            }
+        });
+    }
+
+    /** 领地缓存状态：{ loaded, cells, owners, memoryBytes } */
+    @PluginMethod()
+    public void getTerritoryCacheStats(PluginCall call) {
+        TerritoryCache cache = TerritoryCache.getInstance(getContext());
+        JSObject ret = new JSObject();
+        ret.put("loaded", cache.isLoaded());
+        ret.put("cells", cache.size());
+        ret.put("owners", cache.ownerCount());
+        ret.put("memoryBytes", cache.memoryBytes());
+        call.resolve(ret);
+    }
+
+    /** indexes 非 null 时读取每项的 index 字段（增量），否则按数组下标 + 1 编号（快照） */
+    private static TerritoryCache.Owner[] readTerritoryOwners(JSArray array, int[] indexes) throws JSONException {
+        int n = array != null ? array.length() : 0;
+        TerritoryCache.Owner[] owners = new TerritoryCache.Owner[n];
+        for (int i = 0; i < n; i++) {
+            org.json.JSONObject o = array.getJSONObject(i);
+            String faction = o.isNull("faction") ? null : o.optString("faction", null);
+            owners[i] = new TerritoryCache.Owner(o.getString("ownerId"), faction);
+            if (indexes != null) indexes[i] = o.getInt("index");
+        }
+        return owners;
+    }
+
+    /**
+     * 最近 20 次服务恢复记录：{ history: [{ runId, source, gapMs, recoveredAt }] }
+     * gapMs 为死亡前最后一个定位点到恢复后首个定位点的间隔。
+     */
+    @PluginMethod()
+    public void getRecoveryHistory(PluginCall call) {
+        try {
+            JSObject result = new JSObject();
+            result.put("history", new JSArray(RestartCoordinator.getRecoveryHistory(getContext())));
+            call.resolve(result);
+        } catch (JSONException e) {
+            call.reject("getRecoveryHistory failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 分钟级步数历史（step_buckets）：{ startMinute, counts: number[], total }
+     * counts[i] 为 startMinute + i 分钟内的步数，无记录的分钟为 0。
+     *
+     * Options:
+     * - from / to: 时间范围（ms since epoch），最长 7 天
+     */
+    @PluginMethod()
+    public void getStepBuckets(PluginCall call) {
+        long to = call.getLong("to", System.currentTimeMillis());
+        long from = call.getLong("from", to - 24 * StepBuckets.HOUR_MS);
+        if (to < from || to - from > 7 * 24 * StepBuckets.HOUR_MS) {
+            call.reject("invalid range (max 7 days)");
+            return;
+        }
+        if (dbQueryExecutor == null) {
+            call.reject("数据库查询执行器未初始化");
+            return;
+        }
+        dbQueryExecutor.execute(() -> {
+            try {
+                StepBucketDao dao = AppDatabase.getInstance(getContext()).stepBucketDao();
+                long startMinute = from - Math.floorMod(from, StepBuckets.MINUTE_MS);
+                int minutes = (int) ((to - startMinute) / StepBuckets.MINUTE_MS) + 1;
+                int[] counts = new int[minutes];
+                int total = 0;
+                for (StepBucketEntity row : dao.getRange(StepBuckets.hourStart(from), StepBuckets.hourStart(to))) {
+                    int[] hour = StepBuckets.decode(row.counts);
+                    for (int m = 0; m < hour.length; m++) {
+                        long minuteTs = row.hourStart + m * StepBuckets.MINUTE_MS;
+                        if (minuteTs < startMinute) continue;
+                        int idx = (int) ((minuteTs - startMinute) / StepBuckets.MINUTE_MS);
+                        if (idx >= minutes) break;
+                        counts[idx] = hour[m];
+                        total += hour[m];
+                    }
+                }
+                JSArray arr = new JSArray();
+                for (int c : counts) arr.put(c);
+                JSObject ret = new JSObject();
+                ret.put("startMinute", startMinute);
+                ret.put("counts", arr);
+                ret.put("total", total);
+                call.resolve(ret);
+            } catch (Exception e) {
+                Log.e(TAG, "getStepBuckets 查询失败: " + e.getMessage(), e);
+                call.reject("getStepBuckets error: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 计步传感器每小时唤醒统计：{ hours: [{ hourStart, events, wakeups, batched }],
+     * batchedAvgWakeupsPerHour, unbatchedAvgWakeupsPerHour, currentHour, batching }
+     */
+    @PluginMethod()
+    public void getStepSensorStats(PluginCall call) {
+        try {
+            call.resolve(new JSObject(SensorWakeupStats.getInstance(getContext()).getReport()));
+        } catch (JSONException e) {
+            call.reject("getStepSensorStats failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 步频管线每小时 CPU 统计：{ budgetMsPerHour, hours: [{ hourStart, cpuMs, analyses, mode }] }
+     */
+    @PluginMethod()
+    public void getCadenceStats(PluginCall call) {
+        try {
+            call.resolve(new JSObject(CadenceSensorPipeline.getStatsReport(getContext())));
+        } catch (JSONException e) {
+            call.reject("getCadenceStats failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 开关计步硬件批量上报（默认开启）。关闭后回退为逐事件上报，用于对比每小时唤醒次数。
+     */
+    @PluginMethod()
+    public void setStepBatching(PluginCall call) {
+        boolean enabled = call.getBoolean("enabled", true);
+        getContext().getSharedPreferences("citylord_service_config", Context.MODE_PRIVATE).edit()
+                .putBoolean("step_batching", enabled)
+                .apply();
+        Intent intent = new Intent(LocationForegroundService.ACTION_PREWARM_CONTROL);
+        intent.putExtra("command", "refresh_step_batching");
+        LocalBroadcastManager.getInstance(getContext()).sendBroadcast(intent);
+        call.resolve();
+    }
+
+    /**
+     * 更新前台通知的步数显示。
+     * 通知格式："今日 X 步 · 每日跑步语录"
+     */
+    @PluginMethod()
+    public void updateNotificationSteps(PluginCall call) {
+        int steps = call.getInt("steps", 0);
+        Log.d(TAG, "updateNotificationSteps: " + steps);
+
+        if (!isTracking) {
+            Log.w(TAG, "updateNotificationSteps: not tracking, ignoring");
+            call.resolve();
+            return;
+        }
+
+        // Cannot directly access the service instance here, so we send a broadcast
+        Intent intent = new Intent("com.xiangfei.citylord.UPDATE_STEPS");
+        intent.putExtra("steps", steps);
+        androidx.localbroadcastmanager.content.LocalBroadcastManager.getInstance(getContext()).sendBroadcast(intent);
+        call.resolve();
+    }
+
+    /**
+     * 全生命周期预热控制：通知 LocationForegroundService 切换预热模式。
+     * @param command "start_prewarm" | "resume_high_freq"
+     */
+    @PluginMethod()
+    public void sendPrewarmCommand(PluginCall call) {
+        String command = call.getString("command", "");
+        Log.i(TAG, "[SmartPrewarm] sendPrewarmCommand: " + command);
+
+        Intent intent = new Intent(LocationForegroundService.ACTION_PREWARM_CONTROL);
+        intent.putExtra("command", command);
+        androidx.localbroadcastmanager.content.LocalBroadcastManager.getInstance(getContext()).sendBroadcast(intent);
+        call.resolve();
+    }
+
+    private void stopTrackingInternal() {
+        if (!isTracking) {
+            Log.d(TAG, "stopTrackingInternal: not tracking, skipping");
+            return;
+        }
+
+        // 1. Stop foreground service
+        try {
+            Intent serviceIntent = new Intent(getContext(), LocationForegroundService.class);
+            getContext().stopService(serviceIntent);
+            Log.i(TAG, "Foreground service stopped");
+        } catch (Exception e) {
+            Log.e(TAG, "Error stopping foreground service: " + e.getMessage(), e);
+        }
+
+        // 2. Unregister receivers
+        unregisterTrackingReceivers();
+
+        isTracking = false;
+        Log.i(TAG, "stopTrackingInternal complete — service stopped, receivers unregistered");
+    }
+
+    private void registerTrackingReceivers() {
+        unregisterTrackingReceivers();
+        LocalBroadcastManager lbm = LocalBroadcastManager.getInstance(getContext());
+
+        // Location update receiver
+        trackingLocationReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                JSObject result = new JSObject();
+                result.put("lat", intent.getDoubleExtra(LocationForegroundService.EXTRA_LAT, 0));
+                result.put("lng", intent.getDoubleExtra(LocationForegroundService.EXTRA_LNG, 0));
+                result.put("accuracy", intent.getFloatExtra(LocationForegroundService.EXTRA_ACCURACY, 0));
+                result.put("bearing", intent.getFloatExtra(LocationForegroundService.EXTRA_BEARING, 0));
+                result.put("speed", intent.getFloatExtra(LocationForegroundService.EXTRA_SPEED, 0));
+                result.put("timestamp", intent.getLongExtra(LocationForegroundService.EXTRA_TIMESTAMP, 0));
+                result.put("coordSystem", "gcj02");
+                result.put("locationType", intent.getIntExtra(LocationForegroundService.EXTRA_LOCATION_TYPE, 0));
+
+                // Anti-cheat mock detection
+                result.put("isMock", intent.getBooleanExtra(LocationForegroundService.EXTRA_IS_MOCK, false));
+                if (intent.getBooleanExtra(LocationForegroundService.EXTRA_INTERPOLATED, false)) {
+                    result.put("interpolated", true);
+                }
+                float cadence = intent.getFloatExtra(LocationForegroundService.EXTRA_CADENCE, 0f);
+                if (cadence > 0f) {
+                    result.put("cadence", cadence);
+                    result.put("strideLength", intent.getFloatExtra(LocationForegroundService.EXTRA_STRIDE_LENGTH, 0f));
+                    result.put("groundContactMs", intent.getFloatExtra(LocationForegroundService.EXTRA_GROUND_CONTACT_MS, 0f));
+                }
+                if (intent.hasExtra(LocationForegroundService.EXTRA_PROSPECTIVE_AREA)) {
+                    result.put("prospectiveArea", intent.getDoubleExtra(LocationForegroundService.EXTRA_PROSPECTIVE_AREA, 0));
+                    result.put("distanceToLoopStart", intent.getDoubleExtra(LocationForegroundService.EXTRA_LOOP_START_DISTANCE, 0));
+                }
+                if (intent.hasExtra(LocationForegroundService.EXTRA_ROUTE_PROGRESS)) {
+                    result.put("routeCrossTrack", intent.getDoubleExtra(LocationForegroundService.EXTRA_ROUTE_CROSS_TRACK, 0));
+                    result.put("routeProgress", intent.getDoubleExtra(LocationForegroundService.EXTRA_ROUTE_PROGRESS, 0));
+                    result.put("routeRemaining", intent.getDoubleExtra(LocationForegroundService.EXTRA_ROUTE_REMAINING, 0));
+                    result.put("routeOffCourse", intent.getBooleanExtra(LocationForegroundService.EXTRA_ROUTE_OFF_COURSE, false));
+                }
+                if (intent.hasExtra(LocationForegroundService.EXTRA_GHOST_LEAD_METERS)) {
+                    result.put("ghostLat", intent.getDoubleExtra(LocationForegroundService.EXTRA_GHOST_LAT, 0));
+                    result.put("ghostLng", intent.getDoubleExtra(LocationForegroundService.EXTRA_GHOST_LNG, 0));
+                    result.put("ghostDistance", intent.getDoubleExtra(LocationForegroundService.EXTRA_GHOST_DISTANCE, 0));
+                    result.put("ghostLeadMeters", intent.getDoubleExtra(LocationForegroundService.EXTRA_GHOST_LEAD_METERS, 0));
+                    if (intent.hasExtra(LocationForegroundService.EXTRA_GHOST_LEAD_SECONDS)) {
+                        result.put("ghostLeadSeconds", intent.getDoubleExtra(LocationForegroundService.EXTRA_GHOST_LEAD_SECONDS, 0));
+                    }
+                    result.put("ghostFinished", intent.getBooleanExtra(LocationForegroundService.EXTRA_GHOST_FINISHED, false));
+                }
+                result.put("isEmulator", isEmulator());
+                result.put("isDebug", isDebugBuild());
+
+                String provider = intent.getStringExtra(LocationForegroundService.EXTRA_PROVIDER);
+                if (provider != null && !provider.isEmpty()) {
+                    result.put("provider", provider);
+                }
+                String address = intent.getStringExtra(LocationForegroundService.EXTRA_ADDRESS);
+                if (address != null && !address.isEmpty()) {
+                    result.put("address", address);
+                }
+
+                notifyListeners("locationUpdate", result);
+            }
+        };
+        lbm.registerReceiver(trackingLocationReceiver,
+                new IntentFilter(LocationForegroundService.ACTION_LOCATION_UPDATE));
+
+        trackingErrorReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
                 JSObject error = new JSObject();
@@ -799,7 +1948,144 @@ public class AMapLocationPlugin extends Plugin {
         lbm.registerReceiver(batteryOptReceiver,
                 new IntentFilter(LocationForegroundService.ACTION_BATTERY_OPT_NEEDED));
 
-        Log.i(TAG, "Tracking BroadcastReceivers registered (Location, Error, Log, BatteryOpt)");
+        // GNSS 断档结束：航位推算插值点的坐标修正
+        trackReconciledReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                long[] timestamps = intent.getLongArrayExtra(LocationForegroundService.EXTRA_RECONCILED_TIMESTAMPS);
+                double[] lats = intent.getDoubleArrayExtra(LocationForegroundService.EXTRA_RECONCILED_LATS);
+                double[] lngs = intent.getDoubleArrayExtra(LocationForegroundService.EXTRA_RECONCILED_LNGS);
+                if (timestamps == null || lats == null || lngs == null) return;
+
+                JSArray points = new JSArray();
+                for (int i = 0; i < timestamps.length; i++) {
+                    JSObject p = new JSObject();
+                    p.put("timestamp", timestamps[i]);
+                    p.put("lat", lats[i]);
+                    p.put("lng", lngs[i]);
+                    points.put(p);
+                }
+                JSObject data = new JSObject();
+                data.put("points", points);
+                data.put("errorMeters", intent.getDoubleExtra(LocationForegroundService.EXTRA_RECONCILED_ERROR, 0));
+                notifyListeners("trackReconciled", data);
+            }
+        };
+        lbm.registerReceiver(trackReconciledReceiver,
+                new IntentFilter(LocationForegroundService.ACTION_TRACK_RECONCILED));
+
+        // 跑步进入新的领地格
+        cellEnteredReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                JSObject data = new JSObject();
+                data.put("cellId", intent.getStringExtra(LocationForegroundService.EXTRA_CELL_ID));
+                data.put("cellCount", intent.getIntExtra(LocationForegroundService.EXTRA_CELL_COUNT, 0));
+                data.put("lat", intent.getDoubleExtra(LocationForegroundService.EXTRA_CELL_LAT, 0));
+                data.put("lng", intent.getDoubleExtra(LocationForegroundService.EXTRA_CELL_LNG, 0));
+                data.put("timestamp", intent.getLongExtra(LocationForegroundService.EXTRA_TIMESTAMP, 0));
+                notifyListeners("cellEntered", data);
+            }
+        };
+        lbm.registerReceiver(cellEnteredReceiver,
+                new IntentFilter(LocationForegroundService.ACTION_CELL_ENTERED));
+
+        // 跑步轨迹闭环
+        loopClosedReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                JSObject data = new JSObject();
+                data.put("startIndex", intent.getIntExtra(LocationForegroundService.EXTRA_LOOP_START_INDEX, 0));
+                data.put("endIndex", intent.getIntExtra(LocationForegroundService.EXTRA_LOOP_END_INDEX, 0));
+                data.put("startTimestamp", intent.getLongExtra(LocationForegroundService.EXTRA_LOOP_START_TIMESTAMP, 0));
+                data.put("endTimestamp", intent.getLongExtra(LocationForegroundService.EXTRA_LOOP_END_TIMESTAMP, 0));
+                data.put("area", intent.getDoubleExtra(LocationForegroundService.EXTRA_LOOP_AREA, 0));
+                data.put("perimeter", intent.getDoubleExtra(LocationForegroundService.EXTRA_LOOP_PERIMETER, 0));
+                String validation = intent.getStringExtra(LocationForegroundService.EXTRA_LOOP_VALIDATION);
+                if (validation != null) {
+                    data.put("validation", validation);
+                    data.put("kinkCount", intent.getIntExtra(LocationForegroundService.EXTRA_LOOP_KINKS, 0));
+                }
+                String[] cells = intent.getStringArrayExtra(LocationForegroundService.EXTRA_LOOP_CELLS);
+                if (cells != null) {
+                    JSArray list = new JSArray();
+                    for (String cell : cells) {
+                        list.put(cell);
+                    }
+                    data.put("cells", list);
+                }
+                notifyListeners("loopClosed", data);
+            }
+        };
+        lbm.registerReceiver(loopClosedReceiver,
+                new IntentFilter(LocationForegroundService.ACTION_LOOP_CLOSED));
+
+        // 进入 / 离开领地（原生缓存查询）
+        territoryReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                JSObject data = new JSObject();
+                data.put("cellId", intent.getStringExtra(LocationForegroundService.EXTRA_CELL_ID));
+                data.put("ownerIndex", intent.getIntExtra(LocationForegroundService.EXTRA_TERRITORY_OWNER_INDEX, 0));
+                data.put("ownerId", intent.getStringExtra(LocationForegroundService.EXTRA_TERRITORY_OWNER_ID));
+                String faction = intent.getStringExtra(LocationForegroundService.EXTRA_TERRITORY_FACTION);
+                if (faction != null) data.put("faction", faction);
+                data.put("relation", intent.getStringExtra(LocationForegroundService.EXTRA_TERRITORY_RELATION));
+                data.put("timestamp", intent.getLongExtra(LocationForegroundService.EXTRA_TIMESTAMP, 0));
+                boolean enter = LocationForegroundService.ACTION_TERRITORY_ENTER.equals(intent.getAction());
+                notifyListeners(enter ? "territoryEnter" : "territoryExit", data);
+            }
+        };
+        IntentFilter territoryFilter = new IntentFilter(LocationForegroundService.ACTION_TERRITORY_ENTER);
+        territoryFilter.addAction(LocationForegroundService.ACTION_TERRITORY_EXIT);
+        lbm.registerReceiver(territoryReceiver, territoryFilter);
+
+        // 规划路线偏航 / 回到路线
+        routeReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                JSObject data = new JSObject();
+                if (intent.hasExtra(LocationForegroundService.EXTRA_ROUTE_CROSS_TRACK)) {
+                    data.put("crossTrack", intent.getDoubleExtra(LocationForegroundService.EXTRA_ROUTE_CROSS_TRACK, 0));
+                    data.put("segmentIndex", intent.getIntExtra(LocationForegroundService.EXTRA_ROUTE_SEGMENT, 0));
+                }
+                data.put("progress", intent.getDoubleExtra(LocationForegroundService.EXTRA_ROUTE_PROGRESS, 0));
+                data.put("remaining", intent.getDoubleExtra(LocationForegroundService.EXTRA_ROUTE_REMAINING, 0));
+                data.put("timestamp", intent.getLongExtra(LocationForegroundService.EXTRA_TIMESTAMP, 0));
+                boolean off = LocationForegroundService.ACTION_ROUTE_OFF_COURSE.equals(intent.getAction());
+                notifyListeners(off ? "offCourse" : "backOnCourse", data);
+            }
+        };
+        IntentFilter routeFilter = new IntentFilter(LocationForegroundService.ACTION_ROUTE_OFF_COURSE);
+        routeFilter.addAction(LocationForegroundService.ACTION_ROUTE_BACK_ON_COURSE);
+        lbm.registerReceiver(routeReceiver, routeFilter);
+
+        // 整公里分段
+        splitReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                JSObject data = new JSObject();
+                data.put("index", intent.getIntExtra(LocationForegroundService.EXTRA_SPLIT_INDEX, 0));
+                data.put("splitMs", intent.getLongExtra(LocationForegroundService.EXTRA_SPLIT_MS, 0));
+                data.put("elapsedMs", intent.getLongExtra(LocationForegroundService.EXTRA_SPLIT_ELAPSED_MS, 0));
+                long[] best = intent.getLongArrayExtra(LocationForegroundService.EXTRA_BEST_EFFORT_MS);
+                JSArray efforts = new JSArray();
+                if (best != null) {
+                    for (int k = 0; k < best.length && k < BestEfforts.TARGET_METERS.length; k++) {
+                        if (best[k] < 0) continue;
+                        JSObject effort = new JSObject();
+                        effort.put("distance", BestEfforts.TARGET_METERS[k]);
+                        effort.put("durationMs", best[k]);
+                        efforts.put(effort);
+                    }
+                }
+                data.put("bestEfforts", efforts);
+                notifyListeners("split", data);
+            }
+        };
+        lbm.registerReceiver(splitReceiver, new IntentFilter(LocationForegroundService.ACTION_SPLIT));
+
+        Log.i(TAG, "Tracking BroadcastReceivers registered (Location, Error, Log, BatteryOpt, Reconciled, Cell, Loop, Territory, Route, Split)");
     }
 
     private void unregisterTrackingReceivers() {
@@ -841,6 +2127,60 @@ public class AMapLocationPlugin extends Plugin {
             batteryOptReceiver = null;
         }
 
+        if (trackReconciledReceiver != null) {
+            try {
+                lbm.unregisterReceiver(trackReconciledReceiver);
+            } catch (Exception e) {
+                Log.w(TAG, "Unregister reconciled receiver error: " + e.getMessage());
+            }
+            trackReconciledReceiver = null;
+        }
+
+        if (cellEnteredReceiver != null) {
+            try {
+                lbm.unregisterReceiver(cellEnteredReceiver);
+            } catch (Exception e) {
+                Log.w(TAG, "Unregister cell receiver error: " + e.getMessage());
+            }
+            cellEnteredReceiver = null;
+        }
+
+        if (loopClosedReceiver != null) {
+            try {
+                lbm.unregisterReceiver(loopClosedReceiver);
+            } catch (Exception e) {
+                Log.w(TAG, "Unregister loop receiver error: " + e.getMessage());
+            }
+            loopClosedReceiver = null;
+        }
+
+        if (territoryReceiver != null) {
+            try {
+                lbm.unregisterReceiver(territoryReceiver);
+            } catch (Exception e) {
+                Log.w(TAG, "Unregister territory receiver error: " + e.getMessage());
+            }
+            territoryReceiver = null;
+        }
+
+        if (routeReceiver != null) {
+            try {
+                lbm.unregisterReceiver(routeReceiver);
+            } catch (Exception e) {
+                Log.w(TAG, "Unregister route receiver error: " + e.getMessage());
+            }
+            routeReceiver = null;
+        }
+
+        if (splitReceiver != null) {
+            try {
+                lbm.unregisterReceiver(splitReceiver);
+            } catch (Exception e) {
+                Log.w(TAG, "Unregister split receiver error: " + e.getMessage());
+            }
+            splitReceiver = null;
+        }
+
         Log.i(TAG, "Tracking BroadcastReceivers unregistered");
     }
 
@@ -0,0 +1,233 @@
+package com.xiangfei.citylord;
+
+import com.xiangfei.citylord.db.SessionSummaryEntity;
+
+import java.util.Arrays;
+
+/**
+ * BestEfforts — 单次跑步的每公里分段与最快 1 / 5 / 10 公里（滑动窗口）
+ *
+ * 每个落盘点按顺序喂入，得到该点的累计里程（cumDistance）与已用时间（elapsedMs），
+ * 两者写入 location_records，供回填 / 跨会话统计直接使用，不必重算里程。
+ *
+ * 最快 X 公里：对每个目标距离维护一个左指针，指向累计里程 ≤ 当前里程 − X 的最后一个点，
+ * 新点到来时只向右推进（双指针），起点时间在左指针与下一点之间按里程线性插值。
+ * 全程每个目标距离的指针最多移动 n 次，总计 O(n)；左指针之前的点不再需要，数组定期前移压缩。
+ *
+ * 每公里分段：累计里程越过整公里时按相邻两点插值出越线时刻，分段用时 = 本次越线 − 上次越线。
+ *
+ * 里程口径同 Service 的后台里程播报：相邻点 < MIN_STEP_M 视为静止抖动、> MAX_STEP_M 视为漂移，均不累计。
+ * 非线程安全：Service 只在 dbExecutor 使用，Plugin 回填历史会话时各自新建实例。
+ */
+public final class BestEfforts {
+
+    /** 目标距离（米），下标与 getBest / SessionSummaryEntity 的 best1kMs / best5kMs / best10kMs 对应 */
+    public static final double[] TARGET_METERS = {1000.0, 5000.0, 10000.0};
+    public static final double SPLIT_METERS = 1000.0;
+    static final double MIN_STEP_M = 0.5;
+    static final double MAX_STEP_M = 100.0;
+    /** 左指针之前的点超过此数且超过一半时压缩数组 */
+    private static final int COMPACT_THRESHOLD = 4096;
+
+    private static final double METERS_PER_DEG = 6378137.0 * Math.PI / 180.0;
+
+    private String sessionId = null;
+    /** elapsed 的时间原点（ms since epoch）；-1 表示尚无点 */
+    private long origin = -1;
+    private boolean hasLast = false;
+    private double lastLat;
+    private double lastLng;
+    private double distance = 0.0;
+    private long elapsed = 0;
+
+    // 滑动窗口样本（只保留最小左指针之后的点）
+    private double[] cum = new double[256];
+    private long[] time = new long[256];
+    private int size = 0;
+    private final int[] left = new int[TARGET_METERS.length];
+    private final long[] best = new long[TARGET_METERS.length];
+
+    private long[] splits = new long[16];
+    private int splitCount = 0;
+    private double lastSplitElapsed = 0.0;
+
+    public BestEfforts() {
+        reset(null);
+    }
+
+    /** 开始新会话（清空全部状态） */
+    public void reset(String sessionId) {
+        this.sessionId = sessionId;
+        origin = -1;
+        hasLast = false;
+        distance = 0.0;
+        elapsed = 0;
+        size = 0;
+        Arrays.fill(left, 0);
+        Arrays.fill(best, -1);
+        splitCount = 0;
+        lastSplitElapsed = 0.0;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * 新定位点。
+     *
+     * @param startedAt 跑步开始时间（ms since epoch），≤ 0 或晚于首点时以首点为时间原点
+     * @return 本点完成的整公里分段数（通常为 0 或 1）
+     */
+    public int onPoint(double lat, double lng, long timestamp, long startedAt) {
+        if (origin < 0) {
+            origin = startedAt > 0 && startedAt <= timestamp ? startedAt : timestamp;
+        }
+        double d = distance;
+        if (hasLast) {
+            double step = distanceMeters(lastLat, lastLng, lat, lng);
+            if (step > MIN_STEP_M && step < MAX_STEP_M) d += step;
+        }
+        lastLat = lat;
+        lastLng = lng;
+        hasLast = true;
+        return add(d, timestamp - origin);
+    }
+
+    /**
+     * 按已落盘的 cumDistance / elapsedMs 回放一个点（服务恢复接续、历史会话回填），不重算里程。
+     *
+     * @return 本点完成的整公里分段数
+     */
+    public int replay(double cumDistance, long elapsedMs, double lat, double lng, long timestamp) {
+        origin = timestamp - elapsedMs;
+        lastLat = lat;
+        lastLng = lng;
+        hasLast = true;
+        return add(cumDistance, elapsedMs);
+    }
+
+    private int add(double c, long t) {
+        if (size > 0) {
+            // 乱序时间戳 / 里程钳位，保证单调
+            t = Math.max(t, time[size - 1]);
+            c = Math.max(c, cum[size - 1]);
+        }
+        if (size == cum.length) {
+            cum = Arrays.copyOf(cum, size * 2);
+            time = Arrays.copyOf(time, size * 2);
+        }
+        cum[size] = c;
+        time[size] = t;
+        size++;
+
+        int newSplits = 0;
+        if (size >= 2) {
+            double prevC = cum[size - 2];
+            long prevT = time[size - 2];
+            double mark;
+            while (c >= (mark = (splitCount + 1) * SPLIT_METERS)) {
+                double crossed = interpolate(prevC, prevT, c, t, mark);
+                if (splitCount == splits.length) splits = Arrays.copyOf(splits, splitCount * 2);
+                splits[splitCount++] = Math.round(crossed - lastSplitElapsed);
+                lastSplitElapsed = crossed;
+                newSplits++;
+            }
+        }
+
+        int minLeft = size - 1;
+        for (int k = 0; k < TARGET_METERS.length; k++) {
+            double start = c - TARGET_METERS[k];
+            if (start < cum[0]) {
+                minLeft = Math.min(minLeft, left[k]);
+                continue;
+            }
+            int l = left[k];
+            while (l + 1 < size && cum[l + 1] <= start) l++;
+            left[k] = l;
+            minLeft = Math.min(minLeft, l);
+            double startTime = l + 1 < size ? interpolate(cum[l], time[l], cum[l + 1], time[l + 1], start) : time[l];
+            long effort = Math.round(t - startTime);
+            if (best[k] < 0 || effort < best[k]) best[k] = effort;
+        }
+
+        distance = c;
+        elapsed = t;
+        if (minLeft > COMPACT_THRESHOLD && minLeft > size / 2) compact(minLeft);
+        return newSplits;
+    }
+
+    /** 丢弃 from 之前的样本，左指针同步前移 */
+    private void compact(int from) {
+        System.arraycopy(cum, from, cum, 0, size - from);
+        System.arraycopy(time, from, time, 0, size - from);
+        size -= from;
+        for (int k = 0; k < left.length; k++) left[k] -= from;
+    }
+
+    /** 在 (c0, t0) – (c1, t1) 之间按里程插值出到达 mark 的时刻 */
+    private static double interpolate(double c0, long t0, double c1, long t1, double mark) {
+        if (c1 <= c0) return t1;
+        return t0 + (t1 - t0) * ((mark - c0) / (c1 - c0));
+    }
+
+    /** 最近一个点的累计里程（米） */
+    public double getDistance() {
+        return distance;
+    }
+
+    /** 最近一个点相对时间原点的用时（毫秒） */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    /** TARGET_METERS[index] 的最快用时（毫秒），尚未达到该距离时为 -1 */
+    public long getBest(int index) {
+        return best[index];
+    }
+
+    public int getSplitCount() {
+        return splitCount;
+    }
+
+    /** 第 index 个整公里分段用时（毫秒，从 0 开始） */
+    public long getSplit(int index) {
+        if (index < 0 || index >= splitCount) throw new IndexOutOfBoundsException("split " + index);
+        return splits[index];
+    }
+
+    /** 写入会话汇总的里程 / 用时 / 最快用时 / 分段字段（其余字段不动） */
+    public void fillSummary(SessionSummaryEntity summary) {
+        summary.distance = distance;
+        summary.durationMs = elapsed;
+        summary.best1kMs = best[0] < 0 ? null : best[0];
+        summary.best5kMs = best[1] < 0 ? null : best[1];
+        summary.best10kMs = best[2] < 0 ? null : best[2];
+        summary.splits = formatSplits(splits, splitCount);
+    }
+
+    /** 分段用时编码为逗号分隔的毫秒数（无完整分段时为空串，区别于"未计算"的 null） */
+    static String formatSplits(long[] splits, int count) {
+        StringBuilder sb = new StringBuilder(count * 7);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(splits[i]);
+        }
+        return sb.toString();
+    }
+
+    /** formatSplits 的逆操作；null / 空串返回空数组 */
+    public static long[] parseSplits(String encoded) {
+        if (encoded == null || encoded.isEmpty()) return new long[0];
+        String[] parts = encoded.split(",");
+        long[] out = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) out[i] = Long.parseLong(parts[i]);
+        return out;
+    }
+
+    private static double distanceMeters(double lat1, double lng1, double lat2, double lng2) {
+        double x = (lng2 - lng1) * METERS_PER_DEG * Math.cos(Math.toRadians((lat1 + lat2) / 2.0));
+        double y = (lat2 - lat1) * METERS_PER_DEG;
+        return Math.hypot(x, y);
+    }
+}
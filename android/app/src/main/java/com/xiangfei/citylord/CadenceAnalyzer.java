@@ -0,0 +1,224 @@
+package com.xiangfei.citylord;
+
+/**
+ * CadenceAnalyzer — 加速度计步频分析（自相关，零分配）
+ *
+ * 输入为不等间隔的加速度事件（批量上报时一次回调一串），先按事件时间戳线性插值重采样到固定采样率，
+ * 写入长度为 WINDOW_SECONDS 的环形缓冲；每累计 1 秒新样本做一次分析：
+ *  1. 合加速度去均值，标准差过小视为静止
+ *  2. 在步周期 0.25–0.75 s（80–240 步/分）对应的滞后范围内求归一化自相关峰值，
+ *     峰值在半滞后处也显著时取半滞后（左右脚不对称时整步周期的峰值更高）
+ *  3. 抛物线插值得到亚采样精度的步周期 → 步频
+ *  4. 触地提示：窗口内合加速度高于 1 g 的样本占比 × 步周期 ≈ 单步触地时长；峰值冲击以 g 计
+ *
+ * 所有缓冲在构造时分配，push / analyze 不分配对象。非线程安全：只在传感器线程使用，
+ * 结果通过 {@link #copyResult(Result)} 由其他线程读取（synchronized）。
+ */
+public final class CadenceAnalyzer {
+
+    public static final float GRAVITY = 9.80665f;
+    static final int WINDOW_SECONDS = 5;
+    /** 步周期范围（秒） */
+    static final float MIN_STEP_PERIOD_S = 0.25f;
+    static final float MAX_STEP_PERIOD_S = 0.75f;
+    /** 自相关峰值低于此值认为没有周期性步态 */
+    static final float MIN_CONFIDENCE = 0.3f;
+    /** 合加速度标准差低于此值（m/s²）视为静止 */
+    private static final float STILL_STD = 0.6f;
+    /** 相邻事件间隔超过此值（纳秒）不插值，重新填充窗口 */
+    private static final long MAX_EVENT_GAP_NS = 500_000_000L;
+
+    private final int sampleRateHz;
+    private final long samplePeriodNs;
+    private final int window;
+    private final int minLag;
+    private final int maxLag;
+
+    private final float[] ring;
+    private final float[] scratch;
+    private int head = 0;
+    private int filled = 0;
+    private int sinceAnalysis = 0;
+
+    private long lastEventNs = -1;
+    private float lastMagnitude;
+    private long nextSampleNs;
+
+    // ---- 最近一次分析结果（传感器线程写，copyResult 读） ----
+    private float cadenceSpm;
+    private float confidence;
+    private float groundContactMs;
+    private float peakG;
+    private long resultElapsedMs;
+    private long analyses;
+
+    public CadenceAnalyzer(int sampleRateHz) {
+        this.sampleRateHz = sampleRateHz;
+        this.samplePeriodNs = 1_000_000_000L / sampleRateHz;
+        this.window = WINDOW_SECONDS * sampleRateHz;
+        this.minLag = Math.max(2, Math.round(MIN_STEP_PERIOD_S * sampleRateHz));
+        this.maxLag = Math.round(MAX_STEP_PERIOD_S * sampleRateHz);
+        this.ring = new float[window];
+        this.scratch = new float[window];
+    }
+
+    public int getSampleRateHz() {
+        return sampleRateHz;
+    }
+
+    /**
+     * 一个加速度事件。
+     *
+     * @param timestampNs 事件时间（SensorEvent.timestamp，elapsedRealtimeNanos）
+     * @return true 表示本次推入后完成了一次分析（约每秒一次）
+     */
+    public boolean push(long timestampNs, float x, float y, float z) {
+        float magnitude = (float) Math.sqrt(x * x + y * y + z * z);
+        if (lastEventNs < 0 || timestampNs - lastEventNs > MAX_EVENT_GAP_NS || timestampNs <= lastEventNs) {
+            if (lastEventNs >= 0 && timestampNs - lastEventNs > MAX_EVENT_GAP_NS) {
+                filled = 0;
+                sinceAnalysis = 0;
+            }
+            lastEventNs = timestampNs;
+            lastMagnitude = magnitude;
+            nextSampleNs = timestampNs;
+            return false;
+        }
+
+        boolean analyzed = false;
+        long span = timestampNs - lastEventNs;
+        while (nextSampleNs <= timestampNs) {
+            float t = (float) (nextSampleNs - lastEventNs) / span;
+            if (t < 0f) t = 0f;
+            ring[head] = lastMagnitude + (magnitude - lastMagnitude) * t;
+            head = (head + 1) % window;
+            if (filled < window) filled++;
+            nextSampleNs += samplePeriodNs;
+            if (++sinceAnalysis >= sampleRateHz && filled == window) {
+                sinceAnalysis = 0;
+                analyze(timestampNs / 1_000_000L);
+                analyzed = true;
+            }
+        }
+        lastEventNs = timestampNs;
+        lastMagnitude = magnitude;
+        return analyzed;
+    }
+
+    /** 清空窗口（暂停后恢复时调用） */
+    public void reset() {
+        filled = 0;
+        sinceAnalysis = 0;
+        lastEventNs = -1;
+        synchronized (this) {
+            cadenceSpm = 0f;
+            confidence = 0f;
+            groundContactMs = 0f;
+            peakG = 0f;
+        }
+    }
+
+    private void analyze(long elapsedMs) {
+        // 环形缓冲 → 时间顺序的线性数组，同时求均值 / 峰值
+        double sum = 0;
+        float max = 0f;
+        for (int i = 0; i < window; i++) {
+            float v = ring[(head + i) % window];
+            scratch[i] = v;
+            sum += v;
+            if (v > max) max = v;
+        }
+        float mean = (float) (sum / window);
+        double energy = 0;
+        int above = 0;
+        for (int i = 0; i < window; i++) {
+            if (scratch[i] > GRAVITY) above++;
+            float d = scratch[i] - mean;
+            scratch[i] = d;
+            energy += d * d;
+        }
+        float std = (float) Math.sqrt(energy / window);
+
+        float cadence = 0f;
+        float conf = 0f;
+        float contact = 0f;
+        if (std >= STILL_STD && energy > 0) {
+            int bestLag = -1;
+            float best = 0f;
+            for (int lag = minLag; lag <= maxLag; lag++) {
+                float r = autocorr(lag, energy);
+                if (r > best) {
+                    best = r;
+                    bestLag = lag;
+                }
+            }
+            // 整步周期（两步）落在范围内时，半滞后处若也有显著峰值取半滞后
+            if (bestLag > 0 && bestLag / 2 >= minLag) {
+                int half = bestLag / 2;
+                float rHalf = Math.max(autocorr(half, energy), autocorr(half + 1, energy));
+                if (rHalf >= 0.7f * best) {
+                    bestLag = autocorr(half, energy) >= autocorr(half + 1, energy) ? half : half + 1;
+                    best = autocorr(bestLag, energy);
+                }
+            }
+            if (bestLag > 0 && best >= MIN_CONFIDENCE) {
+                float lag = bestLag;
+                if (bestLag > minLag && bestLag < maxLag) {
+                    float r0 = autocorr(bestLag - 1, energy);
+                    float r2 = autocorr(bestLag + 1, energy);
+                    float denom = r0 - 2 * best + r2;
+                    if (denom < 0f) {
+                        lag += 0.5f * (r0 - r2) / denom;
+                    }
+                }
+                float periodS = lag / sampleRateHz;
+                cadence = 60f / periodS;
+                conf = best;
+                contact = (float) above / window * periodS * 1000f;
+            }
+        }
+
+        synchronized (this) {
+            cadenceSpm = cadence;
+            confidence = conf;
+            groundContactMs = contact;
+            peakG = max / GRAVITY;
+            resultElapsedMs = elapsedMs;
+            analyses++;
+        }
+    }
+
+    private float autocorr(int lag, double energy) {
+        double acc = 0;
+        int n = window - lag;
+        for (int i = 0; i < n; i++) {
+            acc += scratch[i] * scratch[i + lag];
+        }
+        return (float) (acc / energy);
+    }
+
+    /** 把最近一次结果复制到调用方持有的对象（不分配） */
+    public synchronized void copyResult(Result out) {
+        out.cadenceSpm = cadenceSpm;
+        out.confidence = confidence;
+        out.groundContactMs = groundContactMs;
+        out.peakG = peakG;
+        out.elapsedMs = resultElapsedMs;
+        out.analyses = analyses;
+    }
+
+    /** 可复用的结果容器 */
+    public static final class Result {
+        /** 步频（步/分），0 表示静止或无周期性步态 */
+        public float cadenceSpm;
+        /** 自相关峰值（0–1） */
+        public float confidence;
+        /** 单步触地时长估计（毫秒，提示性指标） */
+        public float groundContactMs;
+        /** 窗口内峰值冲击（g） */
+        public float peakG;
+        /** 结果对应的 elapsedRealtime（毫秒） */
+        public long elapsedMs;
+        public long analyses;
+    }
+}
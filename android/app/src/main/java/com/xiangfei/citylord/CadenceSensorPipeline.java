@@ -0,0 +1,245 @@
+package com.xiangfei.citylord;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * CadenceSensorPipeline — 跑步中的可选高频加速度计管线
+ *
+ * 加速度计在独立 HandlerThread 上以 50 Hz 采样、1 秒硬件批量上报（maxReportLatencyUs），
+ * 由 CadenceAnalyzer 每秒输出一次步频 / 触地提示；Service 在每个定位点上读取最新结果。
+ *
+ * CPU 成本：该线程只做这一件事，因此每秒分析后读取线程 CPU 时间即为管线的全部开销（含传感器分发）。
+ * 每小时预算 CPU_BUDGET_MS_PER_HOUR：
+ *  - 超过一半 → 降为 25 Hz
+ *  - 超过预算 → 暂停到下一个整点
+ * 每小时一条记录 { hourStart, cpuMs, analyses, mode }，保留最近 MAX_HOURS 小时。
+ */
+public final class CadenceSensorPipeline implements SensorEventListener {
+
+    private static final String TAG = "CadencePipeline";
+
+    static final int FULL_RATE_HZ = 50;
+    static final int REDUCED_RATE_HZ = 25;
+    private static final int REPORT_LATENCY_US = 1_000_000;
+    /** 每小时 CPU 预算（毫秒）：约占单核 0.1% */
+    static final long CPU_BUDGET_MS_PER_HOUR = 3_600L;
+    /** 结果超过此年龄不再附加到定位点 */
+    static final long MAX_RESULT_AGE_MS = 3_000L;
+
+    static final String MODE_FULL = "full";
+    static final String MODE_REDUCED = "reduced";
+    static final String MODE_SUSPENDED = "suspended";
+
+    private static final String PREFS_NAME = "citylord_cadence_stats";
+    private static final String KEY_HOURS = "hours";
+    private static final int MAX_HOURS = 24;
+
+    private final Context appContext;
+    private final SensorManager sensorManager;
+    private final Sensor accelerometer;
+    private HandlerThread thread;
+    private volatile Handler handler;
+
+    /** 传感器线程写，定位线程经 latest() 读 */
+    private volatile CadenceAnalyzer analyzer;
+    /** 以下只在传感器线程读写 */
+    private String mode = MODE_FULL;
+    private long hourStart = 0;
+    private long cpuMsThisHour = 0;
+    private long analysesThisHour = 0;
+    private long lastThreadCpuMs = -1;
+
+    private volatile boolean running = false;
+    private final Runnable resumeTask = this::resumeAfterSuspend;
+
+    CadenceSensorPipeline(Context context) {
+        this.appContext = context.getApplicationContext();
+        this.sensorManager = (SensorManager) appContext.getSystemService(Context.SENSOR_SERVICE);
+        this.accelerometer = sensorManager != null ? sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER) : null;
+    }
+
+    boolean isAvailable() {
+        return accelerometer != null;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    /** 开始采样（主线程调用，重复调用无副作用） */
+    void start() {
+        if (running || accelerometer == null) return;
+        running = true;
+        thread = new HandlerThread("CadenceSensor", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        handler.post(() -> {
+            lastThreadCpuMs = SystemClock.currentThreadTimeMillis();
+            rollHourIfNeeded();
+            register(modeForBudget());
+        });
+        Log.i(TAG, "Cadence pipeline started (fifoMax=" + accelerometer.getFifoMaxEventCount() + ")");
+    }
+
+    /** 停止采样并写入本小时统计（主线程调用） */
+    void stop() {
+        if (!running) return;
+        running = false;
+        final HandlerThread t = thread;
+        final Handler h = handler;
+        thread = null;
+        handler = null;
+        h.removeCallbacks(resumeTask);
+        h.post(() -> {
+            sensorManager.unregisterListener(this);
+            accountCpu();
+            persistHour();
+            t.quitSafely();
+        });
+        Log.i(TAG, "Cadence pipeline stopped");
+    }
+
+    /** 把最近结果复制到 out；无新鲜结果时返回 false */
+    boolean latest(CadenceAnalyzer.Result out) {
+        CadenceAnalyzer a = analyzer;
+        if (!running || a == null) return false;
+        a.copyResult(out);
+        return out.analyses > 0 && SystemClock.elapsedRealtime() - out.elapsedMs <= MAX_RESULT_AGE_MS;
+    }
+
+    // -------------------------------------------------------------------
+    // Sensor thread
+    // -------------------------------------------------------------------
+
+    private void register(String newMode) {
+        sensorManager.unregisterListener(this);
+        Handler h = handler;
+        if (!running || h == null) return;  // stop() 已在主线程执行
+        mode = newMode;
+        if (MODE_SUSPENDED.equals(newMode)) {
+            analyzer = null;
+            long delay = hourStart + StepBuckets.HOUR_MS - System.currentTimeMillis();
+            h.postDelayed(resumeTask, Math.max(1_000L, delay));
+            Log.w(TAG, "CPU budget exceeded (" + cpuMsThisHour + "ms), suspended until next hour");
+            return;
+        }
+        int rate = MODE_REDUCED.equals(newMode) ? REDUCED_RATE_HZ : FULL_RATE_HZ;
+        analyzer = new CadenceAnalyzer(rate);
+        sensorManager.registerListener(this, accelerometer, 1_000_000 / rate, REPORT_LATENCY_US, h);
+        Log.i(TAG, "Accelerometer registered: " + rate + "Hz mode=" + newMode);
+    }
+
+    private void resumeAfterSuspend() {
+        if (!running) return;
+        rollHourIfNeeded();
+        register(MODE_FULL);
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        CadenceAnalyzer a = analyzer;
+        if (a == null || event.sensor.getType() != Sensor.TYPE_ACCELEROMETER) return;
+        if (a.push(event.timestamp, event.values[0], event.values[1], event.values[2])) {
+            analysesThisHour++;
+            accountCpu();
+            enforceBudget();
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+
+    private void accountCpu() {
+        long now = SystemClock.currentThreadTimeMillis();
+        if (lastThreadCpuMs >= 0) {
+            cpuMsThisHour += now - lastThreadCpuMs;
+        }
+        lastThreadCpuMs = now;
+        rollHourIfNeeded();
+    }
+
+    private void enforceBudget() {
+        String target = modeForBudget();
+        if (MODE_SUSPENDED.equals(target) || (MODE_REDUCED.equals(target) && MODE_FULL.equals(mode))) {
+            register(target);
+        }
+    }
+
+    private String modeForBudget() {
+        if (cpuMsThisHour > CPU_BUDGET_MS_PER_HOUR) return MODE_SUSPENDED;
+        if (cpuMsThisHour > CPU_BUDGET_MS_PER_HOUR / 2) return MODE_REDUCED;
+        return MODE_FULL;
+    }
+
+    private void rollHourIfNeeded() {
+        long hour = StepBuckets.hourStart(System.currentTimeMillis());
+        if (hour == hourStart) return;
+        persistHour();
+        hourStart = hour;
+        cpuMsThisHour = 0;
+        analysesThisHour = 0;
+        // 新的一小时恢复满速
+        if (MODE_REDUCED.equals(mode) && analyzer != null) {
+            register(MODE_FULL);
+        }
+    }
+
+    private void persistHour() {
+        if (hourStart == 0 || analysesThisHour == 0) return;
+        SharedPreferences sp = appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        JSONArray hours;
+        try {
+            hours = new JSONArray(sp.getString(KEY_HOURS, "[]"));
+        } catch (Exception e) {
+            hours = new JSONArray();
+        }
+        JSONArray trimmed = new JSONArray();
+        int start = Math.max(0, hours.length() - (MAX_HOURS - 1));
+        for (int i = start; i < hours.length(); i++) {
+            JSONObject h = hours.optJSONObject(i);
+            if (h != null && h.optLong("hourStart") != hourStart) {
+                trimmed.put(h);
+            }
+        }
+        try {
+            JSONObject entry = new JSONObject();
+            entry.put("hourStart", hourStart);
+            entry.put("cpuMs", cpuMsThisHour);
+            entry.put("analyses", analysesThisHour);
+            entry.put("mode", mode);
+            trimmed.put(entry);
+        } catch (Exception ignored) {
+        }
+        sp.edit().putString(KEY_HOURS, trimmed.toString()).apply();
+        Log.i(TAG, "Cadence hour " + hourStart + ": cpu=" + cpuMsThisHour + "ms analyses=" + analysesThisHour
+                + " mode=" + mode);
+    }
+
+    /** 最近各小时 CPU 统计（JSON 字符串）：{ budgetMsPerHour, hours: [...] } */
+    static String getStatsReport(Context context) {
+        JSONObject report = new JSONObject();
+        try {
+            SharedPreferences sp = context.getApplicationContext()
+                    .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            report.put("budgetMsPerHour", CPU_BUDGET_MS_PER_HOUR);
+            report.put("hours", new JSONArray(sp.getString(KEY_HOURS, "[]")));
+        } catch (Exception e) {
+            Log.w(TAG, "getStatsReport failed: " + e.getMessage());
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,395 @@
+package com.xiangfei.citylord;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * ContinuityTracker — 跑步会话黑匣子的连续性统计（增量计算）
+ *
+ * 每个落盘到 location_records 的点调用一次 onPoint()，相邻两点间隔超过 GAP_THRESHOLD_MS 即记为断档，
+ * 并根据两点之间 Service 记录到的事件推断原因（优先级从高到低）：
+ *  - restart    : 服务被杀后由 RestartCoordinator 恢复
+ *  - doze       : 设备进入 Doze (ACTION_DEVICE_IDLE_MODE_CHANGED)
+ *  - gnss_error : 期间只收到定位错误回调
+ *  - stationary : 期间有有效定位但都被 2 米过滤（原地不动，不算数据丢失）
+ *  - unknown    : 以上都没有
+ *
+ * 覆盖率 = 1 - 非 stationary 断档总时长 / 会话时长。
+ * 报告以紧凑 JSON 存在 SharedPreferences（最近 MAX_SESSIONS 个会话），每 FLUSH_EVERY_POINTS 个点
+ * 或出现断档时写入；进程被杀后 resume() 读回报告，并用 Room 中该会话最后一个点的时间戳补齐。
+ *
+ * 线程模型：onPoint / resume 在 dbExecutor 上调用，note* 在定位线程 / 主线程调用，方法均 synchronized。
+ */
+public final class ContinuityTracker {
+
+    private static final String TAG = "ContinuityTracker";
+
+    /** 相邻落盘点间隔超过此值视为断档 */
+    public static final long GAP_THRESHOLD_MS = 30_000L;
+
+    public static final String CAUSE_RESTART = "restart";
+    public static final String CAUSE_DOZE = "doze";
+    public static final String CAUSE_GNSS_ERROR = "gnss_error";
+    public static final String CAUSE_STATIONARY = "stationary";
+    public static final String CAUSE_UNKNOWN = "unknown";
+
+    private static final String[] CAUSES = {
+            CAUSE_RESTART, CAUSE_DOZE, CAUSE_GNSS_ERROR, CAUSE_STATIONARY, CAUSE_UNKNOWN
+    };
+
+    private static final String PREFS_NAME = "citylord_continuity";
+    private static final String KEY_SESSIONS = "sessions";
+    private static final String KEY_REPORT_PREFIX = "report_";
+    private static final int MAX_SESSIONS = 10;
+    /** 报告中保留的最近断档条数 */
+    private static final int MAX_GAPS = 50;
+    private static final int FLUSH_EVERY_POINTS = 30;
+
+    // ---- 单例 ----
+    private static volatile ContinuityTracker INSTANCE;
+
+    public static ContinuityTracker getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (ContinuityTracker.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new ContinuityTracker(context.getApplicationContext());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private final Context appContext;
+
+    // ---- 当前会话状态 ----
+    private String sessionId = null;
+    private long firstTs = 0;
+    private long lastTs = 0;
+    private long points = 0;
+    private int gapCount = 0;
+    private long lossMs = 0;
+    private long stationaryMs = 0;
+    private long longestGapMs = 0;
+    private long longestGapStart = 0;
+    private String longestGapCause = null;
+    private final int[] causeCounts = new int[CAUSES.length];
+
+    /** 最近 MAX_GAPS 个断档（环形） */
+    private final long[] gapStarts = new long[MAX_GAPS];
+    private final long[] gapDurations = new long[MAX_GAPS];
+    private final byte[] gapCauses = new byte[MAX_GAPS];
+    private int gapHead = 0;
+    private int gapStored = 0;
+
+    // ---- 上一个落盘点之后观察到的事件 ----
+    private boolean restartSinceLast = false;
+    private boolean dozeSinceLast = false;
+    private boolean deviceIdle = false;
+    private int errorsSinceLast = 0;
+    private int filteredFixesSinceLast = 0;
+
+    private int pointsSinceFlush = 0;
+
+    private ContinuityTracker(Context appContext) {
+        this.appContext = appContext;
+    }
+
+    // -------------------------------------------------------------------
+    // Session lifecycle
+    // -------------------------------------------------------------------
+
+    /** 新跑步开始：清空统计 */
+    public synchronized void startSession(String sessionId) {
+        clear();
+        this.sessionId = sessionId;
+    }
+
+    /**
+     * 服务恢复后继续统计同一会话（在 dbExecutor 上调用）。
+     *
+     * @param lastPersistedTs Room 中该会话最后一个点的时间戳，可为 null
+     */
+    public synchronized void resume(String sessionId, Long lastPersistedTs) {
+        if (sessionId == null) return;
+        if (!sessionId.equals(this.sessionId)) {
+            clear();
+            this.sessionId = sessionId;
+            restoreFromPrefs(sessionId);
+        }
+        if (lastPersistedTs != null && lastPersistedTs > lastTs) {
+            // 报告最后一次写入后还有点落盘（进程被杀前未 flush）：点数按时间无法还原，只补齐时间线
+            if (firstTs == 0) firstTs = lastPersistedTs;
+            lastTs = lastPersistedTs;
+        }
+        restartSinceLast = true;
+    }
+
+    /** 进程内尚无会话（冷启动 / 进程被杀后恢复），需要先 resume */
+    public synchronized boolean needsResume() {
+        return sessionId == null;
+    }
+
+    /** 同一进程内服务被重建：下一个断档归因为 restart */
+    public synchronized void noteRestart() {
+        restartSinceLast = true;
+    }
+
+    /** 写入当前报告（onDestroy 时调用） */
+    public synchronized void flush() {
+        if (sessionId != null) {
+            persist();
+        }
+    }
+
+    // -------------------------------------------------------------------
+    // Events
+    // -------------------------------------------------------------------
+
+    public synchronized void noteDeviceIdle(boolean idle) {
+        deviceIdle = idle;
+        if (idle) dozeSinceLast = true;
+    }
+
+    public synchronized void noteGnssError() {
+        errorsSinceLast++;
+    }
+
+    /** 有效定位未通过落盘过滤（距上一落盘点不足 2 米） */
+    public synchronized void noteFilteredFix() {
+        filteredFixesSinceLast++;
+    }
+
+    // -------------------------------------------------------------------
+    // Points
+    // -------------------------------------------------------------------
+
+    /** 一个点已写入 location_records（时间戳单调递增） */
+    public synchronized void onPoint(String sessionId, long timestamp) {
+        if (sessionId == null || !sessionId.equals(this.sessionId)) {
+            return;
+        }
+        if (firstTs == 0) {
+            firstTs = timestamp;
+        } else if (timestamp > lastTs) {
+            long delta = timestamp - lastTs;
+            if (delta > GAP_THRESHOLD_MS) {
+                recordGap(lastTs, delta, classify());
+            }
+        }
+        if (timestamp > lastTs) {
+            lastTs = timestamp;
+        }
+        points++;
+
+        restartSinceLast = false;
+        dozeSinceLast = deviceIdle;
+        errorsSinceLast = 0;
+        filteredFixesSinceLast = 0;
+
+        if (++pointsSinceFlush >= FLUSH_EVERY_POINTS) {
+            persist();
+        }
+    }
+
+    private int classify() {
+        if (restartSinceLast) return 0;
+        if (dozeSinceLast) return 1;
+        if (errorsSinceLast > 0 && filteredFixesSinceLast == 0) return 2;
+        if (filteredFixesSinceLast > 0) return 3;
+        return 4;
+    }
+
+    private void recordGap(long start, long duration, int cause) {
+        gapCount++;
+        causeCounts[cause]++;
+        if (cause == 3) {
+            stationaryMs += duration;
+        } else {
+            lossMs += duration;
+        }
+        if (duration > longestGapMs) {
+            longestGapMs = duration;
+            longestGapStart = start;
+            longestGapCause = CAUSES[cause];
+        }
+        gapStarts[gapHead] = start;
+        gapDurations[gapHead] = duration;
+        gapCauses[gapHead] = (byte) cause;
+        gapHead = (gapHead + 1) % MAX_GAPS;
+        if (gapStored < MAX_GAPS) gapStored++;
+
+        Log.i(TAG, "Gap detected: session=" + sessionId + " start=" + start + " duration=" + duration
+                + "ms cause=" + CAUSES[cause]);
+        persist();
+    }
+
+    // -------------------------------------------------------------------
+    // Report
+    // -------------------------------------------------------------------
+
+    /**
+     * 指定会话的报告 JSON：当前会话返回内存中的实时结果，其他会话读取已存储的报告。
+     *
+     * @return 没有该会话的报告时返回 null
+     */
+    public synchronized String getReport(String sessionId) {
+        if (sessionId != null && sessionId.equals(this.sessionId)) {
+            return buildReport().toString();
+        }
+        return prefs().getString(KEY_REPORT_PREFIX + sessionId, null);
+    }
+
+    private JSONObject buildReport() {
+        JSONObject report = new JSONObject();
+        try {
+            long span = firstTs > 0 ? lastTs - firstTs : 0;
+            double coverage = span > 0 ? Math.max(0.0, 100.0 * (span - lossMs) / span) : 100.0;
+
+            report.put("sessionId", sessionId);
+            report.put("firstTs", firstTs);
+            report.put("lastTs", lastTs);
+            report.put("spanMs", span);
+            report.put("points", points);
+            report.put("thresholdMs", GAP_THRESHOLD_MS);
+            report.put("gapCount", gapCount);
+            report.put("lossMs", lossMs);
+            report.put("stationaryMs", stationaryMs);
+            report.put("coveragePct", Math.round(coverage * 10.0) / 10.0);
+            report.put("longestGapMs", longestGapMs);
+            report.put("longestGapStart", longestGapStart);
+            if (longestGapCause != null) {
+                report.put("longestGapCause", longestGapCause);
+            }
+
+            JSONObject causes = new JSONObject();
+            for (int i = 0; i < CAUSES.length; i++) {
+                causes.put(CAUSES[i], causeCounts[i]);
+            }
+            report.put("causes", causes);
+
+            // 紧凑格式：[startTs, durationMs, cause]，旧 → 新
+            JSONArray gaps = new JSONArray();
+            int first = (gapHead - gapStored + MAX_GAPS) % MAX_GAPS;
+            for (int i = 0; i < gapStored; i++) {
+                int idx = (first + i) % MAX_GAPS;
+                JSONArray gap = new JSONArray();
+                gap.put(gapStarts[idx]);
+                gap.put(gapDurations[idx]);
+                gap.put(CAUSES[gapCauses[idx]]);
+                gaps.put(gap);
+            }
+            report.put("gaps", gaps);
+            report.put("updatedAt", System.currentTimeMillis());
+        } catch (Exception e) {
+            Log.w(TAG, "buildReport failed: " + e.getMessage());
+        }
+        return report;
+    }
+
+    private void persist() {
+        pointsSinceFlush = 0;
+        if (sessionId == null) return;
+        SharedPreferences sp = prefs();
+        SharedPreferences.Editor editor = sp.edit();
+        editor.putString(KEY_REPORT_PREFIX + sessionId, buildReport().toString());
+
+        // 会话索引：最近 MAX_SESSIONS 个，超出的报告一并删除
+        try {
+            JSONArray sessions = new JSONArray(sp.getString(KEY_SESSIONS, "[]"));
+            JSONArray kept = new JSONArray();
+            for (int i = 0; i < sessions.length(); i++) {
+                String id = sessions.getString(i);
+                if (!id.equals(sessionId)) kept.put(id);
+            }
+            kept.put(sessionId);
+            JSONArray trimmed = new JSONArray();
+            int drop = Math.max(0, kept.length() - MAX_SESSIONS);
+            for (int i = 0; i < kept.length(); i++) {
+                if (i < drop) {
+                    editor.remove(KEY_REPORT_PREFIX + kept.getString(i));
+                } else {
+                    trimmed.put(kept.getString(i));
+                }
+            }
+            editor.putString(KEY_SESSIONS, trimmed.toString());
+        } catch (Exception e) {
+            editor.putString(KEY_SESSIONS, new JSONArray().put(sessionId).toString());
+        }
+        editor.apply();
+    }
+
+    private void restoreFromPrefs(String sessionId) {
+        String json = prefs().getString(KEY_REPORT_PREFIX + sessionId, null);
+        if (json == null) return;
+        try {
+            JSONObject report = new JSONObject(json);
+            firstTs = report.optLong("firstTs", 0);
+            lastTs = report.optLong("lastTs", 0);
+            points = report.optLong("points", 0);
+            gapCount = report.optInt("gapCount", 0);
+            lossMs = report.optLong("lossMs", 0);
+            stationaryMs = report.optLong("stationaryMs", 0);
+            longestGapMs = report.optLong("longestGapMs", 0);
+            longestGapStart = report.optLong("longestGapStart", 0);
+            longestGapCause = report.optString("longestGapCause", null);
+
+            JSONObject causes = report.optJSONObject("causes");
+            if (causes != null) {
+                for (int i = 0; i < CAUSES.length; i++) {
+                    causeCounts[i] = causes.optInt(CAUSES[i], 0);
+                }
+            }
+            JSONArray gaps = report.optJSONArray("gaps");
+            if (gaps != null) {
+                for (int i = 0; i < gaps.length() && gapStored < MAX_GAPS; i++) {
+                    JSONArray gap = gaps.getJSONArray(i);
+                    gapStarts[gapHead] = gap.getLong(0);
+                    gapDurations[gapHead] = gap.getLong(1);
+                    gapCauses[gapHead] = (byte) causeIndex(gap.getString(2));
+                    gapHead = (gapHead + 1) % MAX_GAPS;
+                    gapStored++;
+                }
+            }
+            Log.i(TAG, "Restored continuity report for session " + sessionId + ": points=" + points
+                    + " gaps=" + gapCount);
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to restore continuity report: " + e.getMessage());
+        }
+    }
+
+    private static int causeIndex(String cause) {
+        for (int i = 0; i < CAUSES.length; i++) {
+            if (CAUSES[i].equals(cause)) return i;
+        }
+        return CAUSES.length - 1;
+    }
+
+    private void clear() {
+        sessionId = null;
+        firstTs = 0;
+        lastTs = 0;
+        points = 0;
+        gapCount = 0;
+        lossMs = 0;
+        stationaryMs = 0;
+        longestGapMs = 0;
+        longestGapStart = 0;
+        longestGapCause = null;
+        for (int i = 0; i < causeCounts.length; i++) causeCounts[i] = 0;
+        gapHead = 0;
+        gapStored = 0;
+        restartSinceLast = false;
+        dozeSinceLast = deviceIdle;
+        errorsSinceLast = 0;
+        filteredFixesSinceLast = 0;
+        pointsSinceFlush = 0;
+    }
+
+    private SharedPreferences prefs() {
+        return appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,296 @@
+package com.xiangfei.citylord;
+
+import java.util.Arrays;
+
+/**
+ * DeadReckoner — GNSS 断档期间的步数航位推算
+ *
+ * 隧道、地下通道、老城区窄巷里高德只返回错误或几百米精度的基站点。跑步中最后一个好定位之后
+ * 超过 OUTAGE_AFTER_MS 没有好定位，即进入断档：每个 TYPE_STEP_COUNTER 事件按
+ * “新增步数 × 学习到的步长” 沿最后可信方向推进一个插值点。
+ *
+ * 断档后的首个好定位到达时，推算终点与真实位置的误差按各插值点的累计推算距离线性分摊
+ * （起点误差 0、终点误差全额），只修正本次断档的点，不重算整条轨迹。
+ *
+ * 步长学习：相邻两次好定位之间步数 ≥ MIN_STEPS_FOR_STRIDE 时，用直线距离 / 步数做 EMA。
+ * 断档期间锚点不动，断档结束的好定位也会贡献一个覆盖整个断档的样本。
+ *
+ * 纯 Java，无 Android 依赖；所有公开方法 synchronized（步数在主线程、定位在引擎线程到达）。
+ */
+public final class DeadReckoner {
+
+    /** 没有步长样本时的默认步长（米） */
+    public static final double DEFAULT_STRIDE_M = 0.75;
+    static final double MIN_STRIDE_M = 0.3;
+    static final double MAX_STRIDE_M = 2.0;
+    private static final double STRIDE_EMA_ALPHA = 0.2;
+    static final int MIN_STEPS_FOR_STRIDE = 20;
+
+    /** 精度优于此值（米）的定位才作为推算锚点 */
+    public static final float GOOD_ACCURACY_M = 30f;
+    /** 距最后一个好定位超过此时长视为断档 */
+    public static final long OUTAGE_AFTER_MS = 4_000L;
+    /** 断档超过此时长停止推算（误差已不可控） */
+    static final long MAX_OUTAGE_MS = 10 * 60 * 1000L;
+    /** 单个事件步数增量上限：更大的跳变视为计步器重置 / 重启 */
+    private static final int MAX_STEP_DELTA = 500;
+    /** 好定位之间位移超过此值才用于更新方向（米） */
+    private static final double MIN_BEARING_DISPLACEMENT_M = 5.0;
+    private static final double EARTH_RADIUS_M = 6_371_008.8;
+
+    private double strideM = DEFAULT_STRIDE_M;
+
+    // ---- 最后一个好定位（推算锚点） ----
+    private boolean hasAnchor = false;
+    private double anchorLat;
+    private double anchorLng;
+    private long lastGoodElapsed;
+    private double bearingDeg = Double.NaN;
+
+    // ---- 步长学习锚点 ----
+    private double strideAnchorLat;
+    private double strideAnchorLng;
+    private long strideAnchorSteps = -1;
+
+    private long lastStepTotal = -1;
+
+    // ---- 当前断档内的推算点 ----
+    private double curLat;
+    private double curLng;
+    private int count = 0;
+    private double[] drLat = new double[64];
+    private double[] drLng = new double[64];
+    private double[] drCumDist = new double[64];
+    private double totalDist = 0;
+
+    public synchronized double getStride() {
+        return strideM;
+    }
+
+    /** 恢复上次学习的步长（超出合理范围则忽略） */
+    public synchronized void setStride(double stride) {
+        if (stride >= MIN_STRIDE_M && stride <= MAX_STRIDE_M) {
+            strideM = stride;
+        }
+    }
+
+    /** 新跑步开始：清空锚点与断档状态，保留已学习的步长 */
+    public synchronized void reset() {
+        hasAnchor = false;
+        bearingDeg = Double.NaN;
+        strideAnchorSteps = -1;
+        clearOutage();
+    }
+
+    /** 距最后好定位是否已超过断档阈值 */
+    public synchronized boolean isOutage(long nowElapsed) {
+        return hasAnchor && nowElapsed - lastGoodElapsed > OUTAGE_AFTER_MS;
+    }
+
+    /** 当前断档内已产生的插值点数 */
+    public synchronized int pendingCount() {
+        return count;
+    }
+
+    /**
+     * 一个好定位（精度 ≤ GOOD_ACCURACY_M）。
+     *
+     * @param bearing    高德方向角，speed 过低时不可信
+     * @param speed      速度（m/s）
+     * @return 若刚结束一次有插值点的断档，返回对这些点的修正；否则 null
+     */
+    public synchronized Reconciliation onGoodFix(double lat, double lng, long elapsedMs,
+                                                 float bearing, float speed) {
+        Reconciliation reconciliation = null;
+        if (count > 0) {
+            reconciliation = reconcile(lat, lng);
+        }
+        clearOutage();
+
+        // 方向：优先高德方向角（有速度时可信），否则用相邻好定位位移方向
+        if (speed >= 1.0f && bearing > 0f) {
+            bearingDeg = bearing;
+        } else if (hasAnchor && distance(anchorLat, anchorLng, lat, lng) >= MIN_BEARING_DISPLACEMENT_M) {
+            bearingDeg = initialBearing(anchorLat, anchorLng, lat, lng);
+        }
+
+        learnStride(lat, lng);
+
+        hasAnchor = true;
+        anchorLat = lat;
+        anchorLng = lng;
+        lastGoodElapsed = elapsedMs;
+        return reconciliation;
+    }
+
+    /**
+     * 一个 TYPE_STEP_COUNTER 事件（开机以来累计步数）。
+     *
+     * @return 断档中且可推算时返回新的插值点，否则 null
+     */
+    public synchronized Estimate onStepCount(long totalSteps, long eventElapsedMs) {
+        long previous = lastStepTotal;
+        lastStepTotal = totalSteps;
+        if (previous < 0) return null;
+
+        long delta = totalSteps - previous;
+        if (delta <= 0 || delta > MAX_STEP_DELTA) {
+            // 计步器重置：步长锚点作废
+            if (delta < 0 || delta > MAX_STEP_DELTA) strideAnchorSteps = -1;
+            return null;
+        }
+
+        if (!hasAnchor || Double.isNaN(bearingDeg)) return null;
+        long sinceGood = eventElapsedMs - lastGoodElapsed;
+        if (sinceGood <= OUTAGE_AFTER_MS || sinceGood > MAX_OUTAGE_MS) return null;
+
+        if (count == 0) {
+            curLat = anchorLat;
+            curLng = anchorLng;
+        }
+        double d = delta * strideM;
+        double[] next = destination(curLat, curLng, bearingDeg, d);
+        curLat = next[0];
+        curLng = next[1];
+        totalDist += d;
+        append(curLat, curLng, totalDist);
+
+        // 精度随推算距离增长：起步 5 米，每推算 100 米增加 5 米
+        float accuracy = (float) (5.0 + totalDist * 0.05);
+        return new Estimate(curLat, curLng, (float) bearingDeg, d, accuracy, count - 1);
+    }
+
+    private Reconciliation reconcile(double fixLat, double fixLng) {
+        double errLat = fixLat - curLat;
+        double errLng = fixLng - curLng;
+        double errorMeters = distance(curLat, curLng, fixLat, fixLng);
+
+        double[] lat = new double[count];
+        double[] lng = new double[count];
+        for (int i = 0; i < count; i++) {
+            double frac = totalDist > 0 ? drCumDist[i] / totalDist : (i + 1.0) / count;
+            lat[i] = drLat[i] + errLat * frac;
+            lng[i] = drLng[i] + errLng * frac;
+        }
+        return new Reconciliation(lat, lng, errorMeters, totalDist);
+    }
+
+    private void learnStride(double lat, double lng) {
+        if (lastStepTotal < 0) return;
+        if (strideAnchorSteps < 0) {
+            strideAnchorLat = lat;
+            strideAnchorLng = lng;
+            strideAnchorSteps = lastStepTotal;
+            return;
+        }
+        long steps = lastStepTotal - strideAnchorSteps;
+        if (steps < MIN_STEPS_FOR_STRIDE) return;
+
+        double sample = distance(strideAnchorLat, strideAnchorLng, lat, lng) / steps;
+        if (sample >= MIN_STRIDE_M && sample <= MAX_STRIDE_M) {
+            strideM = strideM * (1 - STRIDE_EMA_ALPHA) + sample * STRIDE_EMA_ALPHA;
+        }
+        strideAnchorLat = lat;
+        strideAnchorLng = lng;
+        strideAnchorSteps = lastStepTotal;
+    }
+
+    private void append(double lat, double lng, double cumDist) {
+        if (count == drLat.length) {
+            int capacity = count + (count >> 1);
+            drLat = Arrays.copyOf(drLat, capacity);
+            drLng = Arrays.copyOf(drLng, capacity);
+            drCumDist = Arrays.copyOf(drCumDist, capacity);
+        }
+        drLat[count] = lat;
+        drLng[count] = lng;
+        drCumDist[count] = cumDist;
+        count++;
+    }
+
+    private void clearOutage() {
+        count = 0;
+        totalDist = 0;
+    }
+
+    // -------------------------------------------------------------------
+    // Spherical geometry
+    // -------------------------------------------------------------------
+
+    static double distance(double lat1, double lng1, double lat2, double lng2) {
+        double p1 = Math.toRadians(lat1);
+        double p2 = Math.toRadians(lat2);
+        double dp = p2 - p1;
+        double dl = Math.toRadians(lng2 - lng1);
+        double a = Math.sin(dp / 2) * Math.sin(dp / 2)
+                + Math.cos(p1) * Math.cos(p2) * Math.sin(dl / 2) * Math.sin(dl / 2);
+        return 2 * EARTH_RADIUS_M * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    static double initialBearing(double lat1, double lng1, double lat2, double lng2) {
+        double p1 = Math.toRadians(lat1);
+        double p2 = Math.toRadians(lat2);
+        double dl = Math.toRadians(lng2 - lng1);
+        double y = Math.sin(dl) * Math.cos(p2);
+        double x = Math.cos(p1) * Math.sin(p2) - Math.sin(p1) * Math.cos(p2) * Math.cos(dl);
+        return (Math.toDegrees(Math.atan2(y, x)) + 360.0) % 360.0;
+    }
+
+    static double[] destination(double lat, double lng, double bearingDeg, double meters) {
+        double delta = meters / EARTH_RADIUS_M;
+        double theta = Math.toRadians(bearingDeg);
+        double p1 = Math.toRadians(lat);
+        double l1 = Math.toRadians(lng);
+        double p2 = Math.asin(Math.sin(p1) * Math.cos(delta) + Math.cos(p1) * Math.sin(delta) * Math.cos(theta));
+        double l2 = l1 + Math.atan2(Math.sin(theta) * Math.sin(delta) * Math.cos(p1),
+                Math.cos(delta) - Math.sin(p1) * Math.sin(p2));
+        return new double[]{Math.toDegrees(p2), Math.toDegrees(l2)};
+    }
+
+    // -------------------------------------------------------------------
+    // Results
+    // -------------------------------------------------------------------
+
+    /** 一个推算插值点 */
+    public static final class Estimate {
+        public final double lat;
+        public final double lng;
+        public final float bearing;
+        /** 本次推进的距离（米） */
+        public final double stepDistance;
+        /** 估计精度（米） */
+        public final float accuracy;
+        /** 在本次断档内的序号（与 Reconciliation 数组下标一致） */
+        public final int index;
+
+        Estimate(double lat, double lng, float bearing, double stepDistance, float accuracy, int index) {
+            this.lat = lat;
+            this.lng = lng;
+            this.bearing = bearing;
+            this.stepDistance = stepDistance;
+            this.accuracy = accuracy;
+            this.index = index;
+        }
+    }
+
+    /** 断档结束后对本次全部插值点的修正（下标与 Estimate.index 对应） */
+    public static final class Reconciliation {
+        public final double[] lat;
+        public final double[] lng;
+        /** 推算终点与真实定位的距离（米） */
+        public final double errorMeters;
+        /** 推算总距离（米） */
+        public final double reckonedMeters;
+
+        Reconciliation(double[] lat, double[] lng, double errorMeters, double reckonedMeters) {
+            this.lat = lat;
+            this.lng = lng;
+            this.errorMeters = errorMeters;
+            this.reckonedMeters = reckonedMeters;
+        }
+
+        public int count() {
+            return lat.length;
+        }
+    }
+}
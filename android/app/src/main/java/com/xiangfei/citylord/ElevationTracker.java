@@ -0,0 +1,122 @@
+package com.xiangfei.citylord;
+
+/**
+ * ElevationTracker — 气压计高度平滑与累计爬升 / 下降
+ *
+ * 气压（hPa）按标准大气换算为气压高度，一阶低通（时间常数 SMOOTHING_TAU_S，按事件时间戳计算系数，
+ * 批量上报时一串事件依次处理结果与逐个到达相同）。
+ * 累计采用滞回：平滑高度偏离上一个参考点超过 HYSTERESIS_M 才计入爬升 / 下降并移动参考点，
+ * 传感器噪声与天气造成的缓慢漂移不会被逐点累加。
+ *
+ * 气压高度受天气影响，绝对值只在标准大气下准确；爬升 / 下降只依赖短时间内的相对变化。
+ *
+ * 纯 Java；方法 synchronized（传感器回调在主线程，定位点在引擎线程读取）。
+ */
+public final class ElevationTracker {
+
+    static final double SEA_LEVEL_HPA = 1013.25;
+    /** 低通时间常数（秒） */
+    static final double SMOOTHING_TAU_S = 4.0;
+    /** 滞回阈值（米） */
+    static final double HYSTERESIS_M = 3.0;
+    /** 单个读数与平滑值相差超过此值（米）视为毛刺（开关门、进出车辆） */
+    private static final double SPIKE_M = 50.0;
+    /** 读数间隔超过此值（秒）重新起算，不把间隔内的变化计入累计 */
+    private static final double MAX_GAP_S = 60.0;
+
+    private boolean hasAltitude = false;
+    private long lastEventNs;
+    private double smoothed;
+    private double reference;
+    private double gain = 0;
+    private double loss = 0;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    /** 新会话：清空累计 */
+    public synchronized void reset() {
+        hasAltitude = false;
+        gain = 0;
+        loss = 0;
+        min = Double.NaN;
+        max = Double.NaN;
+    }
+
+    /** 服务恢复后接续同一会话：把已落盘的累计值加回 */
+    public synchronized void seedTotals(double previousGain, double previousLoss) {
+        gain += previousGain;
+        loss += previousLoss;
+    }
+
+    /**
+     * 一个气压读数。
+     *
+     * @param hPa         气压（SensorEvent.values[0]）
+     * @param timestampNs 事件时间（elapsedRealtimeNanos）
+     */
+    public synchronized void onPressure(float hPa, long timestampNs) {
+        if (hPa <= 0f) return;
+        double altitude = 44330.0 * (1.0 - Math.pow(hPa / SEA_LEVEL_HPA, 1.0 / 5.255));
+
+        if (!hasAltitude) {
+            reseed(altitude, timestampNs);
+            return;
+        }
+        double dt = (timestampNs - lastEventNs) / 1e9;
+        if (dt <= 0) return;
+        if (dt > MAX_GAP_S) {
+            reseed(altitude, timestampNs);
+            return;
+        }
+        lastEventNs = timestampNs;
+        if (Math.abs(altitude - smoothed) > SPIKE_M) return;
+
+        double alpha = 1.0 - Math.exp(-dt / SMOOTHING_TAU_S);
+        smoothed += alpha * (altitude - smoothed);
+
+        double delta = smoothed - reference;
+        if (delta >= HYSTERESIS_M) {
+            gain += delta;
+            reference = smoothed;
+        } else if (delta <= -HYSTERESIS_M) {
+            loss -= delta;
+            reference = smoothed;
+        }
+        if (Double.isNaN(min) || smoothed < min) min = smoothed;
+        if (Double.isNaN(max) || smoothed > max) max = smoothed;
+    }
+
+    private void reseed(double altitude, long timestampNs) {
+        hasAltitude = true;
+        lastEventNs = timestampNs;
+        smoothed = altitude;
+        reference = altitude;
+        if (Double.isNaN(min) || altitude < min) min = altitude;
+        if (Double.isNaN(max) || altitude > max) max = altitude;
+    }
+
+    public synchronized boolean hasAltitude() {
+        return hasAltitude;
+    }
+
+    /** 平滑后的气压高度（米），无读数时 NaN */
+    public synchronized double getAltitude() {
+        return hasAltitude ? smoothed : Double.NaN;
+    }
+
+    public synchronized double getGain() {
+        return gain;
+    }
+
+    public synchronized double getLoss() {
+        return loss;
+    }
+
+    public synchronized double getMin() {
+        return min;
+    }
+
+    public synchronized double getMax() {
+        return max;
+    }
+}
@@ -0,0 +1,308 @@
+package com.xiangfei.citylord;
+
+import com.xiangfei.citylord.db.LocationEntity;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * GhostRunner — 与历史跑步（"幽灵"）逐点对比
+ *
+ * 启动时把指定会话的轨迹一次性载入紧凑的原始数组：
+ *  - elapsed[i]：相对幽灵那次跑步 started_at 的毫秒数（单调不减；没有 started_at 时相对首点）。
+ *    Service 的用时同样从本次 started_at 起算，两条时间轴对齐，首次定位的等待时间不会变成固定的领先 / 落后；
+ *  - distance[i]：沿轨迹累计距离，米（单调不减，单步 > MAX_STEP_M 视为漂移不累计，与 Service 里程口径一致）；
+ *  - lats / lngs：用于给出幽灵当前位置。
+ *
+ * 每个定位点只做两次二分查找 + 线性插值，不查库、不经过 JS：
+ *  - 按本次已用时间查幽灵位置与幽灵里程 → 领先 / 落后米数 = 我的里程 − 幽灵里程；
+ *  - 按我的里程查幽灵到达同一里程的用时 → 领先 / 落后秒数 = 幽灵用时 − 我的用时。
+ * 幽灵首个定位之前停在起点，超出幽灵轨迹终点时停在终点；我的里程超过幽灵总里程时秒差不可用（NaN）。
+ *
+ * 轨迹取自本机 location_records：已同步的点只保留最近 3 天（purgeAckedOlderThan），更早的跑步无法作为幽灵。
+ *
+ * 语音：每 VOICE_INTERVAL_MS 播报一次差距；领先 / 落后发生翻转时立即播报（间隔不小于 MIN_SWAP_VOICE_GAP_MS）。
+ *
+ * 进程级单例（同 RouteFollower）：Plugin / Service 在 DB 线程 load()，Service 在定位引擎线程逐点 onFix()。方法 synchronized。
+ */
+public final class GhostRunner {
+
+    /** 相邻点距离超过此值视为漂移，不计入累计里程（同 Service 的里程累计） */
+    static final double MAX_STEP_M = 100.0;
+    static final double MIN_STEP_M = 0.5;
+    /** 定期播报间隔 */
+    static final long VOICE_INTERVAL_MS = 120_000;
+    /** 领先 / 落后翻转播报的最小间隔，避免并肩跑时反复播报 */
+    static final long MIN_SWAP_VOICE_GAP_MS = 30_000;
+    /** 米差在此范围内视为并肩，不触发翻转播报 */
+    static final double SWAP_DEADBAND_M = 5.0;
+    public static final int MAX_GHOST_POINTS = 100_000;
+
+    private static final double METERS_PER_DEG = 6378137.0 * Math.PI / 180.0;
+
+    public static final int ANNOUNCE_NONE = 0;
+    public static final int ANNOUNCE_PERIODIC = 1;
+    public static final int ANNOUNCE_TOOK_LEAD = 2;
+    public static final int ANNOUNCE_LOST_LEAD = 3;
+
+    /** 最近一次对比结果（onFix 返回的是内部对象，调用方不要跨线程持有） */
+    public static final class State {
+        /** 是否已对比过至少一个定位点 */
+        public boolean valid;
+        public double ghostLat;
+        public double ghostLng;
+        /** 幽灵在同一用时下的里程，米 */
+        public double ghostDistance;
+        /** 领先为正：米 / 秒；秒差不可用时为 NaN */
+        public double leadMeters;
+        public double leadSeconds = Double.NaN;
+        /** 幽灵已跑完全程 */
+        public boolean ghostFinished;
+        /** 本次 onFix 应播报的类型（ANNOUNCE_*） */
+        public int announce;
+    }
+
+    private static volatile GhostRunner INSTANCE = null;
+
+    public static GhostRunner getInstance() {
+        if (INSTANCE == null) {
+            synchronized (GhostRunner.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new GhostRunner();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private String sessionId = null;
+    private int count = 0;
+    private long[] elapsed = new long[0];
+    private double[] distance = new double[0];
+    private double[] lats = new double[0];
+    private double[] lngs = new double[0];
+
+    private final State state = new State();
+    /** 上次播报时的本次用时；-1 表示本次跑步尚未播报 */
+    private long lastVoiceElapsed = -1;
+    /** 上次播报时的领先方向：1 领先、-1 落后、0 未知 */
+    private int lastSign = 0;
+
+    private GhostRunner() {
+    }
+
+    /**
+     * 载入幽灵轨迹（按时间升序）。替换已有幽灵并重置对比状态。
+     *
+     * @param startedAt 幽灵那次跑步的开始时刻（session_summaries.startedAt）；≤ 0 或晚于首点时以首点为零点
+     * @throws IllegalArgumentException 点数不足 2、超过 MAX_GHOST_POINTS 或数组长度不一致
+     */
+    public synchronized void load(String sessionId, long startedAt, long[] timestamps, double[] lats, double[] lngs) {
+        int n = timestamps.length;
+        if (lats.length != n || lngs.length != n) {
+            throw new IllegalArgumentException("timestamps / lats / lngs 长度不一致");
+        }
+        if (n < 2) throw new IllegalArgumentException("幽灵轨迹至少需要 2 个点");
+        if (n > MAX_GHOST_POINTS) throw new IllegalArgumentException("幽灵轨迹点数超过上限 " + MAX_GHOST_POINTS);
+
+        long[] e = new long[n];
+        double[] d = new double[n];
+        long t0 = startedAt > 0 && startedAt <= timestamps[0] ? startedAt : timestamps[0];
+        e[0] = timestamps[0] - t0;
+        for (int i = 1; i < n; i++) {
+            // 时间戳乱序时钳位，保证单调供二分
+            e[i] = Math.max(e[i - 1], timestamps[i] - t0);
+            double step = distanceMeters(lats[i - 1], lngs[i - 1], lats[i], lngs[i]);
+            d[i] = d[i - 1] + (step > MIN_STEP_M && step < MAX_STEP_M ? step : 0.0);
+        }
+        this.sessionId = sessionId;
+        this.count = n;
+        this.elapsed = e;
+        this.distance = d;
+        this.lats = Arrays.copyOf(lats, n);
+        this.lngs = Arrays.copyOf(lngs, n);
+        restart();
+    }
+
+    /**
+     * 由 Room 中的会话定位点载入（按时间升序）：跳过模拟定位与精度差于 RunCellTracker.MAX_ACCURACY_M 的真实定位，
+     * 航位推算插值点保留（断档期间的位置估计）。
+     *
+     * @param startedAt 同 load；会话没有汇总记录时传 0
+     */
+    public void loadSession(String sessionId, long startedAt, List<LocationEntity> points) {
+        int n = 0;
+        long[] timestamps = new long[points.size()];
+        double[] lats = new double[points.size()];
+        double[] lngs = new double[points.size()];
+        for (LocationEntity p : points) {
+            if (p.isMock) continue;
+            if (!p.isInterpolated && p.accuracy > RunCellTracker.MAX_ACCURACY_M) continue;
+            timestamps[n] = p.timestamp;
+            lats[n] = p.latitude;
+            lngs[n] = p.longitude;
+            n++;
+        }
+        load(sessionId, startedAt, Arrays.copyOf(timestamps, n), Arrays.copyOf(lats, n), Arrays.copyOf(lngs, n));
+    }
+
+    public synchronized void clear() {
+        sessionId = null;
+        count = 0;
+        elapsed = new long[0];
+        distance = new double[0];
+        lats = new double[0];
+        lngs = new double[0];
+        restart();
+    }
+
+    /** 新跑步开始：保留幽灵轨迹，清空对比与播报状态 */
+    public synchronized void restart() {
+        state.valid = false;
+        state.ghostLat = 0;
+        state.ghostLng = 0;
+        state.ghostDistance = 0;
+        state.leadMeters = 0;
+        state.leadSeconds = Double.NaN;
+        state.ghostFinished = false;
+        state.announce = ANNOUNCE_NONE;
+        lastVoiceElapsed = -1;
+        lastSign = 0;
+    }
+
+    public synchronized boolean isActive() {
+        return count >= 2;
+    }
+
+    public synchronized String getSessionId() {
+        return sessionId;
+    }
+
+    public synchronized int getPointCount() {
+        return count;
+    }
+
+    /** 幽灵总用时，毫秒 */
+    public synchronized long getDuration() {
+        return count == 0 ? 0 : elapsed[count - 1];
+    }
+
+    /** 幽灵总里程，米 */
+    public synchronized double getTotalDistance() {
+        return count == 0 ? 0 : distance[count - 1];
+    }
+
+    /**
+     * 与幽灵对比一个定位点。
+     *
+     * @param elapsedMs 本次跑步已用时间（毫秒，从本次 started_at 起算）
+     * @param distanceM 本次跑步累计里程（米）
+     * @return 内部状态对象；未载入幽灵时返回 null
+     */
+    public synchronized State onFix(long elapsedMs, double distanceM) {
+        if (count < 2) return null;
+        if (elapsedMs < 0) elapsedMs = 0;
+        int last = count - 1;
+
+        // 1. 幽灵在同一用时下的位置 / 里程
+        if (elapsedMs < elapsed[0]) {
+            state.ghostLat = lats[0];
+            state.ghostLng = lngs[0];
+            state.ghostDistance = 0;
+            state.ghostFinished = false;
+        } else if (elapsedMs >= elapsed[last]) {
+            state.ghostLat = lats[last];
+            state.ghostLng = lngs[last];
+            state.ghostDistance = distance[last];
+            state.ghostFinished = true;
+        } else {
+            int i = upperBound(elapsed, count, elapsedMs) - 1;  // elapsed[i] <= elapsedMs < elapsed[i + 1]
+            long span = elapsed[i + 1] - elapsed[i];
+            double f = span <= 0 ? 0.0 : (double) (elapsedMs - elapsed[i]) / span;
+            state.ghostLat = lats[i] + (lats[i + 1] - lats[i]) * f;
+            state.ghostLng = lngs[i] + (lngs[i + 1] - lngs[i]) * f;
+            state.ghostDistance = distance[i] + (distance[i + 1] - distance[i]) * f;
+            state.ghostFinished = false;
+        }
+        state.leadMeters = distanceM - state.ghostDistance;
+
+        // 2. 幽灵到达我当前里程时的用时
+        if (distanceM > distance[last]) {
+            state.leadSeconds = Double.NaN;
+        } else {
+            int j = lowerBound(distance, count, distanceM);  // distance[j] >= distanceM
+            double ghostElapsed;
+            if (j == 0) {
+                ghostElapsed = elapsed[0];
+            } else {
+                double span = distance[j] - distance[j - 1];
+                double f = span <= 0 ? 0.0 : (distanceM - distance[j - 1]) / span;
+                ghostElapsed = elapsed[j - 1] + (elapsed[j] - elapsed[j - 1]) * f;
+            }
+            state.leadSeconds = (ghostElapsed - elapsedMs) / 1000.0;
+        }
+        state.valid = true;
+        state.announce = decideAnnouncement(elapsedMs);
+        return state;
+    }
+
+    /** 最近一次对比结果的拷贝（跨线程读取用） */
+    public synchronized State getState() {
+        State copy = new State();
+        copy.valid = state.valid;
+        copy.ghostLat = state.ghostLat;
+        copy.ghostLng = state.ghostLng;
+        copy.ghostDistance = state.ghostDistance;
+        copy.leadMeters = state.leadMeters;
+        copy.leadSeconds = state.leadSeconds;
+        copy.ghostFinished = state.ghostFinished;
+        copy.announce = state.announce;
+        return copy;
+    }
+
+    private int decideAnnouncement(long elapsedMs) {
+        int sign = state.leadMeters > SWAP_DEADBAND_M ? 1 : state.leadMeters < -SWAP_DEADBAND_M ? -1 : 0;
+        int result = ANNOUNCE_NONE;
+        if (sign != 0 && lastSign != 0 && sign != lastSign
+                && (lastVoiceElapsed < 0 || elapsedMs - lastVoiceElapsed >= MIN_SWAP_VOICE_GAP_MS)) {
+            result = sign > 0 ? ANNOUNCE_TOOK_LEAD : ANNOUNCE_LOST_LEAD;
+        } else if (elapsedMs >= VOICE_INTERVAL_MS
+                && (lastVoiceElapsed < 0 || elapsedMs - lastVoiceElapsed >= VOICE_INTERVAL_MS)) {
+            result = ANNOUNCE_PERIODIC;
+        }
+        if (result != ANNOUNCE_NONE) lastVoiceElapsed = elapsedMs;
+        // 翻转未播报（间隔太近）时保留旧方向，待间隔满足后再播
+        if (sign != 0 && (lastSign == 0 || result != ANNOUNCE_NONE)) lastSign = sign;
+        return result;
+    }
+
+    /** 第一个 > key 的下标 */
+    private static int upperBound(long[] sorted, int n, long key) {
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] <= key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /** 第一个 >= key 的下标 */
+    private static int lowerBound(double[] sorted, int n, double key) {
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private static double distanceMeters(double lat1, double lng1, double lat2, double lng2) {
+        double x = (lng2 - lng1) * METERS_PER_DEG * Math.cos(Math.toRadians((lat1 + lat2) / 2.0));
+        double y = (lat2 - lat1) * METERS_PER_DEG;
+        return Math.hypot(x, y);
+    }
+}
@@ -0,0 +1,337 @@
+package com.xiangfei.citylord;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import com.xiangfei.citylord.db.AppDatabase;
+import com.xiangfei.citylord.db.HeatmapTileDao;
+import com.xiangfei.citylord.db.HeatmapTileEntity;
+import com.xiangfei.citylord.db.SpatialIndex;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * HeatmapStore — 个人"跑过哪里"热力图：多级瓦片上的访问计数（增量维护）
+ *
+ * 瓦片为 Web Mercator z/x/y（MIN_ZOOM..MAX_ZOOM，与地图瓦片对齐，坐标同为 GCJ-02），
+ * 每瓦片 BINS × BINS 个计数格（256 像素瓦片上 4 像素一格，z16 约 9 米）。
+ * 计入的点与 location_records 中跑步会话的真实定位一致（不含 idle 与航位推算插值点）。
+ *
+ * 一致性靠每个瓦片的 throughId（已计入的最大 location_records.id）：
+ *  - Service 每落盘一个点调用 onPoint()，只更新已存在（内存或 heatmap_tiles）的瓦片；
+ *    已建瓦片的键集合常驻内存（builtTiles），未建的瓦片不必逐 zoom 查 Room；
+ *  - 不存在的瓦片不创建，首次被查询时按 spatialKey 索引补算 id > throughId 的点（即从 0 重建），
+ *    因此升级前的历史轨迹、进程被杀时尚未写回的增量都会在下次加载时补齐；
+ *  - 瓦片是聚合结果，清理旧记录（purgeAckedOlderThan，只删 3 天前的点）后保留：被清理的点早已计入，
+ *    热力图覆盖全部历史，而不是只剩最近 3 天。
+ *
+ * 内存有界：最近使用的 MAX_RESIDENT_TILES 个瓦片常驻（每个 16 KB），淘汰时写回 Room，
+ * 另每 FLUSH_EVERY_POINTS 个点批量写回一次。
+ *
+ * 线程模型：onPoint / onPurge / flush 在 Service 的 dbExecutor，query 在 Plugin 的查询线程，方法均 synchronized。
+ */
+public final class HeatmapStore {
+
+    private static final String TAG = "HeatmapStore";
+
+    public static final int MIN_ZOOM = 10;
+    public static final int MAX_ZOOM = 16;
+    /** 每瓦片每边的计数格数 */
+    public static final int BINS = 64;
+    /** 单次查询最多返回的瓦片数（视口过大时应降低 zoom） */
+    public static final int MAX_QUERY_TILES = 64;
+    static final int MAX_RESIDENT_TILES = 96;
+    private static final int FLUSH_EVERY_POINTS = 60;
+
+    /** 一个瓦片；query() 返回的是副本 */
+    public static final class Tile {
+        public final int zoom;
+        public final int x;
+        public final int y;
+        /** 行优先，第 0 行在北 */
+        public final int[] counts;
+        public long total;
+        public int max;
+        long throughId;
+        boolean dirty;
+
+        Tile(int zoom, int x, int y, int[] counts) {
+            this.zoom = zoom;
+            this.x = x;
+            this.y = y;
+            this.counts = counts;
+        }
+    }
+
+    // ---- 单例 ----
+    private static volatile HeatmapStore INSTANCE;
+
+    public static HeatmapStore getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (HeatmapStore.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new HeatmapStore(context.getApplicationContext());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private final Context appContext;
+    private final LinkedHashMap<Long, Tile> resident = new LinkedHashMap<Long, Tile>(MAX_RESIDENT_TILES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Tile> eldest) {
+            if (size() <= MAX_RESIDENT_TILES) return false;
+            if (eldest.getValue().dirty) writeBack(eldest.getValue());
+            return true;
+        }
+    };
+    /** heatmap_tiles 中已建瓦片的键（首次使用时从 Room 读入），null 表示尚未读入 */
+    private Set<Long> builtTiles = null;
+    private int pointsSinceFlush = 0;
+
+    private HeatmapStore(Context appContext) {
+        this.appContext = appContext;
+    }
+
+    // -------------------------------------------------------------------
+    // Updates
+    // -------------------------------------------------------------------
+
+    /** 一个已落盘的跑步定位点（rowId 为 location_records.id，须已插入） */
+    public synchronized void onPoint(long rowId, double lat, double lng) {
+        try {
+            for (int z = MIN_ZOOM; z <= MAX_ZOOM; z++) {
+                double wx = worldX(lng, z);
+                double wy = worldY(lat, z);
+                int x = (int) Math.floor(wx);
+                int y = (int) Math.floor(wy);
+                Tile tile = load(z, x, y, false);
+                // 未建的瓦片跳过：首次查询时从 location_records 补算，本点也会包含在内
+                if (tile == null || rowId <= tile.throughId) continue;
+                add(tile, bin(wx - x), bin(wy - y));
+                tile.throughId = rowId;
+            }
+            if (++pointsSinceFlush >= FLUSH_EVERY_POINTS) flush();
+        } catch (Exception e) {
+            Log.w(TAG, "热力图增量更新失败: " + e.getMessage());
+        }
+    }
+
+    /** location_records 被清理后调用：瓦片保留（被清理的点早已计入），只把常驻增量写回 */
+    public synchronized void onPurge() {
+        flush();
+        Log.i(TAG, "定位记录已清理，热力图瓦片保留: " + (builtTiles != null ? builtTiles.size() : dao().count()));
+    }
+
+    /** 把内存中的增量写回 Room */
+    public synchronized void flush() {
+        List<HeatmapTileEntity> rows = new ArrayList<>();
+        for (Tile tile : resident.values()) {
+            if (tile.dirty) rows.add(toEntity(tile));
+        }
+        pointsSinceFlush = 0;
+        if (rows.isEmpty()) return;
+        dao().upsertAll(rows);
+        for (Tile tile : resident.values()) {
+            tile.dirty = false;
+        }
+    }
+
+    // -------------------------------------------------------------------
+    // Query
+    // -------------------------------------------------------------------
+
+    /**
+     * 视口内有访问记录的瓦片（副本），zoom 超出范围时夹到 [MIN_ZOOM, MAX_ZOOM]。
+     *
+     * @throws IllegalArgumentException 视口在该 zoom 下超过 MAX_QUERY_TILES 个瓦片
+     */
+    public synchronized List<Tile> query(int zoom, double minLat, double minLng, double maxLat, double maxLng) {
+        int z = clampZoom(zoom);
+        int x0 = (int) Math.floor(worldX(minLng, z));
+        int x1 = (int) Math.floor(worldX(maxLng, z));
+        int y0 = (int) Math.floor(worldY(maxLat, z));
+        int y1 = (int) Math.floor(worldY(minLat, z));
+        long tiles = (long) (x1 - x0 + 1) * (y1 - y0 + 1);
+        if (tiles > MAX_QUERY_TILES) {
+            throw new IllegalArgumentException("viewport covers " + tiles + " tiles at zoom " + z
+                    + " (max " + MAX_QUERY_TILES + ")");
+        }
+        List<Tile> out = new ArrayList<>();
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                Tile tile = load(z, x, y, true);
+                if (tile.total == 0) continue;
+                Tile copy = new Tile(z, x, y, tile.counts.clone());
+                copy.total = tile.total;
+                copy.max = tile.max;
+                out.add(copy);
+            }
+        }
+        // 新建 / 补算过的瓦片立即落盘，下次查询无需重扫
+        flush();
+        return out;
+    }
+
+    public synchronized int getResidentCount() {
+        return resident.size();
+    }
+
+    public static int clampZoom(int zoom) {
+        return Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom));
+    }
+
+    // -------------------------------------------------------------------
+    // Tiles
+    // -------------------------------------------------------------------
+
+    /**
+     * 常驻 → Room → （create 时）新建，加载后补算 id > throughId 的点。
+     *
+     * @return create 为 false 且瓦片从未建立时返回 null
+     */
+    private Tile load(int z, int x, int y, boolean create) {
+        long key = tileKey(z, x, y);
+        Tile tile = resident.get(key);
+        if (tile != null) return tile;
+
+        Set<Long> built = builtTiles();
+        if (!create && !built.contains(key)) return null;
+        HeatmapTileEntity row = built.contains(key) ? dao().get(z, x, y) : null;
+        if (row != null) {
+            tile = new Tile(z, x, y, decode(row.counts));
+            tile.total = row.total;
+            tile.throughId = row.throughId;
+            for (int count : tile.counts) tile.max = Math.max(tile.max, count);
+        } else if (create) {
+            tile = new Tile(z, x, y, new int[BINS * BINS]);
+            tile.dirty = true;
+            built.add(key);
+        } else {
+            return null;
+        }
+        catchUp(tile);
+        resident.put(key, tile);
+        return tile;
+    }
+
+    private Set<Long> builtTiles() {
+        if (builtTiles == null) {
+            builtTiles = new HashSet<>(dao().getTileKeys());
+        }
+        return builtTiles;
+    }
+
+    /** 从 location_records 补算瓦片范围内 id > throughId 的点（spatialKey 索引，Cursor 流式读取） */
+    private void catchUp(Tile tile) {
+        double n = 1 << tile.zoom;
+        double west = tile.x / n * 360.0 - 180.0;
+        double east = (tile.x + 1) / n * 360.0 - 180.0;
+        double north = tileLat(tile.y, n);
+        double south = tileLat(tile.y + 1, n);
+        int added = 0;
+        try (Cursor cursor = AppDatabase.getInstance(appContext)
+                .query(SpatialIndex.trackPointsAfter(south, west, north, east, tile.throughId))) {
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                double wx = worldX(cursor.getDouble(2), tile.zoom);
+                double wy = worldY(cursor.getDouble(1), tile.zoom);
+                tile.throughId = Math.max(tile.throughId, id);
+                // 矩形闭区间：恰在东 / 南边界上的点属于相邻瓦片
+                if ((int) Math.floor(wx) != tile.x || (int) Math.floor(wy) != tile.y) continue;
+                add(tile, bin(wx - tile.x), bin(wy - tile.y));
+                added++;
+            }
+        }
+        if (added > 0) {
+            tile.dirty = true;
+            Log.d(TAG, "瓦片补算 z" + tile.zoom + "/" + tile.x + "/" + tile.y + ": +" + added);
+        }
+    }
+
+    private static void add(Tile tile, int bx, int by) {
+        int i = by * BINS + bx;
+        int count = ++tile.counts[i];
+        if (count > tile.max) tile.max = count;
+        tile.total++;
+        tile.dirty = true;
+    }
+
+    private void writeBack(Tile tile) {
+        try {
+            List<HeatmapTileEntity> rows = new ArrayList<>(1);
+            rows.add(toEntity(tile));
+            dao().upsertAll(rows);
+            tile.dirty = false;
+        } catch (Exception e) {
+            // 丢失的增量在下次加载时由 throughId 补算
+            Log.w(TAG, "热力图瓦片写回失败: " + e.getMessage());
+        }
+    }
+
+    private HeatmapTileDao dao() {
+        return AppDatabase.getInstance(appContext).heatmapTileDao();
+    }
+
+    private static HeatmapTileEntity toEntity(Tile tile) {
+        HeatmapTileEntity row = new HeatmapTileEntity();
+        row.zoom = tile.zoom;
+        row.x = tile.x;
+        row.y = tile.y;
+        // 空瓦片只存标记行（表示"已建且无访问"），解码时按全 0 处理
+        row.counts = tile.total == 0 ? new byte[0] : encode(tile.counts);
+        row.total = tile.total;
+        row.throughId = tile.throughId;
+        return row;
+    }
+
+    // -------------------------------------------------------------------
+    // Projection / codec
+    // -------------------------------------------------------------------
+
+    static double worldX(double lng, int zoom) {
+        return (lng + 180.0) / 360.0 * (1 << zoom);
+    }
+
+    static double worldY(double lat, int zoom) {
+        double clamped = Math.max(-85.05112878, Math.min(85.05112878, lat));
+        double rad = Math.toRadians(clamped);
+        return (1.0 - Math.log(Math.tan(rad) + 1.0 / Math.cos(rad)) / Math.PI) / 2.0 * (1 << zoom);
+    }
+
+    private static double tileLat(int y, double n) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1.0 - 2.0 * y / n))));
+    }
+
+    private static int bin(double fraction) {
+        return Math.min(BINS - 1, Math.max(0, (int) (fraction * BINS)));
+    }
+
+    private static long tileKey(int z, int x, int y) {
+        return ((long) z << 58) | ((long) x << 29) | y;
+    }
+
+    /** 计数格 → BLOB / 返回给 JS 的打包数组（int32 大端，行优先） */
+    public static byte[] encode(int[] counts) {
+        ByteBuffer buf = ByteBuffer.allocate(counts.length * 4);
+        for (int count : counts) buf.putInt(count);
+        return buf.array();
+    }
+
+    static int[] decode(byte[] blob) {
+        int[] counts = new int[BINS * BINS];
+        ByteBuffer buf = ByteBuffer.wrap(blob);
+        for (int i = 0; i < counts.length && buf.remaining() >= 4; i++) {
+            counts[i] = buf.getInt();
+        }
+        return counts;
+    }
+}
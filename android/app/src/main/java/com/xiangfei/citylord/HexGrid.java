@@ -0,0 +1,228 @@
+package com.xiangfei.citylord;
+
+/**
+ * HexGrid — 纯 Java 六边形格网索引（与 JS 层 HEX_RADIUS_METERS = 10 的领地格一致）
+ *
+ * 投影：Web Mercator 平面按 cos(REFERENCE_LAT) 缩放，使参考纬度处平面单位 ≈ 地面米；
+ * 在该平面上铺尖顶六边形（pointy-top），轴坐标 (q, r)。
+ * 格子大小随纬度按 cos(lat) / cos(30°) 变化（北京约 0.88，广州约 1.06），但全球编号稳定唯一。
+ *
+ * Cell ID（64 位）：
+ *   bit 56–59  格网标识 ID_TAG（非 0，保证任何合法 ID ≠ 0）
+ *   bit 28–55  q + AXIS_OFFSET
+ *   bit  0–27  r + AXIS_OFFSET
+ * JS 侧以 16 进制字符串传递（{@link #toString(long)}），避免 Number 丢精度。
+ *
+ * API 与 H3 对齐（latLngToCell / cellToLatLng / gridDisk / gridDistance / areNeighborCells），
+ * 以后切换到官方 H3 绑定时调用方不需要改动。
+ */
+public final class HexGrid {
+
+    /** 领地格外接圆半径（米，参考纬度处） */
+    public static final double DEFAULT_RADIUS_M = 10.0;
+    static final double REFERENCE_LAT = 30.0;
+    private static final double EARTH_RADIUS_M = 6378137.0;
+    private static final double MAX_LAT = 85.05112878;
+    private static final double SQRT3 = Math.sqrt(3.0);
+
+    private static final long ID_TAG = 0x1L << 56;
+    private static final int AXIS_BITS = 28;
+    private static final long AXIS_MASK = (1L << AXIS_BITS) - 1;
+    private static final int AXIS_OFFSET = 1 << (AXIS_BITS - 1);
+
+    /** 邻格方向（轴坐标），顺序与 gridDisk 的环遍历一致 */
+    private static final int[] DIR_Q = {1, 1, 0, -1, -1, 0};
+    private static final int[] DIR_R = {0, -1, -1, 0, 1, 1};
+
+    private static final HexGrid DEFAULT = new HexGrid(DEFAULT_RADIUS_M);
+
+    public static HexGrid getDefault() {
+        return DEFAULT;
+    }
+
+    private final double size;
+    private final double scale;
+
+    public HexGrid(double radiusMeters) {
+        this.size = radiusMeters;
+        this.scale = Math.cos(Math.toRadians(REFERENCE_LAT));
+    }
+
+    public double getRadiusMeters() {
+        return size;
+    }
+
+    // -------------------------------------------------------------------
+    // Indexing
+    // -------------------------------------------------------------------
+
+    public long latLngToCell(double lat, double lng) {
+        double x = projectX(lng);
+        double y = projectY(lat);
+        double qf = (SQRT3 / 3.0 * x - y / 3.0) / size;
+        double rf = (2.0 / 3.0 * y) / size;
+        return roundToCell(qf, rf);
+    }
+
+    /** 格子中心 [lat, lng] */
+    public double[] cellToLatLng(long cell) {
+        int q = q(cell);
+        int r = r(cell);
+        double x = size * SQRT3 * (q + r / 2.0);
+        double y = size * 1.5 * r;
+        return new double[]{unprojectLat(y), unprojectLng(x)};
+    }
+
+    /** 六个顶点 [lat0, lng0, lat1, lng1, ...]，逆时针 */
+    public double[] cellToBoundary(long cell) {
+        int q = q(cell);
+        int r = r(cell);
+        double cx = size * SQRT3 * (q + r / 2.0);
+        double cy = size * 1.5 * r;
+        double[] out = new double[12];
+        for (int i = 0; i < 6; i++) {
+            double angle = Math.toRadians(60.0 * i - 30.0);
+            out[i * 2] = unprojectLat(cy + size * Math.sin(angle));
+            out[i * 2 + 1] = unprojectLng(cx + size * Math.cos(angle));
+        }
+        return out;
+    }
+
+    // -------------------------------------------------------------------
+    // Topology
+    // -------------------------------------------------------------------
+
+    /** 6 个相邻格 */
+    public static long[] neighbors(long cell) {
+        int q = q(cell);
+        int r = r(cell);
+        long[] out = new long[6];
+        for (int d = 0; d < 6; d++) {
+            out[d] = pack(q + DIR_Q[d], r + DIR_R[d]);
+        }
+        return out;
+    }
+
+    public static boolean areNeighborCells(long a, long b) {
+        return gridDistance(a, b) == 1;
+    }
+
+    /** 两格之间的最少步数 */
+    public static int gridDistance(long a, long b) {
+        int dq = q(a) - q(b);
+        int dr = r(a) - r(b);
+        return (Math.abs(dq) + Math.abs(dr) + Math.abs(dq + dr)) / 2;
+    }
+
+    /**
+     * k 环内全部格子（含中心），共 1 + 3k(k+1) 个：中心在前，之后按环由内向外。
+     */
+    public static long[] gridDisk(long cell, int k) {
+        if (k < 0) throw new IllegalArgumentException("k must be >= 0");
+        long[] out = new long[1 + 3 * k * (k + 1)];
+        int n = 0;
+        out[n++] = cell;
+        int cq = q(cell);
+        int cr = r(cell);
+        for (int ring = 1; ring <= k; ring++) {
+            // 从方向 4 的第 ring 个格子出发，沿 6 条边各走 ring 步
+            int q = cq + DIR_Q[4] * ring;
+            int r = cr + DIR_R[4] * ring;
+            for (int side = 0; side < 6; side++) {
+                for (int step = 0; step < ring; step++) {
+                    out[n++] = pack(q, r);
+                    q += DIR_Q[side];
+                    r += DIR_R[side];
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * from → to 直线经过的格子（含两端，共 gridDistance + 1 个），写入 out 并返回个数。
+     * out 长度不足时只写前 out.length 个。
+     */
+    public static int gridPath(long from, long to, long[] out) {
+        int n = gridDistance(from, to);
+        int fq = q(from), fr = r(from);
+        int tq = q(to), tr = r(to);
+        int count = 0;
+        for (int i = 0; i <= n && count < out.length; i++) {
+            double t = n == 0 ? 0.0 : (double) i / n;
+            // 微小偏移避免恰好落在格边时取整抖动
+            double qf = fq + (tq - fq) * t + 1e-6;
+            double rf = fr + (tr - fr) * t + 1e-6;
+            out[count++] = roundToCell(qf, rf);
+        }
+        return count;
+    }
+
+    // -------------------------------------------------------------------
+    // ID encoding
+    // -------------------------------------------------------------------
+
+    public static boolean isValidCell(long cell) {
+        return (cell & ~((1L << (2 * AXIS_BITS)) - 1)) == ID_TAG;
+    }
+
+    public static String toString(long cell) {
+        return Long.toHexString(cell);
+    }
+
+    public static long fromString(String cell) {
+        return Long.parseUnsignedLong(cell, 16);
+    }
+
+    static long pack(int q, int r) {
+        return ID_TAG | (((long) (q + AXIS_OFFSET) & AXIS_MASK) << AXIS_BITS) | ((long) (r + AXIS_OFFSET) & AXIS_MASK);
+    }
+
+    static int q(long cell) {
+        return (int) ((cell >>> AXIS_BITS) & AXIS_MASK) - AXIS_OFFSET;
+    }
+
+    static int r(long cell) {
+        return (int) (cell & AXIS_MASK) - AXIS_OFFSET;
+    }
+
+    /** 立方坐标取整 */
+    private static long roundToCell(double qf, double rf) {
+        double sf = -qf - rf;
+        long q = Math.round(qf);
+        long r = Math.round(rf);
+        long s = Math.round(sf);
+        double dq = Math.abs(q - qf);
+        double dr = Math.abs(r - rf);
+        double ds = Math.abs(s - sf);
+        if (dq > dr && dq > ds) {
+            q = -r - s;
+        } else if (dr > ds) {
+            r = -q - s;
+        }
+        return pack((int) q, (int) r);
+    }
+
+    // -------------------------------------------------------------------
+    // Projection
+    // -------------------------------------------------------------------
+
+    /** 平面坐标（米，参考纬度处），供 HexPolyfill 在同一平面上扫描 */
+    double projectX(double lng) {
+        return EARTH_RADIUS_M * Math.toRadians(lng) * scale;
+    }
+
+    double projectY(double lat) {
+        double clamped = Math.max(-MAX_LAT, Math.min(MAX_LAT, lat));
+        double phi = Math.toRadians(clamped);
+        return EARTH_RADIUS_M * Math.log(Math.tan(Math.PI / 4 + phi / 2)) * scale;
+    }
+
+    private double unprojectLng(double x) {
+        return Math.toDegrees(x / scale / EARTH_RADIUS_M);
+    }
+
+    private double unprojectLat(double y) {
+        return Math.toDegrees(2 * Math.atan(Math.exp(y / scale / EARTH_RADIUS_M)) - Math.PI / 2);
+    }
+}
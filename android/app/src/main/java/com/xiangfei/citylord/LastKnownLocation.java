@@ -0,0 +1,94 @@
+package com.xiangfei.citylord;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.amap.api.location.AMapLocation;
+import com.getcapacitor.JSObject;
+
+/**
+ * LastKnownLocation — citylord_location_cache 的读写封装
+ *
+ * Service 每个定位点都会把经纬度以 raw long bits 写入 SharedPreferences。
+ * 冷启动 startTracking / getCurrentPosition 时读回它作为“临时定位”(provisional)，
+ * 让地图先居中，真实定位到达后再修正。
+ */
+public final class LastKnownLocation {
+
+    private static final String PREFS_NAME = "citylord_location_cache";
+    private static final String KEY_LAT_BITS = "last_lat_bits";
+    private static final String KEY_LNG_BITS = "last_lng_bits";
+    private static final String KEY_TIMESTAMP = "last_timestamp";
+    private static final String KEY_ACCURACY = "last_accuracy";
+
+    public final double lat;
+    public final double lng;
+    public final long timestamp;
+    /** 定位精度（米），旧版本缓存没有该字段时为 -1 */
+    public final float accuracy;
+
+    private LastKnownLocation(double lat, double lng, long timestamp, float accuracy) {
+        this.lat = lat;
+        this.lng = lng;
+        this.timestamp = timestamp;
+        this.accuracy = accuracy;
+    }
+
+    /** 写入最后已知位置（轻量快照，apply 异步落盘） */
+    public static void save(Context context, AMapLocation location, long correctedTimestamp) {
+        prefs(context).edit()
+                .putLong(KEY_LAT_BITS, Double.doubleToRawLongBits(location.getLatitude()))
+                .putLong(KEY_LNG_BITS, Double.doubleToRawLongBits(location.getLongitude()))
+                .putLong(KEY_TIMESTAMP, correctedTimestamp)
+                .putFloat(KEY_ACCURACY, location.getAccuracy())
+                .apply();
+    }
+
+    /**
+     * 读取最后已知位置。
+     *
+     * @param maxAgeMs 超过此年龄的缓存视为无效
+     * @return 无缓存或已过期时返回 null
+     */
+    public static LastKnownLocation read(Context context, long maxAgeMs) {
+        SharedPreferences sp = prefs(context);
+        if (!sp.contains(KEY_LAT_BITS) || !sp.contains(KEY_LNG_BITS)) {
+            return null;
+        }
+        long timestamp = sp.getLong(KEY_TIMESTAMP, 0);
+        if (timestamp <= 0 || System.currentTimeMillis() - timestamp > maxAgeMs) {
+            return null;
+        }
+        double lat = Double.longBitsToDouble(sp.getLong(KEY_LAT_BITS, 0));
+        double lng = Double.longBitsToDouble(sp.getLong(KEY_LNG_BITS, 0));
+        if (Double.isNaN(lat) || Double.isNaN(lng) || (lat == 0 && lng == 0)) {
+            return null;
+        }
+        return new LastKnownLocation(lat, lng, timestamp, sp.getFloat(KEY_ACCURACY, -1f));
+    }
+
+    public long ageMs() {
+        return Math.max(0L, System.currentTimeMillis() - timestamp);
+    }
+
+    /** 转换为与 locationUpdate 相同结构的 payload，并标记 provisional */
+    public JSObject toJSObject() {
+        JSObject obj = new JSObject();
+        obj.put("lat", lat);
+        obj.put("lng", lng);
+        obj.put("accuracy", accuracy);
+        obj.put("bearing", -1);
+        obj.put("speed", -1);
+        obj.put("timestamp", timestamp);
+        obj.put("coordSystem", "gcj02");
+        // 与高德 locationType 9（最后已知位置）语义一致
+        obj.put("locationType", 9);
+        obj.put("provisional", true);
+        obj.put("ageMs", ageMs());
+        return obj;
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
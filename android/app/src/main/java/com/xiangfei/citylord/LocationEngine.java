@@ -0,0 +1,607 @@
+package com.xiangfei.citylord;
+
+import android.app.Notification;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.amap.api.location.AMapLocation;
+import com.amap.api.location.AMapLocationClient;
+import com.amap.api.location.AMapLocationClientOption;
+import com.amap.api.location.AMapLocationListener;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * LocationEngine — 进程内唯一的高德定位引擎
+ *
+ * 浏览地图 (startWatch)、一次定位 (getCurrentPosition) 和前台服务跑步追踪以前各自创建
+ * AMapLocationClient，跑步时最多同时开启三套 GNSS/WiFi 引擎。现在所有消费者都向这里注册
+ * Subscription，引擎只运行一个 client：
+ *  - interval 取所有订阅中最小值，定位模式/GPS 优先取最严格的要求
+ *  - 每个定位结果按订阅各自的 interval 与 distanceFilter 节流后分发
+ *  - 一次定位在引擎已有新鲜结果时直接返回，无需再等待 TTFF；没有连续订阅时走单次定位配置
+ *    （onceLocationLatest、不强制 GPS 优先、fast 模式允许 SDK 缓存，见 buildOnceOption）
+ *  - client 创建 / 配置失败时通知全部订阅（ErrorAware），一次定位立即失败而不是等到超时
+ *
+ * 冷启动优化：App 启动时 prewarm() 预先创建 client（不启动），无订阅时只 stopLocation
+ * 保持 client 存活；每次从停止到首个有效定位的耗时（TTFF）记录并通知 FirstFixListener。
+ *
+ * 线程模型：client 在独立 HandlerThread 上创建（Anti-Doze，回调不受主线程冻结影响），
+ * 所有回调与分发都在该线程执行；订阅增删可在任意线程调用。
+ */
+public final class LocationEngine implements AMapLocationListener {
+
+    private static final String TAG = "LocationEngine";
+
+    /** 节流容差上限：定位回调间隔会有几十毫秒抖动，避免 2s 订阅在 1s 引擎下被“隔两跳一” */
+    private static final long MAX_THROTTLE_SLACK_MS = 250L;
+
+    /** 单次定位模式下暂时性错误 / 过期缓存后重新发起定位的间隔 */
+    private static final long ONCE_RETRY_DELAY_MS = 1000L;
+
+    /**
+     * 一次定位遇到即失败的 AMap 错误码（重试无意义）：
+     * 1 参数错误、3 请求参数缺失、7 KEY 鉴权失败、9 初始化异常、10 定位服务启动失败、12 缺少定位权限。
+     * 其余（4 网络、6 / 13 / 14 卫星信号弱等）视为暂时性，继续等待直到超时。
+     */
+    static boolean isFatalSingleFixError(int code) {
+        switch (code) {
+            case 1:
+            case 3:
+            case 7:
+            case 9:
+            case 10:
+            case 12:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // ---- 单例 ----
+    private static volatile LocationEngine INSTANCE;
+
+    public static LocationEngine getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (LocationEngine.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new LocationEngine(context.getApplicationContext());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private final Context appContext;
+    private final HandlerThread engineThread;
+    private final Handler engineHandler;
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<FirstFixListener> firstFixListeners = new CopyOnWriteArrayList<>();
+
+    /** 仅在 engineThread 上读写 */
+    private AMapLocationClient client = null;
+    private boolean clientStarted = false;
+    private long appliedInterval = -1;
+    private boolean appliedHighAccuracy = false;
+    /** 当前配置是否为单次定位（只有一次定位订阅）及其缓存 / 网络超时参数 */
+    private boolean appliedOnce = false;
+    private boolean appliedCache = false;
+    private long appliedHttpTimeout = -1;
+
+    // ---- TTFF（仅在 engineThread 上读写） ----
+    private boolean awaitingFirstFix = false;
+    private long startElapsed = 0;
+    /** 本次启动时 client 是否已预热（prewarm 或上次停止后保留） */
+    private boolean startedWarm = false;
+    private String startedBy = null;
+    private volatile long lastTtffMs = -1;
+
+    // ---- 前台服务后台保活通知（由 LocationForegroundService 设置） ----
+    private int backgroundNotificationId = 0;
+    private Notification backgroundNotification = null;
+
+    // ---- 最近一次有效定位（供一次定位直接复用） ----
+    private volatile AMapLocation lastFix = null;
+    private volatile long lastFixElapsed = 0;
+
+    private LocationEngine(Context appContext) {
+        this.appContext = appContext;
+        this.engineThread = new HandlerThread("LocationEngine", android.os.Process.THREAD_PRIORITY_FOREGROUND);
+        this.engineThread.start();
+        this.engineHandler = new Handler(engineThread.getLooper());
+        Log.i(TAG, "定位引擎线程已创建: LocationEngine (priority=FOREGROUND)");
+    }
+
+    /**
+     * 预热：在引擎线程提前创建 AMapLocationClient（加载 so、绑定定位服务），但不启动定位。
+     * 应在隐私合规接口调用之后、首次 startTracking / getCurrentPosition 之前调用。
+     */
+    public void prewarm() {
+        engineHandler.post(() -> {
+            try {
+                ensureClient();
+            } catch (Exception e) {
+                Log.w(TAG, "prewarm failed: " + e.getMessage());
+            }
+        });
+    }
+
+    public void addFirstFixListener(FirstFixListener listener) {
+        if (listener != null) firstFixListeners.addIfAbsent(listener);
+    }
+
+    public void removeFirstFixListener(FirstFixListener listener) {
+        firstFixListeners.remove(listener);
+    }
+
+    /** 最近一次启动的 TTFF（毫秒），尚无记录时为 -1 */
+    public long getLastTtffMs() {
+        return lastTtffMs;
+    }
+
+    /** 在定位回调所在线程执行（与 onLocationChanged 串行，免去额外加锁） */
+    public void runOnEngineThread(Runnable task) {
+        engineHandler.post(task);
+    }
+
+    // -------------------------------------------------------------------
+    // Subscriptions
+    // -------------------------------------------------------------------
+
+    /**
+     * 注册一个连续定位订阅。
+     *
+     * @param name                 订阅名（日志用，如 "service" / "watch"）
+     * @param intervalMs           期望的最小分发间隔
+     * @param distanceFilterMeters 距上次分发小于此距离的点不分发，0 表示不过滤
+     * @param highAccuracy         是否需要 GPS 高精度模式
+     * @param listener             回调（在引擎线程执行）
+     */
+    public Subscription subscribe(String name, long intervalMs, float distanceFilterMeters,
+                                  boolean highAccuracy, AMapLocationListener listener) {
+        Subscription sub = new Subscription(name, intervalMs, distanceFilterMeters, highAccuracy, listener);
+        add(sub);
+        return sub;
+    }
+
+    private void add(Subscription sub) {
+        subscriptions.add(sub);
+        Log.i(TAG, "subscribe: " + sub);
+        engineHandler.post(this::reconfigure);
+    }
+
+    public void unsubscribe(Subscription sub) {
+        if (sub == null) return;
+        if (subscriptions.remove(sub)) {
+            Log.i(TAG, "unsubscribe: " + sub.name);
+            engineHandler.post(this::reconfigure);
+        }
+    }
+
+    /** 动态调整订阅的分发间隔（例如预热降频），必要时重新配置 client */
+    public void updateInterval(Subscription sub, long intervalMs) {
+        if (sub == null || sub.intervalMs == intervalMs) return;
+        sub.intervalMs = intervalMs;
+        engineHandler.post(this::reconfigure);
+    }
+
+    /**
+     * 一次定位：引擎正在运行且最近一次定位足够新鲜时立即返回，
+     * 否则注册临时订阅等待下一个有效定位，超时后回调 onError（-2）；
+     * 权限 / KEY / 配置类错误（isFatalSingleFixError）与引擎启动失败立即回调 onError。
+     * 没有连续订阅时 client 以单次定位配置运行，cacheMaxAgeMs > 0 时允许 SDK 缓存，
+     * 但早于 cacheMaxAgeMs 的缓存结果不采用（关闭缓存后重新定位）。
+     *
+     * @param maxAgeMs      可接受的实时流已有定位最大年龄
+     * @param cacheMaxAgeMs 可接受的 SDK 缓存定位最大年龄，≤ 0 表示不用 SDK 缓存
+     * @param timeoutMs     等待新定位的超时（同时作为网络定位的 HTTP 超时）
+     * @return 等待中的临时订阅（可用 cancel 取消）；已立即返回时为 null
+     */
+    public Subscription requestSingleFix(long maxAgeMs, long cacheMaxAgeMs, long timeoutMs,
+                                         SingleFixCallback callback) {
+        AMapLocation fix = lastFix;
+        if (fix != null && !subscriptions.isEmpty()
+                && SystemClock.elapsedRealtime() - lastFixElapsed <= maxAgeMs) {
+            Log.i(TAG, "requestSingleFix: 直接复用实时流中的定位, age="
+                    + (SystemClock.elapsedRealtime() - lastFixElapsed) + "ms");
+            callback.onFix(fix, true);
+            return null;
+        }
+
+        final Subscription[] holder = new Subscription[1];
+        final Runnable timeout = () -> {
+            Subscription sub = holder[0];
+            if (sub != null && sub.finish()) {
+                unsubscribe(sub);
+                callback.onError(-2, "Single fix timeout after " + timeoutMs + "ms");
+            }
+        };
+        class OnceListener implements AMapLocationListener, ErrorAware {
+            @Override
+            public void onLocationChanged(AMapLocation location) {
+                Subscription sub = holder[0];
+                if (sub == null || location == null) return;
+                int code = location.getErrorCode();
+                if (code != 0) {
+                    // 权限 / KEY / 配置类错误立即失败并透传原始错误码；网络、信号弱等暂时性错误继续等待直到超时
+                    if (isFatalSingleFixError(code)) fail(code, location.getErrorInfo());
+                    return;
+                }
+                if (sub.cacheMaxAgeMs > 0 && location.getLocationType() == AMapLocation.LOCATION_TYPE_FIX_CACHE
+                        && System.currentTimeMillis() - location.getTime() > sub.cacheMaxAgeMs) {
+                    Log.i(TAG, "requestSingleFix: SDK 缓存定位过期 age="
+                            + (System.currentTimeMillis() - location.getTime()) + "ms，关闭缓存重新定位");
+                    sub.cacheMaxAgeMs = 0;
+                    return;
+                }
+                if (sub.finish()) {
+                    engineHandler.removeCallbacks(timeout);
+                    unsubscribe(sub);
+                    callback.onFix(location, false);
+                }
+            }
+
+            @Override
+            public void onEngineError(int code, String message) {
+                fail(code, message);
+            }
+
+            private void fail(int code, String message) {
+                Subscription sub = holder[0];
+                if (sub != null && sub.finish()) {
+                    engineHandler.removeCallbacks(timeout);
+                    unsubscribe(sub);
+                    callback.onError(code, message);
+                }
+            }
+        }
+        Subscription sub = new Subscription("once", 1000L, 0f, true, new OnceListener());
+        sub.once = true;
+        sub.cacheMaxAgeMs = cacheMaxAgeMs;
+        sub.httpTimeoutMs = timeoutMs;
+        holder[0] = sub;
+        add(sub);
+        engineHandler.postDelayed(timeout, timeoutMs);
+        return sub;
+    }
+
+    /** 取消尚未完成的一次定位或连续订阅 */
+    public void cancel(Subscription sub) {
+        if (sub != null) {
+            sub.finish();
+            unsubscribe(sub);
+        }
+    }
+
+    /** 当前生效的定位间隔（无订阅时为 -1） */
+    public long getEffectiveInterval() {
+        long min = Long.MAX_VALUE;
+        for (Subscription sub : subscriptions) {
+            min = Math.min(min, sub.intervalMs);
+        }
+        return min == Long.MAX_VALUE ? -1 : min;
+    }
+
+    // -------------------------------------------------------------------
+    // Background location (foreground service)
+    // -------------------------------------------------------------------
+
+    public void enableBackgroundLocation(int notificationId, Notification notification) {
+        engineHandler.post(() -> {
+            backgroundNotificationId = notificationId;
+            backgroundNotification = notification;
+            if (client != null) {
+                client.enableBackgroundLocation(notificationId, notification);
+            }
+        });
+    }
+
+    public void disableBackgroundLocation() {
+        engineHandler.post(() -> {
+            backgroundNotification = null;
+            if (client != null) {
+                client.disableBackgroundLocation(true);
+            }
+        });
+    }
+
+    // -------------------------------------------------------------------
+    // Client management (engineThread only)
+    // -------------------------------------------------------------------
+
+    /** 根据当前订阅集合计算最严格配置，启动 / 更新 / 停止唯一的 client */
+    private void reconfigure() {
+        if (subscriptions.isEmpty()) {
+            releaseClient();
+            return;
+        }
+
+        long interval = Long.MAX_VALUE;
+        boolean highAccuracy = false;
+        // 只有一次定位订阅时用单次定位配置；缓存须所有等待者都接受，HTTP 超时取最长
+        boolean once = true;
+        boolean cache = true;
+        long httpTimeout = 0;
+        for (Subscription sub : subscriptions) {
+            interval = Math.min(interval, sub.intervalMs);
+            highAccuracy |= sub.highAccuracy;
+            once &= sub.once;
+            cache &= sub.cacheMaxAgeMs > 0;
+            httpTimeout = Math.max(httpTimeout, sub.httpTimeoutMs);
+        }
+        if (!once) {
+            cache = false;
+            httpTimeout = -1;
+        }
+
+        try {
+            boolean warm = client != null;
+            ensureClient();
+            if (once != appliedOnce && clientStarted) {
+                // 单次 / 连续定位切换：先停止，按新配置重新启动
+                client.stopLocation();
+                clientStarted = false;
+            }
+            if (interval != appliedInterval || highAccuracy != appliedHighAccuracy || once != appliedOnce
+                    || cache != appliedCache || httpTimeout != appliedHttpTimeout) {
+                client.setLocationOption(once
+                        ? buildOnceOption(highAccuracy, cache, httpTimeout)
+                        : buildOption(interval, highAccuracy));
+                appliedInterval = interval;
+                appliedHighAccuracy = highAccuracy;
+                appliedOnce = once;
+                appliedCache = cache;
+                appliedHttpTimeout = httpTimeout;
+                Log.i(TAG, "client 配置更新: interval=" + interval + "ms highAccuracy=" + highAccuracy
+                        + " once=" + once + " cache=" + cache + " subscribers=" + subscriptions.size());
+            }
+            if (!clientStarted) {
+                client.startLocation();
+                clientStarted = true;
+                awaitingFirstFix = true;
+                startElapsed = SystemClock.elapsedRealtime();
+                startedWarm = warm;
+                startedBy = null;
+                for (Subscription sub : subscriptions) {
+                    startedBy = sub.name;
+                    break;
+                }
+                Log.i(TAG, "AMap client started on LocationEngine thread (warm=" + warm + ")");
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to configure location client: " + e.getMessage(), e);
+            dispatchError(-1, "Start tracking failed: " + e.getMessage());
+        }
+    }
+
+    private void ensureClient() throws Exception {
+        if (client != null) return;
+        client = new AMapLocationClient(appContext);
+        client.setLocationListener(this);
+        if (backgroundNotification != null) {
+            client.enableBackgroundLocation(backgroundNotificationId, backgroundNotification);
+        }
+        Log.i(TAG, "AMap client created");
+    }
+
+    private AMapLocationClientOption buildOption(long interval, boolean highAccuracy) {
+        AMapLocationClientOption option = new AMapLocationClientOption();
+        option.setInterval(interval);
+        option.setLocationMode(highAccuracy
+                ? AMapLocationClientOption.AMapLocationMode.Hight_Accuracy
+                : AMapLocationClientOption.AMapLocationMode.Battery_Saving);
+        option.setSensorEnable(true);
+        option.setNeedAddress(false);
+        // ====== 禁用定位缓存：强制输出实时硬件 GPS 点，杜绝缓存脏点 ======
+        option.setLocationCacheEnable(false);
+        option.setGpsFirst(highAccuracy);
+        option.setGpsFirstTimeout(5000);
+        option.setWifiScan(true);
+        option.setMockEnable(false);
+        return option;
+    }
+
+    /**
+     * 单次定位配置（没有连续订阅时）：返回最近 3 秒内精度最高的结果，不强制等 GPS，
+     * 网络定位受 httpTimeout 约束；fast 模式允许 SDK 缓存，冷启动也能立即拿到网络 / 缓存定位。
+     */
+    private AMapLocationClientOption buildOnceOption(boolean highAccuracy, boolean cache, long httpTimeout) {
+        AMapLocationClientOption option = new AMapLocationClientOption();
+        option.setLocationMode(highAccuracy
+                ? AMapLocationClientOption.AMapLocationMode.Hight_Accuracy
+                : AMapLocationClientOption.AMapLocationMode.Battery_Saving);
+        option.setOnceLocation(true);
+        option.setOnceLocationLatest(true);
+        if (httpTimeout > 0) option.setHttpTimeOut(httpTimeout);
+        option.setNeedAddress(false);
+        option.setLocationCacheEnable(cache);
+        option.setGpsFirst(false);
+        option.setWifiScan(true);
+        option.setMockEnable(false);
+        return option;
+    }
+
+    /** 无订阅时只停止定位、保留 client，下次启动免去创建与服务绑定的开销 */
+    private void releaseClient() {
+        if (client == null || !clientStarted) return;
+        try {
+            client.stopLocation();
+            Log.i(TAG, "AMap client stopped, kept warm (no subscribers)");
+        } catch (Exception e) {
+            Log.e(TAG, "Error stopping location client: " + e.getMessage(), e);
+        }
+        clientStarted = false;
+        awaitingFirstFix = false;
+    }
+
+    // -------------------------------------------------------------------
+    // AMapLocationListener — fan-out
+    // -------------------------------------------------------------------
+
+    @Override
+    public void onLocationChanged(AMapLocation location) {
+        if (location == null) {
+            Log.w(TAG, "onLocationChanged: null location");
+            return;
+        }
+
+        if (appliedOnce && clientStarted) {
+            // 单次定位：SDK 回调一次后自行停止；仍有等待者（暂时性错误、过期缓存）时稍后重新发起
+            clientStarted = false;
+            engineHandler.postDelayed(this::reconfigure, ONCE_RETRY_DELAY_MS);
+        }
+
+        if (location.getErrorCode() != 0) {
+            // 错误不节流，所有订阅都需要知道
+            for (Subscription sub : subscriptions) {
+                deliver(sub, location);
+            }
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        lastFix = location.clone();
+        lastFixElapsed = now;
+
+        if (awaitingFirstFix) {
+            awaitingFirstFix = false;
+            long ttff = now - startElapsed;
+            lastTtffMs = ttff;
+            Log.i(TAG, "TTFF=" + ttff + "ms warm=" + startedWarm + " startedBy=" + startedBy
+                    + " type=" + location.getLocationType());
+            for (FirstFixListener l : firstFixListeners) {
+                try {
+                    l.onFirstFix(ttff, startedWarm, startedBy, location);
+                } catch (Exception e) {
+                    Log.e(TAG, "FirstFixListener threw: " + e.getMessage(), e);
+                }
+            }
+        }
+
+        for (Subscription sub : subscriptions) {
+            if (sub.shouldDeliver(location, now)) {
+                sub.markDelivered(location, now);
+                deliver(sub, location);
+            }
+        }
+    }
+
+    /** 引擎级错误通知全部订阅：一次定位立即失败，watch / Service 各自上报（监听者均实现 ErrorAware） */
+    private void dispatchError(int code, String message) {
+        for (Subscription sub : subscriptions) {
+            if (sub.listener instanceof ErrorAware) {
+                try {
+                    ((ErrorAware) sub.listener).onEngineError(code, message);
+                } catch (Exception e) {
+                    Log.e(TAG, "Subscriber " + sub.name + " threw: " + e.getMessage(), e);
+                }
+            } else {
+                Log.w(TAG, "Subscriber " + sub.name + " is not ErrorAware, engine error dropped: " + message);
+            }
+        }
+    }
+
+    private void deliver(Subscription sub, AMapLocation location) {
+        try {
+            sub.listener.onLocationChanged(location);
+        } catch (Exception e) {
+            Log.e(TAG, "Subscriber " + sub.name + " threw: " + e.getMessage(), e);
+        }
+    }
+
+    // -------------------------------------------------------------------
+    // Types
+    // -------------------------------------------------------------------
+
+    /** 一次定位回调（在引擎线程或调用线程执行） */
+    public interface SingleFixCallback {
+        /** @param fromLiveStream true 表示直接复用了实时流中的最近定位 */
+        void onFix(AMapLocation location, boolean fromLiveStream);
+
+        void onError(int code, String message);
+    }
+
+    /** 每次 client 启动后的首个有效定位（在引擎线程执行） */
+    public interface FirstFixListener {
+        /**
+         * @param ttffMs    从 startLocation 到首个有效定位的耗时
+         * @param warm      启动时 client 是否已预热
+         * @param startedBy 触发本次启动的订阅名
+         */
+        void onFirstFix(long ttffMs, boolean warm, String startedBy, AMapLocation location);
+    }
+
+    /** 订阅者实现：接收 client 创建 / 启动失败等引擎级错误（未实现的订阅收不到，只记日志） */
+    public interface ErrorAware {
+        void onEngineError(int code, String message);
+    }
+
+    /**
+     * 一个消费者的订阅句柄。节流状态只在引擎线程上读写。
+     */
+    public static final class Subscription {
+        final String name;
+        volatile long intervalMs;
+        final float distanceFilterMeters;
+        final boolean highAccuracy;
+        final AMapLocationListener listener;
+        /** 一次定位的临时订阅：无连续订阅时 client 以单次定位配置运行 */
+        boolean once = false;
+        /** 一次定位可接受的 SDK 缓存年龄，≤ 0 表示不用缓存（过期缓存被拒后置 0） */
+        volatile long cacheMaxAgeMs = 0;
+        long httpTimeoutMs = 0;
+
+        private long lastDeliveredElapsed = 0;
+        private double lastLat;
+        private double lastLng;
+        private boolean delivered = false;
+        private boolean finished = false;
+
+        Subscription(String name, long intervalMs, float distanceFilterMeters,
+                     boolean highAccuracy, AMapLocationListener listener) {
+            this.name = name;
+            this.intervalMs = intervalMs;
+            this.distanceFilterMeters = distanceFilterMeters;
+            this.highAccuracy = highAccuracy;
+            this.listener = listener;
+        }
+
+        boolean shouldDeliver(AMapLocation location, long nowElapsed) {
+            if (!delivered) return true;
+            long slack = Math.min(MAX_THROTTLE_SLACK_MS, intervalMs / 4);
+            if (nowElapsed - lastDeliveredElapsed < intervalMs - slack) {
+                return false;
+            }
+            if (distanceFilterMeters > 0f) {
+                float[] results = new float[1];
+                android.location.Location.distanceBetween(lastLat, lastLng,
+                        location.getLatitude(), location.getLongitude(), results);
+                return results[0] >= distanceFilterMeters;
+            }
+            return true;
+        }
+
+        void markDelivered(AMapLocation location, long nowElapsed) {
+            delivered = true;
+            lastDeliveredElapsed = nowElapsed;
+            lastLat = location.getLatitude();
+            lastLng = location.getLongitude();
+        }
+
+        /** 原子地标记完成，返回 true 表示本次调用完成了它（一次定位防重复回调） */
+        synchronized boolean finish() {
+            if (finished) return false;
+            finished = true;
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return name + "{interval=" + intervalMs + "ms, distanceFilter=" + distanceFilterMeters
+                    + "m, highAccuracy=" + highAccuracy + "}";
+        }
+    }
+}
@@ -3,13 +3,12 @@ package com.xiangfei.citylord;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
-import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.PowerManager;
@@ -25,7 +24,6 @@ import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import com.getcapacitor.JSObject;
 import com.amap.api.location.AMapLocation;
 import com.amap.api.location.AMapLocationClient;
-import com.amap.api.location.AMapLocationClientOption;
 import com.amap.api.location.AMapLocationListener;
 
 import android.content.BroadcastReceiver;
@@ -38,28 +36,37 @@ import android.hardware.SensorManager;
 import com.xiangfei.citylord.db.AppDatabase;
 import com.xiangfei.citylord.db.LocationDao;
 import com.xiangfei.citylord.db.LocationEntity;
+import com.xiangfei.citylord.db.SessionSummaryDao;
+import com.xiangfei.citylord.db.SessionSummaryEntity;
+import com.xiangfei.citylord.db.SpatialIndex;
+import com.xiangfei.citylord.db.StepBucketDao;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * LocationForegroundService — Android 前台定位服务
  *
- * 在 Service 内部运行 AMapLocationClient，确保锁屏/切后台/黑屏后仍持续获取高精度定位。
+ * 在 Service 内部向 LocationEngine 订阅连续定位，确保锁屏/切后台/黑屏后仍持续获取高精度定位。
  * 定位结果通过 LocalBroadcast 推送至 AMapLocationPlugin，再由 Capacitor notifyListeners
  * 传递给 JS/TS 层。
  *
  * 关键能力：
  *  - startForeground() 常驻通知
  *  - PARTIAL_WAKE_LOCK 防止 CPU 休眠
- *  - AMapLocationClient 高精度、2s 间隔连续定位
+ *  - 共享 LocationEngine 的高精度连续定位（与 startWatch / getCurrentPosition 共用一个 client）
  *  - 动态更新通知内容（支持从 Plugin 端传入 title/body）
  *  - onDestroy 完整资源释放（防止内存泄漏 & 电量浪费）
  */
 import android.speech.tts.TextToSpeech;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 
-public class LocationForegroundService extends Service implements AMapLocationListener, SensorEventListener, TextToSpeech.OnInitListener {
+public class LocationForegroundService extends Service implements AMapLocationListener, LocationEngine.ErrorAware, SensorEventListener, TextToSpeech.OnInitListener {
 
     private static final String TAG = "LocationFgSvc";
 
@@ -73,6 +80,7 @@ public class LocationForegroundService extends Service implements AMapLocationLi
     public static final String EXTRA_INTERVAL = "extra_interval";
     public static final String EXTRA_RUN_ID = "extra_run_id";
     public static final String EXTRA_STARTED_AT = "extra_started_at";
+    public static final String EXTRA_CADENCE_ENABLED = "extra_cadence_enabled";
 
     // Broadcast action — 埋点日志推送
     public static final String ACTION_LOG_EVENT = "com.xiangfei.citylord.LOG_EVENT";
@@ -92,6 +100,79 @@ public class LocationForegroundService extends Service implements AMapLocationLi
     public static final String EXTRA_PROVIDER = "provider";
     public static final String EXTRA_ADDRESS = "address";
     public static final String EXTRA_STEPS = "steps";
+    public static final String EXTRA_CADENCE = "cadence";
+    public static final String EXTRA_STRIDE_LENGTH = "strideLength";
+    public static final String EXTRA_GROUND_CONTACT_MS = "groundContactMs";
+    /** true 表示该点为 GNSS 断档期间的航位推算插值点 */
+    public static final String EXTRA_INTERPOLATED = "interpolated";
+
+    // Broadcast action — 断档结束后插值点坐标修正
+    public static final String ACTION_TRACK_RECONCILED = "com.xiangfei.citylord.TRACK_RECONCILED";
+    public static final String EXTRA_RECONCILED_TIMESTAMPS = "reconciledTimestamps";
+    public static final String EXTRA_RECONCILED_LATS = "reconciledLats";
+    public static final String EXTRA_RECONCILED_LNGS = "reconciledLngs";
+    public static final String EXTRA_RECONCILED_ERROR = "reconciledErrorMeters";
+
+    // Broadcast action — 跑步进入新的领地格（HexGrid）
+    public static final String ACTION_CELL_ENTERED = "com.xiangfei.citylord.CELL_ENTERED";
+    public static final String EXTRA_CELL_ID = "cellId";
+    public static final String EXTRA_CELL_COUNT = "cellCount";
+    public static final String EXTRA_CELL_LAT = "cellLat";
+    public static final String EXTRA_CELL_LNG = "cellLng";
+
+    // Broadcast action — 跑步轨迹闭环（LoopDetector）
+    public static final String ACTION_LOOP_CLOSED = "com.xiangfei.citylord.LOOP_CLOSED";
+    public static final String EXTRA_LOOP_START_INDEX = "loopStartIndex";
+    public static final String EXTRA_LOOP_END_INDEX = "loopEndIndex";
+    public static final String EXTRA_LOOP_START_TIMESTAMP = "loopStartTimestamp";
+    public static final String EXTRA_LOOP_END_TIMESTAMP = "loopEndTimestamp";
+    public static final String EXTRA_LOOP_AREA = "loopArea";
+    public static final String EXTRA_LOOP_PERIMETER = "loopPerimeter";
+    /** 环覆盖的领地格（HexPolyfill，16 进制 cell ID） */
+    public static final String EXTRA_LOOP_CELLS = "loopCells";
+    /** 本地拓扑预检结果（PolygonValidator.STATUS_*）与拆开的自交数 */
+    public static final String EXTRA_LOOP_VALIDATION = "loopValidation";
+    public static final String EXTRA_LOOP_KINKS = "loopKinks";
+    // Broadcast action — 进入 / 离开某领主的领地（TerritoryCache，每次换格查询）
+    public static final String ACTION_TERRITORY_ENTER = "com.xiangfei.citylord.TERRITORY_ENTER";
+    public static final String ACTION_TERRITORY_EXIT = "com.xiangfei.citylord.TERRITORY_EXIT";
+    public static final String EXTRA_TERRITORY_OWNER_INDEX = "territoryOwnerIndex";
+    public static final String EXTRA_TERRITORY_OWNER_ID = "territoryOwnerId";
+    public static final String EXTRA_TERRITORY_FACTION = "territoryFaction";
+    public static final String EXTRA_TERRITORY_RELATION = "territoryRelation";
+
+    // Broadcast action — 整公里分段完成（BestEfforts）
+    public static final String ACTION_SPLIT = "com.xiangfei.citylord.SPLIT";
+    /** 分段序号（第几公里，从 1 开始）、该公里用时与本次跑步已用时间（毫秒） */
+    public static final String EXTRA_SPLIT_INDEX = "splitIndex";
+    public static final String EXTRA_SPLIT_MS = "splitMs";
+    public static final String EXTRA_SPLIT_ELAPSED_MS = "splitElapsedMs";
+    /** 本次跑步最快 1 / 5 / 10 公里用时（long[]，下标同 BestEfforts.TARGET_METERS，未达到为 -1） */
+    public static final String EXTRA_BEST_EFFORT_MS = "bestEffortMs";
+
+    // Broadcast action — 规划路线偏航 / 回到路线（RouteFollower，带滞回）
+    public static final String ACTION_ROUTE_OFF_COURSE = "com.xiangfei.citylord.ROUTE_OFF_COURSE";
+    public static final String ACTION_ROUTE_BACK_ON_COURSE = "com.xiangfei.citylord.ROUTE_BACK_ON_COURSE";
+    /** 偏航事件与 locationUpdate 附带（设置了规划路线且匹配到线段时）：横向偏离、已完成 / 剩余距离（米）、线段下标 */
+    public static final String EXTRA_ROUTE_CROSS_TRACK = "routeCrossTrack";
+    public static final String EXTRA_ROUTE_PROGRESS = "routeProgress";
+    public static final String EXTRA_ROUTE_REMAINING = "routeRemaining";
+    public static final String EXTRA_ROUTE_SEGMENT = "routeSegment";
+    public static final String EXTRA_ROUTE_OFF_COURSE = "routeOffCourse";
+
+    /** locationUpdate 附带（设置了幽灵且跑步中）：幽灵位置 / 里程、领先米数与秒数（正为领先，秒差不可用时不附带） */
+    public static final String EXTRA_GHOST_LAT = "ghostLat";
+    public static final String EXTRA_GHOST_LNG = "ghostLng";
+    public static final String EXTRA_GHOST_DISTANCE = "ghostDistance";
+    public static final String EXTRA_GHOST_LEAD_METERS = "ghostLeadMeters";
+    public static final String EXTRA_GHOST_LEAD_SECONDS = "ghostLeadSeconds";
+    public static final String EXTRA_GHOST_FINISHED = "ghostFinished";
+    /** citylord_service_config 中的幽灵会话 ID，服务被杀恢复后据此重新载入 */
+    public static final String PREF_GHOST_SESSION_ID = "ghost_session_id";
+
+    /** locationUpdate 附带：若此刻回到环起点可圈住的面积（m²）与到环起点的距离（米） */
+    public static final String EXTRA_PROSPECTIVE_AREA = "prospectiveArea";
+    public static final String EXTRA_LOOP_START_DISTANCE = "distanceToLoopStart";
 
     // Broadcast action — 错误推送
     public static final String ACTION_LOCATION_ERROR = "com.xiangfei.citylord.LOCATION_ERROR";
@@ -106,13 +187,8 @@ public class LocationForegroundService extends Service implements AMapLocationLi
 
 
 
-    // AMap client
-    private volatile AMapLocationClient locationClient = null;
-
-    // ---- 独立定位线程 (Anti-Doze) ----
-    /** 独立 HandlerThread：高德定位回调运行在此线程，不受 Doze 主线程休眠影响 */
-    private HandlerThread locationThread = null;
-    private Handler locationHandler = null;
+    // 共享定位引擎订阅（回调运行在 LocationEngine 的独立线程，不受 Doze 主线程休眠影响）
+    private volatile LocationEngine.Subscription locationSubscription = null;
 
     // WakeLock
     private PowerManager.WakeLock wakeLock = null;
@@ -124,13 +200,20 @@ public class LocationForegroundService extends Service implements AMapLocationLi
     private SensorManager sensorManager = null;
     private Sensor stepCounterSensor = null;
     private boolean hasStepSensor = false;
+    /** 当前注册使用的 maxReportLatencyUs（-1 = 未注册） */
+    private int stepReportLatencyUs = -1;
+    private BroadcastReceiver screenStateReceiver = null;
+    private boolean isScreenOn = true;
+    /** 分钟级步数桶（主线程累加，批次结束后由 dbExecutor 合并入库） */
+    private final StepBuckets stepBuckets = new StepBuckets();
+    private final Runnable flushStepBucketsTask = this::flushStepBuckets;
 
     // Steps tracking
     private int currentSteps = 0;
     /** 开机以来的累计步数基准值（今天第一次读到的值） */
     private int stepBaseline = -1;
-    /** 今日 0 点的时间戳，用于重置基准 */
-    private long todayMidnight = 0;
+    /** 下一个本地 0 点的时间戳（预先计算），事件时刻越过即重置基准 */
+    private long nextMidnight = 0;
 
     // Notification content
     private String notificationTitle = "City Lord";
@@ -138,6 +221,8 @@ public class LocationForegroundService extends Service implements AMapLocationLi
     private long locationInterval = 1000;
     private String currentRunId = null;
     private long runStartedAt = 0;
+    /** 本实例的单次跑步内存状态（爬升累计、领地格、闭环、最佳成绩）是否已重置或从 Room 恢复 */
+    private boolean runStateReady = false;
 
     // ---- 全生命周期预热机制 ----
     /** 预热模式标志：App 启动即高频定位，未开始跑步时自动降频 */
@@ -155,12 +240,102 @@ public class LocationForegroundService extends Service implements AMapLocationLi
     /** 自动降频超时 (3 分钟) */
     private static final long PREWARM_THROTTLE_TIMEOUT_MS = 3 * 60 * 1000L;
 
+    // ---- 计步传感器硬件批量上报 (maxReportLatencyUs) ----
+    /** 跑步中：航位推算需要及时的步数，只允许短暂攒批 */
+    private static final int STEP_LATENCY_RUNNING_US = 2_000_000;
+    /** 未跑步、亮屏 */
+    private static final int STEP_LATENCY_IDLE_SCREEN_ON_US = 10_000_000;
+    /** 未跑步、息屏：步数只用于今日统计与分钟桶，可攒满 5 分钟 */
+    private static final int STEP_LATENCY_IDLE_SCREEN_OFF_US = 300_000_000;
+    // ---- 气压计（批量上报，不随定位点唤醒） ----
+    private static final int PRESSURE_SAMPLING_US = 1_000_000;
+    private static final int PRESSURE_REPORT_LATENCY_US = 10_000_000;
+    /** 会话汇总写入间隔 */
+    private static final long SESSION_SUMMARY_WRITE_INTERVAL_MS = 30_000L;
+
+    /** 分钟步数桶保留 30 天 */
+    private static final long STEP_BUCKET_RETENTION_MS = 30L * 24 * 60 * 60 * 1000;
+
     // ---- Room 离线数据库 ----
     private AppDatabase appDatabase = null;
-    private LocationDao locationDao = null;
+    /** 由 dbExecutor 的首个任务赋值；之后的写入任务在同一线程排队，天然可见 */
+    private volatile LocationDao locationDao = null;
     /** 单线程写入池：保证插入顺序性，不阻塞定位回调主线程 */
     private ExecutorService dbExecutor = null;
 
+    // ---- 重启恢复（RestartCoordinator） ----
+    /** 当前实例已处理的恢复令牌，同一令牌的重复恢复启动直接忽略 */
+    private String activeStartToken = null;
+    /** 待测量的恢复：死亡前最后定位点时间戳与触发路径，首个定位到达后记录间隔 */
+    private volatile String pendingRecoveryToken = null;
+    private long pendingRecoveryLastFixTs = 0;
+    private String pendingRecoverySource = null;
+
+    // ---- GNSS 断档航位推算（DeadReckoner） ----
+    private final DeadReckoner deadReckoner = new DeadReckoner();
+    /** 本次断档已写入的插值点（仅在定位引擎线程读写），断档结束时按下标修正 */
+    private final ArrayList<LocationEntity> pendingDrEntities = new ArrayList<>();
+
+    // ---- 闭环检测（跑步中的可信定位点） ----
+    private final LoopDetector loopDetector = new LoopDetector();
+    private final LoopDetector.Listener loopListener = this::broadcastLoopClosed;
+
+    // ---- 规划路线跟随（定位引擎线程） ----
+    private final RouteFollower.Listener routeListener = new RouteFollower.Listener() {
+        @Override
+        public void onOffCourse(RouteFollower.Progress progress) {
+            broadcastRouteEvent(ACTION_ROUTE_OFF_COURSE, progress);
+            if (progress.matched) {
+                speakTts("您已偏离规划路线约" + Math.round(progress.crossTrack) + "米");
+            } else {
+                speakTts("您已偏离规划路线");
+            }
+        }
+
+        @Override
+        public void onBackOnCourse(RouteFollower.Progress progress) {
+            broadcastRouteEvent(ACTION_ROUTE_BACK_ON_COURSE, progress);
+            speakTts(String.format(Locale.US, "已回到规划路线，剩余%.1f公里", progress.remaining / 1000.0));
+        }
+    };
+    /** 当前定位点的校正时间戳，随路线事件广播 */
+    private long routeTimestamp = 0;
+
+    // ---- 加速度计步频分析（可选，startTracking({ cadence: true })） ----
+    private boolean isCadenceEnabled = false;
+    private CadenceSensorPipeline cadencePipeline = null;
+    /** 以下只在定位引擎线程读写：每个定位点刷新一次 */
+    private final CadenceAnalyzer.Result cadenceResult = new CadenceAnalyzer.Result();
+    private float currentCadence = 0f;
+    private float currentStrideLength = 0f;
+    private float currentGroundContactMs = 0f;
+
+    // ---- 气压高度 / 会话汇总 ----
+    private final ElevationTracker elevationTracker = new ElevationTracker();
+    private Sensor pressureSensor = null;
+    /** 定位引擎线程读写 */
+    private long lastSummaryWriteElapsed = 0;
+    /** 分段 / 最快用时（只在 dbExecutor 读写：随插入顺序逐点计算，写入 cumDistance / elapsedMs 列） */
+    private final BestEfforts bestEfforts = new BestEfforts();
+
+    // ---- 领地归属（定位引擎线程读写） ----
+    private long lastTerritoryCell = 0;
+    private int lastTerritoryOwner = 0;
+    private long lastEnemyAlertElapsed = 0;
+    /** 敌方领地语音提醒最小间隔，避免边界抖动反复播报 */
+    private static final long ENEMY_ALERT_INTERVAL_MS = 60_000L;
+
+    // ---- Doze 状态监听（连续性断档归因） ----
+    private BroadcastReceiver deviceIdleReceiver = null;
+
+    // ---- 冷启动阶段计时（预期阶段全部完成或 STARTUP_REPORT_CAP_MS 到达时上报一次） ----
+    private volatile StartupTrace startupTrace = null;
+    private static final long STARTUP_REPORT_CAP_MS = 30_000;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    /** 计步传感器 / TTS 的延迟初始化是否已执行 */
+    private boolean deferredInitDone = false;
+    private volatile boolean isDestroyed = false;
+
     // ---- 时间戳防回拨（单调递增硬约束） ----
     /** 上一个定位点的单调递增时间戳（毫秒） */
     private long lastMonotonicTimestamp = 0;
@@ -172,7 +347,9 @@ public class LocationForegroundService extends Service implements AMapLocationLi
     private static final long CLOCK_DRIFT_TOLERANCE_MS = 5000;
 
     // ---- Foreground TTS & Distance Tracking (Lockscreen announcements) ----
-    private TextToSpeech tts = null;
+    /** 在后台线程创建（绑定 TTS 引擎较慢），onInit / 播报 / 销毁在主线程 */
+    private volatile TextToSpeech tts = null;
+    private volatile boolean ttsCreating = false;
     private boolean isTtsInitialized = false;
     private boolean isVoiceEnabled = true;
     private double totalDistanceTravelled = 0.0;
@@ -260,9 +437,19 @@ public class LocationForegroundService extends Service implements AMapLocationLi
     // Lifecycle
     // -------------------------------------------------------------------
 
+    /**
+     * 冷启动只同步执行前台通知与首个定位所需的步骤（5 秒 startForeground 期限）：
+     *  通知渠道 → 恢复配置 → startForeground → WakeLock → 本地广播接收器 → 写入线程池。
+     * Room 建库与清理在 dbExecutor 上排队执行；计步传感器与 TTS 延后到主线程下一轮消息，
+     * 此时 onStartCommand 已完成定位订阅，不再挤占首个定位的启动时间。
+     */
     @Override
     public void onCreate() {
         super.onCreate();
+        RestartCoordinator.onServiceCreated();
+        startupTrace = new StartupTrace(this::reportStartupTimings,
+                "foreground", "receivers", "on_create", "room_ready", "purge_done",
+                "location_subscribed", "step_sensor", "first_fix");
         Log.i(TAG, "[Lifecycle] onCreate — creating notification channel and acquiring WakeLock");
 
         // 1. Create notification channel (Android 8+)
@@ -283,69 +470,156 @@ public class LocationForegroundService extends Service implements AMapLocationLi
         } catch (Exception e) {
             Log.e(TAG, "Failed to start foreground in onCreate: " + e.getMessage());
         }
+        startupTrace.mark("foreground");
 
         // 2. Acquire PARTIAL_WAKE_LOCK — prevent CPU sleep
         acquireWakeLock();
 
-        // 3. Register steps broadcast receiver (fallback)
+        // 3. Register steps broadcast receiver (fallback) + 预热控制接收器（均为进程内广播，开销极小）
         registerStepsReceiver();
+        registerPrewarmControlReceiver();
 
-        // 4. Register hardware step counter sensor
-        registerStepCounterSensor();
-
-        // 5. Calculate today's midnight timestamp
-        recalcTodayMidnight();
+        // 4. Calculate next midnight boundary
+        recalcNextMidnight();
+        startupTrace.mark("receivers");
+
+        // 5. Room 离线数据库：线程池同步创建，建库与清理作为其首批任务（定位点写入排在其后）
+        dbExecutor = Executors.newSingleThreadExecutor();
+        initDatabaseAsync();
+        // 领地缓存：进程被杀后从本地快照 + 增量恢复，不等 JS 重新下发
+        dbExecutor.execute(() -> TerritoryCache.getInstance(getApplicationContext()).ensureLoaded());
+        // 规划路线：同理从文件恢复（JS 已设置过新路线时不覆盖）
+        dbExecutor.execute(this::restorePlannedRoute);
+        // 幽灵跑者：按保存的会话 ID 从 Room 重新载入
+        dbExecutor.execute(this::restoreGhost);
+
+        // 6. 计步传感器 + TTS：延后到 onStartCommand 之后
+        mainHandler.post(this::initDeferredComponents);
+        final StartupTrace trace = startupTrace;
+        mainHandler.postDelayed(trace::flush, STARTUP_REPORT_CAP_MS);
+        trace.mark("on_create");
+    }
 
-        // 6. 初始化 Room 离线数据库 + 写入线程池
-        initDatabase();
+    /** 冷启动阶段上报（可能在任一 mark 线程回调；LocalBroadcastManager 线程安全） */
+    private void reportStartupTimings(String report) {
+        startupTrace = null;
+        broadcastEvent("fgs_startup_timings", report);
+    }
 
-        // 7. 注册预热控制接收器
-        registerPrewarmControlReceiver();
+    /**
+     * 在 dbExecutor 上初始化 Room 单例，随后清理 3 天前已确认的旧数据，防止数据库无限膨胀。
+     */
+    private void initDatabaseAsync() {
+        final StartupTrace trace = startupTrace;
+        dbExecutor.execute(() -> {
+            try {
+                appDatabase = AppDatabase.getInstance(getApplicationContext());
+                locationDao = appDatabase.locationDao();
+                Log.i(TAG, "Room 数据库初始化完成");
+                if (trace != null) trace.mark("room_ready");
+            } catch (Exception e) {
+                Log.e(TAG, "Room 数据库初始化失败: " + e.getMessage(), e);
+            }
+        });
 
-        // 8. 初始化原生 TTS 语音播报引擎
-        try {
-            tts = new TextToSpeech(this, this);
-            Log.i(TAG, "TTS Engine initialization started");
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to start TTS Engine initialization", e);
-        }
+        // 异步清理 3 天前已确认的旧数据
+        final long threeDaysAgo = System.currentTimeMillis() - 3L * 24 * 60 * 60 * 1000;
+        dbExecutor.execute(() -> {
+            LocationDao dao = locationDao;
+            if (dao == null) return;
+            try {
+                int purged = dao.purgeAckedOlderThan(threeDaysAgo,
+                        TrackSyncWorker.isConfigured(getApplicationContext()));
+                if (purged > 0) {
+                    Log.i(TAG, "清理已确认的旧记录: " + purged + " 条");
+                    HeatmapStore.getInstance(getApplicationContext()).onPurge();
+                    TrackPyramidCache.getInstance(getApplicationContext()).clear();
+                }
+                appDatabase.stepBucketDao().purgeOlderThan(
+                        System.currentTimeMillis() - STEP_BUCKET_RETENTION_MS);
+                if (trace != null) trace.mark("purge_done");
+            } catch (Exception e) {
+                Log.w(TAG, "清理旧数据失败: " + e.getMessage());
+            }
+        });
     }
 
     /**
-     * 初始化 Room 数据库单例和写入 Executor。
-     * 同时在后台清理 3 天前已确认的旧数据，防止数据库无限膨胀。
+     * 非首个定位必需的组件：硬件计步传感器与 TTS（语音关闭时不创建 TTS）。
+     * 传感器 / 接收器注册开销很小，留在主线程；TTS 引擎的创建与绑定放到后台线程。
      */
-    private void initDatabase() {
-        try {
-            appDatabase = AppDatabase.getInstance(getApplicationContext());
-            locationDao = appDatabase.locationDao();
-            dbExecutor = Executors.newSingleThreadExecutor();
-            Log.i(TAG, "Room 数据库初始化完成");
+    private void initDeferredComponents() {
+        if (isDestroyed) return;
+        deferredInitDone = true;
 
-            // 异步清理 3 天前已确认的旧数据
-            final long threeDaysAgo = System.currentTimeMillis() - 3L * 24 * 60 * 60 * 1000;
-            dbExecutor.execute(() -> {
-                try {
-                    int purged = locationDao.purgeAckedOlderThan(threeDaysAgo);
-                    if (purged > 0) {
-                        Log.i(TAG, "清理已确认的旧记录: " + purged + " 条");
-                    }
-                } catch (Exception e) {
-                    Log.w(TAG, "清理旧数据失败: " + e.getMessage());
-                }
-            });
-        } catch (Exception e) {
-            Log.e(TAG, "Room 数据库初始化失败: " + e.getMessage(), e);
+        registerScreenStateReceiver();
+        registerStepCounterSensor();
+        registerDeviceIdleReceiver();
+        StartupTrace trace = startupTrace;
+        if (trace != null) trace.mark("step_sensor");
+
+        if (isVoiceEnabled) {
+            ensureTts();
         }
     }
 
+    /** 懒创建原生 TTS 语音播报引擎（主线程调用，后台线程创建）；onInit 回调在主线程异步到达 */
+    private void ensureTts() {
+        if (tts != null || ttsCreating) return;
+        ttsCreating = true;
+        Thread worker = new Thread(() -> {
+            try {
+                TextToSpeech engine = new TextToSpeech(getApplicationContext(), this);
+                Log.i(TAG, "TTS Engine initialization started");
+                mainHandler.post(() -> {
+                    ttsCreating = false;
+                    if (isDestroyed) {
+                        engine.shutdown();
+                    } else {
+                        tts = engine;
+                    }
+                });
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to start TTS Engine initialization", e);
+                mainHandler.post(() -> ttsCreating = false);
+            }
+        }, "TtsInit");
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         // 1. 状态恢复/保存 (优先处理数据状态，避免空指针)
-        if (intent == null) {
-            Log.w(TAG, "intent is null (Sticky Restart), restoring state from Prefs");
+        boolean isRecovery = intent == null || RestartCoordinator.ACTION_RESTART.equals(intent.getAction());
+        if (isRecovery) {
+            String source = intent == null ? RestartCoordinator.SOURCE_STICKY
+                    : intent.getStringExtra(RestartCoordinator.EXTRA_RESTART_SOURCE);
+            if (source == null) source = RestartCoordinator.SOURCE_ALARM;
+
+            // 闹钟 / WorkManager / START_STICKY 对同一次死亡可能先后到达：实例已在定位则只保留第一次
+            if (locationSubscription != null) {
+                Log.i(TAG, "Recovery start (" + source + ") ignored: already tracking with token " + activeStartToken);
+                logEvent("fgs_restart_deduped", source);
+                return START_STICKY;
+            }
+
+            Log.w(TAG, "Recovery start (" + source + "), restoring state from Prefs");
             restoreFromPrefs();
-            logEvent("fgs_null_intent_recovered", "sticky_restart");
+            LastKnownLocation last = LastKnownLocation.read(this, Long.MAX_VALUE);
+            long lastFixTs = last != null ? last.timestamp : 0;
+            String token = RestartCoordinator.startToken(currentRunId, lastFixTs);
+            activeStartToken = token;
+            if (lastFixTs > 0) {
+                pendingRecoveryLastFixTs = lastFixTs;
+                pendingRecoverySource = source;
+                pendingRecoveryToken = token;
+            }
+            ContinuityTracker.getInstance(this).noteRestart();
+            resumeSessionSummary(currentRunId);
+            restoreRunGeometry(currentRunId);
+            runStateReady = true;
+            logEvent(intent == null ? "fgs_null_intent_recovered" : "fgs_restart_recovered", source);
         } else {
             String newRunId = intent.getStringExtra(EXTRA_RUN_ID);
             if (newRunId != null && !newRunId.equals(currentRunId)) {
@@ -353,11 +627,37 @@ public class LocationForegroundService extends Service implements AMapLocationLi
                 totalDistanceTravelled = 0.0;
                 lastSpokenKm = 0;
                 lastLoggedLocation = null;
+                // 新跑步从第一个点开始进入内存缓冲，Hydration 可完全走内存
+                TrackBuffer.getInstance().reset(newRunId, true);
+                ContinuityTracker.getInstance(this).startSession(newRunId);
+                RunCellTracker.getInstance().startSession(newRunId);
+                TrackPyramidCache.getInstance(this).startSession(newRunId);
+                loopDetector.reset();
+                RouteFollower.getInstance().restart();
+                GhostRunner.getInstance().restart();
+                elevationTracker.reset();
+                LocationEngine.getInstance(getApplicationContext()).runOnEngineThread(() -> {
+                    deadReckoner.reset();
+                    pendingDrEntities.clear();
+                });
+            } else if (newRunId != null && !newRunId.isEmpty() && !runStateReady) {
+                // 新进程中以同一 runId 启动（restoreFromPrefs 已读回 run_id）：内存状态为空，
+                // 与恢复路径一样从 Room 读回，否则各追踪器从零开始并覆盖已落盘的会话汇总
+                Log.i(TAG, "Same runId " + newRunId + " in a fresh service instance, restoring run state");
+                resumeSessionSummary(newRunId);
+                restoreRunGeometry(newRunId);
             }
+            if (newRunId != null && !newRunId.isEmpty()) runStateReady = true;
             saveToPrefs(intent);
+            activeStartToken = RestartCoordinator.startToken(currentRunId, 0);
+            if (isVoiceEnabled && deferredInitDone) {
+                ensureTts();
+            }
         }
 
         logEvent("fgs_start_requested", "ok");
+        StartupTrace pendingTrace = startupTrace;
+        if (pendingTrace != null && isVoiceEnabled) pendingTrace.expect("tts_ready");
 
         // 2. 权限预检
         if (!hasLocationPermission()) {
@@ -385,6 +685,9 @@ public class LocationForegroundService extends Service implements AMapLocationLi
             Log.e(TAG, "Failed to start foreground in onStartCommand: " + e.getMessage());
         }
 
+        // 3.5 服务已在前台：取消尚未触发的冗余恢复（闹钟 / WorkManager）
+        RestartCoordinator.onServiceUp(this);
+
         // 4. 高德隐私合规
         try {
             AMapLocationClient.updatePrivacyShow(getApplicationContext(), true, true);
@@ -393,11 +696,13 @@ public class LocationForegroundService extends Service implements AMapLocationLi
             Log.e(TAG, "Privacy compliance failed: " + e.getMessage());
         }
 
-        // 5. 启动或更新定位引擎
-        if (locationClient == null) {
+        // 5. 启动或更新定位引擎订阅
+        if (locationSubscription == null) {
             startLocationTracking();
+            StartupTrace trace = startupTrace;
+            if (trace != null) trace.mark("location_subscribed");
         } else {
-            Log.i(TAG, "Location client already running, dynamically updating interval to " + locationInterval + "ms");
+            Log.i(TAG, "Location subscription already active, dynamically updating interval to " + locationInterval + "ms");
             updateLocationInterval(locationInterval);
         }
 
@@ -408,6 +713,11 @@ public class LocationForegroundService extends Service implements AMapLocationLi
         // 6. 电池优化白名单检测（非阻塞，仅通知 JS 层引导用户）
         checkAndNotifyBatteryOptimization();
 
+        // 7. 跑步状态可能变化：调整计步批量上报延迟，按需启停步频分析
+        applyStepSensorBatching();
+        applyCadencePipeline();
+        applyBarometer();
+
         return START_STICKY;
     }
 
@@ -454,6 +764,7 @@ public class LocationForegroundService extends Service implements AMapLocationLi
         currentRunId = intent.getStringExtra(EXTRA_RUN_ID);
         runStartedAt = intent.getLongExtra(EXTRA_STARTED_AT, System.currentTimeMillis());
         isVoiceEnabled = intent.getBooleanExtra("voiceEnabled", true);
+        isCadenceEnabled = intent.getBooleanExtra(EXTRA_CADENCE_ENABLED, false);
 
         getSharedPreferences("citylord_service_config", MODE_PRIVATE).edit()
             .putString("title", notificationTitle)
@@ -462,6 +773,7 @@ public class LocationForegroundService extends Service implements AMapLocationLi
             .putString("run_id", currentRunId)
             .putLong("started_at", runStartedAt)
             .putBoolean("voice_enabled", isVoiceEnabled)
+            .putBoolean("cadence_enabled", isCadenceEnabled)
             .apply();
     }
 
@@ -473,6 +785,8 @@ public class LocationForegroundService extends Service implements AMapLocationLi
         currentRunId = sp.getString("run_id", null);
         runStartedAt = sp.getLong("started_at", 0);
         isVoiceEnabled = sp.getBoolean("voice_enabled", true);
+        isCadenceEnabled = sp.getBoolean("cadence_enabled", false);
+        deadReckoner.setStride(sp.getFloat("dr_stride_m", (float) DeadReckoner.DEFAULT_STRIDE_M));
     }
 
     private void logEvent(String name, String reason) {
@@ -494,9 +808,19 @@ public class LocationForegroundService extends Service implements AMapLocationLi
     @Override
     public void onDestroy() {
         Log.i(TAG, "onDestroy — cleaning up ALL resources");
+        isDestroyed = true;
+        mainHandler.removeCallbacksAndMessages(null);
+        StartupTrace pendingTrace = startupTrace;
+        if (pendingTrace != null) pendingTrace.flush();
+        RestartCoordinator.onServiceDestroyed();
 
         // 0. [P0 Fix] 注册 AlarmManager 精确闹钟，作为 MIUI/OriginOS 杀进程后的强制唤醒兜底
-        scheduleRestartAlarm();
+        //    用户主动 stopTracking 时不安排重启
+        if (RestartCoordinator.isUserStopped(this)) {
+            Log.i(TAG, "Stopped by user, skip restart alarm");
+        } else {
+            RestartCoordinator.scheduleAlarm(this);
+        }
 
         // 1. Stop location
         stopLocationTracking();
@@ -507,11 +831,35 @@ public class LocationForegroundService extends Service implements AMapLocationLi
         // 3. Unregister steps broadcast receiver
         unregisterStepsReceiver();
 
-        // 4. Unregister step counter sensor
+        // 4. Unregister step counter sensor（先把未落盘的分钟步数交给写入线程）
         unregisterStepCounterSensor();
+        unregisterScreenStateReceiver();
+        if (cadencePipeline != null) cadencePipeline.stop();
+        unregisterPressureSensor();
+        writeSessionSummary();
+        flushStepBuckets();
+        SensorWakeupStats.getInstance(this).flush();
+
+        // 4.5 注销 Doze 状态监听
+        unregisterDeviceIdleReceiver();
 
-        // 5. 关闭数据库写入线程池（等待当前排队任务完成）
+        // 5. 关闭数据库写入线程池（等待当前排队任务完成，最后一个任务写回热力图增量），随后写入连续性报告
+        if (dbExecutor != null && !dbExecutor.isShutdown()) {
+            dbExecutor.execute(() -> {
+                try {
+                    HeatmapStore.getInstance(getApplicationContext()).flush();
+                } catch (Exception e) {
+                    Log.w(TAG, "热力图写回失败: " + e.getMessage());
+                }
+            });
+        }
         shutdownDbExecutor();
+        ContinuityTracker.getInstance(this).flush();
+
+        // 5.5 用户结束跑步：点已全部落盘，提交原生上传任务（未配置 configureTrackSync 时忽略）
+        if (RestartCoordinator.isUserStopped(this)) {
+            TrackSyncWorker.schedule(this);
+        }
 
         // 6. 取消预热降频定时器
         cancelPrewarmThrottleTimer();
@@ -559,58 +907,6 @@ public class LocationForegroundService extends Service implements AMapLocationLi
         }
     }
 
-    /**
-     * [P0 Fix] 注册 AlarmManager 精确闹钟，作为 MIUI/OriginOS 等深度定制 ROM 杀进程后的强制唤醒兜底。
-     * 在 onDestroy 中调用，确保服务被系统强制回收后能在 5 分钟内自动重启。
-     */
-    private void scheduleRestartAlarm() {
-        try {
-            AlarmManager alarmManager = (AlarmManager) getSystemService(ALARM_SERVICE);
-            if (alarmManager == null) {
-                Log.w(TAG, "AlarmManager not available, skip restart alarm");
-                return;
-            }
-
-            Intent restartIntent = new Intent(this, LocationRestartReceiver.class);
-            restartIntent.setAction("com.xiangfei.citylord.RESTART_SERVICE");
-            
-            int flags = PendingIntent.FLAG_UPDATE_CURRENT;
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                flags |= PendingIntent.FLAG_IMMUTABLE;
-            }
-            
-            PendingIntent pendingIntent = PendingIntent.getBroadcast(
-                this, 
-                0, 
-                restartIntent, 
-                flags
-            );
-
-            // 设置 5 分钟后的精确闹钟
-            long triggerAtMillis = SystemClock.elapsedRealtime() + 5 * 60 * 1000;
-            
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                // API 23+: 使用 setExactAndAllowWhileIdle，即使在 Doze 模式下也能触发
-                alarmManager.setExactAndAllowWhileIdle(
-                    AlarmManager.ELAPSED_REALTIME_WAKEUP,
-                    triggerAtMillis,
-                    pendingIntent
-                );
-                Log.i(TAG, "Scheduled restart alarm in 5 minutes (setExactAndAllowWhileIdle)");
-            } else {
-                // API < 23: 使用 setExact
-                alarmManager.setExact(
-                    AlarmManager.ELAPSED_REALTIME_WAKEUP,
-                    triggerAtMillis,
-                    pendingIntent
-                );
-                Log.i(TAG, "Scheduled restart alarm in 5 minutes (setExact)");
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to schedule restart alarm: " + e.getMessage(), e);
-        }
-    }
-
     /**
      * 当用户从最近任务列表中清除 App 时，自动重启前台服务。
      * 确保跑步任务不会因为用户误操作而丢失。
@@ -619,16 +915,9 @@ public class LocationForegroundService extends Service implements AMapLocationLi
     public void onTaskRemoved(Intent rootIntent) {
         Log.w(TAG, "onTaskRemoved — user swiped app from recents, scheduling restart via WorkManager");
 
-        androidx.work.Data inputData = new androidx.work.Data.Builder()
-                .putString("run_id", currentRunId)
-                .build();
-
-        androidx.work.OneTimeWorkRequest request = new androidx.work.OneTimeWorkRequest.Builder(LocationRestartWorker.class)
-                .setInitialDelay(1, java.util.concurrent.TimeUnit.SECONDS)
-                .setInputData(inputData)
-                .build();
-
-        androidx.work.WorkManager.getInstance(getApplicationContext()).enqueue(request);
+        if (!RestartCoordinator.isUserStopped(this)) {
+            RestartCoordinator.scheduleWork(this, currentRunId);
+        }
 
         super.onTaskRemoved(rootIntent);
     }
@@ -755,97 +1044,39 @@ public class LocationForegroundService extends Service implements AMapLocationLi
     // -------------------------------------------------------------------
 
     private void startLocationTracking() {
-        if (locationClient != null) {
-            Log.w(TAG, "Location client already running, stopping first");
+        if (locationSubscription != null) {
+            Log.w(TAG, "Location subscription already active, stopping first");
             stopLocationTracking();
         }
 
-        // ====== 创建独立 HandlerThread (Anti-Doze 核心) ======
-        // 高德 AMapLocationClient 会绑定到创建它的线程的 Looper。
-        // 在独立 HandlerThread 上创建 client，回调天然运行在该线程上，
-        // 不受 Doze 模式主线程冻结的影响。
-        if (locationThread != null) {
-            locationThread.quitSafely();
-        }
-        locationThread = new HandlerThread("LocationThread", android.os.Process.THREAD_PRIORITY_FOREGROUND);
-        locationThread.start();
-        locationHandler = new Handler(locationThread.getLooper());
-        Log.i(TAG, "独立定位线程已创建: LocationThread (priority=FOREGROUND)");
-
-        // 在独立线程上初始化高德定位引擎
-        final Service self = this;
-        locationHandler.post(() -> {
-            try {
-                locationClient = new AMapLocationClient(getApplicationContext());
-
-                AMapLocationClientOption option = new AMapLocationClientOption();
-                // User dynamic interval passed from Intent
-                option.setInterval(locationInterval);
-
-                option.setLocationMode(AMapLocationClientOption.AMapLocationMode.Hight_Accuracy);
-                option.setSensorEnable(true);
-                option.setNeedAddress(false);
-                // ====== 禁用定位缓存：强制输出实时硬件 GPS 点，杜绝缓存脏点 ======
-                option.setLocationCacheEnable(false);
-                option.setGpsFirst(true);
-                option.setGpsFirstTimeout(5000);
-
-                locationClient.setLocationOption(option);
-                locationClient.setLocationListener(LocationForegroundService.this);
+        // 高德 client 由 LocationEngine 统一持有：浏览地图 / 一次定位 / 跑步追踪共用一个引擎，
+        // Service 只注册自己的订阅，并提供后台保活通知 (高德 SDK 要求)
+        LocationEngine engine = LocationEngine.getInstance(getApplicationContext());
+        engine.enableBackgroundLocation(NOTIFICATION_ID, buildNotification(notificationTitle, notificationBody));
+        locationSubscription = engine.subscribe("service", locationInterval, 0f, true, this);
 
-                // 启用后台保活 (高德 SDK 要求)
-                Notification notification = buildNotification(notificationTitle, notificationBody);
-                locationClient.enableBackgroundLocation(NOTIFICATION_ID, notification);
-
-                locationClient.startLocation();
-
-                Log.i(TAG, "AMap location tracking started on LocationThread: Hight_Accuracy, interval=" + locationInterval + "ms, cache=DISABLED");
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to start location tracking on LocationThread: " + e.getMessage(), e);
-                broadcastError(-1, "Start tracking failed: " + e.getMessage());
-            }
-        });
+        Log.i(TAG, "Location subscription registered: Hight_Accuracy, interval=" + locationInterval + "ms");
     }
 
     private void stopLocationTracking() {
         // Force release WakeLock immediately upon stopping tracking
         releaseWakeLock();
-        if (locationClient != null) {
-            // 在定位线程上停止 client，确保线程安全
-            if (locationHandler != null) {
-                locationHandler.post(() -> {
-                    try {
-                        if (locationClient != null) {
-                            locationClient.stopLocation();
-                            locationClient.onDestroy();
-                            locationClient = null;
-                            Log.i(TAG, "AMap location client stopped and destroyed on LocationThread");
-                        }
-                    } catch (Exception e) {
-                        Log.e(TAG, "Error stopping location client: " + e.getMessage(), e);
-                        locationClient = null;
-                    }
-                });
-            } else {
-                // Fallback: 直接在当前线程停止
-                try {
-                    locationClient.stopLocation();
-                    locationClient.onDestroy();
-                    Log.i(TAG, "AMap location client stopped and destroyed (fallback)");
-                } catch (Exception e) {
-                    Log.e(TAG, "Error stopping location client: " + e.getMessage(), e);
-                }
-                locationClient = null;
-            }
+        LocationEngine.Subscription sub = locationSubscription;
+        if (sub != null) {
+            LocationEngine engine = LocationEngine.getInstance(getApplicationContext());
+            engine.unsubscribe(sub);
+            engine.disableBackgroundLocation();
+            locationSubscription = null;
+            Log.i(TAG, "Location subscription removed from LocationEngine");
         }
+    }
 
-        // 安全退出定位线程
-        if (locationThread != null) {
-            locationThread.quitSafely();
-            Log.i(TAG, "LocationThread quitSafely called");
-            locationThread = null;
-            locationHandler = null;
-        }
+    /**
+     * LocationEngine 创建 / 启动 client 失败时回调（与定位错误走同一条广播）
+     */
+    @Override
+    public void onEngineError(int code, String message) {
+        broadcastError(code, message);
     }
 
     // -------------------------------------------------------------------
@@ -863,9 +1094,28 @@ public class LocationForegroundService extends Service implements AMapLocationLi
             Log.w(TAG, "Location error: code=" + location.getErrorCode()
                     + " info=" + location.getErrorInfo());
             broadcastError(location.getErrorCode(), location.getErrorInfo());
+            ContinuityTracker.getInstance(this).noteGnssError();
             return;
         }
 
+        // ====== GNSS 断档：航位推算锚点 / 断档结束修正 ======
+        if (currentRunId != null && !currentRunId.isEmpty()) {
+            long nowElapsed = SystemClock.elapsedRealtime();
+            if (location.getAccuracy() <= DeadReckoner.GOOD_ACCURACY_M) {
+                DeadReckoner.Reconciliation reconciliation = deadReckoner.onGoodFix(
+                        location.getLatitude(), location.getLongitude(), nowElapsed,
+                        location.getBearing(), location.getSpeed());
+                if (reconciliation != null) {
+                    applyReconciliation(reconciliation);
+                }
+            } else if (hasStepSensor && deadReckoner.isOutage(nowElapsed)) {
+                // 断档中的低精度基站点（隧道 / 窄巷里常见几百米误差）不入轨迹，由步数推算填补
+                Log.d(TAG, "断档中丢弃低精度定位: accuracy=" + location.getAccuracy());
+                ContinuityTracker.getInstance(this).noteGnssError();
+                return;
+            }
+        }
+
         // ====== 后台锁屏里程累计与 TTS 原生语音播报 ======
         try {
             if (currentRunId != null && !currentRunId.isEmpty()) {
@@ -913,12 +1163,51 @@ public class LocationForegroundService extends Service implements AMapLocationLi
         }
         // ===================================================
 
+        // 0. 冷启动阶段计时：首个有效定位（其余阶段全部完成时随之上报）
+        StartupTrace trace = startupTrace;
+        if (trace != null) trace.mark("first_fix");
+
         // 1a. 时间戳防回拨修正（单调递增硬约束）
         long correctedTimestamp = correctTimestamp(location);
 
+        // 1a-2. 恢复后首个定位：记录死亡前最后定位点到此的间隔
+        String recoveryToken = pendingRecoveryToken;
+        if (recoveryToken != null) {
+            pendingRecoveryToken = null;
+            String entry = RestartCoordinator.recordRecoveryGap(this, recoveryToken, currentRunId,
+                    pendingRecoverySource, correctedTimestamp - pendingRecoveryLastFixTs);
+            if (entry != null) {
+                broadcastEvent("fgs_recovery_gap", entry);
+            }
+        }
+
+        // 1a-3. 领地格增量覆盖 + 闭环检测（仅跑步中的可信定位）
+        boolean trackingRun = currentRunId != null && !currentRunId.isEmpty();
+        if (trackingRun && location.getAccuracy() <= RunCellTracker.MAX_ACCURACY_M) {
+            final long cellTimestamp = correctedTimestamp;
+            RunCellTracker.getInstance().onFix(location.getLatitude(), location.getLongitude(),
+                    (cell, cellCount) -> broadcastCellEntered(cell, cellCount, cellTimestamp));
+            loopDetector.onFix(location.getLatitude(), location.getLongitude(), correctedTimestamp, loopListener);
+            routeTimestamp = correctedTimestamp;
+            RouteFollower.getInstance().onFix(location.getLatitude(), location.getLongitude(), routeListener);
+            if (runStartedAt > 0) {
+                GhostRunner.State ghost = GhostRunner.getInstance().onFix(
+                        correctedTimestamp - runStartedAt, totalDistanceTravelled);
+                if (ghost != null && ghost.announce != GhostRunner.ANNOUNCE_NONE) speakGhost(ghost);
+            }
+        }
+
+        // 1a-4. 领地归属：换格时查本地缓存，归属变化发 enter / exit
+        if (location.getAccuracy() <= RunCellTracker.MAX_ACCURACY_M) {
+            checkTerritory(location.getLatitude(), location.getLongitude(), correctedTimestamp);
+        }
+
         // 1b. 持久化缓存位置到 SharedPreferences (兼容旧逻辑)
         saveLocationToCache(location, correctedTimestamp);
 
+        // 1b'. 最新步频结果随定位点落盘与广播
+        refreshCadence(location);
+
         // 1c. 距离滤波前置：未通过过滤的点直接丢弃，不广播给JS层
         final float BROADCAST_DISTANCE_FILTER_METERS = 2.0f;
         if (!passesDistanceFilter(location, BROADCAST_DISTANCE_FILTER_METERS)) {
@@ -944,6 +1233,21 @@ public class LocationForegroundService extends Service implements AMapLocationLi
         intent.putExtra(EXTRA_TIMESTAMP, correctedTimestamp);
         intent.putExtra(EXTRA_LOCATION_TYPE, location.getLocationType());
         intent.putExtra(EXTRA_IS_MOCK, location.isMock());
+        if (currentCadence > 0f) {
+            intent.putExtra(EXTRA_CADENCE, currentCadence);
+            intent.putExtra(EXTRA_STRIDE_LENGTH, currentStrideLength);
+            intent.putExtra(EXTRA_GROUND_CONTACT_MS, currentGroundContactMs);
+        }
+        if (trackingRun && loopDetector.getPointCount() > 0) {
+            intent.putExtra(EXTRA_PROSPECTIVE_AREA, loopDetector.getProspectiveArea());
+            intent.putExtra(EXTRA_LOOP_START_DISTANCE, loopDetector.getDistanceToLoopStart());
+        }
+        if (trackingRun) {
+            RouteFollower.Progress route = RouteFollower.getInstance().getProgress();
+            if (route.matched) putRouteExtras(intent, route);
+            GhostRunner.State ghost = GhostRunner.getInstance().getState();
+            if (ghost.valid) putGhostExtras(intent, ghost);
+        }
 
         String provider = location.getProvider();
         if (provider != null && !provider.isEmpty()) {
@@ -961,12 +1265,7 @@ public class LocationForegroundService extends Service implements AMapLocationLi
      * 将位置持久化到 SharedPreferences（轻量快照，用于最后已知位置恢复）
      */
     private void saveLocationToCache(AMapLocation location, long correctedTimestamp) {
-        SharedPreferences sp = getApplicationContext().getSharedPreferences("citylord_location_cache", android.content.Context.MODE_PRIVATE);
-        sp.edit()
-            .putLong("last_lat_bits", Double.doubleToRawLongBits(location.getLatitude()))
-            .putLong("last_lng_bits", Double.doubleToRawLongBits(location.getLongitude()))
-            .putLong("last_timestamp", correctedTimestamp)
-            .apply();
+        LastKnownLocation.save(this, location, correctedTimestamp);
         Log.d(TAG, "Location persisted to cache: " + location.getLatitude() + ", " + location.getLongitude());
     }
 
@@ -1056,6 +1355,28 @@ public class LocationForegroundService extends Service implements AMapLocationLi
         return correctedTs;
     }
 
+    /**
+     * 为非定位来源的点（航位推算，事件时间为 elapsedRealtime）生成单调递增时间戳，
+     * 与 correctTimestamp 共用同一条单调时间线。
+     */
+    private synchronized long correctTimestampForElapsed(long eventElapsedMs) {
+        sequenceId++;
+        long correctedTs;
+        if (lastMonotonicTimestamp == 0) {
+            correctedTs = System.currentTimeMillis() - (SystemClock.elapsedRealtime() - eventElapsedMs);
+        } else {
+            correctedTs = lastMonotonicTimestamp + (eventElapsedMs - lastElapsedRealtime);
+        }
+        if (correctedTs <= lastMonotonicTimestamp) {
+            // 批量上报的步数事件可能早于最近一个定位点
+            correctedTs = lastMonotonicTimestamp + 1;
+        } else {
+            lastElapsedRealtime = eventElapsedMs;
+        }
+        lastMonotonicTimestamp = correctedTs;
+        return correctedTs;
+    }
+
     /**
      * 异步将定位点写入 Room 数据库。
      * 关键设计：即使 JS/WebView 进程完全挂起，此方法仍在 Native Service 线程中执行，
@@ -1065,8 +1386,8 @@ public class LocationForegroundService extends Service implements AMapLocationLi
      * @param correctedTimestamp 经过单调递增修正后的时间戳
      */
     private void persistToRoom(AMapLocation location, long correctedTimestamp) {
-        if (locationDao == null || dbExecutor == null) {
-            Log.w(TAG, "Room 数据库未初始化，跳过持久化");
+        if (dbExecutor == null || dbExecutor.isShutdown()) {
+            Log.w(TAG, "Room 写入线程池不可用，跳过持久化");
             return;
         }
 
@@ -1083,7 +1404,11 @@ public class LocationForegroundService extends Service implements AMapLocationLi
         }
 
         if (lastRoomLocation != null && distance < 2.0f) {
-            return; // 静止或抖动，跳过写入 DB
+            // 静止或抖动，跳过写入 DB（连续性统计据此把断档归因为 stationary）
+            if (currentRunId != null && !currentRunId.isEmpty()) {
+                ContinuityTracker.getInstance(this).noteFilteredFix();
+            }
+            return;
         }
 
         lastRoomLocation = location.clone();
@@ -1103,10 +1428,80 @@ public class LocationForegroundService extends Service implements AMapLocationLi
         entity.speed = location.getSpeed();
         entity.bearing = location.getBearing();
         entity.isMock = location.isMock();
+        entity.cadence = currentCadence;
+        entity.strideLength = currentStrideLength;
+        entity.groundContactMs = currentGroundContactMs;
+        double altitude = elevationTracker.getAltitude();
+        entity.altitude = Double.isNaN(altitude) ? null : altitude;
+
+        enqueueInsert(entity);
+
+        if (!"idle".equals(sessionId)
+                && SystemClock.elapsedRealtime() - lastSummaryWriteElapsed >= SESSION_SUMMARY_WRITE_INTERVAL_MS) {
+            lastSummaryWriteElapsed = SystemClock.elapsedRealtime();
+            writeSessionSummary();
+        }
+    }
+
+    /**
+     * 追加到进程内轨迹缓冲并异步插入 Room。插入成功后回写 entity.id（插值点修正时按 id 更新）。
+     * 航位推算插值点不计入连续性统计：断档仍按真实定位计算。
+     */
+    private void enqueueInsert(final LocationEntity entity) {
+        final String sessionId = entity.sessionId;
+        final long startedAt = runStartedAt;
+        entity.spatialKey = SpatialIndex.key(entity.latitude, entity.longitude);
+
+        // 同步追加到进程内轨迹缓冲（仅跑步会话），供 hydrateOfflinePoints 免磁盘读取
+        if (!"idle".equals(sessionId)) {
+            TrackBuffer buffer = TrackBuffer.getInstance();
+            if (!sessionId.equals(buffer.getSessionId())) {
+                // 进程重启后恢复的会话：缓冲只覆盖此后的点，更早的点仍由 Room 提供
+                buffer.reset(sessionId, false);
+            }
+            buffer.append(entity.latitude, entity.longitude, entity.timestamp,
+                    entity.accuracy, entity.speed, entity.bearing, entity.isInterpolated);
+        }
 
         dbExecutor.execute(() -> {
+            // 建库任务排在前面：此处为 null 只可能是建库失败
+            LocationDao dao = locationDao;
+            if (dao == null) {
+                Log.w(TAG, "Room 数据库未初始化，跳过持久化");
+                return;
+            }
             try {
-                long rowId = locationDao.insert(entity);
+                ContinuityTracker continuity = null;
+                if (!"idle".equals(sessionId) && !entity.isInterpolated) {
+                    continuity = ContinuityTracker.getInstance(getApplicationContext());
+                    if (continuity.needsResume()) {
+                        // 进程重启后的第一个点：从已存报告 + Room 最后时间戳接续统计
+                        continuity.resume(sessionId, dao.getLastTimestamp(sessionId));
+                    }
+                }
+                int newSplits = 0;
+                if (!"idle".equals(sessionId)) {
+                    if (!sessionId.equals(bestEfforts.getSessionId())) {
+                        // 新会话或进程重启后的第一个点：从已落盘的列接续（新会话查询为空）
+                        resumeBestEfforts(sessionId, dao.getPointsAfter(sessionId, 0));
+                    }
+                    newSplits = bestEfforts.onPoint(entity.latitude, entity.longitude, entity.timestamp, startedAt);
+                    entity.cumDistance = bestEfforts.getDistance();
+                    entity.elapsedMs = bestEfforts.getElapsed();
+                }
+                long rowId = dao.insert(entity);
+                entity.id = rowId;
+                if (newSplits > 0) {
+                    broadcastSplits(newSplits);
+                }
+                if (continuity != null) {
+                    continuity.onPoint(sessionId, entity.timestamp);
+                }
+                if (!"idle".equals(sessionId) && !entity.isInterpolated) {
+                    HeatmapStore.getInstance(getApplicationContext()).onPoint(rowId, entity.latitude, entity.longitude);
+                    TrackPyramidCache.getInstance(getApplicationContext())
+                            .onPoint(sessionId, rowId, entity.latitude, entity.longitude);
+                }
                 // 降低日志噪音：每 50 条打印一次
                 if (rowId % 50 == 0) {
                     Log.d(TAG, "Room 持久化 #" + rowId + " session=" + sessionId);
@@ -1117,6 +1512,467 @@ public class LocationForegroundService extends Service implements AMapLocationLi
         });
     }
 
+    // -------------------------------------------------------------------
+    // Barometer / session summary
+    // -------------------------------------------------------------------
+
+    /**
+     * 跑步中注册气压计：1 Hz 采样、10 秒硬件批量上报，与定位回调互不触发；未跑步时注销。
+     */
+    private void applyBarometer() {
+        boolean running = currentRunId != null && !currentRunId.isEmpty();
+        if (running && pressureSensor == null) {
+            SensorManager sm = (SensorManager) getSystemService(SENSOR_SERVICE);
+            Sensor sensor = sm != null ? sm.getDefaultSensor(Sensor.TYPE_PRESSURE) : null;
+            if (sensor == null) {
+                Log.i(TAG, "TYPE_PRESSURE sensor not available, elevation gain disabled");
+                return;
+            }
+            if (sm.registerListener(this, sensor, PRESSURE_SAMPLING_US, PRESSURE_REPORT_LATENCY_US)) {
+                pressureSensor = sensor;
+                Log.i(TAG, "Pressure sensor registered (fifoMax=" + sensor.getFifoMaxEventCount() + ")");
+            }
+        } else if (!running) {
+            unregisterPressureSensor();
+        }
+    }
+
+    private void unregisterPressureSensor() {
+        if (pressureSensor == null) return;
+        SensorManager sm = (SensorManager) getSystemService(SENSOR_SERVICE);
+        if (sm != null) sm.unregisterListener(this, pressureSensor);
+        pressureSensor = null;
+    }
+
+    /** 把当前会话的爬升 / 下降写入 session_summaries（dbExecutor 排队，REPLACE） */
+    private void writeSessionSummary() {
+        final String sessionId = currentRunId;
+        if (sessionId == null || sessionId.isEmpty()) return;
+        if (dbExecutor == null || dbExecutor.isShutdown()) return;
+
+        final SessionSummaryEntity summary = new SessionSummaryEntity();
+        summary.sessionId = sessionId;
+        summary.startedAt = runStartedAt;
+        summary.updatedAt = System.currentTimeMillis();
+        summary.elevationGain = elevationTracker.getGain();
+        summary.elevationLoss = elevationTracker.getLoss();
+        double min = elevationTracker.getMin();
+        double max = elevationTracker.getMax();
+        summary.minAltitude = Double.isNaN(min) ? null : min;
+        summary.maxAltitude = Double.isNaN(max) ? null : max;
+        summary.hasBarometer = pressureSensor != null || elevationTracker.hasAltitude();
+        dbExecutor.execute(() -> {
+            try {
+                if (sessionId.equals(bestEfforts.getSessionId())) {
+                    bestEfforts.fillSummary(summary);
+                }
+                AppDatabase.getInstance(getApplicationContext()).sessionSummaryDao().upsert(summary);
+            } catch (Exception e) {
+                Log.w(TAG, "session_summaries 写入失败: " + e.getMessage());
+            }
+        });
+    }
+
+    /** dbExecutor：按已落盘的 cumDistance / elapsedMs 回放会话，接续分段与最快用时 */
+    private void resumeBestEfforts(String sessionId, List<LocationEntity> points) {
+        bestEfforts.reset(sessionId);
+        for (LocationEntity p : points) {
+            bestEfforts.replay(p.cumDistance, p.elapsedMs, p.latitude, p.longitude, p.timestamp);
+        }
+        if (!points.isEmpty()) {
+            Log.i(TAG, "Best efforts resumed: points=" + points.size() + " distance="
+                    + Math.round(bestEfforts.getDistance()) + "m splits=" + bestEfforts.getSplitCount());
+        }
+    }
+
+    /** dbExecutor：本点完成的整公里分段逐个广播 */
+    private void broadcastSplits(int newSplits) {
+        long[] best = new long[BestEfforts.TARGET_METERS.length];
+        for (int k = 0; k < best.length; k++) best[k] = bestEfforts.getBest(k);
+        int count = bestEfforts.getSplitCount();
+        for (int i = count - newSplits; i < count; i++) {
+            Intent intent = new Intent(ACTION_SPLIT);
+            intent.putExtra(EXTRA_SPLIT_INDEX, i + 1);
+            intent.putExtra(EXTRA_SPLIT_MS, bestEfforts.getSplit(i));
+            intent.putExtra(EXTRA_SPLIT_ELAPSED_MS, bestEfforts.getElapsed());
+            intent.putExtra(EXTRA_BEST_EFFORT_MS, best);
+            LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+        }
+    }
+
+    /** 服务恢复：读回已落盘的累计爬升 / 下降，继续累加 */
+    private void resumeSessionSummary(final String sessionId) {
+        if (sessionId == null || sessionId.isEmpty()) return;
+        if (dbExecutor == null || dbExecutor.isShutdown()) return;
+        dbExecutor.execute(() -> {
+            try {
+                SessionSummaryDao dao = AppDatabase.getInstance(getApplicationContext()).sessionSummaryDao();
+                SessionSummaryEntity previous = dao.get(sessionId);
+                if (previous != null) {
+                    elevationTracker.seedTotals(previous.elevationGain, previous.elevationLoss);
+                    Log.i(TAG, "Session summary resumed: gain=" + previous.elevationGain + " loss=" + previous.elevationLoss);
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "session_summaries 读取失败: " + e.getMessage());
+            }
+        });
+    }
+
+    // -------------------------------------------------------------------
+    // Hex cell coverage
+    // -------------------------------------------------------------------
+
+    /** 定位引擎线程：同格直接返回；换格后归属变化时先 exit 旧领主、再 enter 新领主 */
+    private void checkTerritory(double lat, double lng, long timestamp) {
+        long cell = HexGrid.getDefault().latLngToCell(lat, lng);
+        if (cell == lastTerritoryCell) return;
+        lastTerritoryCell = cell;
+        TerritoryCache cache = TerritoryCache.getInstance(getApplicationContext());
+        int owner = cache.get(cell);
+        if (owner == lastTerritoryOwner) return;
+        if (lastTerritoryOwner != 0) {
+            broadcastTerritory(ACTION_TERRITORY_EXIT, cache, lastTerritoryOwner, cell, timestamp);
+        }
+        lastTerritoryOwner = owner;
+        if (owner == 0) return;
+        String relation = broadcastTerritory(ACTION_TERRITORY_ENTER, cache, owner, cell, timestamp);
+
+        // WebView 冻结时 JS 收不到事件：跑步中进入敌方领地由原生语音提醒
+        boolean running = currentRunId != null && !currentRunId.isEmpty();
+        long nowElapsed = SystemClock.elapsedRealtime();
+        if (running && TerritoryCache.RELATION_ENEMY.equals(relation)
+                && nowElapsed - lastEnemyAlertElapsed >= ENEMY_ALERT_INTERVAL_MS) {
+            lastEnemyAlertElapsed = nowElapsed;
+            speakTts("领主注意，您已进入敌方领地！");
+        }
+    }
+
+    /** 服务启动时恢复上次设置的规划路线（dbExecutor） */
+    private void restorePlannedRoute() {
+        RouteFollower follower = RouteFollower.getInstance();
+        if (follower.hasRoute()) return;
+        try {
+            if (follower.load(new File(getFilesDir(), RouteFollower.ROUTE_FILE))) {
+                Log.i(TAG, "规划路线已恢复: points=" + follower.getPointCount()
+                        + " length=" + Math.round(follower.getTotalLength()) + "m");
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "规划路线恢复失败: " + e.getMessage());
+        }
+    }
+
+    /** 服务启动时按 citylord_service_config 中保存的会话 ID 重新载入幽灵轨迹（dbExecutor） */
+    private void restoreGhost() {
+        String sessionId = getSharedPreferences("citylord_service_config", MODE_PRIVATE)
+                .getString(PREF_GHOST_SESSION_ID, null);
+        GhostRunner ghost = GhostRunner.getInstance();
+        if (sessionId == null || ghost.isActive()) return;
+        LocationDao dao = locationDao;
+        if (dao == null) return;
+        try {
+            SessionSummaryEntity summary = appDatabase.sessionSummaryDao().get(sessionId);
+            ghost.loadSession(sessionId, summary != null ? summary.startedAt : 0, dao.getPointsAfter(sessionId, 0));
+            Log.i(TAG, "幽灵跑者已恢复: session=" + sessionId + " points=" + ghost.getPointCount());
+        } catch (Exception e) {
+            Log.w(TAG, "幽灵跑者恢复失败: " + e.getMessage());
+        }
+    }
+
+    private void speakGhost(GhostRunner.State ghost) {
+        switch (ghost.announce) {
+            case GhostRunner.ANNOUNCE_TOOK_LEAD:
+                speakTts("您已超过幽灵跑者！");
+                break;
+            case GhostRunner.ANNOUNCE_LOST_LEAD:
+                speakTts("幽灵跑者已反超，加油追上！");
+                break;
+            default:
+                String side = ghost.leadMeters >= 0 ? "领先" : "落后";
+                if (Double.isNaN(ghost.leadSeconds)) {
+                    speakTts(side + "幽灵跑者" + Math.round(Math.abs(ghost.leadMeters)) + "米");
+                } else {
+                    speakTts(side + "幽灵跑者" + Math.round(Math.abs(ghost.leadSeconds)) + "秒，约"
+                            + Math.round(Math.abs(ghost.leadMeters)) + "米");
+                }
+                break;
+        }
+    }
+
+    private static void putGhostExtras(Intent intent, GhostRunner.State ghost) {
+        intent.putExtra(EXTRA_GHOST_LAT, ghost.ghostLat);
+        intent.putExtra(EXTRA_GHOST_LNG, ghost.ghostLng);
+        intent.putExtra(EXTRA_GHOST_DISTANCE, ghost.ghostDistance);
+        intent.putExtra(EXTRA_GHOST_LEAD_METERS, ghost.leadMeters);
+        if (!Double.isNaN(ghost.leadSeconds)) intent.putExtra(EXTRA_GHOST_LEAD_SECONDS, ghost.leadSeconds);
+        intent.putExtra(EXTRA_GHOST_FINISHED, ghost.ghostFinished);
+    }
+
+    private void broadcastRouteEvent(String action, RouteFollower.Progress progress) {
+        Log.i(TAG, "Route " + (ACTION_ROUTE_OFF_COURSE.equals(action) ? "off course" : "back on course")
+                + ": crossTrack=" + progress.crossTrack + " progress=" + Math.round(progress.progress) + "m");
+        Intent intent = new Intent(action);
+        putRouteExtras(intent, progress);
+        intent.putExtra(EXTRA_TIMESTAMP, routeTimestamp);
+        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+    }
+
+    private static void putRouteExtras(Intent intent, RouteFollower.Progress progress) {
+        if (progress.matched) {
+            intent.putExtra(EXTRA_ROUTE_CROSS_TRACK, progress.crossTrack);
+            intent.putExtra(EXTRA_ROUTE_SEGMENT, progress.segmentIndex);
+        }
+        intent.putExtra(EXTRA_ROUTE_PROGRESS, progress.progress);
+        intent.putExtra(EXTRA_ROUTE_REMAINING, progress.remaining);
+        intent.putExtra(EXTRA_ROUTE_OFF_COURSE, progress.offCourse);
+    }
+
+    private String broadcastTerritory(String action, TerritoryCache cache, int ownerIndex, long cell, long timestamp) {
+        TerritoryCache.Owner owner = cache.getOwner(ownerIndex);
+        String relation = cache.relation(ownerIndex);
+        Intent intent = new Intent(action);
+        intent.putExtra(EXTRA_CELL_ID, HexGrid.toString(cell));
+        intent.putExtra(EXTRA_TERRITORY_OWNER_INDEX, ownerIndex);
+        if (owner != null) {
+            intent.putExtra(EXTRA_TERRITORY_OWNER_ID, owner.ownerId);
+            if (owner.faction != null) intent.putExtra(EXTRA_TERRITORY_FACTION, owner.faction);
+        }
+        if (relation != null) intent.putExtra(EXTRA_TERRITORY_RELATION, relation);
+        intent.putExtra(EXTRA_TIMESTAMP, timestamp);
+        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+        return relation;
+    }
+
+    private void broadcastCellEntered(long cell, int cellCount, long timestamp) {
+        double[] center = RunCellTracker.getInstance().getGrid().cellToLatLng(cell);
+        Intent intent = new Intent(ACTION_CELL_ENTERED);
+        intent.putExtra(EXTRA_CELL_ID, HexGrid.toString(cell));
+        intent.putExtra(EXTRA_CELL_COUNT, cellCount);
+        intent.putExtra(EXTRA_CELL_LAT, center[0]);
+        intent.putExtra(EXTRA_CELL_LNG, center[1]);
+        intent.putExtra(EXTRA_TIMESTAMP, timestamp);
+        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+    }
+
+    /**
+     * 闭环回调（引擎线程）：先取出环的顶点，拓扑预检 / 修复与格子覆盖（polyfill）放到 ForkJoin 公共池计算，
+     * 算完连同环信息一起广播，不阻塞定位引擎线程。
+     */
+    private void broadcastLoopClosed(LoopDetector.Loop loop) {
+        Log.i(TAG, "Loop closed: [" + loop.startIndex + ", " + loop.endIndex + "] area="
+                + Math.round(loop.area) + "m² perimeter=" + Math.round(loop.perimeter) + "m");
+        final Intent intent = new Intent(ACTION_LOOP_CLOSED);
+        intent.putExtra(EXTRA_LOOP_START_INDEX, loop.startIndex);
+        intent.putExtra(EXTRA_LOOP_END_INDEX, loop.endIndex);
+        intent.putExtra(EXTRA_LOOP_START_TIMESTAMP, loop.startTimestamp);
+        intent.putExtra(EXTRA_LOOP_END_TIMESTAMP, loop.endTimestamp);
+        intent.putExtra(EXTRA_LOOP_AREA, loop.area);
+        intent.putExtra(EXTRA_LOOP_PERIMETER, loop.perimeter);
+        final double[][] vertices = loopDetector.getLoopVertices(loop.startIndex, loop.endIndex);
+        final Context appContext = getApplicationContext();
+        ForkJoinPool.commonPool().execute(() -> {
+            try {
+                long startNs = System.nanoTime();
+                PolygonValidator.Result validation = PolygonValidator.validate(vertices[0], vertices[1]);
+                intent.putExtra(EXTRA_LOOP_VALIDATION, validation.status);
+                intent.putExtra(EXTRA_LOOP_KINKS, validation.kinkCount);
+
+                // 自交环拆成的多个子环分别 polyfill，合并去重
+                LongHashSet unique = new LongHashSet(256);
+                for (PolygonValidator.Ring ring : validation.rings) {
+                    for (long cell : HexPolyfill.polyfill(HexGrid.getDefault(), ring.lats, ring.lngs)) {
+                        unique.add(cell);
+                    }
+                }
+                long[] cells = unique.toArray();
+                String[] ids = new String[cells.length];
+                for (int i = 0; i < cells.length; i++) {
+                    ids[i] = HexGrid.toString(cells[i]);
+                }
+                intent.putExtra(EXTRA_LOOP_CELLS, ids);
+                Log.i(TAG, "Loop polyfill: vertices=" + vertices[0].length + " validation=" + validation.status
+                        + " kinks=" + validation.kinkCount + " cells=" + cells.length
+                        + " took=" + (System.nanoTime() - startNs) / 1000 + "us");
+            } catch (Exception e) {
+                Log.w(TAG, "Loop polyfill 失败: " + e.getMessage());
+            }
+            LocalBroadcastManager.getInstance(appContext).sendBroadcast(intent);
+        });
+    }
+
+    /**
+     * 服务恢复：用已落盘的轨迹重建本次跑步经过的格子与闭环检测状态（插值点与低精度点不计）。
+     */
+    private void restoreRunGeometry(final String sessionId) {
+        if (sessionId == null || sessionId.isEmpty()) return;
+        if (dbExecutor == null || dbExecutor.isShutdown()) return;
+        dbExecutor.execute(() -> {
+            try {
+                LocationDao dao = locationDao;
+                if (dao == null) return;
+                List<LocationEntity> points = dao.getPointsAfter(sessionId, 0);
+                resumeBestEfforts(sessionId, points);
+                double[] lats = new double[points.size()];
+                double[] lngs = new double[points.size()];
+                long[] timestamps = new long[points.size()];
+                int n = 0;
+                for (LocationEntity p : points) {
+                    if (p.isInterpolated || p.accuracy > RunCellTracker.MAX_ACCURACY_M) continue;
+                    lats[n] = p.latitude;
+                    lngs[n] = p.longitude;
+                    timestamps[n] = p.timestamp;
+                    n++;
+                }
+                lats = Arrays.copyOf(lats, n);
+                lngs = Arrays.copyOf(lngs, n);
+                RunCellTracker tracker = RunCellTracker.getInstance();
+                tracker.restore(sessionId, lats, lngs);
+                loopDetector.restore(lats, lngs, Arrays.copyOf(timestamps, n));
+                Log.i(TAG, "Run geometry restored: points=" + n + " cells=" + tracker.getCellCount()
+                        + " loopPoints=" + loopDetector.getPointCount());
+            } catch (Exception e) {
+                Log.w(TAG, "领地格 / 闭环状态恢复失败: " + e.getMessage());
+            }
+        });
+    }
+
+    // -------------------------------------------------------------------
+    // Cadence (accelerometer pipeline)
+    // -------------------------------------------------------------------
+
+    /** 仅在跑步中且 startTracking 开启 cadence 时运行加速度计管线（主线程） */
+    private void applyCadencePipeline() {
+        boolean running = currentRunId != null && !currentRunId.isEmpty();
+        if (running && isCadenceEnabled) {
+            if (cadencePipeline == null) {
+                cadencePipeline = new CadenceSensorPipeline(this);
+            }
+            if (!cadencePipeline.isAvailable()) {
+                Log.w(TAG, "Accelerometer not available, cadence disabled");
+                return;
+            }
+            cadencePipeline.start();
+        } else if (cadencePipeline != null) {
+            cadencePipeline.stop();
+        }
+    }
+
+    /** 读取最新步频结果；步长 = 速度 / 步频，低速（GNSS 速度不可信）时不给出 */
+    private void refreshCadence(AMapLocation location) {
+        CadenceSensorPipeline pipeline = cadencePipeline;
+        if (pipeline == null || !pipeline.latest(cadenceResult) || cadenceResult.cadenceSpm <= 0f) {
+            currentCadence = 0f;
+            currentStrideLength = 0f;
+            currentGroundContactMs = 0f;
+            return;
+        }
+        currentCadence = cadenceResult.cadenceSpm;
+        currentGroundContactMs = cadenceResult.groundContactMs;
+        float speed = location.getSpeed();
+        currentStrideLength = speed >= 1.0f ? speed * 60f / currentCadence : 0f;
+    }
+
+    // -------------------------------------------------------------------
+    // Dead reckoning (engine thread)
+    // -------------------------------------------------------------------
+
+    /** 步数事件 → 断档中生成插值点：落盘、入缓冲、累计里程并广播（interpolated=true） */
+    private void handleStepsForDeadReckoning(long totalSteps, long eventElapsedMs) {
+        if (currentRunId == null || currentRunId.isEmpty()) return;
+        if (dbExecutor == null || dbExecutor.isShutdown()) return;
+
+        DeadReckoner.Estimate estimate = deadReckoner.onStepCount(totalSteps, eventElapsedMs);
+        if (estimate == null) return;
+
+        long timestamp = correctTimestampForElapsed(eventElapsedMs);
+
+        LocationEntity entity = new LocationEntity();
+        entity.sessionId = currentRunId;
+        entity.latitude = estimate.lat;
+        entity.longitude = estimate.lng;
+        entity.timestamp = timestamp;
+        entity.isAcked = false;
+        entity.accuracy = estimate.accuracy;
+        entity.speed = 0f;
+        entity.bearing = estimate.bearing;
+        entity.isMock = false;
+        entity.isInterpolated = true;
+        pendingDrEntities.add(entity);
+        enqueueInsert(entity);
+
+        // 里程按推算距离累计；下一个真实定位从推算终点起算，避免重复计入
+        totalDistanceTravelled += estimate.stepDistance;
+        AMapLocation reckoned = new AMapLocation("dead_reckoning");
+        reckoned.setLatitude(estimate.lat);
+        reckoned.setLongitude(estimate.lng);
+        reckoned.setTime(timestamp);
+        lastLoggedLocation = reckoned;
+
+        Intent intent = new Intent(ACTION_LOCATION_UPDATE);
+        intent.putExtra(EXTRA_LAT, estimate.lat);
+        intent.putExtra(EXTRA_LNG, estimate.lng);
+        intent.putExtra(EXTRA_ACCURACY, estimate.accuracy);
+        intent.putExtra(EXTRA_BEARING, estimate.bearing);
+        intent.putExtra(EXTRA_SPEED, -1f);
+        intent.putExtra(EXTRA_TIMESTAMP, timestamp);
+        intent.putExtra(EXTRA_LOCATION_TYPE, 0);
+        intent.putExtra(EXTRA_IS_MOCK, false);
+        intent.putExtra(EXTRA_PROVIDER, "dead_reckoning");
+        intent.putExtra(EXTRA_INTERPOLATED, true);
+        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+    }
+
+    /**
+     * 断档结束：只修正本次断档的插值点（内存缓冲立即更新，Room 按 id 在写入线程排队更新），
+     * 并把修正后的坐标广播给 JS 层替换对应时间戳的点。
+     */
+    private void applyReconciliation(DeadReckoner.Reconciliation reconciliation) {
+        int n = Math.min(reconciliation.count(), pendingDrEntities.size());
+        final LocationEntity[] targets = pendingDrEntities.subList(0, n).toArray(new LocationEntity[0]);
+        pendingDrEntities.clear();
+        if (n == 0) return;
+
+        final long[] timestamps = new long[n];
+        final double[] lats = new double[n];
+        final double[] lngs = new double[n];
+        TrackBuffer buffer = TrackBuffer.getInstance();
+        for (int i = 0; i < n; i++) {
+            timestamps[i] = targets[i].timestamp;
+            lats[i] = reconciliation.lat[i];
+            lngs[i] = reconciliation.lng[i];
+            buffer.updatePosition(targets[i].sessionId, timestamps[i], lats[i], lngs[i]);
+        }
+
+        if (dbExecutor != null && !dbExecutor.isShutdown()) {
+            dbExecutor.execute(() -> {
+                LocationDao dao = locationDao;
+                if (dao == null) return;
+                try {
+                    for (int i = 0; i < targets.length; i++) {
+                        // id 由插入任务回写；插入失败的点 id 为 0，跳过
+                        if (targets[i].id > 0) {
+                            dao.updatePosition(targets[i].id, lats[i], lngs[i], SpatialIndex.key(lats[i], lngs[i]));
+                        }
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "Room 插值点修正失败: " + e.getMessage());
+                }
+            });
+        }
+
+        Log.i(TAG, "航位推算修正: points=" + n + " reckoned=" + Math.round(reconciliation.reckonedMeters)
+                + "m error=" + Math.round(reconciliation.errorMeters) + "m stride=" + deadReckoner.getStride());
+        getSharedPreferences("citylord_service_config", MODE_PRIVATE).edit()
+                .putFloat("dr_stride_m", (float) deadReckoner.getStride())
+                .apply();
+
+        Intent intent = new Intent(ACTION_TRACK_RECONCILED);
+        intent.putExtra(EXTRA_RECONCILED_TIMESTAMPS, timestamps);
+        intent.putExtra(EXTRA_RECONCILED_LATS, lats);
+        intent.putExtra(EXTRA_RECONCILED_LNGS, lngs);
+        intent.putExtra(EXTRA_RECONCILED_ERROR, reconciliation.errorMeters);
+        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+    }
+
     // -------------------------------------------------------------------
     // Error broadcasting
     // -------------------------------------------------------------------
@@ -1156,6 +2012,39 @@ public class LocationForegroundService extends Service implements AMapLocationLi
         }
     }
 
+    // -------------------------------------------------------------------
+    // Doze state (continuity gap attribution)
+    // -------------------------------------------------------------------
+
+    private void registerDeviceIdleReceiver() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) return;
+        final PowerManager pm = (PowerManager) getSystemService(POWER_SERVICE);
+        if (pm == null) return;
+
+        ContinuityTracker.getInstance(this).noteDeviceIdle(pm.isDeviceIdleMode());
+        deviceIdleReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(android.content.Context context, Intent intent) {
+                boolean idle = pm.isDeviceIdleMode();
+                Log.i(TAG, "Device idle mode changed: " + idle);
+                ContinuityTracker.getInstance(context).noteDeviceIdle(idle);
+                logEvent("fgs_device_idle", idle ? "enter" : "exit");
+            }
+        };
+        registerReceiver(deviceIdleReceiver, new IntentFilter(PowerManager.ACTION_DEVICE_IDLE_MODE_CHANGED));
+    }
+
+    private void unregisterDeviceIdleReceiver() {
+        if (deviceIdleReceiver != null) {
+            try {
+                unregisterReceiver(deviceIdleReceiver);
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to unregister device idle receiver: " + e.getMessage());
+            }
+            deviceIdleReceiver = null;
+        }
+    }
+
     // -------------------------------------------------------------------
     // Hardware Step Counter Sensor
     // -------------------------------------------------------------------
@@ -1175,8 +2064,90 @@ public class LocationForegroundService extends Service implements AMapLocationLi
         }
 
         hasStepSensor = true;
-        sensorManager.registerListener(this, stepCounterSensor, SensorManager.SENSOR_DELAY_UI);
-        Log.i(TAG, "Hardware step counter sensor registered");
+        applyStepSensorBatching();
+        Log.i(TAG, "Hardware step counter sensor registered (fifoMax=" + stepCounterSensor.getFifoMaxEventCount() + ")");
+    }
+
+    /**
+     * 按跑步 / 亮屏状态选择 maxReportLatencyUs 并（重新）注册计步传感器。
+     * 有硬件 FIFO 时事件在传感器协处理器中攒批，延迟到期或 FIFO 将满才唤醒 AP；
+     * 设备不支持批量上报（getFifoMaxEventCount() == 0）时延迟参数被忽略，行为与逐事件上报相同。
+     * citylord_service_config.step_batching = false 时回退为逐事件上报，用于对比唤醒次数。
+     */
+    private void applyStepSensorBatching() {
+        if (sensorManager == null || stepCounterSensor == null) return;
+
+        boolean batchingEnabled = getSharedPreferences("citylord_service_config", MODE_PRIVATE)
+                .getBoolean("step_batching", true);
+        boolean running = currentRunId != null && !currentRunId.isEmpty();
+        int latencyUs;
+        if (!batchingEnabled) {
+            latencyUs = 0;
+        } else if (running) {
+            latencyUs = STEP_LATENCY_RUNNING_US;
+        } else {
+            latencyUs = isScreenOn ? STEP_LATENCY_IDLE_SCREEN_ON_US : STEP_LATENCY_IDLE_SCREEN_OFF_US;
+        }
+        if (latencyUs == stepReportLatencyUs) return;
+
+        if (stepReportLatencyUs >= 0) {
+            sensorManager.unregisterListener(this, stepCounterSensor);
+        }
+        boolean ok = latencyUs > 0
+                ? sensorManager.registerListener(this, stepCounterSensor, SensorManager.SENSOR_DELAY_NORMAL, latencyUs)
+                : sensorManager.registerListener(this, stepCounterSensor, SensorManager.SENSOR_DELAY_UI);
+        stepReportLatencyUs = ok ? latencyUs : -1;
+        boolean hardwareBatching = latencyUs > 0 && stepCounterSensor.getFifoMaxEventCount() > 0;
+        SensorWakeupStats.getInstance(this).setBatching(ok && hardwareBatching);
+        Log.i(TAG, "Step counter latency=" + (latencyUs / 1000) + "ms running=" + running
+                + " screenOn=" + isScreenOn + " hwBatching=" + hardwareBatching + " ok=" + ok);
+    }
+
+    /** 亮屏时立即取出 FIFO 中攒下的步数，并切换为亮屏延迟 */
+    private void registerScreenStateReceiver() {
+        PowerManager pm = (PowerManager) getSystemService(POWER_SERVICE);
+        isScreenOn = pm == null || pm.isInteractive();
+        screenStateReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(android.content.Context context, Intent intent) {
+                isScreenOn = Intent.ACTION_SCREEN_ON.equals(intent.getAction());
+                applyStepSensorBatching();
+                if (isScreenOn && sensorManager != null && stepCounterSensor != null) {
+                    sensorManager.flush(LocationForegroundService.this);
+                }
+            }
+        };
+        IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        registerReceiver(screenStateReceiver, filter);
+    }
+
+    private void unregisterScreenStateReceiver() {
+        if (screenStateReceiver != null) {
+            try {
+                unregisterReceiver(screenStateReceiver);
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to unregister screen state receiver: " + e.getMessage());
+            }
+            screenStateReceiver = null;
+        }
+    }
+
+    /** 把本批次累加的分钟步数交给 dbExecutor 合并入 step_buckets */
+    private void flushStepBuckets() {
+        if (!stepBuckets.hasPending()) return;
+        if (dbExecutor == null || dbExecutor.isShutdown()) return;
+        final List<StepBuckets.Pending> batch = stepBuckets.drain();
+        dbExecutor.execute(() -> {
+            try {
+                StepBucketDao dao = AppDatabase.getInstance(getApplicationContext()).stepBucketDao();
+                for (StepBuckets.Pending p : batch) {
+                    dao.addCounts(p.hourStart, p.counts);
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "step_buckets 写入失败: " + e.getMessage());
+            }
+        });
     }
 
     private void unregisterStepCounterSensor() {
@@ -1187,23 +2158,40 @@ public class LocationForegroundService extends Service implements AMapLocationLi
         sensorManager = null;
         stepCounterSensor = null;
         hasStepSensor = false;
+        stepReportLatencyUs = -1;
     }
 
     /**
      * TYPE_STEP_COUNTER 回调：返回开机以来的累计步数。
      * 我们通过保存“今天第一次读到的值”作为基准，差值就是今日步数。
-     * 如果跨天（当前时间 > todayMidnight + 24h），重置基准。
+     * 如果事件时刻越过预先计算的 nextMidnight，重置基准。
+     * 批量上报时一次唤醒会连续回调多个事件，因此跨天与分钟桶都按事件发生时刻而非回调时刻计算。
      */
     @Override
     public void onSensorChanged(SensorEvent event) {
+        if (event.sensor.getType() == Sensor.TYPE_PRESSURE) {
+            elevationTracker.onPressure(event.values[0], event.timestamp);
+            return;
+        }
         if (event.sensor.getType() != Sensor.TYPE_STEP_COUNTER) return;
+        SensorWakeupStats.getInstance(this).onEvent();
 
         int totalStepsSinceBoot = (int) event.values[0];
-        long now = System.currentTimeMillis();
+        // event.timestamp 为 elapsedRealtimeNanos；个别 ROM 给出异常值时退回当前时刻
+        long nowElapsed = SystemClock.elapsedRealtime();
+        long eventElapsed = event.timestamp / 1_000_000L;
+        if (eventElapsed <= 0 || eventElapsed > nowElapsed) eventElapsed = nowElapsed;
+        long eventWallMs = System.currentTimeMillis() - (nowElapsed - eventElapsed);
+
+        // 分钟桶：本次回调批次结束后统一落盘
+        if (stepBuckets.onStepCount(totalStepsSinceBoot, eventWallMs) > 0) {
+            mainHandler.removeCallbacks(flushStepBucketsTask);
+            mainHandler.post(flushStepBucketsTask);
+        }
 
         // 跨天重置基准
-        if (now >= todayMidnight + 24 * 60 * 60 * 1000L) {
-            recalcTodayMidnight();
+        if (eventWallMs >= nextMidnight) {
+            recalcNextMidnight();
             stepBaseline = totalStepsSinceBoot;
             Log.i(TAG, "New day detected, resetting step baseline to " + stepBaseline);
         }
@@ -1217,6 +2205,14 @@ public class LocationForegroundService extends Service implements AMapLocationLi
         int todaySteps = totalStepsSinceBoot - stepBaseline;
         if (todaySteps < 0) todaySteps = 0; // 设备重启后基准可能大于当前值
 
+        // GNSS 断档航位推算：与定位回调在同一线程处理
+        if (currentRunId != null && !currentRunId.isEmpty()) {
+            final long stepTotal = totalStepsSinceBoot;
+            final long eventElapsedMs = eventElapsed;
+            LocationEngine.getInstance(getApplicationContext()).runOnEngineThread(
+                    () -> handleStepsForDeadReckoning(stepTotal, eventElapsedMs));
+        }
+
         // 只在步数变化时记录（暂不更新通知）
         if (todaySteps != currentSteps) {
             currentSteps = todaySteps;
@@ -1232,15 +2228,17 @@ public class LocationForegroundService extends Service implements AMapLocationLi
     }
 
     /**
-     * 计算今天 0:00:00 的时间戳
+     * 计算下一个本地 0:00:00 的时间戳（按日历加一天，夏令时切换日也准确）。
+     * 只在启动与跨天时调用，onSensorChanged 中仅做一次 long 比较。
      */
-    private void recalcTodayMidnight() {
+    private void recalcNextMidnight() {
         java.util.Calendar cal = java.util.Calendar.getInstance();
         cal.set(java.util.Calendar.HOUR_OF_DAY, 0);
         cal.set(java.util.Calendar.MINUTE, 0);
         cal.set(java.util.Calendar.SECOND, 0);
         cal.set(java.util.Calendar.MILLISECOND, 0);
-        todayMidnight = cal.getTimeInMillis();
+        cal.add(java.util.Calendar.DAY_OF_MONTH, 1);
+        nextMidnight = cal.getTimeInMillis();
     }
 
     // -------------------------------------------------------------------
@@ -1295,33 +2293,11 @@ public class LocationForegroundService extends Service implements AMapLocationLi
      * 动态更新定位间隔（不重启定位客户端）。
      */
     private void updateLocationInterval(long newInterval) {
-        if (locationClient == null) {
-            locationInterval = newInterval;
-            return;
-        }
-
         locationInterval = newInterval;
-        final long interval = newInterval;
-
-        if (locationHandler != null) {
-            locationHandler.post(() -> {
-                try {
-                    if (locationClient != null) {
-                        AMapLocationClientOption option = new AMapLocationClientOption();
-                        option.setInterval(interval);
-                        option.setLocationMode(AMapLocationClientOption.AMapLocationMode.Hight_Accuracy);
-                        option.setSensorEnable(true);
-                        option.setNeedAddress(false);
-                        option.setLocationCacheEnable(false);
-                        option.setGpsFirst(true);
-                        option.setGpsFirstTimeout(5000);
-                        locationClient.setLocationOption(option);
-                        Log.i(TAG, "[SmartPrewarm] Location interval updated to " + interval + "ms");
-                    }
-                } catch (Exception e) {
-                    Log.e(TAG, "Failed to update location interval: " + e.getMessage(), e);
-                }
-            });
+        LocationEngine.Subscription sub = locationSubscription;
+        if (sub != null) {
+            LocationEngine.getInstance(getApplicationContext()).updateInterval(sub, newInterval);
+            Log.i(TAG, "[SmartPrewarm] Location interval updated to " + newInterval + "ms");
         }
     }
 
@@ -1342,6 +2318,8 @@ public class LocationForegroundService extends Service implements AMapLocationLi
                 } else if ("start_prewarm".equals(command)) {
                     Log.i(TAG, "[SmartPrewarm] Received start_prewarm command");
                     startPrewarmThrottleTimer();
+                } else if ("refresh_step_batching".equals(command)) {
+                    applyStepSensorBatching();
                 }
             }
         };
@@ -1363,6 +2341,11 @@ public class LocationForegroundService extends Service implements AMapLocationLi
 
     @Override
     public void onInit(int status) {
+        if (tts == null) {
+            // 引擎在后台线程创建，绑定回调可能先于 tts 赋值到达主线程：排到赋值之后再处理
+            if (ttsCreating && !isDestroyed) mainHandler.post(() -> onInit(status));
+            return;
+        }
         if (status == TextToSpeech.SUCCESS) {
             try {
                 // Try setting language to CHINA, CHINESE, SIMPLIFIED_CHINESE, or fallback to default
@@ -1382,6 +2365,8 @@ public class LocationForegroundService extends Service implements AMapLocationLi
                 } else {
                     isTtsInitialized = true;
                     Log.i(TAG, "TTS Engine successfully initialized");
+                    StartupTrace trace = startupTrace;
+                    if (trace != null) trace.mark("tts_ready");
                     
                     // Set Audio Attributes for Android 5.0+ to configure stream type
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
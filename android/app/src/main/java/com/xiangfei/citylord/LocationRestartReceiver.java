@@ -3,7 +3,6 @@ package com.xiangfei.citylord;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.os.Build;
 import android.util.Log;
 
 /**
@@ -22,18 +21,8 @@ public class LocationRestartReceiver extends BroadcastReceiver {
         Log.i(TAG, "Received restart alarm, attempting to restart LocationForegroundService");
         
         try {
-            // 构建重启 Intent
-            Intent serviceIntent = new Intent(context, LocationForegroundService.class);
-            serviceIntent.setAction("com.xiangfei.citylord.RESTART_SERVICE");
-            
-            // Android 8.0+ 必须使用 startForegroundService
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                context.startForegroundService(serviceIntent);
-                Log.i(TAG, "Started foreground service (API 26+)");
-            } else {
-                context.startService(serviceIntent);
-                Log.i(TAG, "Started service (API < 26)");
-            }
+            // 由 RestartCoordinator 统一判断是否需要启动（Service 已存活 / 用户已停止时跳过）
+            RestartCoordinator.requestRestart(context, RestartCoordinator.SOURCE_ALARM);
         } catch (Exception e) {
             Log.e(TAG, "Failed to restart service: " + e.getMessage(), e);
         }
@@ -1,15 +1,15 @@
 package com.xiangfei.citylord;
 
 import android.content.Context;
-import android.content.Intent;
-import android.os.Build;
+import android.util.Log;
 import androidx.annotation.NonNull;
-import androidx.core.content.ContextCompat;
 import androidx.work.Worker;
 import androidx.work.WorkerParameters;
 
 public class LocationRestartWorker extends Worker {
 
+    private static final String TAG = "LocationRestartWorker";
+
     public LocationRestartWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
         super(context, workerParams);
     }
@@ -18,18 +18,14 @@ public class LocationRestartWorker extends Worker {
     @Override
     public Result doWork() {
         Context context = getApplicationContext();
-        Intent intent = new Intent(context, LocationForegroundService.class);
-        
         String runId = getInputData().getString("run_id");
-        if (runId != null) {
-            intent.putExtra(LocationForegroundService.EXTRA_RUN_ID, runId);
-        }
-        
-        // Android 12+ 限制后台启动前台服务，但 WorkManager 允许一定的宽限期
+        Log.i(TAG, "doWork: restart requested for run=" + runId);
+
+        // Android 12+ 仅 expedited 任务可从后台启动前台服务（由 RestartCoordinator 按版本设置）
         try {
-            ContextCompat.startForegroundService(context, intent);
+            RestartCoordinator.requestRestart(context, RestartCoordinator.SOURCE_WORK);
         } catch (Exception e) {
-            e.printStackTrace();
+            Log.e(TAG, "Failed to restart service: " + e.getMessage(), e);
             return Result.failure();
         }
         
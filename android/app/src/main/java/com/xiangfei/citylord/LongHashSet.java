@@ -0,0 +1,96 @@
+package com.xiangfei.citylord;
+
+import java.util.Arrays;
+
+/**
+ * LongHashSet — long 的开放寻址哈希集合（线性探测，无装箱）
+ *
+ * 0 作为空槽标记，因此不能存 0（HexGrid 的 cell ID 恒非 0）。
+ * 负载因子超过 0.5 时容量翻倍；不支持删除（只需 add / contains / clear）。
+ * 非线程安全。
+ */
+final class LongHashSet {
+
+    private long[] table;
+    private int size = 0;
+    private int mask;
+
+    LongHashSet() {
+        this(64);
+    }
+
+    LongHashSet(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+        table = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    /** @return true 表示新加入 */
+    boolean add(long value) {
+        if (value == 0) throw new IllegalArgumentException("0 is reserved");
+        int i = slot(value);
+        while (true) {
+            long cur = table[i];
+            if (cur == 0) break;
+            if (cur == value) return false;
+            i = (i + 1) & mask;
+        }
+        table[i] = value;
+        if (++size * 2 > table.length) {
+            rehash(table.length << 1);
+        }
+        return true;
+    }
+
+    boolean contains(long value) {
+        if (value == 0) return false;
+        int i = slot(value);
+        while (true) {
+            long cur = table[i];
+            if (cur == 0) return false;
+            if (cur == value) return true;
+            i = (i + 1) & mask;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(table, 0L);
+        size = 0;
+    }
+
+    long[] toArray() {
+        long[] out = new long[size];
+        int n = 0;
+        for (long v : table) {
+            if (v != 0) out[n++] = v;
+        }
+        return out;
+    }
+
+    private int slot(long value) {
+        // murmur3 fmix64：cell ID 的低位规律性很强，必须先打散
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = table;
+        table = new long[capacity];
+        mask = capacity - 1;
+        for (long v : old) {
+            if (v == 0) continue;
+            int i = slot(v);
+            while (table[i] != 0) i = (i + 1) & mask;
+            table[i] = v;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.xiangfei.citylord;
+
+import java.util.Arrays;
+
+/**
+ * LongIntHashMap — long → int 的开放寻址哈希表（线性探测，无装箱）
+ *
+ * 与 LongHashSet 相同：0 作为空槽标记，键不能为 0；负载因子超过 0.5 时容量翻倍。
+ * 删除用后移（backward shift），不留墓碑，删除后查找长度不退化。
+ * 内存：容量 × 12 字节（long 键 + int 值），100 万键约 24 MB。非线程安全。
+ */
+final class LongIntHashMap {
+
+    private long[] keys;
+    private int[] values;
+    private int size = 0;
+    private int mask;
+
+    LongIntHashMap() {
+        this(64);
+    }
+
+    LongIntHashMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    int get(long key, int defaultValue) {
+        if (key == 0) return defaultValue;
+        int i = slot(key);
+        while (true) {
+            long cur = keys[i];
+            if (cur == 0) return defaultValue;
+            if (cur == key) return values[i];
+            i = (i + 1) & mask;
+        }
+    }
+
+    /** @return 原值，不存在时返回 defaultValue */
+    int put(long key, int value, int defaultValue) {
+        if (key == 0) throw new IllegalArgumentException("0 is reserved");
+        int i = slot(key);
+        while (true) {
+            long cur = keys[i];
+            if (cur == 0) break;
+            if (cur == key) {
+                int old = values[i];
+                values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length << 1);
+        }
+        return defaultValue;
+    }
+
+    /** @return 被删除的值，不存在时返回 defaultValue */
+    int remove(long key, int defaultValue) {
+        if (key == 0) return defaultValue;
+        int i = slot(key);
+        while (true) {
+            long cur = keys[i];
+            if (cur == 0) return defaultValue;
+            if (cur == key) break;
+            i = (i + 1) & mask;
+        }
+        int old = values[i];
+        // 后移：把探测链上本应落在 i 之前的键挪进空位
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            long k = keys[j];
+            if (k == 0) break;
+            int home = slot(k);
+            boolean movable = i <= j ? (home <= i || home > j) : (home <= i && home > j);
+            if (movable) {
+                keys[i] = k;
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = 0;
+        size--;
+        return old;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** 底层数组占用字节数（不含对象头） */
+    long memoryBytes() {
+        return (long) keys.length * (8 + 4);
+    }
+
+    void clear() {
+        Arrays.fill(keys, 0L);
+        size = 0;
+    }
+
+    private int slot(long key) {
+        // murmur3 fmix64（同 LongHashSet）
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            long k = oldKeys[j];
+            if (k == 0) continue;
+            int i = slot(k);
+            while (keys[i] != 0) i = (i + 1) & mask;
+            keys[i] = k;
+            values[i] = oldValues[j];
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.xiangfei.citylord;
+
+import java.util.Arrays;
+
+/**
+ * LoopDetector — 跑步轨迹的流式闭环检测 + 实时"现在闭合"面积估算
+ *
+ * 与 JS 层 useRunningTracker 的智能吸附规则一致：
+ *  - 新点回到更早某点 CLOSE_THRESHOLD_M（30 米，LOOP_CLOSURE_SNAP_M）以内
+ *  - 两点之间至少相隔 MIN_POINT_GAP 个点（P_SHAPE_MIN_POINT_GAP）
+ *  - 闭合面积 > MIN_AREA_M2（100 m²）
+ * 另加一条 JS 没有的约束：两点之间的路径长度 ≥ MIN_LOOP_PATH_M。原生侧点更密（1 Hz、1.5 米去抖），
+ * 只按点数间隔时 100 米见方路线的每个直角拐弯都会被当成一个小环。
+ * 满足时取最早的那个锚点，回调一次 Loop（下标区间、鞋带公式面积、周长）。
+ *
+ * 复杂度：
+ *  - 轨迹点投影到以首点为原点的局部平面（米），按 CLOSE_THRESHOLD_M 边长的均匀网格分桶；
+ *    桶内按下标组成链表（LongIntHashMap 存链头，next[] 存链），每个新点只查 3×3 个桶。
+ *  - 鞋带公式的叉积与路径长度都维护前缀和，任意区间 [i, j] 的闭合面积 / 周长都是 O(1)，
+ *    因此每个定位点都能给出"若现在回到起点能圈多大"（prospective），无需重算整条轨迹。
+ *
+ * 已闭合的区间不再重复触发：下一个环只能以上一个环的终点之后的点为锚点。
+ * 方法 synchronized：定位点在引擎线程，恢复在 dbExecutor。
+ */
+public final class LoopDetector {
+
+    public static final double CLOSE_THRESHOLD_M = 30.0;
+    public static final int MIN_POINT_GAP = 15;
+    public static final double MIN_AREA_M2 = 100.0;
+    public static final double MIN_LOOP_PATH_M = 3 * CLOSE_THRESHOLD_M;
+    /** 与上一个点距离小于此值视为原地抖动，不入轨迹（同 JS MIN_MOVE_METERS） */
+    static final double MIN_STEP_M = 1.5;
+
+    private static final double METERS_PER_DEG = 6378137.0 * Math.PI / 180.0;
+    private static final int CELL_OFFSET = 1 << 30;
+
+    public static final class Loop {
+        /** 环在本会话轨迹中的下标区间（含两端，下标按 LoopDetector 接收的点计） */
+        public int startIndex;
+        public int endIndex;
+        public long startTimestamp;
+        public long endTimestamp;
+        /** 闭合面积（m²）与周长（米，含终点回到起点的闭合边） */
+        public double area;
+        public double perimeter;
+    }
+
+    public interface Listener {
+        void onLoopClosed(Loop loop);
+    }
+
+    private double originLat = Double.NaN;
+    private double originLng = 0;
+    private double metersPerDegLng = 0;
+
+    private int count = 0;
+    private double[] xs = new double[1024];
+    private double[] ys = new double[1024];
+    private long[] timestamps = new long[1024];
+    /** cross[i] = Σ_{k<i} (x_k·y_{k+1} − x_{k+1}·y_k)，dist[i] = 点 0 到点 i 的路径长度 */
+    private double[] cross = new double[1024];
+    private double[] dist = new double[1024];
+    /** 同桶内上一个点的下标，-1 表示链尾 */
+    private int[] next = new int[1024];
+    private final LongIntHashMap cellHeads = new LongIntHashMap(1024);
+
+    /** 下一个环的锚点下标下限 */
+    private int anchorFloor = 0;
+    private final Loop loop = new Loop();
+
+    public synchronized void reset() {
+        originLat = Double.NaN;
+        count = 0;
+        anchorFloor = 0;
+        cellHeads.clear();
+    }
+
+    /**
+     * 一个可信定位点。
+     *
+     * @return true 表示该点被接收（未被当作原地抖动丢弃）
+     */
+    public synchronized boolean onFix(double lat, double lng, long timestamp, Listener listener) {
+        if (Double.isNaN(originLat)) {
+            originLat = lat;
+            originLng = lng;
+            metersPerDegLng = METERS_PER_DEG * Math.cos(Math.toRadians(lat));
+        }
+        double x = (lng - originLng) * metersPerDegLng;
+        double y = (lat - originLat) * METERS_PER_DEG;
+
+        int n = count;
+        double step = 0;
+        if (n > 0) {
+            step = Math.hypot(x - xs[n - 1], y - ys[n - 1]);
+            if (step < MIN_STEP_M) return false;
+        }
+        ensureCapacity(n + 1);
+
+        // 先找锚点（只看 3×3 个桶），再把当前点加入
+        double pathLength = n == 0 ? 0 : dist[n - 1] + step;
+        int anchor = findAnchor(x, y, n - 1 - MIN_POINT_GAP, pathLength - MIN_LOOP_PATH_M);
+
+        xs[n] = x;
+        ys[n] = y;
+        timestamps[n] = timestamp;
+        if (n == 0) {
+            cross[0] = 0;
+            dist[0] = 0;
+        } else {
+            cross[n] = cross[n - 1] + (xs[n - 1] * y - x * ys[n - 1]);
+            dist[n] = pathLength;
+        }
+        long key = cellKey(x, y);
+        next[n] = cellHeads.put(key, n, -1);
+        count = n + 1;
+
+        if (anchor >= 0) {
+            double area = areaOf(anchor, n);
+            if (area > MIN_AREA_M2) {
+                anchorFloor = n;
+                if (listener != null) {
+                    loop.startIndex = anchor;
+                    loop.endIndex = n;
+                    loop.startTimestamp = timestamps[anchor];
+                    loop.endTimestamp = timestamp;
+                    loop.area = area;
+                    loop.perimeter = perimeterOf(anchor, n);
+                    listener.onLoopClosed(loop);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 服务恢复：用已落盘的轨迹（按时间顺序）重建状态，不回调。
+     * 恢复完成前已经到达的实时点保留在末尾（早于首个实时点的落盘点才会并入）。
+     */
+    public synchronized void restore(double[] lats, double[] lngs, long[] pointTimestamps) {
+        int live = count;
+        double[] liveLats = new double[live];
+        double[] liveLngs = new double[live];
+        long[] liveTs = Arrays.copyOf(timestamps, live);
+        for (int i = 0; i < live; i++) {
+            liveLats[i] = originLat + ys[i] / METERS_PER_DEG;
+            liveLngs[i] = originLng + xs[i] / metersPerDegLng;
+        }
+        reset();
+        long firstLive = live > 0 ? liveTs[0] : Long.MAX_VALUE;
+        for (int i = 0; i < lats.length && pointTimestamps[i] < firstLive; i++) {
+            onFix(lats[i], lngs[i], pointTimestamps[i], null);
+        }
+        for (int i = 0; i < live; i++) {
+            onFix(liveLats[i], liveLngs[i], liveTs[i], null);
+        }
+    }
+
+    /** 点 start..end 的经纬度 {lats, lngs}（供 HexPolyfill 计算环覆盖的格子） */
+    public synchronized double[][] getLoopVertices(int start, int end) {
+        int n = end - start + 1;
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = originLat + ys[start + i] / METERS_PER_DEG;
+            lngs[i] = originLng + xs[start + i] / metersPerDegLng;
+        }
+        return new double[][]{lats, lngs};
+    }
+
+    /** 若此刻从当前点直线回到环起点（会话首点或上一个环的终点）可圈住的面积（m²） */
+    public synchronized double getProspectiveArea() {
+        if (count - anchorFloor < 3) return 0;
+        return areaOf(anchorFloor, count - 1);
+    }
+
+    /** 当前点到环起点的直线距离（米） */
+    public synchronized double getDistanceToLoopStart() {
+        if (count == 0) return 0;
+        int last = count - 1;
+        return Math.hypot(xs[last] - xs[anchorFloor], ys[last] - ys[anchorFloor]);
+    }
+
+    public synchronized int getPointCount() {
+        return count;
+    }
+
+    // -------------------------------------------------------------------
+    // Internals
+    // -------------------------------------------------------------------
+
+    /** 满足距离阈值、下标在 [anchorFloor, maxIndex] 内且路径位置不晚于 maxDist 的最早点，没有返回 -1 */
+    private int findAnchor(double x, double y, int maxIndex, double maxDist) {
+        if (maxIndex < anchorFloor) return -1;
+        int cx = (int) Math.floor(x / CLOSE_THRESHOLD_M);
+        int cy = (int) Math.floor(y / CLOSE_THRESHOLD_M);
+        double limit2 = CLOSE_THRESHOLD_M * CLOSE_THRESHOLD_M;
+        int best = -1;
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                int i = cellHeads.get(packCell(cx + dx, cy + dy), -1);
+                // 链按下标递减，低于 anchorFloor 即可停止
+                while (i >= anchorFloor) {
+                    if (i <= maxIndex && dist[i] <= maxDist && (best < 0 || i < best)) {
+                        double ddx = xs[i] - x;
+                        double ddy = ys[i] - y;
+                        if (ddx * ddx + ddy * ddy <= limit2) best = i;
+                    }
+                    i = next[i];
+                }
+            }
+        }
+        return best;
+    }
+
+    /** 点 i..j 依次相连再回到 i 的多边形面积（鞋带公式，前缀和 O(1)） */
+    private double areaOf(int i, int j) {
+        double sum = cross[j] - cross[i] + (xs[j] * ys[i] - xs[i] * ys[j]);
+        return Math.abs(sum) / 2.0;
+    }
+
+    private double perimeterOf(int i, int j) {
+        return dist[j] - dist[i] + Math.hypot(xs[j] - xs[i], ys[j] - ys[i]);
+    }
+
+    private static long cellKey(double x, double y) {
+        return packCell((int) Math.floor(x / CLOSE_THRESHOLD_M), (int) Math.floor(y / CLOSE_THRESHOLD_M));
+    }
+
+    /** 偏移后高 32 位恒为正，键不会为 0 */
+    private static long packCell(int cx, int cy) {
+        return ((long) (cx + CELL_OFFSET) << 32) | ((cy + CELL_OFFSET) & 0xffffffffL);
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= xs.length) return;
+        int capacity = xs.length << 1;
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        cross = Arrays.copyOf(cross, capacity);
+        dist = Arrays.copyOf(dist, capacity);
+        next = Arrays.copyOf(next, capacity);
+    }
+}
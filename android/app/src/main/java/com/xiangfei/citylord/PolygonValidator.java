@@ -0,0 +1,495 @@
+package com.xiangfei.citylord;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * PolygonValidator — 闭合跑步环的本地拓扑校验与最小修复（上传前预检）
+ *
+ * 服务端用 Turf 做 kinks / unkinkPolygon 校验并"自动修复非法闭合路径"，非法环要等一次往返才被拒。
+ * 本类在设备上完成同样的工作：
+ *  1. 清理：去掉重复点（< DUPLICATE_EPS_M，同服务端 deduplicateRingPoints 的 1e-6°）与尖刺
+ *     （顶点处折返角 < SPIKE_ANGLE_DEG，GPS 在路口折返时常见），栈式一遍 O(n)。
+ *  2. 自交检测：Shamos–Hoey 扫描线，O(n log n) 找到一处自交（含顶点重合 / T 形相接）。
+ *  3. 修复：在交点处把环拆成两个环（同 unkinkPolygon），对两个子环重复 1–2，
+ *     直到全部简单或达到 MAX_SPLITS；面积 ≤ MIN_RING_AREA_M2 的子环丢弃。
+ * 输出环统一为逆时针（GeoJSON 外环方向），首尾不重复；同时返回诊断列表。
+ *
+ * 计算在以首点为原点的局部平面（米）上进行，跑步环尺度内误差可忽略。无状态，线程安全。
+ */
+public final class PolygonValidator {
+
+    public static final String STATUS_VALID = "valid";
+    public static final String STATUS_REPAIRED = "repaired";
+    public static final String STATUS_INVALID = "invalid";
+
+    public static final String ISSUE_TOO_FEW_VERTICES = "too_few_vertices";
+    public static final String ISSUE_DUPLICATE_VERTEX = "duplicate_vertex";
+    public static final String ISSUE_SPIKE = "spike";
+    public static final String ISSUE_SELF_INTERSECTION = "self_intersection";
+    public static final String ISSUE_SMALL_RING_DROPPED = "small_ring_dropped";
+    public static final String ISSUE_REPAIR_LIMIT = "repair_limit";
+
+    static final double DUPLICATE_EPS_M = 0.1;
+    static final double SPIKE_ANGLE_DEG = 5.0;
+    /** 同服务端 MIN_TERRITORY_AREA_M2 */
+    static final double MIN_RING_AREA_M2 = 50.0;
+    static final int MAX_SPLITS = 64;
+
+    private static final double METERS_PER_DEG = 6378137.0 * Math.PI / 180.0;
+    private static final double SPIKE_COS = Math.cos(Math.toRadians(SPIKE_ANGLE_DEG));
+
+    public static final class Issue {
+        public final String code;
+        /** 对应输入顶点下标；交点等新生成的点为 -1 */
+        public final int index;
+        public final double lat;
+        public final double lng;
+        /** 附加数值（丢弃子环的面积等），无则为 0 */
+        public final double value;
+
+        Issue(String code, int index, double lat, double lng, double value) {
+            this.code = code;
+            this.index = index;
+            this.lat = lat;
+            this.lng = lng;
+            this.value = value;
+        }
+    }
+
+    public static final class Ring {
+        public final double[] lats;
+        public final double[] lngs;
+        public final double area;
+
+        Ring(double[] lats, double[] lngs, double area) {
+            this.lats = lats;
+            this.lngs = lngs;
+            this.area = area;
+        }
+    }
+
+    public static final class Result {
+        public String status = STATUS_VALID;
+        public final List<Ring> rings = new ArrayList<>();
+        public final List<Issue> issues = new ArrayList<>();
+        /** 修复过程中拆开的自交数 */
+        public int kinkCount = 0;
+        /** 清理后原始环的鞋带面积（自交时为有向面积之和的绝对值）与修复后各环面积之和（m²） */
+        public double rawArea = 0;
+        public double finalArea = 0;
+    }
+
+    private PolygonValidator() {
+    }
+
+    /**
+     * @param lats / lngs 闭合环顶点（首尾相同与否均可）
+     */
+    public static Result validate(double[] lats, double[] lngs) {
+        Result result = new Result();
+        int n = Math.min(lats.length, lngs.length);
+        if (n == 0) {
+            result.status = STATUS_INVALID;
+            result.issues.add(new Issue(ISSUE_TOO_FEW_VERTICES, -1, 0, 0, 0));
+            return result;
+        }
+        Frame frame = new Frame(lats[0], lngs[0]);
+        Poly input = new Poly(n);
+        for (int i = 0; i < n; i++) {
+            input.add(frame.x(lngs[i]), frame.y(lats[i]), i);
+        }
+
+        boolean changed = false;
+        Poly ring = clean(input, frame, result);
+        if (ring.size < 3) {
+            result.status = STATUS_INVALID;
+            result.issues.add(new Issue(ISSUE_TOO_FEW_VERTICES, -1, lats[0], lngs[0], ring.size));
+            return result;
+        }
+        result.rawArea = Math.abs(ring.signedArea());
+        for (Issue issue : result.issues) {
+            if (!ISSUE_DUPLICATE_VERTEX.equals(issue.code)) changed = true;
+        }
+
+        ArrayDeque<Poly> queue = new ArrayDeque<>();
+        queue.add(ring);
+        int splits = 0;
+        while (!queue.isEmpty()) {
+            Poly p = queue.poll();
+            Poly[] parts = splits < MAX_SPLITS ? splitOnce(p, frame, result) : null;
+            if (parts != null) {
+                splits++;
+                changed = true;
+                for (Poly part : parts) {
+                    Poly cleaned = clean(part, frame, result);
+                    if (cleaned.size >= 3) queue.add(cleaned);
+                }
+                continue;
+            }
+            if (splits >= MAX_SPLITS && findIntersection(p) != null) {
+                result.issues.add(new Issue(ISSUE_REPAIR_LIMIT, -1, frame.lat(p.ys[0]), frame.lng(p.xs[0]), splits));
+                result.status = STATUS_INVALID;
+                result.rings.clear();
+                result.finalArea = 0;
+                return result;
+            }
+            double area = p.signedArea();
+            if (Math.abs(area) <= MIN_RING_AREA_M2) {
+                changed = true;
+                result.issues.add(new Issue(ISSUE_SMALL_RING_DROPPED, -1,
+                        frame.lat(p.ys[0]), frame.lng(p.xs[0]), Math.abs(area)));
+                continue;
+            }
+            if (area < 0) p.reverse();
+            result.rings.add(p.toRing(frame, Math.abs(area)));
+            result.finalArea += Math.abs(area);
+        }
+        result.kinkCount = splits;
+        if (result.rings.isEmpty()) {
+            result.status = STATUS_INVALID;
+        } else if (changed) {
+            result.status = STATUS_REPAIRED;
+        }
+        return result;
+    }
+
+    // -------------------------------------------------------------------
+    // Cleaning: duplicates + spikes (stack, O(n))
+    // -------------------------------------------------------------------
+
+    private static Poly clean(Poly in, Frame frame, Result result) {
+        Poly out = new Poly(in.size);
+        for (int i = 0; i < in.size; i++) {
+            double x = in.xs[i];
+            double y = in.ys[i];
+            if (out.size > 0 && dist(out.xs[out.size - 1], out.ys[out.size - 1], x, y) < DUPLICATE_EPS_M) {
+                if (in.src[i] >= 0) {
+                    result.issues.add(new Issue(ISSUE_DUPLICATE_VERTEX, in.src[i], frame.lat(y), frame.lng(x), 0));
+                }
+                continue;
+            }
+            out.add(x, y, in.src[i]);
+            while (out.size >= 3 && isSpike(out, out.size - 3, out.size - 2, out.size - 1)) {
+                reportSpike(out, out.size - 2, frame, result);
+                out.removeAt(out.size - 2);
+            }
+        }
+        // 首尾接缝：闭合点重复 / 跨越首尾的尖刺
+        boolean again = true;
+        while (again && out.size >= 3) {
+            again = false;
+            int last = out.size - 1;
+            if (dist(out.xs[last], out.ys[last], out.xs[0], out.ys[0]) < DUPLICATE_EPS_M) {
+                out.removeAt(last);
+                again = true;
+            } else if (isSpike(out, last - 1, last, 0)) {
+                reportSpike(out, last, frame, result);
+                out.removeAt(last);
+                again = true;
+            } else if (isSpike(out, last, 0, 1)) {
+                reportSpike(out, 0, frame, result);
+                out.removeAt(0);
+                again = true;
+            }
+        }
+        return out;
+    }
+
+    /** 顶点 b 处的夹角小于 SPIKE_ANGLE_DEG：a → b → c 几乎原路折返 */
+    private static boolean isSpike(Poly p, int a, int b, int c) {
+        double ux = p.xs[a] - p.xs[b];
+        double uy = p.ys[a] - p.ys[b];
+        double wx = p.xs[c] - p.xs[b];
+        double wy = p.ys[c] - p.ys[b];
+        double lu = Math.hypot(ux, uy);
+        double lw = Math.hypot(wx, wy);
+        if (lu < DUPLICATE_EPS_M || lw < DUPLICATE_EPS_M) return true;
+        return (ux * wx + uy * wy) / (lu * lw) > SPIKE_COS;
+    }
+
+    private static void reportSpike(Poly p, int i, Frame frame, Result result) {
+        result.issues.add(new Issue(ISSUE_SPIKE, p.src[i], frame.lat(p.ys[i]), frame.lng(p.xs[i]), 0));
+    }
+
+    // -------------------------------------------------------------------
+    // Repair: split at one intersection
+    // -------------------------------------------------------------------
+
+    /** 找到一处自交并拆成两个环；简单环返回 null */
+    private static Poly[] splitOnce(Poly p, Frame frame, Result result) {
+        int n = p.size;
+
+        // 1) 顶点重合（8 字形在某点相接）：扫描线会在删除先于插入时漏掉，单独用哈希 O(n) 找
+        HashMap<Long, Integer> seen = new HashMap<>();
+        for (int k = 0; k < n; k++) {
+            long key = (Double.doubleToLongBits(p.xs[k]) * 31) ^ Double.doubleToLongBits(p.ys[k]);
+            Integer prev = seen.put(key, k);
+            if (prev != null && p.xs[prev] == p.xs[k] && p.ys[prev] == p.ys[k]) {
+                int i = prev;
+                result.issues.add(new Issue(ISSUE_SELF_INTERSECTION, p.src[k], frame.lat(p.ys[k]), frame.lng(p.xs[k]), 0));
+                Poly a = new Poly(k - i);
+                for (int m = i; m < k; m++) a.add(p.xs[m], p.ys[m], p.src[m]);
+                Poly b = new Poly(n - (k - i));
+                for (int m = k; m < n; m++) b.add(p.xs[m], p.ys[m], p.src[m]);
+                for (int m = 0; m < i; m++) b.add(p.xs[m], p.ys[m], p.src[m]);
+                return new Poly[]{a, b};
+            }
+        }
+
+        // 2) 边与边相交（扫描线）
+        double[] hit = findIntersection(p);
+        if (hit == null) return null;
+        int i = (int) hit[0];
+        int j = (int) hit[1];
+        double px = hit[2];
+        double py = hit[3];
+        result.issues.add(new Issue(ISSUE_SELF_INTERSECTION, -1, frame.lat(py), frame.lng(px), 0));
+
+        // 边 i = (v_i, v_i+1)，边 j = (v_j, v_j+1)，i < j
+        Poly a = new Poly(j - i + 1);
+        a.add(px, py, -1);
+        for (int m = i + 1; m <= j; m++) a.add(p.xs[m], p.ys[m], p.src[m]);
+        Poly b = new Poly(n - (j - i) + 1);
+        b.add(px, py, -1);
+        for (int m = j + 1; m < n; m++) b.add(p.xs[m], p.ys[m], p.src[m]);
+        for (int m = 0; m <= i; m++) b.add(p.xs[m], p.ys[m], p.src[m]);
+        return new Poly[]{a, b};
+    }
+
+    // -------------------------------------------------------------------
+    // Shamos–Hoey sweep
+    // -------------------------------------------------------------------
+
+    /**
+     * 任意一对非相邻边的交点，返回 {i, j, x, y}（i < j），无自交返回 null。
+     * 事件按 (x, y) 排序，同一点先删除后插入；状态树按当前扫描点处的 y 排序，
+     * 只比较新相邻的两条边，O(n log n)。
+     */
+    static double[] findIntersection(Poly p) {
+        final int n = p.size;
+        if (n < 4) return null;
+        final double[] lx = new double[n];
+        final double[] ly = new double[n];
+        final double[] rx = new double[n];
+        final double[] ry = new double[n];
+        Integer[] events = new Integer[2 * n];
+        for (int e = 0; e < n; e++) {
+            int f = e + 1 == n ? 0 : e + 1;
+            double ax = p.xs[e], ay = p.ys[e], bx = p.xs[f], by = p.ys[f];
+            if (ax < bx || (ax == bx && ay <= by)) {
+                lx[e] = ax; ly[e] = ay; rx[e] = bx; ry[e] = by;
+            } else {
+                lx[e] = bx; ly[e] = by; rx[e] = ax; ry[e] = ay;
+            }
+            events[2 * e] = 2 * e;          // 偶数：左端点（插入）
+            events[2 * e + 1] = 2 * e + 1;  // 奇数：右端点（删除）
+        }
+        Arrays.sort(events, (a, b) -> {
+            int ea = a >> 1, eb = b >> 1;
+            double xa = (a & 1) == 0 ? lx[ea] : rx[ea];
+            double ya = (a & 1) == 0 ? ly[ea] : ry[ea];
+            double xb = (b & 1) == 0 ? lx[eb] : rx[eb];
+            double yb = (b & 1) == 0 ? ly[eb] : ry[eb];
+            if (xa != xb) return Double.compare(xa, xb);
+            if (ya != yb) return Double.compare(ya, yb);
+            return Integer.compare(b & 1, a & 1);  // 删除在前
+        });
+
+        final Sweep sweep = new Sweep(lx, ly, rx, ry);
+        TreeSet<Integer> status = new TreeSet<>(sweep);
+        for (int ev : events) {
+            int e = ev >> 1;
+            boolean insert = (ev & 1) == 0;
+            sweep.x = insert ? lx[e] : rx[e];
+            sweep.y = insert ? ly[e] : ry[e];
+            sweep.inserting = insert;
+            if (insert) {
+                status.add(e);
+                Integer above = status.higher(e);
+                Integer below = status.lower(e);
+                double[] hit = check(p, e, above, lx, ly, rx, ry);
+                if (hit == null) hit = check(p, e, below, lx, ly, rx, ry);
+                if (hit != null) return hit;
+            } else {
+                Integer above = status.higher(e);
+                Integer below = status.lower(e);
+                status.remove(e);
+                if (above != null && below != null) {
+                    double[] hit = check(p, above, below, lx, ly, rx, ry);
+                    if (hit != null) return hit;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** 扫描线状态比较器：当前扫描点处的 y，相等时按斜率（插入看右侧、删除看左侧） */
+    private static final class Sweep implements Comparator<Integer> {
+        final double[] lx, ly, rx, ry;
+        double x;
+        double y;
+        boolean inserting;
+
+        Sweep(double[] lx, double[] ly, double[] rx, double[] ry) {
+            this.lx = lx;
+            this.ly = ly;
+            this.rx = rx;
+            this.ry = ry;
+        }
+
+        @Override
+        public int compare(Integer a, Integer b) {
+            if (a.intValue() == b.intValue()) return 0;
+            double ya = yAt(a);
+            double yb = yAt(b);
+            if (ya != yb) return Double.compare(ya, yb);
+            double sa = slope(a);
+            double sb = slope(b);
+            if (sa != sb) return inserting ? Double.compare(sa, sb) : Double.compare(sb, sa);
+            return Integer.compare(a, b);
+        }
+
+        private double yAt(int e) {
+            if (lx[e] == rx[e]) return Math.max(ly[e], Math.min(ry[e], y));
+            if (x <= lx[e]) return ly[e];
+            if (x >= rx[e]) return ry[e];
+            return ly[e] + (x - lx[e]) * (ry[e] - ly[e]) / (rx[e] - lx[e]);
+        }
+
+        private double slope(int e) {
+            if (lx[e] == rx[e]) return Double.POSITIVE_INFINITY;
+            return (ry[e] - ly[e]) / (rx[e] - lx[e]);
+        }
+    }
+
+    private static double[] check(Poly p, int a, Integer bObj, double[] lx, double[] ly, double[] rx, double[] ry) {
+        if (bObj == null) return null;
+        int b = bObj;
+        int n = p.size;
+        int d = Math.abs(a - b);
+        if (d == 1 || d == n - 1) return null;  // 相邻边共享顶点
+        double[] pt = intersect(lx[a], ly[a], rx[a], ry[a], lx[b], ly[b], rx[b], ry[b]);
+        if (pt == null) return null;
+        return new double[]{Math.min(a, b), Math.max(a, b), pt[0], pt[1]};
+    }
+
+    /** 线段交点（含端点相接 / 共线重叠时取重叠段的一个端点），不相交返回 null */
+    static double[] intersect(double ax, double ay, double bx, double by,
+                              double cx, double cy, double dx, double dy) {
+        double d1 = orient(cx, cy, dx, dy, ax, ay);
+        double d2 = orient(cx, cy, dx, dy, bx, by);
+        double d3 = orient(ax, ay, bx, by, cx, cy);
+        double d4 = orient(ax, ay, bx, by, dx, dy);
+        if (((d1 > 0 && d2 < 0) || (d1 < 0 && d2 > 0)) && ((d3 > 0 && d4 < 0) || (d3 < 0 && d4 > 0))) {
+            double t = d1 / (d1 - d2);
+            return new double[]{ax + t * (bx - ax), ay + t * (by - ay)};
+        }
+        if (d1 == 0 && onSegment(cx, cy, dx, dy, ax, ay)) return new double[]{ax, ay};
+        if (d2 == 0 && onSegment(cx, cy, dx, dy, bx, by)) return new double[]{bx, by};
+        if (d3 == 0 && onSegment(ax, ay, bx, by, cx, cy)) return new double[]{cx, cy};
+        if (d4 == 0 && onSegment(ax, ay, bx, by, dx, dy)) return new double[]{dx, dy};
+        return null;
+    }
+
+    private static double orient(double ax, double ay, double bx, double by, double cx, double cy) {
+        return (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+    }
+
+    private static boolean onSegment(double ax, double ay, double bx, double by, double px, double py) {
+        return Math.min(ax, bx) <= px && px <= Math.max(ax, bx)
+                && Math.min(ay, by) <= py && py <= Math.max(ay, by);
+    }
+
+    private static double dist(double ax, double ay, double bx, double by) {
+        return Math.hypot(ax - bx, ay - by);
+    }
+
+    // -------------------------------------------------------------------
+    // Geometry containers
+    // -------------------------------------------------------------------
+
+    /** 局部平面：以首点为原点的等距圆柱投影（米） */
+    private static final class Frame {
+        final double lat0;
+        final double lng0;
+        final double mPerDegLng;
+
+        Frame(double lat0, double lng0) {
+            this.lat0 = lat0;
+            this.lng0 = lng0;
+            this.mPerDegLng = METERS_PER_DEG * Math.cos(Math.toRadians(lat0));
+        }
+
+        double x(double lng) { return (lng - lng0) * mPerDegLng; }
+        double y(double lat) { return (lat - lat0) * METERS_PER_DEG; }
+        double lng(double x) { return lng0 + x / mPerDegLng; }
+        double lat(double y) { return lat0 + y / METERS_PER_DEG; }
+    }
+
+    /** 顶点数组（平面坐标 + 对应输入下标） */
+    static final class Poly {
+        double[] xs;
+        double[] ys;
+        int[] src;
+        int size = 0;
+
+        Poly(int capacity) {
+            capacity = Math.max(4, capacity);
+            xs = new double[capacity];
+            ys = new double[capacity];
+            src = new int[capacity];
+        }
+
+        void add(double x, double y, int source) {
+            if (size == xs.length) {
+                int capacity = size << 1;
+                xs = Arrays.copyOf(xs, capacity);
+                ys = Arrays.copyOf(ys, capacity);
+                src = Arrays.copyOf(src, capacity);
+            }
+            xs[size] = x;
+            ys[size] = y;
+            src[size] = source;
+            size++;
+        }
+
+        void removeAt(int i) {
+            System.arraycopy(xs, i + 1, xs, i, size - i - 1);
+            System.arraycopy(ys, i + 1, ys, i, size - i - 1);
+            System.arraycopy(src, i + 1, src, i, size - i - 1);
+            size--;
+        }
+
+        double signedArea() {
+            double sum = 0;
+            for (int i = 0, j = size - 1; i < size; j = i++) {
+                sum += xs[j] * ys[i] - xs[i] * ys[j];
+            }
+            return sum / 2.0;
+        }
+
+        void reverse() {
+            for (int i = 0, j = size - 1; i < j; i++, j--) {
+                double t = xs[i]; xs[i] = xs[j]; xs[j] = t;
+                t = ys[i]; ys[i] = ys[j]; ys[j] = t;
+                int s = src[i]; src[i] = src[j]; src[j] = s;
+            }
+        }
+
+        Ring toRing(Frame frame, double area) {
+            double[] lats = new double[size];
+            double[] lngs = new double[size];
+            for (int i = 0; i < size; i++) {
+                lats[i] = frame.lat(ys[i]);
+                lngs[i] = frame.lng(xs[i]);
+            }
+            return new Ring(lats, lngs, area);
+        }
+    }
+}
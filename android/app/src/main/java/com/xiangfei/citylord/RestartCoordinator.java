@@ -0,0 +1,270 @@
+package com.xiangfei.citylord;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.OutOfQuotaPolicy;
+import androidx.work.WorkManager;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RestartCoordinator — 前台定位服务的统一重启入口
+ *
+ * 服务被杀后有三条恢复路径会各自触发：
+ *  - onDestroy 注册的 5 分钟精确闹钟（LocationRestartReceiver）
+ *  - onTaskRemoved 提交的 WorkManager 任务（LocationRestartWorker）
+ *  - START_STICKY（系统以 null intent 重建）
+ * 它们在这里收敛为一次恢复：
+ *  - 闹钟固定 requestCode、WorkManager 使用唯一任务名 + KEEP，重复调度不会叠加
+ *  - Service 已存活（本进程标记）或已在定位时，后到的恢复启动直接忽略，不重建定位订阅
+ *  - 每次恢复对应一个启动令牌 runId@最后定位时间戳，三条路径对同一次死亡算出同一个令牌，
+ *    恢复间隔按令牌只记录一次
+ *  - Service 启动后立即取消仍在排队的闹钟与任务
+ *  - 用户主动 stopTracking 时打上标记，onDestroy 不再安排重启
+ * 每次恢复记录 “死亡前最后一个定位点 → 恢复后首个定位点” 的间隔，保存在最近 20 次的环形记录中。
+ */
+public final class RestartCoordinator {
+
+    private static final String TAG = "RestartCoordinator";
+
+    public static final String ACTION_RESTART = "com.xiangfei.citylord.RESTART_SERVICE";
+    public static final String EXTRA_RESTART_SOURCE = "restart_source";
+
+    public static final String SOURCE_ALARM = "alarm";
+    public static final String SOURCE_WORK = "work";
+    public static final String SOURCE_STICKY = "sticky";
+
+    private static final String UNIQUE_WORK_NAME = "citylord_location_restart";
+    private static final int ALARM_REQUEST_CODE = 0;
+    private static final long ALARM_DELAY_MS = 5 * 60 * 1000L;
+
+    private static final String PREFS_NAME = "citylord_restart_state";
+    private static final String KEY_USER_STOPPED = "user_stopped";
+    private static final String KEY_RECOVERY_HISTORY = "recovery_history";
+    private static final String KEY_LAST_RECORDED_TOKEN = "last_recorded_token";
+    private static final int MAX_HISTORY = 20;
+
+    /** 本进程内 Service 是否存活（onCreate 置 true，onDestroy 置 false） */
+    private static volatile boolean serviceAlive = false;
+
+    private RestartCoordinator() {
+    }
+
+    // -------------------------------------------------------------------
+    // Service lifecycle hooks
+    // -------------------------------------------------------------------
+
+    static void onServiceCreated() {
+        serviceAlive = true;
+    }
+
+    static void onServiceDestroyed() {
+        serviceAlive = false;
+    }
+
+    /** Service 已在前台运行：取消尚未触发的冗余恢复 */
+    static void onServiceUp(Context context) {
+        cancelPendingRestarts(context);
+    }
+
+    // -------------------------------------------------------------------
+    // User intent
+    // -------------------------------------------------------------------
+
+    /** 用户主动停止追踪（须在 stopService 之前调用） */
+    public static void markUserStopped(Context context) {
+        prefs(context).edit().putBoolean(KEY_USER_STOPPED, true).commit();
+        cancelPendingRestarts(context);
+    }
+
+    /** 用户开始追踪，允许后续异常死亡时自动恢复 */
+    public static void clearUserStopped(Context context) {
+        prefs(context).edit().putBoolean(KEY_USER_STOPPED, false).apply();
+    }
+
+    public static boolean isUserStopped(Context context) {
+        return prefs(context).getBoolean(KEY_USER_STOPPED, false);
+    }
+
+    // -------------------------------------------------------------------
+    // Scheduling
+    // -------------------------------------------------------------------
+
+    /** onDestroy：注册 5 分钟后的精确闹钟作为 MIUI/OriginOS 杀进程后的兜底（固定 requestCode，重复注册即覆盖） */
+    static void scheduleAlarm(Context context) {
+        try {
+            AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+            if (alarmManager == null) {
+                Log.w(TAG, "AlarmManager not available, skip restart alarm");
+                return;
+            }
+            long triggerAtMillis = SystemClock.elapsedRealtime() + ALARM_DELAY_MS;
+            PendingIntent pendingIntent = alarmIntent(context);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                // API 23+: 使用 setExactAndAllowWhileIdle，即使在 Doze 模式下也能触发
+                alarmManager.setExactAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAtMillis, pendingIntent);
+            } else {
+                alarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAtMillis, pendingIntent);
+            }
+            Log.i(TAG, "Scheduled restart alarm in 5 minutes");
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to schedule restart alarm: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * onTaskRemoved：提交唯一恢复任务（KEEP，重复提交不叠加）。
+     * Android 12+ 后台启动前台服务仅对 expedited 任务豁免，因此 API 31+ 使用 expedited，
+     * 配额用尽时降级为普通任务；低版本保留 1 秒延迟。
+     */
+    static void scheduleWork(Context context, String runId) {
+        try {
+            Data inputData = new Data.Builder()
+                    .putString("run_id", runId)
+                    .build();
+            OneTimeWorkRequest.Builder builder = new OneTimeWorkRequest.Builder(LocationRestartWorker.class)
+                    .setInputData(inputData);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                builder.setExpedited(OutOfQuotaPolicy.RUN_AS_NON_EXPEDITED_WORK_REQUEST);
+            } else {
+                builder.setInitialDelay(1, TimeUnit.SECONDS);
+            }
+            WorkManager.getInstance(context.getApplicationContext())
+                    .enqueueUniqueWork(UNIQUE_WORK_NAME, ExistingWorkPolicy.KEEP, builder.build());
+            Log.i(TAG, "Enqueued unique restart work (expedited=" + (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) + ")");
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to enqueue restart work: " + e.getMessage(), e);
+        }
+    }
+
+    static void cancelPendingRestarts(Context context) {
+        try {
+            AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+            if (alarmManager != null) {
+                alarmManager.cancel(alarmIntent(context));
+            }
+            WorkManager.getInstance(context.getApplicationContext()).cancelUniqueWork(UNIQUE_WORK_NAME);
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to cancel pending restarts: " + e.getMessage());
+        }
+    }
+
+    private static PendingIntent alarmIntent(Context context) {
+        Intent restartIntent = new Intent(context, LocationRestartReceiver.class);
+        restartIntent.setAction(ACTION_RESTART);
+        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            flags |= PendingIntent.FLAG_IMMUTABLE;
+        }
+        return PendingIntent.getBroadcast(context, ALARM_REQUEST_CODE, restartIntent, flags);
+    }
+
+    // -------------------------------------------------------------------
+    // Restart entry (alarm / work)
+    // -------------------------------------------------------------------
+
+    /**
+     * 闹钟与 WorkManager 的统一启动入口。
+     *
+     * @return false 表示无需启动（Service 已存活或用户已主动停止）
+     */
+    static boolean requestRestart(Context context, String source) {
+        if (isUserStopped(context)) {
+            Log.i(TAG, "requestRestart(" + source + "): user stopped tracking, skip");
+            cancelPendingRestarts(context);
+            return false;
+        }
+        if (serviceAlive) {
+            Log.i(TAG, "requestRestart(" + source + "): service already alive in this process, skip");
+            cancelPendingRestarts(context);
+            return false;
+        }
+        Intent serviceIntent = new Intent(context, LocationForegroundService.class);
+        serviceIntent.setAction(ACTION_RESTART);
+        serviceIntent.putExtra(EXTRA_RESTART_SOURCE, source);
+        ContextCompat.startForegroundService(context, serviceIntent);
+        Log.i(TAG, "requestRestart(" + source + "): foreground service start requested");
+        return true;
+    }
+
+    /**
+     * 一次恢复的启动令牌：同一次死亡（同一 run、同一最后定位点）无论由哪条路径触发都得到相同令牌。
+     */
+    static String startToken(String runId, long lastFixTimestamp) {
+        return (runId != null ? runId : "idle") + "@" + lastFixTimestamp;
+    }
+
+    // -------------------------------------------------------------------
+    // Recovery gap history
+    // -------------------------------------------------------------------
+
+    /**
+     * 记录一次恢复间隔（死亡前最后定位点 → 恢复后首个定位点）。
+     * 同一令牌只记录一次（同一次死亡被多条路径先后恢复时不重复计数）。
+     *
+     * @return 该条记录的 JSON；令牌已记录过时返回 null
+     */
+    static synchronized String recordRecoveryGap(Context context, String token, String runId,
+                                                 String source, long gapMs) {
+        SharedPreferences sp = prefs(context);
+        if (token.equals(sp.getString(KEY_LAST_RECORDED_TOKEN, null))) {
+            return null;
+        }
+        JSONArray history;
+        try {
+            history = new JSONArray(sp.getString(KEY_RECOVERY_HISTORY, "[]"));
+        } catch (Exception e) {
+            history = new JSONArray();
+        }
+
+        JSONObject entry = new JSONObject();
+        try {
+            entry.put("runId", runId != null ? runId : "idle");
+            entry.put("source", source);
+            entry.put("gapMs", gapMs);
+            entry.put("recoveredAt", System.currentTimeMillis());
+        } catch (Exception ignored) {
+        }
+
+        // 环形：只保留最近 MAX_HISTORY 条
+        JSONArray trimmed = new JSONArray();
+        int start = Math.max(0, history.length() - (MAX_HISTORY - 1));
+        for (int i = start; i < history.length(); i++) {
+            try {
+                trimmed.put(history.get(i));
+            } catch (Exception ignored) {
+            }
+        }
+        trimmed.put(entry);
+        sp.edit()
+                .putString(KEY_RECOVERY_HISTORY, trimmed.toString())
+                .putString(KEY_LAST_RECORDED_TOKEN, token)
+                .apply();
+
+        Log.i(TAG, "Recovery gap recorded: run=" + runId + " source=" + source + " gap=" + gapMs + "ms");
+        return entry.toString();
+    }
+
+    /** 最近的恢复记录（JSON 数组字符串，旧 → 新） */
+    public static String getRecoveryHistory(Context context) {
+        return prefs(context).getString(KEY_RECOVERY_HISTORY, "[]");
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,456 @@
+package com.xiangfei.citylord;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * RouteFollower — 规划路线跟随：逐定位点的最近线段匹配、偏航 / 回到路线判定
+ *
+ * 路线投影到以首点为原点的局部平面（米），线段按 INDEX_CELL_M 边长的均匀网格建索引：
+ * 每条线段用网格遍历（Amanatides–Woo）登记到它穿过的所有格子（LongIntHashMap 存链头，数组存链）。
+ * 查询时从定位点所在格按环向外搜索，当前最优距离 ≤ 已搜索半径即停止，
+ * 每个定位点只看附近几个格子的线段，均摊 O(1)，与路线总长无关。
+ *
+ * 往返 / 重叠路段：距离在最优值 AMBIGUITY_M 以内的候选中，先排除走向与跑者移动方向相反的线段，
+ * 再取离上一次匹配线段最近、优先向前的一段，避免在来回同一条路时进度在去程 / 返程之间跳动。
+ *
+ * 偏航判定带滞回：横向偏离 > OFF_COURSE_M 连续 OFF_COURSE_FIXES 个点 → offCourse；
+ * 偏航后 < BACK_ON_COURSE_M 连续 BACK_ON_COURSE_FIXES 个点 → backOnCourse。
+ * 搜索半径内没有任何线段时同样计为偏离。
+ *
+ * 进程级单例（同 RunCellTracker）：Plugin 设置路线，Service 在定位引擎线程逐点调用 onFix()，
+ * 路线另存文件，服务被杀恢复后重新加载。方法 synchronized。
+ */
+public final class RouteFollower {
+
+    public static final double OFF_COURSE_M = 40.0;
+    public static final double BACK_ON_COURSE_M = 20.0;
+    static final int OFF_COURSE_FIXES = 3;
+    static final int BACK_ON_COURSE_FIXES = 2;
+    /** 线段索引网格边长 */
+    static final double INDEX_CELL_M = 50.0;
+    /** 向外搜索的最大环数（约 400 米），更远视为不在路线附近 */
+    static final int MAX_SEARCH_RINGS = 8;
+    static final double AMBIGUITY_M = 10.0;
+    /** 与上一个点相距至少此值才用移动方向区分重叠路段（抖动时方向不可信） */
+    static final double MIN_HEADING_MOVE_M = 3.0;
+    public static final int MAX_ROUTE_POINTS = 50_000;
+    /** filesDir 下的路线文件名 */
+    public static final String ROUTE_FILE = "planned_route.bin";
+
+    private static final double METERS_PER_DEG = 6378137.0 * Math.PI / 180.0;
+    private static final int CELL_OFFSET = 1 << 30;
+    private static final int FILE_MAGIC = 0x52544531;  // "RTE1"
+
+    public interface Listener {
+        void onOffCourse(Progress progress);
+
+        void onBackOnCourse(Progress progress);
+    }
+
+    /** 最近一次匹配结果（onFix 返回的是内部对象，调用方不要跨线程持有） */
+    public static final class Progress {
+        /** 是否在搜索半径内匹配到线段；为 false 时下列距离保持上一次的值，crossTrack 为 NaN */
+        public boolean matched;
+        public int segmentIndex = -1;
+        /** 到最近线段的垂直（横向）距离，米 */
+        public double crossTrack = Double.NaN;
+        /** 沿路线已完成的距离 / 剩余距离，米 */
+        public double progress;
+        public double remaining;
+        public boolean offCourse;
+    }
+
+    private static volatile RouteFollower INSTANCE = null;
+
+    public static RouteFollower getInstance() {
+        if (INSTANCE == null) {
+            synchronized (RouteFollower.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new RouteFollower();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private String routeId = null;
+    private double[] lats = new double[0];
+    private double[] lngs = new double[0];
+    private double originLat;
+    private double originLng;
+    private double metersPerDegLng;
+    private double[] xs = new double[0];
+    private double[] ys = new double[0];
+    /** cum[i] = 点 0 到点 i 的路线长度 */
+    private double[] cum = new double[0];
+
+    // 线段索引：cellHeads → 链头，entrySegment / entryNext 为链
+    private final LongIntHashMap cellHeads = new LongIntHashMap(256);
+    private int[] entrySegment = new int[0];
+    private int[] entryNext = new int[0];
+    private int entryCount = 0;
+    /** 查询去重：线段上次被访问的查询序号 */
+    private int[] visitStamp = new int[0];
+    private int stamp = 0;
+
+    private final Progress progress = new Progress();
+    private int lastSegment = -1;
+    private double lastX = Double.NaN;
+    private double lastY = Double.NaN;
+    private int farCount = 0;
+    private int nearCount = 0;
+
+    /**
+     * 设置规划路线（替换旧路线并重置进度）。
+     *
+     * @throws IllegalArgumentException 少于 2 个点或超过 MAX_ROUTE_POINTS
+     */
+    public synchronized void setRoute(String routeId, double[] routeLats, double[] routeLngs) {
+        int n = Math.min(routeLats.length, routeLngs.length);
+        if (n < 2 || n > MAX_ROUTE_POINTS) {
+            throw new IllegalArgumentException("route must have 2.." + MAX_ROUTE_POINTS + " points, got " + n);
+        }
+        this.routeId = routeId;
+        lats = Arrays.copyOf(routeLats, n);
+        lngs = Arrays.copyOf(routeLngs, n);
+        originLat = lats[0];
+        originLng = lngs[0];
+        metersPerDegLng = METERS_PER_DEG * Math.cos(Math.toRadians(originLat));
+        xs = new double[n];
+        ys = new double[n];
+        cum = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = (lngs[i] - originLng) * metersPerDegLng;
+            ys[i] = (lats[i] - originLat) * METERS_PER_DEG;
+            if (i > 0) cum[i] = cum[i - 1] + Math.hypot(xs[i] - xs[i - 1], ys[i] - ys[i - 1]);
+        }
+        buildIndex();
+        resetProgress();
+    }
+
+    public synchronized void clear() {
+        routeId = null;
+        lats = new double[0];
+        lngs = new double[0];
+        xs = new double[0];
+        ys = new double[0];
+        cum = new double[0];
+        cellHeads.clear();
+        entryCount = 0;
+        resetProgress();
+    }
+
+    /** 新一次跑步：保留路线，进度从头匹配 */
+    public synchronized void restart() {
+        resetProgress();
+    }
+
+    public synchronized boolean hasRoute() {
+        return xs.length >= 2;
+    }
+
+    public synchronized String getRouteId() {
+        return routeId;
+    }
+
+    public synchronized int getPointCount() {
+        return xs.length;
+    }
+
+    public synchronized double getTotalLength() {
+        return cum.length == 0 ? 0 : cum[cum.length - 1];
+    }
+
+    /**
+     * 一个可信定位点。
+     *
+     * @return 本次匹配结果；未设置路线时返回 null
+     */
+    public synchronized Progress onFix(double lat, double lng, Listener listener) {
+        if (!hasRoute()) return null;
+        double x = (lng - originLng) * metersPerDegLng;
+        double y = (lat - originLat) * METERS_PER_DEG;
+
+        double moveX = 0;
+        double moveY = 0;
+        if (!Double.isNaN(lastX) && Math.hypot(x - lastX, y - lastY) >= MIN_HEADING_MOVE_M) {
+            moveX = x - lastX;
+            moveY = y - lastY;
+        }
+        if (Double.isNaN(lastX) || moveX != 0 || moveY != 0) {
+            lastX = x;
+            lastY = y;
+        }
+        int segment = nearestSegment(x, y, moveX, moveY);
+        double crossTrack;
+        if (segment >= 0) {
+            double[] projection = project(segment, x, y);
+            crossTrack = projection[0];
+            progress.matched = true;
+            progress.segmentIndex = segment;
+            progress.crossTrack = crossTrack;
+            progress.progress = cum[segment] + projection[1];
+            progress.remaining = getTotalLength() - progress.progress;
+            lastSegment = segment;
+        } else {
+            crossTrack = Double.POSITIVE_INFINITY;
+            progress.matched = false;
+            progress.crossTrack = Double.NaN;
+        }
+
+        if (!progress.offCourse) {
+            farCount = crossTrack > OFF_COURSE_M ? farCount + 1 : 0;
+            if (farCount >= OFF_COURSE_FIXES) {
+                progress.offCourse = true;
+                farCount = 0;
+                nearCount = 0;
+                if (listener != null) listener.onOffCourse(progress);
+            }
+        } else {
+            nearCount = crossTrack < BACK_ON_COURSE_M ? nearCount + 1 : 0;
+            if (nearCount >= BACK_ON_COURSE_FIXES) {
+                progress.offCourse = false;
+                farCount = 0;
+                nearCount = 0;
+                if (listener != null) listener.onBackOnCourse(progress);
+            }
+        }
+        return progress;
+    }
+
+    /** 最近一次结果的副本（供 Plugin 查询） */
+    public synchronized Progress getProgress() {
+        Progress copy = new Progress();
+        copy.matched = progress.matched;
+        copy.segmentIndex = progress.segmentIndex;
+        copy.crossTrack = progress.crossTrack;
+        copy.progress = progress.progress;
+        copy.remaining = progress.remaining;
+        copy.offCourse = progress.offCourse;
+        return copy;
+    }
+
+    // -------------------------------------------------------------------
+    // Persistence
+    // -------------------------------------------------------------------
+
+    /** 路线写入文件（先写临时文件再改名）；无路线时删除文件 */
+    public synchronized void save(File file) throws IOException {
+        if (!hasRoute()) {
+            if (file.exists() && !file.delete()) throw new IOException("delete failed: " + file);
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeBoolean(routeId != null);
+            if (routeId != null) out.writeUTF(routeId);
+            out.writeInt(lats.length);
+            for (int i = 0; i < lats.length; i++) {
+                out.writeDouble(lats[i]);
+                out.writeDouble(lngs[i]);
+            }
+        }
+        if (!tmp.renameTo(file)) throw new IOException("rename failed: " + file);
+    }
+
+    /** 从文件恢复路线（进度从头匹配）；文件不存在返回 false */
+    public synchronized boolean load(File file) throws IOException {
+        if (!file.exists()) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC) throw new IOException("bad route file magic");
+            String id = in.readBoolean() ? in.readUTF() : null;
+            int n = in.readInt();
+            if (n < 2 || n > MAX_ROUTE_POINTS) throw new IOException("bad route point count " + n);
+            double[] routeLats = new double[n];
+            double[] routeLngs = new double[n];
+            for (int i = 0; i < n; i++) {
+                routeLats[i] = in.readDouble();
+                routeLngs[i] = in.readDouble();
+            }
+            setRoute(id, routeLats, routeLngs);
+        }
+        return true;
+    }
+
+    // -------------------------------------------------------------------
+    // Internals
+    // -------------------------------------------------------------------
+
+    private void resetProgress() {
+        progress.matched = false;
+        progress.segmentIndex = -1;
+        progress.crossTrack = Double.NaN;
+        progress.progress = 0;
+        progress.remaining = getTotalLength();
+        progress.offCourse = false;
+        lastSegment = -1;
+        lastX = Double.NaN;
+        lastY = Double.NaN;
+        farCount = 0;
+        nearCount = 0;
+    }
+
+    private void buildIndex() {
+        cellHeads.clear();
+        int segments = xs.length - 1;
+        entrySegment = new int[segments * 2];
+        entryNext = new int[segments * 2];
+        entryCount = 0;
+        visitStamp = new int[segments];
+        stamp = 0;
+        for (int s = 0; s < segments; s++) {
+            traverse(s, xs[s], ys[s], xs[s + 1], ys[s + 1]);
+        }
+    }
+
+    /** 网格遍历：登记线段穿过的每个格子 */
+    private void traverse(int segment, double x0, double y0, double x1, double y1) {
+        int cx = cellOf(x0);
+        int cy = cellOf(y0);
+        int ex = cellOf(x1);
+        int ey = cellOf(y1);
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        int stepX = dx > 0 ? 1 : -1;
+        int stepY = dy > 0 ? 1 : -1;
+        double tDeltaX = dx != 0 ? INDEX_CELL_M / Math.abs(dx) : Double.POSITIVE_INFINITY;
+        double tDeltaY = dy != 0 ? INDEX_CELL_M / Math.abs(dy) : Double.POSITIVE_INFINITY;
+        double tMaxX = dx != 0 ? ((stepX > 0 ? (cx + 1) * INDEX_CELL_M : cx * INDEX_CELL_M) - x0) / dx
+                : Double.POSITIVE_INFINITY;
+        double tMaxY = dy != 0 ? ((stepY > 0 ? (cy + 1) * INDEX_CELL_M : cy * INDEX_CELL_M) - y0) / dy
+                : Double.POSITIVE_INFINITY;
+
+        addEntry(packCell(cx, cy), segment);
+        // 每步只沿一个轴移动一格，总步数恰为曼哈顿距离；浮点误差时由已到达终点的轴兜底
+        for (int steps = Math.abs(ex - cx) + Math.abs(ey - cy); steps > 0; steps--) {
+            if (cx == ex || (cy != ey && tMaxY < tMaxX)) {
+                cy += stepY;
+                tMaxY += tDeltaY;
+            } else {
+                cx += stepX;
+                tMaxX += tDeltaX;
+            }
+            addEntry(packCell(cx, cy), segment);
+        }
+    }
+
+    private void addEntry(long key, int segment) {
+        if (entryCount == entrySegment.length) {
+            int capacity = Math.max(16, entrySegment.length << 1);
+            entrySegment = Arrays.copyOf(entrySegment, capacity);
+            entryNext = Arrays.copyOf(entryNext, capacity);
+        }
+        entrySegment[entryCount] = segment;
+        entryNext[entryCount] = cellHeads.put(key, entryCount, -1);
+        entryCount++;
+    }
+
+    /**
+     * 按环向外搜索最近线段；多个候选相近时取与移动方向一致、离上次匹配最近的一段，搜索半径内没有返回 -1。
+     *
+     * @param moveX / moveY 自上一个点的位移，(0, 0) 表示方向未知
+     */
+    private int nearestSegment(double x, double y, double moveX, double moveY) {
+        int cx = cellOf(x);
+        int cy = cellOf(y);
+        if (++stamp == Integer.MAX_VALUE) {
+            Arrays.fill(visitStamp, 0);
+            stamp = 1;
+        }
+        double best = Double.POSITIVE_INFINITY;
+        int chosen = -1;
+        double chosenDistance = Double.POSITIVE_INFINITY;
+        // 候选集（距离 ≤ best + AMBIGUITY_M）按环累积，先记下所有访问到的线段距离
+        int[] candidates = new int[16];
+        double[] distances = new double[16];
+        int candidateCount = 0;
+
+        for (int ring = 0; ring <= MAX_SEARCH_RINGS; ring++) {
+            for (int dx = -ring; dx <= ring; dx++) {
+                for (int dy = -ring; dy <= ring; dy++) {
+                    if (Math.max(Math.abs(dx), Math.abs(dy)) != ring) continue;
+                    int entry = cellHeads.get(packCell(cx + dx, cy + dy), -1);
+                    while (entry >= 0) {
+                        int segment = entrySegment[entry];
+                        entry = entryNext[entry];
+                        if (visitStamp[segment] == stamp) continue;
+                        visitStamp[segment] = stamp;
+                        double distance = project(segment, x, y)[0];
+                        if (distance > best + AMBIGUITY_M) continue;
+                        if (distance < best) best = distance;
+                        if (candidateCount == candidates.length) {
+                            candidates = Arrays.copyOf(candidates, candidateCount << 1);
+                            distances = Arrays.copyOf(distances, candidateCount << 1);
+                        }
+                        candidates[candidateCount] = segment;
+                        distances[candidateCount] = distance;
+                        candidateCount++;
+                    }
+                }
+            }
+            // 更外一环的格子距当前点至少 ring × INDEX_CELL_M
+            if (best + AMBIGUITY_M <= ring * INDEX_CELL_M) break;
+        }
+        if (candidateCount == 0) return -1;
+
+        long chosenCost = Long.MAX_VALUE;
+        for (int i = 0; i < candidateCount; i++) {
+            if (distances[i] > best + AMBIGUITY_M) continue;
+            int segment = candidates[i];
+            long cost = 0;
+            if (moveX != 0 || moveY != 0) {
+                double dot = (xs[segment + 1] - xs[segment]) * moveX + (ys[segment + 1] - ys[segment]) * moveY;
+                // 逆向线段排在所有顺向候选之后
+                if (dot < 0) cost = Integer.MAX_VALUE;
+            }
+            if (lastSegment < 0) {
+                cost = 0;
+            } else if (segment >= lastSegment) {
+                cost += segment - lastSegment;
+            } else {
+                // 往回匹配的代价加倍：同等条件下优先向前
+                cost += 2L * (lastSegment - segment);
+            }
+            if (cost < chosenCost || (cost == chosenCost && distances[i] < chosenDistance)) {
+                chosenCost = cost;
+                chosen = segment;
+                chosenDistance = distances[i];
+            }
+        }
+        return chosen;
+    }
+
+    /** 点到线段 s 的 {距离, 沿线段从起点到垂足的长度} */
+    private double[] project(int s, double x, double y) {
+        double ax = xs[s];
+        double ay = ys[s];
+        double bx = xs[s + 1];
+        double by = ys[s + 1];
+        double dx = bx - ax;
+        double dy = by - ay;
+        double len2 = dx * dx + dy * dy;
+        double t = len2 == 0 ? 0 : ((x - ax) * dx + (y - ay) * dy) / len2;
+        t = Math.max(0, Math.min(1, t));
+        double px = ax + t * dx;
+        double py = ay + t * dy;
+        return new double[]{Math.hypot(x - px, y - py), t * Math.sqrt(len2)};
+    }
+
+    private static int cellOf(double v) {
+        return (int) Math.floor(v / INDEX_CELL_M);
+    }
+
+    /** 偏移后高 32 位恒为正，键不会为 0 */
+    private static long packCell(int cx, int cy) {
+        return ((long) (cx + CELL_OFFSET) << 32) | ((cy + CELL_OFFSET) & 0xffffffffL);
+    }
+}
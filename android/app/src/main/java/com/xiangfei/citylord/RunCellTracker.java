@@ -0,0 +1,124 @@
+package com.xiangfei.citylord;
+
+/**
+ * RunCellTracker — 当前跑步经过的领地格集合（增量维护）
+ *
+ * 每个可信定位点调用一次 onFix()：
+ *  - 与上一个点同格 → 直接返回（最常见，O(1)）
+ *  - 跨格 → 沿 HexGrid.gridPath 补齐两点之间经过的格子（1 Hz 定位下通常 1–2 格，
+ *    上限 MAX_PATH_CELLS，超过视为定位跳点只记终点），新格加入集合并回调 onCellEntered
+ * 集合为无装箱的 LongHashSet，加入 / 查询均摊 O(1)。
+ *
+ * 服务恢复后 restore() 用 Room 中已落盘的轨迹重建集合（不回调）。
+ * 进程级单例（同 TrackBuffer）：Service 写入，Plugin 直接读取。
+ * 方法 synchronized：定位点在引擎线程，查询在 Plugin 线程。
+ */
+public final class RunCellTracker {
+
+    /** 精度差于此值（米）的定位不计格（领地格半径仅 10 米） */
+    public static final float MAX_ACCURACY_M = 30f;
+    static final int MAX_PATH_CELLS = 16;
+
+    public interface Listener {
+        /**
+         * @param cell       新进入的格子
+         * @param cellCount  本次跑步已经过的不同格子数（含该格）
+         */
+        void onCellEntered(long cell, int cellCount);
+    }
+
+    private static volatile RunCellTracker INSTANCE = null;
+
+    public static RunCellTracker getInstance() {
+        if (INSTANCE == null) {
+            synchronized (RunCellTracker.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new RunCellTracker(HexGrid.getDefault());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private final HexGrid grid;
+    private final LongHashSet cells = new LongHashSet(1024);
+    private final long[] pathBuffer = new long[MAX_PATH_CELLS + 1];
+    private String sessionId = null;
+    private long lastCell = 0;
+
+    public RunCellTracker(HexGrid grid) {
+        this.grid = grid;
+    }
+
+    /** 新跑步：清空集合 */
+    public synchronized void startSession(String sessionId) {
+        this.sessionId = sessionId;
+        cells.clear();
+        lastCell = 0;
+    }
+
+    public HexGrid getGrid() {
+        return grid;
+    }
+
+    public synchronized String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * 一个可信定位点。
+     *
+     * @return 本次新进入的格子数
+     */
+    public synchronized int onFix(double lat, double lng, Listener listener) {
+        if (sessionId == null) return 0;
+        long cell = grid.latLngToCell(lat, lng);
+        if (cell == lastCell) return 0;
+
+        int added = 0;
+        if (lastCell != 0 && HexGrid.gridDistance(lastCell, cell) <= MAX_PATH_CELLS) {
+            int n = HexGrid.gridPath(lastCell, cell, pathBuffer);
+            // pathBuffer[0] 即 lastCell，已在集合中
+            for (int i = 1; i < n; i++) {
+                if (cells.add(pathBuffer[i])) {
+                    added++;
+                    if (listener != null) listener.onCellEntered(pathBuffer[i], cells.size());
+                }
+            }
+        } else if (cells.add(cell)) {
+            added++;
+            if (listener != null) listener.onCellEntered(cell, cells.size());
+        }
+        lastCell = cell;
+        return added;
+    }
+
+    /**
+     * 服务恢复：把已落盘的轨迹点并入集合（不回调；恢复期间新到的定位点不受影响）。
+     *
+     * @param lats / lngs 按时间顺序
+     */
+    public synchronized void restore(String sessionId, double[] lats, double[] lngs) {
+        if (!sessionId.equals(this.sessionId)) {
+            startSession(sessionId);
+        }
+        long live = lastCell;
+        lastCell = 0;
+        for (int i = 0; i < lats.length; i++) {
+            onFix(lats[i], lngs[i], null);
+        }
+        if (live != 0) lastCell = live;
+    }
+
+    public synchronized int getCellCount() {
+        return cells.size();
+    }
+
+    public synchronized long[] getCells() {
+        return cells.toArray();
+    }
+
+    public synchronized boolean contains(long cell) {
+        return cells.contains(cell);
+    }
+}
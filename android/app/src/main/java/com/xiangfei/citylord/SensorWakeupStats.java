@@ -0,0 +1,171 @@
+package com.xiangfei.citylord;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * SensorWakeupStats — 计步传感器每小时唤醒次数统计
+ *
+ * 每次 onSensorChanged 记为一个事件；与上一个事件的回调间隔超过 DELIVERY_GAP_MS 记为一次新的投递，
+ * 即一次 CPU 唤醒（批量上报时一次唤醒连续回调多个事件）。
+ * 每小时一条记录：{ hourStart, events, wakeups, batched }，batched 表示该小时内全程开启硬件批量上报，
+ * 用于对比开启批量上报前后的每小时唤醒次数。保留最近 MAX_HOURS 小时，整点滚动时写入 SharedPreferences。
+ *
+ * 只在主线程调用。
+ */
+public final class SensorWakeupStats {
+
+    private static final String TAG = "SensorWakeupStats";
+
+    /** 回调间隔小于此值视为同一次投递 */
+    static final long DELIVERY_GAP_MS = 200L;
+    private static final int MAX_HOURS = 48;
+
+    private static final String PREFS_NAME = "citylord_sensor_stats";
+    private static final String KEY_HOURS = "step_sensor_hours";
+
+    // ---- 单例 ----
+    private static volatile SensorWakeupStats INSTANCE;
+
+    public static SensorWakeupStats getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (SensorWakeupStats.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new SensorWakeupStats(context.getApplicationContext());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private final Context appContext;
+
+    private long hourStart = 0;
+    private int events = 0;
+    private int wakeups = 0;
+    /** 本小时内是否一直处于批量上报模式 */
+    private boolean batchedWholeHour = true;
+    private boolean batching = false;
+    private long lastEventElapsed = 0;
+
+    private SensorWakeupStats(Context appContext) {
+        this.appContext = appContext;
+    }
+
+    /** 批量上报模式变更（注册 / 重新注册传感器时调用） */
+    public synchronized void setBatching(boolean batching) {
+        this.batching = batching;
+        if (!batching) batchedWholeHour = false;
+    }
+
+    /** 一次 onSensorChanged 回调 */
+    public synchronized void onEvent() {
+        long now = System.currentTimeMillis();
+        long hour = StepBuckets.hourStart(now);
+        if (hour != hourStart) {
+            rollHour(hour);
+        }
+        long elapsed = SystemClock.elapsedRealtime();
+        events++;
+        if (lastEventElapsed == 0 || elapsed - lastEventElapsed > DELIVERY_GAP_MS) {
+            wakeups++;
+        }
+        lastEventElapsed = elapsed;
+    }
+
+    /** 写入当前小时（Service 销毁时调用） */
+    public synchronized void flush() {
+        if (hourStart != 0 && events > 0) {
+            persistCurrentHour();
+        }
+    }
+
+    private void rollHour(long newHour) {
+        if (hourStart != 0 && events > 0) {
+            persistCurrentHour();
+        }
+        hourStart = newHour;
+        events = 0;
+        wakeups = 0;
+        batchedWholeHour = batching;
+    }
+
+    private void persistCurrentHour() {
+        SharedPreferences sp = prefs();
+        JSONArray hours;
+        try {
+            hours = new JSONArray(sp.getString(KEY_HOURS, "[]"));
+        } catch (Exception e) {
+            hours = new JSONArray();
+        }
+
+        // 同一小时可能因 flush 后继续计数而重复写入：替换而不是追加
+        JSONArray trimmed = new JSONArray();
+        int start = Math.max(0, hours.length() - (MAX_HOURS - 1));
+        for (int i = start; i < hours.length(); i++) {
+            JSONObject h = hours.optJSONObject(i);
+            if (h != null && h.optLong("hourStart") != hourStart) {
+                trimmed.put(h);
+            }
+        }
+        try {
+            JSONObject entry = new JSONObject();
+            entry.put("hourStart", hourStart);
+            entry.put("events", events);
+            entry.put("wakeups", wakeups);
+            entry.put("batched", batchedWholeHour);
+            trimmed.put(entry);
+        } catch (Exception ignored) {
+        }
+        sp.edit().putString(KEY_HOURS, trimmed.toString()).apply();
+        Log.i(TAG, "Step sensor hour " + hourStart + ": events=" + events + " wakeups=" + wakeups
+                + " batched=" + batchedWholeHour);
+    }
+
+    /**
+     * 统计报告：最近各小时记录，以及批量 / 非批量小时的平均每小时唤醒次数（不足一小时的当前小时不计入平均）。
+     */
+    public synchronized String getReport() {
+        JSONObject report = new JSONObject();
+        try {
+            JSONArray hours = new JSONArray(prefs().getString(KEY_HOURS, "[]"));
+            long batchedSum = 0, unbatchedSum = 0;
+            int batchedHours = 0, unbatchedHours = 0;
+            for (int i = 0; i < hours.length(); i++) {
+                JSONObject h = hours.getJSONObject(i);
+                if (h.optBoolean("batched")) {
+                    batchedSum += h.optLong("wakeups");
+                    batchedHours++;
+                } else {
+                    unbatchedSum += h.optLong("wakeups");
+                    unbatchedHours++;
+                }
+            }
+            report.put("hours", hours);
+            report.put("batchedHours", batchedHours);
+            report.put("unbatchedHours", unbatchedHours);
+            report.put("batchedAvgWakeupsPerHour", batchedHours > 0 ? (double) batchedSum / batchedHours : JSONObject.NULL);
+            report.put("unbatchedAvgWakeupsPerHour", unbatchedHours > 0 ? (double) unbatchedSum / unbatchedHours : JSONObject.NULL);
+
+            JSONObject current = new JSONObject();
+            current.put("hourStart", hourStart);
+            current.put("events", events);
+            current.put("wakeups", wakeups);
+            current.put("batched", batchedWholeHour);
+            report.put("currentHour", current);
+            report.put("batching", batching);
+        } catch (Exception e) {
+            Log.w(TAG, "getReport failed: " + e.getMessage());
+        }
+        return report.toString();
+    }
+
+    private SharedPreferences prefs() {
+        return appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
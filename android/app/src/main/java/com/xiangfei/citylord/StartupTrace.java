@@ -0,0 +1,81 @@
+package com.xiangfei.citylord;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * StartupTrace — 前台服务冷启动阶段计时
+ *
+ * 以 onCreate 入口为零点，记录各阶段完成时刻（毫秒）。
+ * 同步阶段在主线程 mark，Room / 传感器 / TTS 等后台阶段在各自线程 mark，因此方法均 synchronized。
+ *
+ * 上报时机：全部预期阶段都已 mark 时上报一次；调用方在上限时间到达（或服务销毁）时调用 flush，
+ * 未完成的阶段列在 missing 中，迟到的阶段不会被静默丢弃。
+ */
+final class StartupTrace {
+
+    private static final String TAG = "StartupTrace";
+
+    interface Reporter {
+        void report(String json);
+    }
+
+    private final long originElapsed = SystemClock.elapsedRealtime();
+    private final JSObject phases = new JSObject();
+    private final Set<String> pending;
+    private final Reporter reporter;
+    private boolean reported = false;
+
+    StartupTrace(Reporter reporter, String... expectedPhases) {
+        this.reporter = reporter;
+        this.pending = new LinkedHashSet<>(Arrays.asList(expectedPhases));
+    }
+
+    /** 追加一个预期阶段（如语音开启时的 tts_ready）；已上报或已 mark 时忽略 */
+    synchronized void expect(String phase) {
+        if (!reported && !phases.has(phase)) pending.add(phase);
+    }
+
+    /** 记录阶段完成时刻（同一阶段只记第一次），返回距 onCreate 入口的毫秒数；全部预期阶段完成时上报 */
+    long mark(String phase) {
+        long sinceStart;
+        String report = null;
+        synchronized (this) {
+            sinceStart = SystemClock.elapsedRealtime() - originElapsed;
+            if (reported || phases.has(phase)) return sinceStart;
+            phases.put(phase, sinceStart);
+            Log.i(TAG, phase + " +" + sinceStart + "ms");
+            pending.remove(phase);
+            if (pending.isEmpty()) report = buildReport();
+        }
+        if (report != null) reporter.report(report);
+        return sinceStart;
+    }
+
+    /** 上限到达 / 服务销毁：立即上报已有阶段，未完成的列在 missing（已上报过则忽略） */
+    void flush() {
+        String report;
+        synchronized (this) {
+            if (reported) return;
+            report = buildReport();
+        }
+        reporter.report(report);
+    }
+
+    private String buildReport() {
+        reported = true;
+        if (!pending.isEmpty()) {
+            JSArray missing = new JSArray();
+            for (String phase : pending) missing.put(phase);
+            phases.put("missing", missing);
+        }
+        return phases.toString();
+    }
+}
@@ -0,0 +1,116 @@
+package com.xiangfei.citylord;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * StepBuckets — 分钟级步数桶的内存累加与 BLOB 编解码
+ *
+ * TYPE_STEP_COUNTER 是开机累计值；相邻两个事件的差值按事件发生时刻（而非回调时刻，
+ * 批量上报时二者可相差数分钟）计入对应分钟桶。累加结果按小时分组，由 Service 在
+ * 批次结束后 drain() 交给 dbExecutor，通过 StepBucketDao.addCounts 合并进 step_buckets 表。
+ *
+ * 存储格式：每小时 60 个 uint16 大端（120 字节），小时按 UTC 整点对齐。
+ *
+ * 非线程安全：只在主线程（onSensorChanged）使用。
+ */
+public final class StepBuckets {
+
+    public static final int MINUTES_PER_HOUR = 60;
+    public static final long MINUTE_MS = 60_000L;
+    public static final long HOUR_MS = 60 * MINUTE_MS;
+    /** 单个事件步数增量上限：更大的跳变视为计步器重置 / 重启，不计入 */
+    private static final int MAX_STEP_DELTA = 2_000;
+    private static final int MAX_MINUTE_COUNT = 0xFFFF;
+
+    private long lastTotal = -1;
+
+    /** 待落盘的小时（通常 1 个，跨整点时 2 个） */
+    private final List<Pending> pending = new ArrayList<>(2);
+
+    /**
+     * 一个计步事件。
+     *
+     * @param totalSteps  开机以来累计步数
+     * @param eventWallMs 事件发生时刻（epoch ms）
+     * @return 计入桶的步数（首个事件 / 计步器重置时为 0）
+     */
+    public int onStepCount(long totalSteps, long eventWallMs) {
+        long previous = lastTotal;
+        lastTotal = totalSteps;
+        if (previous < 0) return 0;
+        long delta = totalSteps - previous;
+        if (delta <= 0 || delta > MAX_STEP_DELTA) return 0;
+
+        long hourStart = hourStart(eventWallMs);
+        int minute = (int) ((eventWallMs - hourStart) / MINUTE_MS);
+        Pending target = null;
+        for (Pending p : pending) {
+            if (p.hourStart == hourStart) {
+                target = p;
+                break;
+            }
+        }
+        if (target == null) {
+            target = new Pending(hourStart);
+            pending.add(target);
+        }
+        target.counts[minute] += (int) delta;
+        return (int) delta;
+    }
+
+    public boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    /** 取出并清空待落盘的小时 */
+    public List<Pending> drain() {
+        List<Pending> out = new ArrayList<>(pending);
+        pending.clear();
+        return out;
+    }
+
+    public static long hourStart(long wallMs) {
+        return wallMs - Math.floorMod(wallMs, HOUR_MS);
+    }
+
+    // -------------------------------------------------------------------
+    // Codec
+    // -------------------------------------------------------------------
+
+    public static byte[] encode(int[] counts) {
+        byte[] out = new byte[MINUTES_PER_HOUR * 2];
+        for (int i = 0; i < MINUTES_PER_HOUR && i < counts.length; i++) {
+            int v = Math.max(0, Math.min(MAX_MINUTE_COUNT, counts[i]));
+            out[i * 2] = (byte) (v >>> 8);
+            out[i * 2 + 1] = (byte) v;
+        }
+        return out;
+    }
+
+    public static int[] decode(byte[] blob) {
+        int[] counts = new int[MINUTES_PER_HOUR];
+        if (blob == null) return counts;
+        int n = Math.min(MINUTES_PER_HOUR, blob.length / 2);
+        for (int i = 0; i < n; i++) {
+            counts[i] = ((blob[i * 2] & 0xFF) << 8) | (blob[i * 2 + 1] & 0xFF);
+        }
+        return counts;
+    }
+
+    public static int sum(int[] counts) {
+        int total = 0;
+        for (int c : counts) total += c;
+        return total;
+    }
+
+    /** 一个小时内本批新增的分钟步数 */
+    public static final class Pending {
+        public final long hourStart;
+        public final int[] counts = new int[MINUTES_PER_HOUR];
+
+        Pending(long hourStart) {
+            this.hourStart = hourStart;
+        }
+    }
+}
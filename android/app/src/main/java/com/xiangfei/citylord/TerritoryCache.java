@@ -0,0 +1,309 @@
+package com.xiangfei.citylord;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * TerritoryCache — 本地领地归属缓存（cell ID → 领主序号，无装箱）
+ *
+ * 数据来源：
+ *  - JS 用 loadSnapshot() 整体下发：领主表 + 紧凑记录（每条 12 字节：cell ID int64 BE + 领主序号 int32 BE）
+ *  - 之后用 applyDelta() 增量更新，序号 0 表示该格变为无主
+ * 领主序号从 1 开始，指向领主表（ownerId / faction）；0 表示无主。
+ *
+ * 查询走 LongIntHashMap，Service 在每次换格时查询一次（定位引擎线程），
+ * 息屏、WebView 冻结时照常工作。内存约 24 MB / 百万格（负载因子 ≤ 0.5，每槽 12 字节）。
+ *
+ * 持久化（filesDir/territory/）：快照原样写入 snapshot.bin，增量追加到 deltas.bin，
+ * 进程被杀后由 Service 在 dbExecutor 上 ensureLoaded() 重放，不依赖 JS 重新下发。
+ * 方法 synchronized：查询在引擎线程，加载 / 增量在 Plugin 的查询线程。
+ */
+public final class TerritoryCache {
+
+    private static final String TAG = "TerritoryCache";
+
+    public static final String RELATION_SELF = "self";
+    public static final String RELATION_ALLY = "ally";
+    public static final String RELATION_ENEMY = "enemy";
+
+    /** 每条记录字节数：cell ID（8）+ 领主序号（4） */
+    public static final int RECORD_BYTES = 12;
+
+    private static final int FILE_MAGIC = 0x54455231;  // "TER1"
+    private static final String DIR_NAME = "territory";
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+    private static final String DELTA_FILE = "deltas.bin";
+
+    public static final class Owner {
+        public final String ownerId;
+        /** 可为 null */
+        public final String faction;
+
+        public Owner(String ownerId, String faction) {
+            this.ownerId = ownerId;
+            this.faction = faction;
+        }
+    }
+
+    // ---- 单例 ----
+    private static volatile TerritoryCache INSTANCE;
+
+    public static TerritoryCache getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (TerritoryCache.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new TerritoryCache(new File(context.getApplicationContext().getFilesDir(), DIR_NAME));
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private final File dir;
+    private LongIntHashMap cells = new LongIntHashMap(16);
+    /** owners.get(i - 1) 为序号 i 的领主 */
+    private final ArrayList<Owner> owners = new ArrayList<>();
+    private String selfOwnerId = null;
+    private String selfFaction = null;
+    private boolean loaded = false;
+
+    TerritoryCache(File dir) {
+        this.dir = dir;
+    }
+
+    // -------------------------------------------------------------------
+    // Lookup
+    // -------------------------------------------------------------------
+
+    /** @return 领主序号，无主或未加载时为 0 */
+    public synchronized int get(long cell) {
+        return cells.get(cell, 0);
+    }
+
+    /** @return 序号对应的领主，越界 / 0 返回 null */
+    public synchronized Owner getOwner(int index) {
+        if (index <= 0 || index > owners.size()) return null;
+        return owners.get(index - 1);
+    }
+
+    /** 与当前玩家的关系：self / ally（同阵营）/ enemy */
+    public synchronized String relation(int index) {
+        Owner owner = getOwner(index);
+        if (owner == null) return null;
+        if (selfOwnerId != null && selfOwnerId.equals(owner.ownerId)) return RELATION_SELF;
+        if (selfFaction != null && selfFaction.equals(owner.faction)) return RELATION_ALLY;
+        return RELATION_ENEMY;
+    }
+
+    public synchronized int size() {
+        return cells.size();
+    }
+
+    public synchronized int ownerCount() {
+        return owners.size();
+    }
+
+    public synchronized long memoryBytes() {
+        return cells.memoryBytes();
+    }
+
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    // -------------------------------------------------------------------
+    // Updates
+    // -------------------------------------------------------------------
+
+    /**
+     * 整体替换。
+     *
+     * @param ownerTable 序号 1..n 的领主
+     * @param records    紧凑记录，长度须为 RECORD_BYTES 的整数倍
+     */
+    public synchronized void loadSnapshot(Owner[] ownerTable, byte[] records,
+                                          String selfOwnerId, String selfFaction) throws IOException {
+        checkRecords(records);
+        int count = records.length / RECORD_BYTES;
+        LongIntHashMap map = new LongIntHashMap(count);
+        applyRecords(map, records);
+        cells = map;
+        owners.clear();
+        owners.addAll(Arrays.asList(ownerTable));
+        this.selfOwnerId = selfOwnerId;
+        this.selfFaction = selfFaction;
+        loaded = true;
+        writeSnapshot(records);
+    }
+
+    /**
+     * 增量更新：先按序号更新领主表（超出当前长度时扩展），再应用记录。
+     *
+     * @param ownerIndexes / ownerTable 同长，可为空数组
+     * @return 应用的记录条数
+     */
+    public synchronized int applyDelta(int[] ownerIndexes, Owner[] ownerTable, byte[] records) throws IOException {
+        checkRecords(records);
+        for (int i = 0; i < ownerIndexes.length; i++) {
+            setOwner(ownerIndexes[i], ownerTable[i]);
+        }
+        applyRecords(cells, records);
+        loaded = true;
+        appendDelta(ownerIndexes, ownerTable, records);
+        return records.length / RECORD_BYTES;
+    }
+
+    private void setOwner(int index, Owner owner) {
+        if (index <= 0) return;
+        while (owners.size() < index) owners.add(null);
+        owners.set(index - 1, owner);
+    }
+
+    private static void applyRecords(LongIntHashMap map, byte[] records) {
+        ByteBuffer buf = ByteBuffer.wrap(records);
+        while (buf.remaining() >= RECORD_BYTES) {
+            long cell = buf.getLong();
+            int owner = buf.getInt();
+            if (cell == 0) continue;
+            if (owner == 0) {
+                map.remove(cell, 0);
+            } else {
+                map.put(cell, owner, 0);
+            }
+        }
+    }
+
+    private static void checkRecords(byte[] records) {
+        if (records.length % RECORD_BYTES != 0) {
+            throw new IllegalArgumentException("records length " + records.length + " is not a multiple of " + RECORD_BYTES);
+        }
+    }
+
+    // -------------------------------------------------------------------
+    // Persistence
+    // -------------------------------------------------------------------
+
+    /** 进程重启后恢复：读快照再重放增量（幂等，已加载则直接返回） */
+    public synchronized void ensureLoaded() {
+        if (loaded) return;
+        File snapshot = new File(dir, SNAPSHOT_FILE);
+        if (!snapshot.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)))) {
+            if (in.readInt() != FILE_MAGIC) throw new IOException("bad snapshot magic");
+            selfOwnerId = readNullableUtf(in);
+            selfFaction = readNullableUtf(in);
+            owners.clear();
+            int ownerCount = in.readInt();
+            for (int i = 0; i < ownerCount; i++) {
+                owners.add(readOwner(in));
+            }
+            byte[] records = new byte[in.readInt() * RECORD_BYTES];
+            in.readFully(records);
+            LongIntHashMap map = new LongIntHashMap(records.length / RECORD_BYTES);
+            applyRecords(map, records);
+            cells = map;
+        } catch (IOException e) {
+            Log.w(TAG, "领地快照读取失败: " + e.getMessage());
+            cells = new LongIntHashMap(16);
+            owners.clear();
+            return;
+        }
+        replayDeltas();
+        loaded = true;
+        Log.i(TAG, "领地缓存已恢复: cells=" + cells.size() + " owners=" + owners.size());
+    }
+
+    private void replayDeltas() {
+        File deltas = new File(dir, DELTA_FILE);
+        if (!deltas.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(deltas)))) {
+            while (true) {
+                int ownerCount;
+                try {
+                    ownerCount = in.readInt();
+                } catch (EOFException eof) {
+                    break;
+                }
+                for (int i = 0; i < ownerCount; i++) {
+                    int index = in.readInt();
+                    setOwner(index, readOwner(in));
+                }
+                byte[] records = new byte[in.readInt() * RECORD_BYTES];
+                in.readFully(records);
+                applyRecords(cells, records);
+            }
+        } catch (IOException e) {
+            // 末尾半条增量（写入中被杀）直接丢弃，之前的已应用
+            Log.w(TAG, "领地增量重放中断: " + e.getMessage());
+        }
+    }
+
+    private void writeSnapshot(byte[] records) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) throw new IOException("mkdirs failed: " + dir);
+        File tmp = new File(dir, SNAPSHOT_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(FILE_MAGIC);
+            writeNullableUtf(out, selfOwnerId);
+            writeNullableUtf(out, selfFaction);
+            out.writeInt(owners.size());
+            for (Owner owner : owners) {
+                writeOwner(out, owner);
+            }
+            out.writeInt(records.length / RECORD_BYTES);
+            out.write(records);
+        }
+        File target = new File(dir, SNAPSHOT_FILE);
+        if (!tmp.renameTo(target)) throw new IOException("rename failed: " + target);
+        File deltas = new File(dir, DELTA_FILE);
+        if (deltas.exists() && !deltas.delete()) {
+            Log.w(TAG, "旧增量文件删除失败");
+        }
+    }
+
+    private void appendDelta(int[] ownerIndexes, Owner[] ownerTable, byte[] records) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) throw new IOException("mkdirs failed: " + dir);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(dir, DELTA_FILE), true)))) {
+            out.writeInt(ownerIndexes.length);
+            for (int i = 0; i < ownerIndexes.length; i++) {
+                out.writeInt(ownerIndexes[i]);
+                writeOwner(out, ownerTable[i]);
+            }
+            out.writeInt(records.length / RECORD_BYTES);
+            out.write(records);
+        }
+    }
+
+    private static void writeOwner(DataOutputStream out, Owner owner) throws IOException {
+        writeNullableUtf(out, owner != null ? owner.ownerId : null);
+        writeNullableUtf(out, owner != null ? owner.faction : null);
+    }
+
+    private static Owner readOwner(DataInputStream in) throws IOException {
+        String ownerId = readNullableUtf(in);
+        String faction = readNullableUtf(in);
+        return ownerId == null ? null : new Owner(ownerId, faction);
+    }
+
+    private static void writeNullableUtf(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static String readNullableUtf(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,265 @@
+package com.xiangfei.citylord;
+
+import java.util.Arrays;
+
+/**
+ * TrackBuffer — 当前跑步会话的进程内轨迹缓冲（Struct-of-Arrays）
+ *
+ * LocationForegroundService 每写入一个 Room 点，同步追加一份到这里；
+ * AMapLocationPlugin.hydrateOfflinePoints 在同一进程内直接按时间戳二分读取，
+ * 不再为当前跑步走磁盘。进程被杀后缓冲为空，自动回退 Room 查询。
+ *
+ * 存储布局（每点 23 字节，无对象头）：
+ *  - 经纬度：int 微度 (1e-6°，约 0.11m)
+ *  - 时间戳：long 毫秒（Service 已保证严格单调递增，可直接二分）
+ *  - 精度：short 分米；速度：short 厘米/秒；方向角：short 0.1°
+ *  - 标记：byte（FLAG_INTERPOLATED = 航位推算插值点）
+ *
+ * 线程模型：写入发生在定位线程，读取发生在 Plugin 查询线程，所有公开方法均 synchronized。
+ */
+public final class TrackBuffer {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** 每点占用字节数：lat(4) + lng(4) + ts(8) + acc(2) + speed(2) + bearing(2) + flags(1) */
+    public static final int BYTES_PER_POINT = 23;
+
+    static final byte FLAG_INTERPOLATED = 1;
+
+    // ---- 单例（与 AppDatabase 相同的双重检查锁） ----
+    private static volatile TrackBuffer INSTANCE;
+
+    public static TrackBuffer getInstance() {
+        if (INSTANCE == null) {
+            synchronized (TrackBuffer.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new TrackBuffer();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /** 当前缓冲所属的 sessionId（对应 runId），null 表示空缓冲 */
+    private String sessionId = null;
+    /** true 表示本进程从跑步第一个点开始记录，缓冲内即为完整轨迹 */
+    private boolean coversSessionStart = false;
+
+    private int size = 0;
+    private int[] latE6 = new int[INITIAL_CAPACITY];
+    private int[] lngE6 = new int[INITIAL_CAPACITY];
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private short[] accuracyDm = new short[INITIAL_CAPACITY];
+    private short[] speedCms = new short[INITIAL_CAPACITY];
+    private short[] bearingDeciDeg = new short[INITIAL_CAPACITY];
+    private byte[] flags = new byte[INITIAL_CAPACITY];
+
+    TrackBuffer() {
+    }
+
+    /**
+     * 切换到新的会话并清空缓冲。
+     *
+     * @param sessionId          跑步会话 ID
+     * @param coversSessionStart 是否从跑步起点开始记录（进程重启后恢复的会话应传 false）
+     */
+    public synchronized void reset(String sessionId, boolean coversSessionStart) {
+        this.sessionId = sessionId;
+        this.coversSessionStart = coversSessionStart;
+        this.size = 0;
+        if (latE6.length > INITIAL_CAPACITY * 16) {
+            // 上一次超长跑步留下的大数组直接释放，避免常驻内存
+            allocate(INITIAL_CAPACITY);
+        }
+    }
+
+    public synchronized String getSessionId() {
+        return sessionId;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * 追加一个定位点。时间戳必须严格大于上一个点，否则丢弃（保证二分查找前提）。
+     */
+    public synchronized void append(double lat, double lng, long timestamp,
+                                    float accuracy, float speed, float bearing, boolean interpolated) {
+        if (size > 0 && timestamp <= timestamps[size - 1]) {
+            return;
+        }
+        if (size == latE6.length) {
+            grow();
+        }
+        latE6[size] = (int) Math.round(lat * 1e6);
+        lngE6[size] = (int) Math.round(lng * 1e6);
+        timestamps[size] = timestamp;
+        accuracyDm[size] = quantize(accuracy, 10f);
+        speedCms[size] = quantize(speed, 100f);
+        bearingDeciDeg[size] = quantize(bearing, 10f);
+        flags[size] = interpolated ? FLAG_INTERPOLATED : 0;
+        size++;
+    }
+
+    /**
+     * 按时间戳修正一个已缓冲点的坐标（航位推算插值点在断档结束后的误差分摊）。
+     *
+     * @return false 表示该点不在缓冲中（会话已切换或进程重启前写入）
+     */
+    public synchronized boolean updatePosition(String sessionId, long timestamp, double lat, double lng) {
+        if (sessionId == null || !sessionId.equals(this.sessionId) || size == 0) {
+            return false;
+        }
+        int idx = upperBound(timestamp) - 1;
+        if (idx < 0 || timestamps[idx] != timestamp) {
+            return false;
+        }
+        latE6[idx] = (int) Math.round(lat * 1e6);
+        lngE6[idx] = (int) Math.round(lng * 1e6);
+        return true;
+    }
+
+    /**
+     * 判断能否完全由内存回答 “sessionId 下 timestamp > sinceTimestamp 的所有点”。
+     * 条件：同一会话，且缓冲覆盖了 sinceTimestamp 之后的全部时间段。
+     */
+    public synchronized boolean canServe(String sessionId, long sinceTimestamp) {
+        if (sessionId == null || !sessionId.equals(this.sessionId)) {
+            return false;
+        }
+        if (coversSessionStart) {
+            return true;
+        }
+        // 进程重启后恢复的会话：只有请求起点不早于缓冲首点时，内存才是完整的
+        return size > 0 && sinceTimestamp >= timestamps[0];
+    }
+
+    /**
+     * 拷贝 timestamp > sinceTimestamp 的点（最多 maxPoints 个），按时间升序。
+     *
+     * @return 若内存无法完整回答则返回 null，调用方应回退 Room
+     */
+    public synchronized Slice sliceAfter(String sessionId, long sinceTimestamp, int maxPoints) {
+        if (!canServe(sessionId, sinceTimestamp)) {
+            return null;
+        }
+        int from = upperBound(sinceTimestamp);
+        int available = size - from;
+        int count = Math.min(available, maxPoints);
+
+        Slice slice = new Slice(count, available > maxPoints);
+        System.arraycopy(latE6, from, slice.latE6, 0, count);
+        System.arraycopy(lngE6, from, slice.lngE6, 0, count);
+        System.arraycopy(timestamps, from, slice.timestamps, 0, count);
+        System.arraycopy(accuracyDm, from, slice.accuracyDm, 0, count);
+        System.arraycopy(speedCms, from, slice.speedCms, 0, count);
+        System.arraycopy(bearingDeciDeg, from, slice.bearingDeciDeg, 0, count);
+        System.arraycopy(flags, from, slice.flags, 0, count);
+        return slice;
+    }
+
+    /** 当前数组实际占用的堆内存（字节，不含数组对象头），用于诊断日志 */
+    public synchronized long memoryBytes() {
+        return (long) latE6.length * BYTES_PER_POINT;
+    }
+
+    /** 第一个 timestamp > target 的下标（二分） */
+    private int upperBound(long target) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestamps[mid] <= target) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void grow() {
+        int newCapacity = latE6.length + (latE6.length >> 1);
+        latE6 = Arrays.copyOf(latE6, newCapacity);
+        lngE6 = Arrays.copyOf(lngE6, newCapacity);
+        timestamps = Arrays.copyOf(timestamps, newCapacity);
+        accuracyDm = Arrays.copyOf(accuracyDm, newCapacity);
+        speedCms = Arrays.copyOf(speedCms, newCapacity);
+        bearingDeciDeg = Arrays.copyOf(bearingDeciDeg, newCapacity);
+        flags = Arrays.copyOf(flags, newCapacity);
+    }
+
+    private void allocate(int capacity) {
+        latE6 = new int[capacity];
+        lngE6 = new int[capacity];
+        timestamps = new long[capacity];
+        accuracyDm = new short[capacity];
+        speedCms = new short[capacity];
+        bearingDeciDeg = new short[capacity];
+        flags = new byte[capacity];
+    }
+
+    private static short quantize(float value, float scale) {
+        if (Float.isNaN(value) || value <= 0f) {
+            return 0;
+        }
+        return (short) Math.min(Short.MAX_VALUE, Math.round(value * scale));
+    }
+
+    /**
+     * 一次 sliceAfter 的只读拷贝，可在锁外转换为 JSON。
+     */
+    public static final class Slice {
+        public final int count;
+        /** true 表示还有更多点未返回（触发了调用方的安全上限） */
+        public final boolean capped;
+        final int[] latE6;
+        final int[] lngE6;
+        final long[] timestamps;
+        final short[] accuracyDm;
+        final short[] speedCms;
+        final short[] bearingDeciDeg;
+        final byte[] flags;
+
+        Slice(int count, boolean capped) {
+            this.count = count;
+            this.capped = capped;
+            this.latE6 = new int[count];
+            this.lngE6 = new int[count];
+            this.timestamps = new long[count];
+            this.accuracyDm = new short[count];
+            this.speedCms = new short[count];
+            this.bearingDeciDeg = new short[count];
+            this.flags = new byte[count];
+        }
+
+        public double lat(int i) {
+            return latE6[i] / 1e6;
+        }
+
+        public double lng(int i) {
+            return lngE6[i] / 1e6;
+        }
+
+        public long timestamp(int i) {
+            return timestamps[i];
+        }
+
+        public float accuracy(int i) {
+            return accuracyDm[i] / 10f;
+        }
+
+        public float speed(int i) {
+            return speedCms[i] / 100f;
+        }
+
+        public float bearing(int i) {
+            return bearingDeciDeg[i] / 10f;
+        }
+
+        public boolean interpolated(int i) {
+            return (flags[i] & FLAG_INTERPOLATED) != 0;
+        }
+    }
+}
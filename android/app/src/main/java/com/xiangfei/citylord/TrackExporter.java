@@ -0,0 +1,400 @@
+package com.xiangfei.citylord;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Process;
+import android.util.Log;
+
+import com.xiangfei.citylord.db.AppDatabase;
+import com.xiangfei.citylord.db.LocationDao;
+import com.xiangfei.citylord.db.SessionExtent;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * TrackExporter — 会话轨迹导出为 GPX 1.1 / TCX 文件（可选 gzip），写入 filesDir/EXPORT_DIR
+ *
+ * 流式：LocationDao.streamSessionPoints 的 Cursor 逐行读取，每个点格式化进同一个 StringBuilder 后写入带缓冲的
+ * Writer → (GZIPOutputStream) → 文件，内存占用与跑步长短无关。汇总字段（TCX 的 Lap 总时长 / 总里程、进度总数）
+ * 事先由 getSessionExtent 一次聚合查询得到，不必先把点读进内存。
+ *
+ * 坐标：库中为 GCJ-02，GPX / TCX 的消费方（Strava、Garmin Connect 等）按 WGS-84 解释，
+ * 默认逐点反算为 WGS-84（迭代求逆，误差 < 0.1 m）；wgs84 = false 时原样输出。
+ *
+ * 步频：库中为双脚步/分，GPX TrackPointExtension 的 cad 与 TCX 的 RunCadence 按单脚计，写入时减半。
+ *
+ * 单个后台优先级线程串行执行，同一会话同格式的导出覆盖旧文件（先写临时文件再改名）。
+ */
+public final class TrackExporter {
+
+    private static final String TAG = "TrackExporter";
+
+    public static final String FORMAT_GPX = "gpx";
+    public static final String FORMAT_TCX = "tcx";
+    static final String EXPORT_DIR = "exports";
+    /** 每写出这么多个点回调一次进度（点数不超过此值的会话不回调） */
+    static final int PROGRESS_EVERY = 5000;
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final String CREATOR = "City Lord";
+
+    public interface Callback {
+        /** 导出进度（导出线程回调） */
+        void onProgress(int written, int total);
+
+        void onResult(Result result);
+
+        void onError(String message);
+    }
+
+    public static final class Result {
+        public final File file;
+        public final int points;
+        public final long bytes;
+
+        Result(File file, int points, long bytes) {
+            this.file = file;
+            this.points = points;
+            this.bytes = bytes;
+        }
+    }
+
+    // ---- 单例 ----
+    private static volatile TrackExporter INSTANCE;
+
+    public static TrackExporter getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (TrackExporter.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new TrackExporter(context.getApplicationContext());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private final Context appContext;
+    private final File exportDir;
+    private final ExecutorService worker;
+
+    private TrackExporter(Context appContext) {
+        this.appContext = appContext;
+        this.exportDir = new File(appContext.getFilesDir(), EXPORT_DIR);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }, "TrackExporter"));
+        executor.allowCoreThreadTimeOut(true);
+        this.worker = executor;
+    }
+
+    /**
+     * 异步导出（回调在导出线程执行）。
+     *
+     * @param format FORMAT_GPX / FORMAT_TCX
+     * @param gzip   是否 gzip 压缩（文件名追加 .gz）
+     * @param wgs84  是否把 GCJ-02 坐标转换为 WGS-84
+     */
+    public void export(String sessionId, String format, boolean gzip, boolean wgs84, Callback callback) {
+        if (!FORMAT_GPX.equals(format) && !FORMAT_TCX.equals(format)) {
+            callback.onError("不支持的导出格式: " + format);
+            return;
+        }
+        worker.execute(() -> {
+            Result result;
+            try {
+                result = write(sessionId, format, gzip, wgs84, callback);
+            } catch (Exception e) {
+                Log.w(TAG, "导出失败: " + e.getMessage());
+                callback.onError("导出失败: " + e.getMessage());
+                return;
+            }
+            if (result == null) {
+                callback.onError("会话没有轨迹点: " + sessionId);
+            } else {
+                callback.onResult(result);
+            }
+        });
+    }
+
+    private Result write(String sessionId, String format, boolean gzip, boolean wgs84, Callback callback)
+            throws IOException {
+        LocationDao dao = AppDatabase.getInstance(appContext).locationDao();
+        SessionExtent extent = dao.getSessionExtent(sessionId);
+        if (extent == null || extent.pointCount == 0) return null;
+
+        if (!exportDir.exists() && !exportDir.mkdirs() && !exportDir.exists()) {
+            throw new IOException("无法创建导出目录 " + exportDir);
+        }
+        String prefix = TrackThumbnailRenderer.filePrefix(sessionId);
+        String name = prefix.substring(0, prefix.length() - 1) + "." + format + (gzip ? ".gz" : "");
+        File file = new File(exportDir, name);
+        File tmp = new File(exportDir, name + ".tmp");
+
+        long startNs = System.nanoTime();
+        int written = 0;
+        try {
+            OutputStream raw = new FileOutputStream(tmp);
+            OutputStream stream = gzip ? new GZIPOutputStream(raw, BUFFER_BYTES) : new BufferedOutputStream(raw, BUFFER_BYTES);
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_BYTES);
+                 Cursor cursor = dao.streamSessionPoints(sessionId)) {
+                PointWriter points = FORMAT_GPX.equals(format) ? new GpxWriter(out) : new TcxWriter(out);
+                points.begin(sessionId, extent);
+                int cTime = cursor.getColumnIndexOrThrow("timestamp");
+                int cLat = cursor.getColumnIndexOrThrow("latitude");
+                int cLng = cursor.getColumnIndexOrThrow("longitude");
+                int cAlt = cursor.getColumnIndexOrThrow("altitude");
+                int cSpeed = cursor.getColumnIndexOrThrow("speed");
+                int cCadence = cursor.getColumnIndexOrThrow("cadence");
+                int cCum = cursor.getColumnIndexOrThrow("cumDistance");
+                double[] ll = new double[2];
+                while (cursor.moveToNext()) {
+                    double lat = cursor.getDouble(cLat);
+                    double lng = cursor.getDouble(cLng);
+                    if (wgs84) {
+                        gcj02ToWgs84(lat, lng, ll);
+                        lat = ll[0];
+                        lng = ll[1];
+                    }
+                    points.point(cursor.getLong(cTime), lat, lng,
+                            cursor.isNull(cAlt) ? Double.NaN : cursor.getDouble(cAlt),
+                            cursor.getFloat(cSpeed), cursor.getFloat(cCadence), cursor.getDouble(cCum));
+                    written++;
+                    if (written % PROGRESS_EVERY == 0) callback.onProgress(written, extent.pointCount);
+                }
+                points.end();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("重命名失败 " + tmp);
+            }
+        } catch (IOException | RuntimeException e) {
+            tmp.delete();
+            throw e;
+        }
+        Log.i(TAG, "Exported " + name + ": points=" + written + " bytes=" + file.length()
+                + " in " + (System.nanoTime() - startNs) / 1_000_000 + "ms");
+        return new Result(file, written, file.length());
+    }
+
+    // ---- 格式 ----
+
+    private abstract static class PointWriter {
+        final Writer out;
+        final StringBuilder sb = new StringBuilder(512);
+        private final SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        private final Date date = new Date();
+
+        PointWriter(Writer out) {
+            this.out = out;
+            iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+        }
+
+        abstract void begin(String sessionId, SessionExtent extent) throws IOException;
+
+        abstract void point(long timestamp, double lat, double lng, double altitude,
+                            float speed, float cadence, double cumDistance) throws IOException;
+
+        abstract void end() throws IOException;
+
+        String time(long timestamp) {
+            date.setTime(timestamp);
+            return iso.format(date);
+        }
+
+        void flushLine() throws IOException {
+            out.append(sb);
+            sb.setLength(0);
+        }
+    }
+
+    private static final class GpxWriter extends PointWriter {
+
+        GpxWriter(Writer out) {
+            super(out);
+        }
+
+        @Override
+        void begin(String sessionId, SessionExtent extent) throws IOException {
+            sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                    .append("<gpx version=\"1.1\" creator=\"").append(CREATOR).append("\"")
+                    .append(" xmlns=\"http://www.topografix.com/GPX/1/1\"")
+                    .append(" xmlns:gpxtpx=\"http://www.garmin.com/xmlschemas/TrackPointExtension/v1\"")
+                    .append(" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"")
+                    .append(" xsi:schemaLocation=\"http://www.topografix.com/GPX/1/1 http://www.topografix.com/GPX/1/1/gpx.xsd\">\n")
+                    .append(" <metadata><time>").append(time(extent.firstTimestamp)).append("</time></metadata>\n")
+                    .append(" <trk>\n  <name>");
+            appendEscaped(sb, sessionId);
+            sb.append("</name>\n  <type>running</type>\n  <trkseg>\n");
+            flushLine();
+        }
+
+        @Override
+        void point(long timestamp, double lat, double lng, double altitude,
+                   float speed, float cadence, double cumDistance) throws IOException {
+            sb.append("   <trkpt lat=\"");
+            appendFixed(sb, lat, 7);
+            sb.append("\" lon=\"");
+            appendFixed(sb, lng, 7);
+            sb.append("\">");
+            if (!Double.isNaN(altitude)) {
+                sb.append("<ele>");
+                appendFixed(sb, altitude, 1);
+                sb.append("</ele>");
+            }
+            sb.append("<time>").append(time(timestamp)).append("</time>");
+            if (cadence > 0) {
+                sb.append("<extensions><gpxtpx:TrackPointExtension><gpxtpx:cad>")
+                        .append(Math.round(cadence / 2f))
+                        .append("</gpxtpx:cad></gpxtpx:TrackPointExtension></extensions>");
+            }
+            sb.append("</trkpt>\n");
+            flushLine();
+        }
+
+        @Override
+        void end() throws IOException {
+            sb.append("  </trkseg>\n </trk>\n</gpx>\n");
+            flushLine();
+        }
+    }
+
+    private static final class TcxWriter extends PointWriter {
+
+        TcxWriter(Writer out) {
+            super(out);
+        }
+
+        @Override
+        void begin(String sessionId, SessionExtent extent) throws IOException {
+            String start = time(extent.firstTimestamp);
+            sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                    .append("<TrainingCenterDatabase xmlns=\"http://www.garmin.com/xmlschemas/TrainingCenterDatabase/v2\"")
+                    .append(" xmlns:ns3=\"http://www.garmin.com/xmlschemas/ActivityExtension/v2\">\n")
+                    .append(" <Activities>\n  <Activity Sport=\"Running\">\n   <Id>").append(start).append("</Id>\n")
+                    .append("   <Lap StartTime=\"").append(start).append("\">\n    <TotalTimeSeconds>");
+            appendFixed(sb, Math.max(0L, extent.lastTimestamp - extent.firstTimestamp) / 1000.0, 1);
+            sb.append("</TotalTimeSeconds>\n    <DistanceMeters>");
+            appendFixed(sb, extent.distance, 1);
+            sb.append("</DistanceMeters>\n    <Calories>0</Calories>\n    <Intensity>Active</Intensity>\n")
+                    .append("    <TriggerMethod>Manual</TriggerMethod>\n    <Track>\n");
+            flushLine();
+        }
+
+        @Override
+        void point(long timestamp, double lat, double lng, double altitude,
+                   float speed, float cadence, double cumDistance) throws IOException {
+            sb.append("     <Trackpoint><Time>").append(time(timestamp)).append("</Time><Position><LatitudeDegrees>");
+            appendFixed(sb, lat, 7);
+            sb.append("</LatitudeDegrees><LongitudeDegrees>");
+            appendFixed(sb, lng, 7);
+            sb.append("</LongitudeDegrees></Position>");
+            if (!Double.isNaN(altitude)) {
+                sb.append("<AltitudeMeters>");
+                appendFixed(sb, altitude, 1);
+                sb.append("</AltitudeMeters>");
+            }
+            sb.append("<DistanceMeters>");
+            appendFixed(sb, cumDistance, 1);
+            sb.append("</DistanceMeters><Extensions><ns3:TPX><ns3:Speed>");
+            appendFixed(sb, Math.max(0f, speed), 2);
+            sb.append("</ns3:Speed>");
+            if (cadence > 0) {
+                sb.append("<ns3:RunCadence>").append(Math.min(254, Math.round(cadence / 2f))).append("</ns3:RunCadence>");
+            }
+            sb.append("</ns3:TPX></Extensions></Trackpoint>\n");
+            flushLine();
+        }
+
+        @Override
+        void end() throws IOException {
+            sb.append("    </Track>\n   </Lap>\n  </Activity>\n </Activities>\n</TrainingCenterDatabase>\n");
+            flushLine();
+        }
+    }
+
+    /** 定点小数（不走 String.format / 科学计数法，XML 数值字段可直接使用） */
+    static void appendFixed(StringBuilder sb, double value, int decimals) {
+        long scale = 1;
+        for (int i = 0; i < decimals; i++) scale *= 10;
+        long scaled = Math.round(Math.abs(value) * scale);
+        if (value < 0 && scaled != 0) sb.append('-');
+        sb.append(scaled / scale);
+        if (decimals > 0) {
+            sb.append('.');
+            long frac = scaled % scale;
+            for (long p = scale / 10; p > 1 && frac < p; p /= 10) sb.append('0');
+            sb.append(frac);
+        }
+    }
+
+    private static void appendEscaped(StringBuilder sb, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<': sb.append("&lt;"); break;
+                case '>': sb.append("&gt;"); break;
+                case '&': sb.append("&amp;"); break;
+                case '"': sb.append("&quot;"); break;
+                default: sb.append(c);
+            }
+        }
+    }
+
+    // ---- GCJ-02 → WGS-84 ----
+
+    private static final double KRASOVSKY_A = 6378245.0;
+    private static final double KRASOVSKY_EE = 0.00669342162296594323;
+
+    /** GCJ-02 反算 WGS-84：以正向偏移迭代求逆，3 次后误差远小于定位精度；中国境外原样返回 */
+    static void gcj02ToWgs84(double lat, double lng, double[] out) {
+        out[0] = lat;
+        out[1] = lng;
+        if (outOfChina(lat, lng)) return;
+        double[] offset = new double[2];
+        for (int i = 0; i < 3; i++) {
+            gcj02Offset(out[0], out[1], offset);
+            out[0] = lat - offset[0];
+            out[1] = lng - offset[1];
+        }
+    }
+
+    /** WGS-84 坐标 (lat, lng) 加密到 GCJ-02 的偏移量（度） */
+    static void gcj02Offset(double lat, double lng, double[] out) {
+        double x = lng - 105.0;
+        double y = lat - 35.0;
+        double dLat = -100.0 + 2.0 * x + 3.0 * y + 0.2 * y * y + 0.1 * x * y + 0.2 * Math.sqrt(Math.abs(x))
+                + (20.0 * Math.sin(6.0 * x * Math.PI) + 20.0 * Math.sin(2.0 * x * Math.PI)) * 2.0 / 3.0
+                + (20.0 * Math.sin(y * Math.PI) + 40.0 * Math.sin(y / 3.0 * Math.PI)) * 2.0 / 3.0
+                + (160.0 * Math.sin(y / 12.0 * Math.PI) + 320.0 * Math.sin(y * Math.PI / 30.0)) * 2.0 / 3.0;
+        double dLng = 300.0 + x + 2.0 * y + 0.1 * x * x + 0.1 * x * y + 0.1 * Math.sqrt(Math.abs(x))
+                + (20.0 * Math.sin(6.0 * x * Math.PI) + 20.0 * Math.sin(2.0 * x * Math.PI)) * 2.0 / 3.0
+                + (20.0 * Math.sin(x * Math.PI) + 40.0 * Math.sin(x / 3.0 * Math.PI)) * 2.0 / 3.0
+                + (150.0 * Math.sin(x / 12.0 * Math.PI) + 300.0 * Math.sin(x / 30.0 * Math.PI)) * 2.0 / 3.0;
+        double radLat = Math.toRadians(lat);
+        double magic = 1 - KRASOVSKY_EE * Math.sin(radLat) * Math.sin(radLat);
+        double sqrtMagic = Math.sqrt(magic);
+        out[0] = (dLat * 180.0) / ((KRASOVSKY_A * (1 - KRASOVSKY_EE)) / (magic * sqrtMagic) * Math.PI);
+        out[1] = (dLng * 180.0) / (KRASOVSKY_A / sqrtMagic * Math.cos(radLat) * Math.PI);
+    }
+
+    private static boolean outOfChina(double lat, double lng) {
+        return lng < 72.004 || lng > 137.8347 || lat < 0.8293 || lat > 55.8271;
+    }
+}
@@ -0,0 +1,338 @@
+package com.xiangfei.citylord;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * TrackPyramid — 单个会话轨迹的多分辨率折线金字塔（按地图缩放级别取点）
+ *
+ * 原始点量化为 1e-6 度整数（约 0.1 米，地图绘制足够）存两条 int 数组。
+ * 轨迹按 CHUNK 个线段切块，块首尾点与相邻块共享；每块封闭后按各层级容差分别做一次 Douglas-Peucker，
+ * 保留的原始下标追加到该层级的数组，封闭后不再变动 —— 跑步中只处理新封闭的块，增量构建。
+ * 块边界点固定保留，每块每层最多多出一个顶点，与整条轨迹一次性 DP 相比可忽略。
+ *
+ * 层级容差 = TOLERANCE_PX 个屏幕像素在该缩放级别下的米数（256 像素瓦片，按首点纬度换算）：
+ *  - LEVEL_ZOOMS 之间取不小于请求缩放的最近层级，容差 ≤ 1 像素，肉眼与原始轨迹无差别；
+ *  - 请求缩放 ≥ RAW_ZOOM 时返回原始点。
+ *
+ * 视口查询：每个封闭块记录包围盒，只输出与视口相交的块；相邻的相交块拼成一段折线，
+ * 中间隔开的块使折线断开成多段（parts）。未封闭的尾块在查询时即时简化（≤ CHUNK 个点）。
+ *
+ * 方法 synchronized：Service 在 dbExecutor 追加点，Plugin 在查询线程读取。
+ */
+public final class TrackPyramid {
+
+    /** 每块线段数 */
+    static final int CHUNK = 256;
+    /** 简化层级对应的地图缩放级别（升序） */
+    public static final int[] LEVEL_ZOOMS = {8, 10, 12, 14, 16};
+    /** 请求缩放不小于此值时返回原始点 */
+    public static final int RAW_ZOOM = 17;
+    static final double TOLERANCE_PX = 1.0;
+    static final double E6 = 1e6;
+
+    private static final double METERS_PER_DEG = 6378137.0 * Math.PI / 180.0;
+    /** 缩放级别 0 时赤道上每像素米数（256 像素瓦片） */
+    private static final double EQUATOR_MPP_Z0 = 2 * Math.PI * 6378137.0 / 256.0;
+    /** 米 / 1e-6 度（纬向） */
+    private static final double LAT_SCALE = METERS_PER_DEG / E6;
+
+    /** 视口查询结果：顶点按段顺序排列，partSizes 为各段顶点数 */
+    public static final class Slice {
+        public int[] latE6;
+        public int[] lngE6;
+        public int vertexCount;
+        public int[] partSizes;
+        public int partCount;
+        /** 使用的层级缩放；原始点为 -1 */
+        public int levelZoom;
+
+        /** 顶点编码为 int32 大端 (latE6, lngE6) 对，供 base64 跨桥传输 */
+        public byte[] encode() {
+            ByteBuffer buffer = ByteBuffer.allocate(vertexCount * 8);
+            for (int i = 0; i < vertexCount; i++) {
+                buffer.putInt(latE6[i]);
+                buffer.putInt(lngE6[i]);
+            }
+            return buffer.array();
+        }
+    }
+
+    private final String sessionId;
+    private long lastRowId = 0;
+
+    private int count = 0;
+    private int[] lats = new int[CHUNK * 2];
+    private int[] lngs = new int[CHUNK * 2];
+    /** 米 / 1e-6 度：经向按首点纬度换算 */
+    private double lngScale = LAT_SCALE;
+    private final double[] tolerance = new double[LEVEL_ZOOMS.length];
+
+    /** 已封闭块数；块 c 覆盖原始下标 [c * CHUNK, (c + 1) * CHUNK] */
+    private int sealed = 0;
+    /** 每块包围盒：minLat, minLng, maxLat, maxLng */
+    private int[] bounds = new int[64];
+    /** 各层级保留的原始下标，按块连续存放；offsets[level][c] 为块 c 的起始位置 */
+    private final int[][] kept = new int[LEVEL_ZOOMS.length][];
+    private final int[] keptSize = new int[LEVEL_ZOOMS.length];
+    private final int[][] offsets = new int[LEVEL_ZOOMS.length][];
+
+    // DP 工作区（封闭块 / 尾块复用）
+    private final boolean[] keepMark = new boolean[CHUNK + 1];
+    private final int[] stack = new int[(CHUNK + 1) * 2];
+
+    public TrackPyramid(String sessionId) {
+        this.sessionId = sessionId;
+        for (int level = 0; level < LEVEL_ZOOMS.length; level++) {
+            kept[level] = new int[64];
+            offsets[level] = new int[17];
+        }
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public synchronized int getPointCount() {
+        return count;
+    }
+
+    public synchronized long getLastRowId() {
+        return lastRowId;
+    }
+
+    /** 原始点 + 各层级下标 + 包围盒的近似内存占用（字节） */
+    public synchronized long memoryBytes() {
+        long bytes = (long) lats.length * 8 + (long) bounds.length * 4;
+        for (int level = 0; level < LEVEL_ZOOMS.length; level++) {
+            bytes += (long) kept[level].length * 4 + (long) offsets[level].length * 4;
+        }
+        return bytes;
+    }
+
+    /**
+     * 追加一个轨迹点（按落盘顺序）。rowId > 0 时不大于已追加的最大 rowId 的点忽略，
+     * 用于从 Room 载入与 Service 实时追加之间去重。
+     *
+     * @return 是否追加
+     */
+    public synchronized boolean append(long rowId, double lat, double lng) {
+        if (rowId > 0) {
+            if (rowId <= lastRowId) return false;
+            lastRowId = rowId;
+        }
+        if (count == 0) {
+            double cos = Math.max(Math.cos(Math.toRadians(lat)), 1e-6);
+            lngScale = LAT_SCALE * cos;
+            for (int level = 0; level < LEVEL_ZOOMS.length; level++) {
+                tolerance[level] = TOLERANCE_PX * EQUATOR_MPP_Z0 * cos / (1 << LEVEL_ZOOMS[level]);
+            }
+        }
+        if (count == lats.length) {
+            lats = Arrays.copyOf(lats, count * 2);
+            lngs = Arrays.copyOf(lngs, count * 2);
+        }
+        lats[count] = (int) Math.round(lat * E6);
+        lngs[count] = (int) Math.round(lng * E6);
+        count++;
+        if (count - 1 == (sealed + 1) * CHUNK) seal();
+        return true;
+    }
+
+    private void seal() {
+        int c = sealed;
+        int start = c * CHUNK;
+        int end = start + CHUNK;
+        if ((c + 1) * 4 > bounds.length) bounds = Arrays.copyOf(bounds, bounds.length * 2);
+        chunkBounds(start, end, bounds, c * 4);
+        for (int level = 0; level < LEVEL_ZOOMS.length; level++) {
+            if (c + 2 > offsets[level].length) offsets[level] = Arrays.copyOf(offsets[level], offsets[level].length * 2);
+            offsets[level][c] = keptSize[level];
+            simplify(start, end, tolerance[level]);
+            for (int i = 0; i <= CHUNK; i++) {
+                if (!keepMark[i]) continue;
+                if (keptSize[level] == kept[level].length) {
+                    kept[level] = Arrays.copyOf(kept[level], kept[level].length * 2);
+                }
+                kept[level][keptSize[level]++] = start + i;
+            }
+            offsets[level][c + 1] = keptSize[level];
+        }
+        sealed++;
+    }
+
+    /** 整条轨迹的包围盒 {minLat, minLng, maxLat, maxLng}（度）；没有点时返回 null */
+    public synchronized double[] getBounds() {
+        if (count == 0) return null;
+        int[] box = new int[4];
+        chunkBounds(sealed * CHUNK, count - 1, box, 0);
+        for (int c = 0; c < sealed; c++) {
+            int b = c * 4;
+            box[0] = Math.min(box[0], bounds[b]);
+            box[1] = Math.min(box[1], bounds[b + 1]);
+            box[2] = Math.max(box[2], bounds[b + 2]);
+            box[3] = Math.max(box[3], bounds[b + 3]);
+        }
+        return new double[]{box[0] / E6, box[1] / E6, box[2] / E6, box[3] / E6};
+    }
+
+    /** 地面分辨率不粗于 metersPerPixel 的最小缩放级别（用于按输出尺寸选层级，如缩略图） */
+    public static int zoomForResolution(double metersPerPixel, double lat) {
+        double mppZ0 = EQUATOR_MPP_Z0 * Math.max(Math.cos(Math.toRadians(lat)), 1e-6);
+        if (metersPerPixel <= 0) return RAW_ZOOM;
+        int zoom = (int) Math.ceil(Math.log(mppZ0 / metersPerPixel) / Math.log(2));
+        return Math.max(0, Math.min(RAW_ZOOM, zoom));
+    }
+
+    /** 请求缩放对应的层级下标；-1 表示原始点 */
+    static int levelFor(int zoom) {
+        if (zoom >= RAW_ZOOM) return -1;
+        for (int level = 0; level < LEVEL_ZOOMS.length; level++) {
+            if (LEVEL_ZOOMS[level] >= zoom) return level;
+        }
+        return -1;
+    }
+
+    /**
+     * 视口内需要绘制的顶点。
+     *
+     * @throws IllegalArgumentException 视口为空或跨 180° 经线
+     */
+    public synchronized Slice query(double minLat, double minLng, double maxLat, double maxLng, int zoom) {
+        if (minLat > maxLat || minLng > maxLng) {
+            throw new IllegalArgumentException("empty or antimeridian-crossing bounds");
+        }
+        int qMinLat = (int) Math.floor(minLat * E6);
+        int qMinLng = (int) Math.floor(minLng * E6);
+        int qMaxLat = (int) Math.ceil(maxLat * E6);
+        int qMaxLng = (int) Math.ceil(maxLng * E6);
+        int level = levelFor(zoom);
+
+        Slice slice = new Slice();
+        slice.levelZoom = level < 0 ? -1 : LEVEL_ZOOMS[level];
+        slice.latE6 = new int[64];
+        slice.lngE6 = new int[64];
+        slice.partSizes = new int[4];
+        boolean open = false;
+        int[] box = new int[4];
+        for (int c = 0; c < sealed; c++) {
+            int b = c * 4;
+            if (!intersects(bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3],
+                    qMinLat, qMinLng, qMaxLat, qMaxLng)) {
+                open = false;
+                continue;
+            }
+            if (!open) beginPart(slice);
+            int start = c * CHUNK;
+            if (level < 0) {
+                for (int i = start + (open ? 1 : 0); i <= start + CHUNK; i++) addVertex(slice, i);
+            } else {
+                int from = offsets[level][c] + (open ? 1 : 0);
+                for (int k = from; k < offsets[level][c + 1]; k++) addVertex(slice, kept[level][k]);
+            }
+            open = true;
+        }
+
+        // 未封闭的尾块（至少一条线段；只有一个点的轨迹也输出该点）
+        int tailStart = sealed * CHUNK;
+        if (count - tailStart >= 2 || count == 1) {
+            int tailEnd = count - 1;
+            chunkBounds(tailStart, tailEnd, box, 0);
+            if (intersects(box[0], box[1], box[2], box[3], qMinLat, qMinLng, qMaxLat, qMaxLng)) {
+                if (!open) beginPart(slice);
+                if (level < 0) {
+                    for (int i = tailStart + (open ? 1 : 0); i <= tailEnd; i++) addVertex(slice, i);
+                } else {
+                    simplify(tailStart, tailEnd, tolerance[level]);
+                    for (int i = open ? 1 : 0; i <= tailEnd - tailStart; i++) {
+                        if (keepMark[i]) addVertex(slice, tailStart + i);
+                    }
+                }
+            }
+        }
+        return slice;
+    }
+
+    private static void beginPart(Slice slice) {
+        if (slice.partCount == slice.partSizes.length) {
+            slice.partSizes = Arrays.copyOf(slice.partSizes, slice.partCount * 2);
+        }
+        slice.partSizes[slice.partCount++] = 0;
+    }
+
+    private void addVertex(Slice slice, int index) {
+        if (slice.vertexCount == slice.latE6.length) {
+            slice.latE6 = Arrays.copyOf(slice.latE6, slice.vertexCount * 2);
+            slice.lngE6 = Arrays.copyOf(slice.lngE6, slice.vertexCount * 2);
+        }
+        slice.latE6[slice.vertexCount] = lats[index];
+        slice.lngE6[slice.vertexCount] = lngs[index];
+        slice.vertexCount++;
+        slice.partSizes[slice.partCount - 1]++;
+    }
+
+    private void chunkBounds(int start, int end, int[] out, int at) {
+        int minLat = Integer.MAX_VALUE, minLng = Integer.MAX_VALUE;
+        int maxLat = Integer.MIN_VALUE, maxLng = Integer.MIN_VALUE;
+        for (int i = start; i <= end; i++) {
+            minLat = Math.min(minLat, lats[i]);
+            maxLat = Math.max(maxLat, lats[i]);
+            minLng = Math.min(minLng, lngs[i]);
+            maxLng = Math.max(maxLng, lngs[i]);
+        }
+        out[at] = minLat;
+        out[at + 1] = minLng;
+        out[at + 2] = maxLat;
+        out[at + 3] = maxLng;
+    }
+
+    private static boolean intersects(int aMinLat, int aMinLng, int aMaxLat, int aMaxLng,
+                                      int bMinLat, int bMinLng, int bMaxLat, int bMaxLng) {
+        return aMinLat <= bMaxLat && aMaxLat >= bMinLat && aMinLng <= bMaxLng && aMaxLng >= bMinLng;
+    }
+
+    /**
+     * Douglas-Peucker（显式栈），结果写入 keepMark[0 .. end - start]；首尾点总是保留。
+     */
+    private void simplify(int start, int end, double tol) {
+        int n = end - start + 1;
+        Arrays.fill(keepMark, 0, n, false);
+        keepMark[0] = true;
+        keepMark[n - 1] = true;
+        int top = 0;
+        stack[top++] = start;
+        stack[top++] = end;
+        while (top > 0) {
+            int b = stack[--top];
+            int a = stack[--top];
+            if (b - a < 2) continue;
+            double ax = lngs[a] * lngScale, ay = lats[a] * LAT_SCALE;
+            double dx = lngs[b] * lngScale - ax, dy = lats[b] * LAT_SCALE - ay;
+            double len2 = dx * dx + dy * dy;
+            double maxDist2 = -1;
+            int maxIndex = -1;
+            for (int i = a + 1; i < b; i++) {
+                double px = lngs[i] * lngScale - ax, py = lats[i] * LAT_SCALE - ay;
+                double d2;
+                if (len2 == 0) {
+                    d2 = px * px + py * py;
+                } else {
+                    double t = Math.max(0.0, Math.min(1.0, (px * dx + py * dy) / len2));
+                    double ex = px - t * dx, ey = py - t * dy;
+                    d2 = ex * ex + ey * ey;
+                }
+                if (d2 > maxDist2) {
+                    maxDist2 = d2;
+                    maxIndex = i;
+                }
+            }
+            if (maxDist2 > tol * tol) {
+                keepMark[maxIndex - start] = true;
+                stack[top++] = a;
+                stack[top++] = maxIndex;
+                stack[top++] = maxIndex;
+                stack[top++] = b;
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.xiangfei.citylord;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.xiangfei.citylord.db.AppDatabase;
+import com.xiangfei.citylord.db.LocationEntity;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TrackPyramidCache — 按会话缓存的轨迹金字塔（TrackPyramid），最近使用的 MAX_SESSIONS 个常驻内存
+ *
+ * 计入的点与热力图一致：跑步会话的真实定位，不含 idle 与航位推算插值点（插值点在断档结束后会被改坐标）。
+ *  - 新跑步开始时 startSession() 建空金字塔，此后 Service 每落盘一个点 onPoint() 增量追加；
+ *  - 不在缓存中的会话（历史会话、进程重启后的当前会话）首次查询时从 Room 一次性构建，
+ *    构建期间持有锁，Service 的 onPoint 在其后执行，按 rowId 去重，不会漏点或重复。
+ *
+ * 线程模型：onPoint 在 Service 的 dbExecutor，get 在 Plugin 的查询线程，方法均 synchronized。
+ */
+public final class TrackPyramidCache {
+
+    private static final String TAG = "TrackPyramidCache";
+
+    static final int MAX_SESSIONS = 4;
+
+    // ---- 单例 ----
+    private static volatile TrackPyramidCache INSTANCE;
+
+    public static TrackPyramidCache getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (TrackPyramidCache.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new TrackPyramidCache(context.getApplicationContext());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private final Context appContext;
+    private final LinkedHashMap<String, TrackPyramid> pyramids =
+            new LinkedHashMap<String, TrackPyramid>(MAX_SESSIONS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, TrackPyramid> eldest) {
+                    return size() > MAX_SESSIONS;
+                }
+            };
+
+    private TrackPyramidCache(Context appContext) {
+        this.appContext = appContext;
+    }
+
+    /** 新跑步开始：该会话尚无落盘点，直接建空金字塔 */
+    public synchronized void startSession(String sessionId) {
+        pyramids.put(sessionId, new TrackPyramid(sessionId));
+    }
+
+    /** 一个已落盘的跑步定位点；会话不在缓存中时忽略（首次查询时从 Room 构建） */
+    public synchronized void onPoint(String sessionId, long rowId, double lat, double lng) {
+        TrackPyramid pyramid = pyramids.get(sessionId);
+        if (pyramid != null) pyramid.append(rowId, lat, lng);
+    }
+
+    /** 只取常驻内存的金字塔，不访问 Room；不在缓存中时返回 null */
+    public synchronized TrackPyramid peek(String sessionId) {
+        return pyramids.get(sessionId);
+    }
+
+    /** 取会话的金字塔，不在缓存中时从 Room 构建；会话没有任何轨迹点时返回 null */
+    public synchronized TrackPyramid get(String sessionId) {
+        TrackPyramid pyramid = pyramids.get(sessionId);
+        if (pyramid != null) return pyramid;
+        long startNs = System.nanoTime();
+        List<LocationEntity> points = AppDatabase.getInstance(appContext).locationDao().getPointsAfter(sessionId, 0);
+        pyramid = new TrackPyramid(sessionId);
+        for (LocationEntity p : points) {
+            if (p.isInterpolated) continue;
+            pyramid.append(p.id, p.latitude, p.longitude);
+        }
+        if (pyramid.getPointCount() == 0) return null;
+        pyramids.put(sessionId, pyramid);
+        Log.i(TAG, "Built pyramid: session=" + sessionId + " points=" + pyramid.getPointCount()
+                + " bytes=" + pyramid.memoryBytes() + " in " + (System.nanoTime() - startNs) / 1_000_000 + "ms");
+        return pyramid;
+    }
+
+    /** 清理旧记录后丢弃全部缓存（下次查询按剩余记录重建） */
+    public synchronized void clear() {
+        pyramids.clear();
+    }
+}
@@ -0,0 +1,274 @@
+package com.xiangfei.citylord;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.xiangfei.citylord.db.AppDatabase;
+import com.xiangfei.citylord.db.LocationDao;
+import com.xiangfei.citylord.db.LocationEntity;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TrackSyncWorker — 原生轨迹上传（WorkManager），WebView / JS 不在时也能把已结束跑步的定位点送到服务端
+ *
+ * 由 JS 调用 configureTrackSync 开启（接口地址 / token / 约束存入 PREFS_NAME）：
+ *  - 用户停止跑步（Service onDestroy）与配置变更时提交唯一一次性任务（KEEP）；
+ *  - 另有 PERIODIC_HOURS 的周期任务兜底（进程在跑步中被杀、从未正常结束的会话）。
+ * 约束：有网络（可选仅非计费网络）、可选仅充电；失败按 BACKOFF_SECONDS 起的指数退避重试。
+ *
+ * 上传逻辑见 TrackUploader；正在进行的跑步（Service 会恢复的 run_id，且 ACTIVE_RUN_STALE_MS 内仍有新点）不上传，
+ * 仍由 JS 实时同步；被杀后再未恢复的跑步超过该时长即视为已结束，由周期任务上传。
+ * 服务端确认记在 isUploaded，不改 JS 的 isAcked（getOfflineLocations 照常返回）；JS 确认的点同时置 isUploaded，
+ * 已由 JS 送达的点不再重传（上传归属见 LocationEntity）。开启上传后，旧记录清理（purgeAckedOlderThan）
+ * 还要求跑步点已上传。
+ *
+ * 块大小（413 缩小后的值）与各会话的在途块 [firstId, lastId] 存入 PREFS_NAME，每轮新建的 TrackUploader 据此续传，
+ * 响应丢失的块按同一区间、同一幂等键重发（下一轮先处理其他会话也不影响）。
+ *
+ * 每轮的上传点数 / 字节数 / 吞吐量累计写入 PREFS_NAME，getTrackSyncStatus 读取。
+ */
+public class TrackSyncWorker extends Worker {
+
+    private static final String TAG = "TrackSyncWorker";
+
+    private static final String UNIQUE_WORK_NAME = "citylord_track_sync";
+    private static final String PERIODIC_WORK_NAME = "citylord_track_sync_periodic";
+    static final long BACKOFF_SECONDS = 30;
+    static final long PERIODIC_HOURS = 6;
+
+    public static final String PREFS_NAME = "citylord_track_sync";
+    public static final String KEY_ENDPOINT = "endpoint";
+    public static final String KEY_AUTH_TOKEN = "auth_token";
+    public static final String KEY_REQUIRES_CHARGING = "requires_charging";
+    public static final String KEY_UNMETERED_ONLY = "unmetered_only";
+    public static final String KEY_TOTAL_POINTS = "total_points";
+    public static final String KEY_TOTAL_BYTES = "total_bytes";
+    public static final String KEY_TOTAL_CHUNKS = "total_chunks";
+    public static final String KEY_LAST_RUN_AT = "last_run_at";
+    public static final String KEY_LAST_OUTCOME = "last_outcome";
+    public static final String KEY_LAST_ERROR = "last_error";
+    public static final String KEY_LAST_POINTS_PER_SEC = "last_points_per_sec";
+    public static final String KEY_LAST_BYTES_PER_SEC = "last_bytes_per_sec";
+    static final String KEY_CHUNK_POINTS = "chunk_points";
+    /** 在途块按会话存储：KEY_IN_FLIGHT_PREFIX + sessionId → "firstId:lastId" */
+    static final String KEY_IN_FLIGHT_PREFIX = "in_flight:";
+
+    /** run_id 最后一个点早于此时长即视为已中断的跑步（恢复闹钟为 5 分钟，留足余量） */
+    static final long ACTIVE_RUN_STALE_MS = 60 * 60 * 1000L;
+
+    public TrackSyncWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        SharedPreferences sp = prefs(context);
+        String endpoint = sp.getString(KEY_ENDPOINT, null);
+        if (endpoint == null || endpoint.isEmpty()) {
+            Log.i(TAG, "doWork: track sync not configured, skip");
+            return Result.success();
+        }
+
+        TrackUploader.Stats stats;
+        try {
+            LocationDao dao = AppDatabase.getInstance(context).locationDao();
+            TrackUploader uploader = new TrackUploader(new URL(endpoint), sp.getString(KEY_AUTH_TOKEN, null),
+                    new RoomStore(dao, sp, activeRunId(context, dao)))
+                    .setChunkPoints(sp.getInt(KEY_CHUNK_POINTS, TrackUploader.DEFAULT_CHUNK_POINTS));
+            stats = uploader.syncAll(this::isStopped);
+            sp.edit().putInt(KEY_CHUNK_POINTS, uploader.getChunkPoints()).apply();
+        } catch (Exception e) {
+            Log.e(TAG, "doWork: sync failed: " + e.getMessage(), e);
+            sp.edit()
+                    .putLong(KEY_LAST_RUN_AT, System.currentTimeMillis())
+                    .putString(KEY_LAST_OUTCOME, "fatal")
+                    .putString(KEY_LAST_ERROR, e.getMessage())
+                    .apply();
+            return Result.failure();
+        }
+
+        String outcome = stats.outcome == TrackUploader.OUTCOME_COMPLETE ? "complete"
+                : stats.outcome == TrackUploader.OUTCOME_RETRY ? "retry" : "fatal";
+        double seconds = stats.elapsedMs / 1000.0;
+        sp.edit()
+                .putLong(KEY_TOTAL_POINTS, sp.getLong(KEY_TOTAL_POINTS, 0) + stats.points)
+                .putLong(KEY_TOTAL_BYTES, sp.getLong(KEY_TOTAL_BYTES, 0) + stats.bytesSent)
+                .putLong(KEY_TOTAL_CHUNKS, sp.getLong(KEY_TOTAL_CHUNKS, 0) + stats.chunks)
+                .putLong(KEY_LAST_RUN_AT, System.currentTimeMillis())
+                .putString(KEY_LAST_OUTCOME, outcome)
+                .putString(KEY_LAST_ERROR, stats.lastError)
+                .putFloat(KEY_LAST_POINTS_PER_SEC, (float) stats.pointsPerSecond())
+                .putFloat(KEY_LAST_BYTES_PER_SEC, seconds > 0 ? (float) (stats.bytesSent / seconds) : 0f)
+                .apply();
+        Log.i(TAG, "doWork: " + outcome + " chunks=" + stats.chunks + " points=" + stats.points
+                + " bytes=" + stats.bytesSent + " requests=" + stats.requests + " failures=" + stats.failures
+                + " in " + stats.elapsedMs + "ms (attempt " + getRunAttemptCount() + ")"
+                + (stats.lastError != null ? " lastError=" + stats.lastError : ""));
+
+        switch (stats.outcome) {
+            case TrackUploader.OUTCOME_COMPLETE:
+                return Result.success();
+            case TrackUploader.OUTCOME_RETRY:
+                return Result.retry();
+            default:
+                return Result.failure();
+        }
+    }
+
+    /**
+     * 进行中的跑步：用户未主动停止时 citylord_service_config 中的 run_id，且最后一个点在 ACTIVE_RUN_STALE_MS 内，
+     * 不参与上传。被杀后一直没有恢复的跑步不再排除，否则永远不会上传。
+     */
+    private static String activeRunId(Context context, LocationDao dao) {
+        if (RestartCoordinator.isUserStopped(context)) return null;
+        String runId = context.getSharedPreferences("citylord_service_config", Context.MODE_PRIVATE)
+                .getString("run_id", null);
+        if (runId == null) return null;
+        Long last = dao.getLastTimestamp(runId);
+        if (last == null || System.currentTimeMillis() - last > ACTIVE_RUN_STALE_MS) {
+            Log.i(TAG, "activeRunId: run " + runId + " stale (last point " + last + "), uploading");
+            return null;
+        }
+        return runId;
+    }
+
+    /** location_records 上的 Store：isUploaded 即确认水位，在途块按会话存 PREFS_NAME（commit，落盘后才发送） */
+    private static final class RoomStore implements TrackUploader.Store {
+        private final LocationDao dao;
+        private final SharedPreferences sp;
+        private final String excludedSessionId;
+
+        RoomStore(LocationDao dao, SharedPreferences sp, String excludedSessionId) {
+            this.dao = dao;
+            this.sp = sp;
+            this.excludedSessionId = excludedSessionId;
+        }
+
+        @Override
+        public List<String> pendingSessions() {
+            List<String> sessions = new ArrayList<>(dao.getUnuploadedSessions());
+            if (excludedSessionId != null) sessions.remove(excludedSessionId);
+            return sessions;
+        }
+
+        @Override
+        public List<LocationEntity> nextChunk(String sessionId, int limit) {
+            return dao.getUnuploadedChunk(sessionId, limit);
+        }
+
+        @Override
+        public void ack(String sessionId, long throughId) {
+            dao.markUploadedThrough(sessionId, throughId);
+        }
+
+        @Override
+        public List<LocationEntity> range(String sessionId, long firstId, long lastId) {
+            return dao.getUnuploadedRange(sessionId, firstId, lastId);
+        }
+
+        @Override
+        public long[] inFlight(String sessionId) {
+            String range = sp.getString(KEY_IN_FLIGHT_PREFIX + sessionId, null);
+            if (range == null) return null;
+            int sep = range.indexOf(':');
+            try {
+                return new long[]{Long.parseLong(range.substring(0, sep)), Long.parseLong(range.substring(sep + 1))};
+            } catch (RuntimeException e) {
+                Log.w(TAG, "inFlight: bad record for " + sessionId + ": " + range);
+                return null;
+            }
+        }
+
+        @Override
+        public void setInFlight(String sessionId, long firstId, long lastId) {
+            sp.edit().putString(KEY_IN_FLIGHT_PREFIX + sessionId, firstId + ":" + lastId).commit();
+        }
+
+        @Override
+        public void clearInFlight(String sessionId) {
+            sp.edit().remove(KEY_IN_FLIGHT_PREFIX + sessionId).commit();
+        }
+    }
+
+    // -------------------------------------------------------------------
+    // Scheduling
+    // -------------------------------------------------------------------
+
+    static SharedPreferences prefs(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public static boolean isConfigured(Context context) {
+        String endpoint = prefs(context).getString(KEY_ENDPOINT, null);
+        return endpoint != null && !endpoint.isEmpty();
+    }
+
+    private static Constraints constraints(SharedPreferences sp) {
+        return new Constraints.Builder()
+                .setRequiredNetworkType(sp.getBoolean(KEY_UNMETERED_ONLY, false) ? NetworkType.UNMETERED : NetworkType.CONNECTED)
+                .setRequiresCharging(sp.getBoolean(KEY_REQUIRES_CHARGING, false))
+                .build();
+    }
+
+    private static OneTimeWorkRequest oneTimeRequest(Constraints constraints) {
+        return new OneTimeWorkRequest.Builder(TrackSyncWorker.class)
+                .setConstraints(constraints)
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, BACKOFF_SECONDS, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /** 提交一次性上传任务（未配置时忽略；已有排队任务时 KEEP，不叠加） */
+    public static void schedule(Context context) {
+        if (!isConfigured(context)) return;
+        try {
+            WorkManager.getInstance(context.getApplicationContext())
+                    .enqueueUniqueWork(UNIQUE_WORK_NAME, ExistingWorkPolicy.KEEP, oneTimeRequest(constraints(prefs(context))));
+            Log.i(TAG, "Enqueued track sync work");
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to enqueue track sync work: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 配置变更后调用：约束可能改变，REPLACE 一次性任务并 UPDATE 周期任务；未配置（已关闭）时取消两者。
+     */
+    public static void reschedule(Context context) {
+        try {
+            WorkManager workManager = WorkManager.getInstance(context.getApplicationContext());
+            if (!isConfigured(context)) {
+                workManager.cancelUniqueWork(UNIQUE_WORK_NAME);
+                workManager.cancelUniqueWork(PERIODIC_WORK_NAME);
+                Log.i(TAG, "Track sync disabled, cancelled work");
+                return;
+            }
+            Constraints constraints = constraints(prefs(context));
+            workManager.enqueueUniqueWork(UNIQUE_WORK_NAME, ExistingWorkPolicy.REPLACE, oneTimeRequest(constraints));
+            workManager.enqueueUniquePeriodicWork(PERIODIC_WORK_NAME, ExistingPeriodicWorkPolicy.UPDATE,
+                    new PeriodicWorkRequest.Builder(TrackSyncWorker.class, PERIODIC_HOURS, TimeUnit.HOURS)
+                            .setConstraints(constraints)
+                            .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, BACKOFF_SECONDS, TimeUnit.SECONDS)
+                            .build());
+            Log.i(TAG, "Rescheduled track sync work");
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to reschedule track sync work: " + e.getMessage(), e);
+        }
+    }
+}
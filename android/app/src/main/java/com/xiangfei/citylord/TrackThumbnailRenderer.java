@@ -0,0 +1,329 @@
+package com.xiangfei.citylord;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TrackThumbnailRenderer — 会话轨迹缩略图（列表 / 动态卡片用），原生渲染为 PNG 并缓存在磁盘
+ *
+ * 轨迹取自 TrackPyramidCache：按缩略图的像素分辨率选简化层级，一张图只画几十到几百个顶点。
+ * 固定样式：透明底、圆头圆角折线、起点 / 终点圆点。
+ *
+ * 磁盘缓存（cacheDir/CACHE_DIR）：
+ *  - 缓存键为会话 + STYLE_VERSION + 尺寸，文件名末尾另存数据版本（金字塔最后计入的 rowId），
+ *    跑步中轨迹变长或样式升级后自然生成新文件，同缓存键的旧数据版本写入新文件时删除（旧样式的图由 LRU 淘汰）；
+ *  - 先查磁盘再读轨迹：已有缓存图且会话不在记录中（金字塔不常驻、也不是 Service 会恢复的 run_id）时
+ *    直接返回，不访问 Room，已被清理掉定位点的历史会话也能取到缩略图；
+ *  - 命中时刷新 lastModified，总大小超过 MAX_CACHE_BYTES 时按 lastModified 淘汰最久未用的文件（LRU）。
+ *
+ * 并发有界：THREADS 个后台优先级线程，同一文件的并发请求合并为一次渲染。
+ */
+public final class TrackThumbnailRenderer {
+
+    private static final String TAG = "TrackThumbnail";
+
+    /** 样式变更时递增，旧缓存自然失效 */
+    static final int STYLE_VERSION = 1;
+    static final int THREADS = 2;
+    static final long MAX_CACHE_BYTES = 16L * 1024 * 1024;
+    public static final int MIN_SIZE_PX = 32;
+    public static final int MAX_SIZE_PX = 1024;
+    static final String CACHE_DIR = "track_thumbnails";
+
+    private static final int STROKE_COLOR = 0xFF22C55E;
+    private static final int START_COLOR = 0xFF3B82F6;
+    private static final int END_COLOR = 0xFFEF4444;
+    private static final double METERS_PER_DEG = 6378137.0 * Math.PI / 180.0;
+
+    public interface Callback {
+        /** @param cached 是否直接命中磁盘缓存 */
+        void onResult(File file, boolean cached);
+
+        void onError(String message);
+    }
+
+    // ---- 单例 ----
+    private static volatile TrackThumbnailRenderer INSTANCE;
+
+    public static TrackThumbnailRenderer getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (TrackThumbnailRenderer.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new TrackThumbnailRenderer(context.getApplicationContext());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    private final Context appContext;
+    private final File cacheDir;
+    private final ExecutorService pool;
+    /** 正在渲染的文件名 → 等待结果的回调 */
+    private final Map<String, List<Callback>> inFlight = new HashMap<>();
+    private final Object evictLock = new Object();
+
+    private TrackThumbnailRenderer(Context appContext) {
+        this.appContext = appContext;
+        this.cacheDir = new File(appContext.getCacheDir(), CACHE_DIR);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }, "TrackThumbnail"));
+        executor.allowCoreThreadTimeOut(true);
+        this.pool = executor;
+    }
+
+    /**
+     * 异步取缩略图文件（回调在渲染线程执行）。
+     *
+     * @param width  像素宽，夹到 [MIN_SIZE_PX, MAX_SIZE_PX]
+     * @param height 像素高，同上
+     */
+    public void render(String sessionId, int width, int height, Callback callback) {
+        final int w = clampSize(width);
+        final int h = clampSize(height);
+        pool.execute(() -> {
+            String key = cacheKey(sessionId, w, h);
+            File cached = findCached(key);
+            TrackPyramidCache pyramids = TrackPyramidCache.getInstance(appContext);
+            TrackPyramid pyramid = pyramids.peek(sessionId);
+            if (cached != null && pyramid == null && !isActiveRun(sessionId)) {
+                // 已结束的会话轨迹不再变化，缓存图即最新
+                cached.setLastModified(System.currentTimeMillis());
+                callback.onResult(cached, true);
+                return;
+            }
+            if (pyramid == null) {
+                try {
+                    pyramid = pyramids.get(sessionId);
+                } catch (Exception e) {
+                    callback.onError("轨迹读取失败: " + e.getMessage());
+                    return;
+                }
+            }
+            if (pyramid == null) {
+                if (cached != null) {
+                    cached.setLastModified(System.currentTimeMillis());
+                    callback.onResult(cached, true);
+                } else {
+                    callback.onError("会话没有轨迹点: " + sessionId);
+                }
+                return;
+            }
+            String name = key + pyramid.getLastRowId() + ".png";
+            File file = new File(cacheDir, name);
+            if (file.exists()) {
+                file.setLastModified(System.currentTimeMillis());
+                callback.onResult(file, true);
+                return;
+            }
+            synchronized (inFlight) {
+                List<Callback> waiting = inFlight.get(name);
+                if (waiting != null) {
+                    waiting.add(callback);
+                    return;
+                }
+                waiting = new ArrayList<>();
+                waiting.add(callback);
+                inFlight.put(name, waiting);
+            }
+
+            String error = null;
+            try {
+                long startNs = System.nanoTime();
+                draw(pyramid, w, h, file);
+                deleteOtherVersions(key, name);
+                evict();
+                Log.d(TAG, "Rendered " + name + " in " + (System.nanoTime() - startNs) / 1_000_000 + "ms");
+            } catch (Exception e) {
+                error = "缩略图渲染失败: " + e.getMessage();
+                Log.w(TAG, error);
+            }
+            List<Callback> waiting;
+            synchronized (inFlight) {
+                waiting = inFlight.remove(name);
+            }
+            for (Callback cb : waiting) {
+                if (error == null) cb.onResult(file, false);
+                else cb.onError(error);
+            }
+        });
+    }
+
+    /** 输出尺寸夹到 [MIN_SIZE_PX, MAX_SIZE_PX] */
+    public static int clampSize(int px) {
+        return Math.max(MIN_SIZE_PX, Math.min(MAX_SIZE_PX, px));
+    }
+
+    /** 缓存键（文件名中数据版本之前的部分）：会话 + 样式版本 + 尺寸 */
+    static String cacheKey(String sessionId, int w, int h) {
+        return filePrefix(sessionId) + "s" + STYLE_VERSION + "_" + w + "x" + h + "_";
+    }
+
+    /** 缓存键对应的已完成 PNG（任一数据版本）；没有时返回 null */
+    private File findCached(String key) {
+        File[] files = cacheDir.listFiles((dir, n) -> n.startsWith(key) && n.endsWith(".png"));
+        if (files == null || files.length == 0) return null;
+        File newest = files[0];
+        for (File f : files) {
+            if (f.lastModified() > newest.lastModified()) newest = f;
+        }
+        return newest;
+    }
+
+    /** 是否为 Service 会恢复的进行中跑步（轨迹仍在增长，缓存图可能过期） */
+    private boolean isActiveRun(String sessionId) {
+        if (RestartCoordinator.isUserStopped(appContext)) return false;
+        return sessionId.equals(appContext.getSharedPreferences("citylord_service_config", Context.MODE_PRIVATE)
+                .getString("run_id", null));
+    }
+
+    /** 会话 ID 转为安全文件名前缀（非法字符替换 + 原 ID 的哈希，避免替换后撞名） */
+    static String filePrefix(String sessionId) {
+        String safe = sessionId.replaceAll("[^A-Za-z0-9_-]", "_");
+        if (safe.length() > 64) safe = safe.substring(0, 64);
+        return safe + "_" + Integer.toHexString(sessionId.hashCode()) + "_";
+    }
+
+    private void draw(TrackPyramid pyramid, int w, int h, File file) throws IOException {
+        double[] b = pyramid.getBounds();
+        double midLat = (b[0] + b[2]) / 2.0;
+        double lngScale = METERS_PER_DEG * Math.cos(Math.toRadians(midLat));
+        double spanX = (b[3] - b[1]) * lngScale;
+        double spanY = (b[2] - b[0]) * METERS_PER_DEG;
+
+        float stroke = Math.max(2f, Math.min(w, h) / 60f);
+        float dot = stroke * 1.6f;
+        float pad = dot + 2f;
+        double usableW = w - 2 * pad;
+        double usableH = h - 2 * pad;
+        // 像素 / 米；单点或极短轨迹时按 1 米 / 像素居中
+        double scale = Math.min(spanX > 0 ? usableW / spanX : Double.MAX_VALUE,
+                spanY > 0 ? usableH / spanY : Double.MAX_VALUE);
+        if (scale == Double.MAX_VALUE) scale = 1.0;
+        double offsetX = (w - spanX * scale) / 2.0;
+        double offsetY = (h - spanY * scale) / 2.0;
+
+        TrackPyramid.Slice slice;
+        synchronized (pyramid) {
+            int zoom = TrackPyramid.zoomForResolution(1.0 / scale, midLat);
+            slice = pyramid.query(b[0], b[1], b[2], b[3], zoom);
+        }
+
+        Bitmap bitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+        try {
+            bitmap.eraseColor(Color.TRANSPARENT);
+            Canvas canvas = new Canvas(bitmap);
+            Paint line = new Paint(Paint.ANTI_ALIAS_FLAG);
+            line.setColor(STROKE_COLOR);
+            line.setStyle(Paint.Style.STROKE);
+            line.setStrokeWidth(stroke);
+            line.setStrokeCap(Paint.Cap.ROUND);
+            line.setStrokeJoin(Paint.Join.ROUND);
+
+            Path path = new Path();
+            int v = 0;
+            for (int part = 0; part < slice.partCount; part++) {
+                path.reset();
+                for (int k = 0; k < slice.partSizes[part]; k++, v++) {
+                    float x = (float) (offsetX + (slice.lngE6[v] / TrackPyramid.E6 - b[1]) * lngScale * scale);
+                    float y = (float) (offsetY + (b[2] - slice.latE6[v] / TrackPyramid.E6) * METERS_PER_DEG * scale);
+                    if (k == 0) path.moveTo(x, y);
+                    else path.lineTo(x, y);
+                }
+                canvas.drawPath(path, line);
+            }
+
+            if (slice.vertexCount > 0) {
+                Paint fill = new Paint(Paint.ANTI_ALIAS_FLAG);
+                fill.setStyle(Paint.Style.FILL);
+                int last = slice.vertexCount - 1;
+                fill.setColor(END_COLOR);
+                canvas.drawCircle(
+                        (float) (offsetX + (slice.lngE6[last] / TrackPyramid.E6 - b[1]) * lngScale * scale),
+                        (float) (offsetY + (b[2] - slice.latE6[last] / TrackPyramid.E6) * METERS_PER_DEG * scale),
+                        dot, fill);
+                fill.setColor(START_COLOR);
+                canvas.drawCircle(
+                        (float) (offsetX + (slice.lngE6[0] / TrackPyramid.E6 - b[1]) * lngScale * scale),
+                        (float) (offsetY + (b[2] - slice.latE6[0] / TrackPyramid.E6) * METERS_PER_DEG * scale),
+                        dot, fill);
+            }
+
+            if (!cacheDir.exists() && !cacheDir.mkdirs() && !cacheDir.exists()) {
+                throw new IOException("无法创建缓存目录 " + cacheDir);
+            }
+            // 先写临时文件再改名，读取方不会看到写了一半的 PNG
+            File tmp = new File(cacheDir, file.getName() + ".tmp");
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                if (!bitmap.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+                    throw new IOException("PNG 编码失败");
+                }
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("重命名失败 " + tmp);
+            }
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    /** 删除同缓存键的其他数据版本（轨迹变长后的旧图） */
+    private void deleteOtherVersions(String key, String keep) {
+        File[] files = cacheDir.listFiles();
+        if (files == null) return;
+        for (File f : files) {
+            String n = f.getName();
+            if (n.startsWith(key) && !n.equals(keep) && n.endsWith(".png")) {
+                f.delete();
+            }
+        }
+    }
+
+    /** 总大小超过 MAX_CACHE_BYTES 时按 lastModified 从旧到新删除 */
+    private void evict() {
+        synchronized (evictLock) {
+            // 只计已完成的 PNG：其他线程正在写的临时文件不动
+            File[] files = cacheDir.listFiles((dir, n) -> n.endsWith(".png"));
+            if (files == null) return;
+            long total = 0;
+            for (File f : files) total += f.length();
+            if (total <= MAX_CACHE_BYTES) return;
+            long[] modified = new long[files.length];
+            Integer[] order = new Integer[files.length];
+            for (int i = 0; i < files.length; i++) {
+                modified[i] = files[i].lastModified();
+                order[i] = i;
+            }
+            Arrays.sort(order, (x, y) -> Long.compare(modified[x], modified[y]));
+            for (Integer i : order) {
+                if (total <= MAX_CACHE_BYTES) break;
+                long length = files[i].length();
+                if (files[i].delete()) total -= length;
+            }
+        }
+    }
+}
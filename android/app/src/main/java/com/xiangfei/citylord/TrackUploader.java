@@ -0,0 +1,220 @@
+package com.xiangfei.citylord;
+
+import com.xiangfei.citylord.db.LocationEntity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * TrackUploader — 把未确认的跑步定位点分块上传到服务端（TrackCodec v1 gzip 正文），由 TrackSyncWorker 驱动
+ *
+ * 分块可续传：每块取会话内 id 最小的 chunkPoints 个未确认点，服务端 2xx 确认后把确认水位推进到块内最大 id
+ * （isUploaded = 1），进程在任意时刻被杀，下次都从第一个未确认点继续。
+ *
+ * 幂等：请求头 Idempotency-Key = 会话 ID + 块首尾 id。发送前把块的 [firstId, lastId] 记为该会话的在途块
+ * （Store 按会话持久化），未确认前的每一轮（包括新建的 TrackUploader、块大小已变、会话顺序不同）都先按同一区间、
+ * 同一 key 重发，已提交但响应丢失的块由服务端去重；只有 413（服务端未提交）时才按缩小后的块重新切分。
+ *
+ * 响应处理：
+ *  - 2xx：确认，继续下一块；
+ *  - 413：块减半（不小于 MIN_CHUNK_POINTS）后重发；
+ *  - 408 / 429 / 5xx / 网络异常：本轮停止，OUTCOME_RETRY（由 WorkManager 指数退避重试）；
+ *  - 其余 4xx（鉴权失败、服务端拒收）：OUTCOME_FATAL，不再自动重试，等待重新配置。
+ *
+ * 不依赖 Android API（Store 由调用方提供），可直接对本地 HTTP 服务做集成测试。
+ */
+public final class TrackUploader {
+
+    public static final int DEFAULT_CHUNK_POINTS = 2000;
+    public static final int MIN_CHUNK_POINTS = 250;
+    static final int CONNECT_TIMEOUT_MS = 15_000;
+    static final int READ_TIMEOUT_MS = 30_000;
+    public static final String CONTENT_TYPE = "application/x-citylord-track";
+
+    public static final int OUTCOME_COMPLETE = 0;
+    public static final int OUTCOME_RETRY = 1;
+    public static final int OUTCOME_FATAL = 2;
+
+    /** 未确认定位点的来源与确认水位（Room 实现见 TrackSyncWorker） */
+    public interface Store {
+        /** 有未确认点、可以上传的会话 */
+        List<String> pendingSessions();
+
+        /** 会话内 id 最小的 limit 个未确认点，按 id 升序 */
+        List<LocationEntity> nextChunk(String sessionId, int limit);
+
+        /** 服务端已确认：会话内 id ≤ throughId 的点标记为已确认 */
+        void ack(String sessionId, long throughId);
+
+        /** 会话内 firstId ≤ id ≤ lastId 的未确认点，按 id 升序 */
+        List<LocationEntity> range(String sessionId, long firstId, long lastId);
+
+        /** 会话的在途块 {firstId, lastId}：已发出、尚未确认；没有时返回 null */
+        long[] inFlight(String sessionId);
+
+        /** 发送前记录会话的在途块（各会话独立）；须在返回前持久化，进程随后被杀也能按同一区间重发 */
+        void setInFlight(String sessionId, long firstId, long lastId);
+
+        void clearInFlight(String sessionId);
+    }
+
+    public interface StopSignal {
+        boolean isStopped();
+    }
+
+    /** 单轮同步的结果与指标 */
+    public static final class Stats {
+        public int outcome = OUTCOME_COMPLETE;
+        public int chunks;
+        public int points;
+        /** 实际发出的请求正文字节数（含失败的请求） */
+        public long bytesSent;
+        public int requests;
+        public int failures;
+        public long elapsedMs;
+        /** 最后一个 HTTP 状态码，网络异常时为 -1 */
+        public int lastStatus;
+        public String lastError;
+
+        /** 已确认点数 / 秒 */
+        public double pointsPerSecond() {
+            return elapsedMs <= 0 ? 0.0 : points * 1000.0 / elapsedMs;
+        }
+    }
+
+    private final URL endpoint;
+    private final String authToken;
+    private final Store store;
+    private int chunkPoints = DEFAULT_CHUNK_POINTS;
+
+    public TrackUploader(URL endpoint, String authToken, Store store) {
+        this.endpoint = endpoint;
+        this.authToken = authToken;
+        this.store = store;
+    }
+
+    public TrackUploader setChunkPoints(int chunkPoints) {
+        this.chunkPoints = Math.max(MIN_CHUNK_POINTS, chunkPoints);
+        return this;
+    }
+
+    public int getChunkPoints() {
+        return chunkPoints;
+    }
+
+    /** 上传全部待上传会话，直到完成、遇到需重试 / 不可恢复的失败或 stop 信号 */
+    public Stats syncAll(StopSignal stop) {
+        Stats stats = new Stats();
+        long startNs = System.nanoTime();
+        try {
+            for (String sessionId : store.pendingSessions()) {
+                while (true) {
+                    if (stop != null && stop.isStopped()) {
+                        stats.outcome = OUTCOME_RETRY;
+                        stats.lastError = "stopped";
+                        return stats;
+                    }
+                    // 上一轮未确认的在途块按原区间、原幂等键重发，不随块大小变化
+                    long[] pending = store.inFlight(sessionId);
+                    List<LocationEntity> chunk = pending != null
+                            ? store.range(sessionId, pending[0], pending[1]) : Collections.emptyList();
+                    long firstId;
+                    long lastId;
+                    if (!chunk.isEmpty()) {
+                        firstId = pending[0];
+                        lastId = pending[1];
+                    } else {
+                        chunk = store.nextChunk(sessionId, chunkPoints);
+                        if (chunk.isEmpty()) break;
+                        firstId = chunk.get(0).id;
+                        lastId = chunk.get(chunk.size() - 1).id;
+                        store.setInFlight(sessionId, firstId, lastId);
+                    }
+                    byte[] body = TrackCodec.encode(sessionId, chunk, TrackCodec.COMPRESSION_GZIP);
+
+                    int status;
+                    stats.requests++;
+                    stats.bytesSent += body.length;
+                    try {
+                        status = post(body, sessionId, firstId, lastId, chunk.size());
+                    } catch (IOException e) {
+                        stats.failures++;
+                        stats.lastStatus = -1;
+                        stats.lastError = e.getClass().getSimpleName() + ": " + e.getMessage();
+                        stats.outcome = OUTCOME_RETRY;
+                        return stats;
+                    }
+                    stats.lastStatus = status;
+                    if (status >= 200 && status < 300) {
+                        store.ack(sessionId, lastId);
+                        store.clearInFlight(sessionId);
+                        stats.chunks++;
+                        stats.points += chunk.size();
+                        continue;
+                    }
+                    stats.failures++;
+                    stats.lastError = "HTTP " + status;
+                    if (status == 413 && chunk.size() > MIN_CHUNK_POINTS) {
+                        // 服务端未提交，可以换一组块边界
+                        chunkPoints = Math.max(MIN_CHUNK_POINTS, Math.min(chunkPoints, chunk.size()) / 2);
+                        store.clearInFlight(sessionId);
+                        continue;
+                    }
+                    stats.outcome = status == 408 || status == 429 || status >= 500 ? OUTCOME_RETRY : OUTCOME_FATAL;
+                    return stats;
+                }
+            }
+            stats.outcome = OUTCOME_COMPLETE;
+            return stats;
+        } finally {
+            stats.elapsedMs = (System.nanoTime() - startNs) / 1_000_000;
+        }
+    }
+
+    /** 幂等键：会话 ID + 块首尾 id（同一块重发时不变） */
+    static String idempotencyKey(String sessionId, long firstId, long lastId) {
+        return sessionId + ":" + firstId + "-" + lastId;
+    }
+
+    private int post(byte[] body, String sessionId, long firstId, long lastId, int count) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) endpoint.openConnection();
+        try {
+            conn.setRequestMethod("POST");
+            conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            conn.setReadTimeout(READ_TIMEOUT_MS);
+            conn.setDoOutput(true);
+            conn.setUseCaches(false);
+            conn.setFixedLengthStreamingMode(body.length);
+            conn.setRequestProperty("Content-Type", CONTENT_TYPE);
+            conn.setRequestProperty("Idempotency-Key", idempotencyKey(sessionId, firstId, lastId));
+            conn.setRequestProperty("X-Track-Codec-Version", String.valueOf(TrackCodec.VERSION));
+            conn.setRequestProperty("X-Track-Points", String.valueOf(count));
+            if (authToken != null && !authToken.isEmpty()) {
+                conn.setRequestProperty("Authorization", "Bearer " + authToken);
+            }
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write(body);
+            }
+            int status = conn.getResponseCode();
+            // 读完响应体、不主动 disconnect，便于 keep-alive 连接复用
+            InputStream in = status >= 400 ? conn.getErrorStream() : conn.getInputStream();
+            if (in != null) {
+                try (InputStream drain = in) {
+                    byte[] buf = new byte[1024];
+                    while (drain.read(buf) > 0) {
+                        // discard
+                    }
+                }
+            }
+            return status;
+        } catch (IOException e) {
+            conn.disconnect();
+            throw e;
+        }
+    }
+}
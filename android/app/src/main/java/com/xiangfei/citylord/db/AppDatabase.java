@@ -9,18 +9,37 @@ import androidx.room.RoomDatabase;
 /**
  * Room 数据库单例 — 应用级离线存储。
  *
- * 当前版本 1，仅包含 LocationEntity 表。
- * 后续新增表时递增 version 并编写 Migration。
+ * 版本历史（迁移见 Migrations）：
+ *  - v1: location_records
+ *  - v2: location_records.isInterpolated（航位推算插值点标记）
+ *  - v3: step_buckets（分钟级步数桶）
+ *  - v4: location_records.cadence / strideLength / groundContactMs
+ *  - v5: location_records.altitude + session_summaries（会话汇总：爬升 / 下降）
+ *  - v6: location_records.spatialKey + 索引（空间查询）
+ *  - v7: heatmap_tiles（个人热力图瓦片）
+ *  - v8: location_records.cumDistance / elapsedMs + session_summaries 分段与最快用时
+ *  - v9: location_records.isUploaded + 索引（原生上传的服务端确认，与 JS 的 isAcked 分开）
+ * 后续 schema 变更时递增 version 并在 Migrations 中追加迁移。
  *
  * 注意：exportSchema = false 避免在 CI 中要求 schema 目录，
  * 生产环境如需版本管理可改为 true。
  */
-@Database(entities = {LocationEntity.class}, version = 1, exportSchema = false)
+@Database(entities = {LocationEntity.class, StepBucketEntity.class, SessionSummaryEntity.class,
+        HeatmapTileEntity.class}, version = 9, exportSchema = false)
 public abstract class AppDatabase extends RoomDatabase {
 
     /** 获取 LocationDao 实例 */
     public abstract LocationDao locationDao();
 
+    /** 获取 StepBucketDao 实例 */
+    public abstract StepBucketDao stepBucketDao();
+
+    /** 获取 SessionSummaryDao 实例 */
+    public abstract SessionSummaryDao sessionSummaryDao();
+
+    /** 获取 HeatmapTileDao 实例 */
+    public abstract HeatmapTileDao heatmapTileDao();
+
     // ---- 单例 ----
     private static volatile AppDatabase INSTANCE;
 
@@ -39,9 +58,9 @@ public abstract class AppDatabase extends RoomDatabase {
                             AppDatabase.class,
                             "citylord_offline.db"  // 数据库文件名
                     )
-                    // 开发阶段允许破坏性迁移（schema 变更时自动清空重建）
-                    // 生产环境请替换为 addMigrations(...)
-                    .fallbackToDestructiveMigration()
+                    // 黑匣子数据必须跨版本保留：逐版本迁移，仅降级时允许清空重建
+                    .addMigrations(Migrations.ALL)
+                    .fallbackToDestructiveMigrationOnDowngrade()
                     .build();
                 }
             }
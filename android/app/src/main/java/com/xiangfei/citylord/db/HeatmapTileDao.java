@@ -0,0 +1,30 @@
+package com.xiangfei.citylord.db;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+/**
+ * Room DAO：个人热力图瓦片。
+ *
+ * 同 LocationDao，所有方法同步执行，调用方须在后台线程调用。
+ */
+@Dao
+public interface HeatmapTileDao {
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsertAll(List<HeatmapTileEntity> entities);
+
+    @Query("SELECT * FROM heatmap_tiles WHERE zoom = :zoom AND x = :x AND y = :y")
+    HeatmapTileEntity get(int zoom, int x, int y);
+
+    /** 全部已建瓦片的键，编码同 HeatmapStore.tileKey：zoom << 58 | x << 29 | y */
+    @Query("SELECT (zoom << 58) | (x << 29) | y FROM heatmap_tiles")
+    List<Long> getTileKeys();
+
+    @Query("SELECT COUNT(*) FROM heatmap_tiles")
+    int count();
+}
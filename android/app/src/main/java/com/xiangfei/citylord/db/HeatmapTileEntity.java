@@ -0,0 +1,36 @@
+package com.xiangfei.citylord.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+
+/**
+ * Room 实体：个人热力图瓦片（Web Mercator z/x/y，每瓦片 BINS × BINS 个访问计数格）。
+ *
+ * 计数打包为 BLOB（int32 大端，行优先，北在上），编解码见 HeatmapStore。
+ * throughId 为已计入本瓦片的最大 location_records.id：加载时只需补算 id 更大的点，
+ * 清理旧记录后整表删除，瓦片在下次访问时从 throughId = 0 重建。
+ */
+@Entity(tableName = "heatmap_tiles", primaryKeys = {"zoom", "x", "y"})
+public class HeatmapTileEntity {
+
+    @ColumnInfo(name = "zoom")
+    public int zoom;
+
+    @ColumnInfo(name = "x")
+    public int x;
+
+    @ColumnInfo(name = "y")
+    public int y;
+
+    @NonNull
+    @ColumnInfo(name = "counts", typeAffinity = ColumnInfo.BLOB)
+    public byte[] counts = new byte[0];
+
+    /** 瓦片内总访问次数（冗余，便于跳过空瓦片） */
+    @ColumnInfo(name = "total")
+    public long total;
+
+    @ColumnInfo(name = "throughId")
+    public long throughId;
+}
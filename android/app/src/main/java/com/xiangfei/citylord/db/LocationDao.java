@@ -1,10 +1,15 @@
 package com.xiangfei.citylord.db;
 
+import android.database.Cursor;
+
 import androidx.room.Dao;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.RawQuery;
+import androidx.sqlite.db.SupportSQLiteQuery;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -38,22 +43,25 @@ public interface LocationDao {
 
     /**
      * 将指定 ID 列表的记录标记为已同步。
-     * JS 层确认处理完毕后调用。
+     * JS 层确认处理完毕（已由 JS 送达服务端）后调用，同时标记 isUploaded，原生上传不再重发这些点。
      *
      * @param ids 需要标记的记录 ID 数组
      */
-    @Query("UPDATE location_records SET isAcked = 1 WHERE id IN (:ids)")
+    @Query("UPDATE location_records SET isAcked = 1, isUploaded = 1 WHERE id IN (:ids)")
     void setPointsAcked(List<Long> ids);
 
     /**
      * 清理已同步的旧数据（超过指定时间戳的已确认记录）。
      * 建议在 Service onCreate 或定时任务中调用，防止数据库无限膨胀。
+     * 开启原生上传时跑步点还须已上传（isUploaded）才删除，idle 点不上传、只看 isAcked。
      *
-     * @param olderThan 时间戳阈值，早于此值的已确认记录将被删除
+     * @param olderThan       时间戳阈值，早于此值的已确认记录将被删除
+     * @param requireUploaded 是否要求跑步点已由原生上传确认（TrackSyncWorker.isConfigured）
      * @return 删除的行数
      */
-    @Query("DELETE FROM location_records WHERE isAcked = 1 AND timestamp < :olderThan")
-    int purgeAckedOlderThan(long olderThan);
+    @Query("DELETE FROM location_records WHERE isAcked = 1 AND timestamp < :olderThan "
+            + "AND (isUploaded = 1 OR sessionId = 'idle' OR :requireUploaded = 0)")
+    int purgeAckedOlderThan(long olderThan, boolean requireUploaded);
 
     /**
      * 获取指定 session 下未同步记录的总数（用于诊断/埋点）。
@@ -71,4 +79,123 @@ public interface LocationDao {
      */
     @Query("SELECT * FROM location_records WHERE sessionId = :sessionId AND timestamp > :sinceTimestamp ORDER BY timestamp ASC")
     List<LocationEntity> getPointsAfter(String sessionId, long sinceTimestamp);
+
+    /**
+     * 指定 session 最后一个落盘点的时间戳（无记录时为 null）。
+     * 进程被杀后恢复连续性统计时用于补齐最后若干未写入报告的点。
+     */
+    @Query("SELECT MAX(timestamp) FROM location_records WHERE sessionId = :sessionId")
+    Long getLastTimestamp(String sessionId);
+
+    /**
+     * 指定 session 的点数、首末时间戳与累计里程（导出文件头 / 进度总数）。
+     */
+    @Query("SELECT COUNT(*) AS pointCount, MIN(timestamp) AS firstTimestamp, MAX(timestamp) AS lastTimestamp, "
+            + "MAX(cumDistance) AS distance FROM location_records WHERE sessionId = :sessionId")
+    SessionExtent getSessionExtent(String sessionId);
+
+    /**
+     * 指定 session 的全部定位点（只取导出需要的列），按时间戳升序，以 Cursor 逐行读取。
+     * 长跑也不会一次性物化为 List；调用方负责关闭 Cursor。
+     */
+    @Query("SELECT timestamp, latitude, longitude, altitude, speed, cadence, cumDistance FROM location_records "
+            + "WHERE sessionId = :sessionId ORDER BY timestamp ASC")
+    Cursor streamSessionPoints(String sessionId);
+
+    /**
+     * 有定位点但会话汇总尚未计算分段 / 最快用时的跑步会话（v8 之前的历史会话），供按需回填。
+     */
+    @Query("SELECT DISTINCT sessionId FROM location_records WHERE sessionId != 'idle' AND sessionId NOT IN "
+            + "(SELECT sessionId FROM session_summaries WHERE splits IS NOT NULL)")
+    List<String> getSessionsWithoutEfforts();
+
+    // ---- 原生上传（TrackSyncWorker / TrackUploader） ----
+
+    /**
+     * 有未上传点的跑步会话（不含 idle）。
+     */
+    @Query("SELECT DISTINCT sessionId FROM location_records WHERE isUploaded = 0 AND sessionId != 'idle'")
+    List<String> getUnuploadedSessions();
+
+    /**
+     * 指定 session 下 id 最小的 limit 个未上传点，按 id 升序（一个上传块）。
+     */
+    @Query("SELECT * FROM location_records WHERE sessionId = :sessionId AND isUploaded = 0 ORDER BY id ASC LIMIT :limit")
+    List<LocationEntity> getUnuploadedChunk(String sessionId, int limit);
+
+    /**
+     * 指定 session 下 id 在 [firstId, lastId] 内的未上传点，按 id 升序（重发在途块）。
+     */
+    @Query("SELECT * FROM location_records WHERE sessionId = :sessionId AND isUploaded = 0 "
+            + "AND id BETWEEN :firstId AND :lastId ORDER BY id ASC")
+    List<LocationEntity> getUnuploadedRange(String sessionId, long firstId, long lastId);
+
+    /**
+     * 推进上传水位：指定 session 下 id ≤ throughId 的点标记为已上传。
+     *
+     * @return 新标记的行数
+     */
+    @Query("UPDATE location_records SET isUploaded = 1 WHERE sessionId = :sessionId AND isUploaded = 0 AND id <= :throughId")
+    int markUploadedThrough(String sessionId, long throughId);
+
+    /**
+     * 全部跑步会话（不含 idle）中未上传点的总数。
+     */
+    @Query("SELECT COUNT(*) FROM location_records WHERE isUploaded = 0 AND sessionId != 'idle'")
+    int getUnuploadedRunPointCount();
+
+    /**
+     * 修正单个点的坐标（断档结束后对航位推算插值点的误差分摊）。
+     * spatialKey 须与新坐标一致（SpatialIndex.key），否则空间查询会漏掉该点。
+     */
+    @Query("UPDATE location_records SET latitude = :lat, longitude = :lng, spatialKey = :spatialKey WHERE id = :id")
+    void updatePosition(long id, double lat, double lng, long spatialKey);
+
+    // ---- 空间查询（spatialKey 索引，SQL 由 SpatialIndex 生成） ----
+
+    @RawQuery
+    List<LocationEntity> queryPoints(SupportSQLiteQuery query);
+
+    @RawQuery
+    List<SessionHit> querySessionHits(SupportSQLiteQuery query);
+
+    /**
+     * 矩形内的定位点，按 sessionId、timestamp 排序。
+     *
+     * @param sessionId null 表示跨所有会话
+     * @param limit     ≤ 0 表示不限
+     */
+    default List<LocationEntity> getPointsInBounds(double minLat, double minLng, double maxLat, double maxLng,
+                                                   String sessionId, int limit) {
+        return queryPoints(SpatialIndex.pointsInBounds(minLat, minLng, maxLat, maxLng, sessionId, limit));
+    }
+
+    /**
+     * 距 (lat, lng) radiusMeters 以内的定位点：外接矩形走索引，再按距离精确过滤。
+     *
+     * @param sessionId null 表示跨所有会话
+     * @param limit     ≤ 0 表示不限（按 sessionId、timestamp 顺序截断）
+     */
+    default List<LocationEntity> getPointsWithinRadius(double lat, double lng, double radiusMeters,
+                                                       String sessionId, int limit) {
+        double[] bounds = SpatialIndex.boundsAround(lat, lng, radiusMeters);
+        List<LocationEntity> candidates = queryPoints(
+                SpatialIndex.pointsInBounds(bounds[0], bounds[1], bounds[2], bounds[3], sessionId, 0));
+        List<LocationEntity> result = new ArrayList<>();
+        for (LocationEntity point : candidates) {
+            if (SpatialIndex.distanceMeters(lat, lng, point.latitude, point.longitude) <= radiusMeters) {
+                result.add(point);
+                if (limit > 0 && result.size() >= limit) break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 经过矩形的跑步会话（不含 idle），按区域内最后一个点的时间倒序。
+     * 用于"我以前哪几次跑步经过这个街区"。
+     */
+    default List<SessionHit> getSessionsInBounds(double minLat, double minLng, double maxLat, double maxLng) {
+        return querySessionHits(SpatialIndex.sessionsInBounds(minLat, minLng, maxLat, maxLng));
+    }
 }
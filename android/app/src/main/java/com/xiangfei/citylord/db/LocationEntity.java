@@ -12,13 +12,22 @@ import androidx.room.PrimaryKey;
  * 当 JS 层苏醒后，通过 Plugin 的 getOfflineLocations 按 sessionId 拉取，
  * 并在确认处理完毕后调用 acknowledgeLocations 将 isAcked 标记为 true。
  *
+ * 上传归属：一个点只由一方送达服务端。
+ *  - isAcked：JS 层已拉取并确认（acknowledgeLocations），JS 已把它同步到服务端；
+ *  - isUploaded：服务端已有此点。JS 确认时一并置 1，原生上传（TrackSyncWorker）确认时只置此列；
+ *    原生上传只取 isUploaded = 0 的点，不会重发 JS 已送达的点，原生送达的点仍可由 JS 拉取（isAcked 不变）。
+ *
  * 索引策略：
  *  - (sessionId, isAcked) 组合索引 → 加速 getUnsyncedPoints 查询
+ *  - (sessionId, isUploaded) 组合索引 → 原生上传取块
+ *  - spatialKey 索引 → 跨会话的矩形 / 半径查询（Z 序键，见 SpatialIndex）
  */
 @Entity(
     tableName = "location_records",
     indices = {
-        @Index(value = {"sessionId", "isAcked"})
+        @Index(value = {"sessionId", "isAcked"}),
+        @Index(value = {"sessionId", "isUploaded"}),
+        @Index(value = {"spatialKey"})
     }
 )
 public class LocationEntity {
@@ -47,6 +56,10 @@ public class LocationEntity {
     @ColumnInfo(name = "isAcked", defaultValue = "0")
     public boolean isAcked;
 
+    /** 服务端是否已有此点：JS 确认（acknowledgeLocations）或原生上传（TrackUploader）经服务端确认 */
+    @ColumnInfo(name = "isUploaded", defaultValue = "0")
+    public boolean isUploaded;
+
     /** 定位精度 (米) */
     @ColumnInfo(name = "accuracy", defaultValue = "0")
     public float accuracy;
@@ -62,4 +75,36 @@ public class LocationEntity {
     /** 是否为模拟定位 */
     @ColumnInfo(name = "isMock", defaultValue = "0")
     public boolean isMock;
+
+    /** 是否为 GNSS 断档期间的航位推算插值点（DeadReckoner，非真实定位） */
+    @ColumnInfo(name = "isInterpolated", defaultValue = "0")
+    public boolean isInterpolated;
+
+    /** 步频（步/分，加速度计自相关），0 表示未开启或静止 */
+    @ColumnInfo(name = "cadence", defaultValue = "0")
+    public float cadence;
+
+    /** 步长（米/步 = 速度 / 步频），0 表示不可用 */
+    @ColumnInfo(name = "strideLength", defaultValue = "0")
+    public float strideLength;
+
+    /** 单步触地时长估计（毫秒，提示性指标），0 表示不可用 */
+    @ColumnInfo(name = "groundContactMs", defaultValue = "0")
+    public float groundContactMs;
+
+    /** 平滑后的气压高度（米，标准大气），无气压计或尚无读数时为 null */
+    @ColumnInfo(name = "altitude")
+    public Double altitude;
+
+    /** 经纬度的 Z 序键（SpatialIndex.key），写入 / 修正坐标时同步更新 */
+    @ColumnInfo(name = "spatialKey", defaultValue = "0")
+    public long spatialKey;
+
+    /** 会话内累计里程（米，BestEfforts 口径），idle 点为 0 */
+    @ColumnInfo(name = "cumDistance", defaultValue = "0")
+    public double cumDistance;
+
+    /** 相对跑步开始的用时（毫秒），idle 点为 0 */
+    @ColumnInfo(name = "elapsedMs", defaultValue = "0")
+    public long elapsedMs;
 }
@@ -0,0 +1,167 @@
+package com.xiangfei.citylord.db;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
+
+import com.xiangfei.citylord.BestEfforts;
+
+/**
+ * Room 数据库迁移。
+ *
+ * 每次递增 AppDatabase.version 时在此追加一个 Migration 并加入 ALL。
+ * 新增列必须带 DEFAULT，且与实体上 @ColumnInfo(defaultValue) 一致，否则 Room 校验 schema 失败。
+ */
+final class Migrations {
+
+    private Migrations() {
+    }
+
+    /** v1 → v2：航位推算插值点标记 */
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE location_records ADD COLUMN isInterpolated INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    /** v2 → v3：分钟级步数桶（每小时一行） */
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS step_buckets ("
+                    + "hourStart INTEGER NOT NULL, "
+                    + "counts BLOB NOT NULL, "
+                    + "total INTEGER NOT NULL, "
+                    + "PRIMARY KEY(hourStart))");
+        }
+    };
+
+    /** v3 → v4：步频 / 步长 / 触地时长 */
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE location_records ADD COLUMN cadence REAL NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE location_records ADD COLUMN strideLength REAL NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE location_records ADD COLUMN groundContactMs REAL NOT NULL DEFAULT 0");
+        }
+    };
+
+    /** v4 → v5：气压高度列 + 会话汇总表 */
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE location_records ADD COLUMN altitude REAL");
+            db.execSQL("CREATE TABLE IF NOT EXISTS session_summaries ("
+                    + "sessionId TEXT NOT NULL, "
+                    + "startedAt INTEGER NOT NULL, "
+                    + "updatedAt INTEGER NOT NULL, "
+                    + "elevationGain REAL NOT NULL, "
+                    + "elevationLoss REAL NOT NULL, "
+                    + "minAltitude REAL, "
+                    + "maxAltitude REAL, "
+                    + "hasBarometer INTEGER NOT NULL, "
+                    + "PRIMARY KEY(sessionId))");
+        }
+    };
+
+    /** v5 → v6：空间索引列，已有行在迁移中回填（Z 序键无法用 SQL 表达式直接算） */
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE location_records ADD COLUMN spatialKey INTEGER NOT NULL DEFAULT 0");
+            SupportSQLiteStatement update = db.compileStatement(
+                    "UPDATE location_records SET spatialKey = ? WHERE id = ?");
+            try (Cursor cursor = db.query("SELECT id, latitude, longitude FROM location_records")) {
+                while (cursor.moveToNext()) {
+                    update.bindLong(1, SpatialIndex.key(cursor.getDouble(1), cursor.getDouble(2)));
+                    update.bindLong(2, cursor.getLong(0));
+                    update.executeUpdateDelete();
+                }
+            }
+            // 回填后再建索引，避免逐行更新索引
+            db.execSQL("CREATE INDEX IF NOT EXISTS index_location_records_spatialKey ON location_records (spatialKey)");
+        }
+    };
+
+    /** v6 → v7：热力图瓦片表（建空表，瓦片在首次访问时从 location_records 重建） */
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS heatmap_tiles ("
+                    + "zoom INTEGER NOT NULL, "
+                    + "x INTEGER NOT NULL, "
+                    + "y INTEGER NOT NULL, "
+                    + "counts BLOB NOT NULL, "
+                    + "total INTEGER NOT NULL, "
+                    + "throughId INTEGER NOT NULL, "
+                    + "PRIMARY KEY(zoom, x, y))");
+        }
+    };
+
+    /**
+     * v7 → v8：定位点累计里程 / 用时列（按会话重放回填，用时从 session_summaries.startedAt 起算）
+     * + 会话汇总的分段与最快用时列。
+     * 旧会话的汇总不在迁移中计算（splits 留空），由 Plugin 首次查询时按新列回填。
+     */
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE location_records ADD COLUMN cumDistance REAL NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE location_records ADD COLUMN elapsedMs INTEGER NOT NULL DEFAULT 0");
+            SupportSQLiteStatement update = db.compileStatement(
+                    "UPDATE location_records SET cumDistance = ?, elapsedMs = ? WHERE id = ?");
+            BestEfforts efforts = new BestEfforts();
+            // 用时与实时路径一致从 startedAt 起算（早于首个定位）；没有汇总行的会话退回首点
+            try (Cursor cursor = db.query("SELECT r.id, r.sessionId, r.latitude, r.longitude, r.timestamp, "
+                    + "IFNULL(s.startedAt, 0) FROM location_records r "
+                    + "LEFT JOIN session_summaries s ON s.sessionId = r.sessionId "
+                    + "WHERE r.sessionId != 'idle' ORDER BY r.sessionId, r.timestamp")) {
+                while (cursor.moveToNext()) {
+                    String sessionId = cursor.getString(1);
+                    if (!sessionId.equals(efforts.getSessionId())) efforts.reset(sessionId);
+                    efforts.onPoint(cursor.getDouble(2), cursor.getDouble(3), cursor.getLong(4), cursor.getLong(5));
+                    update.bindDouble(1, efforts.getDistance());
+                    update.bindLong(2, efforts.getElapsed());
+                    update.bindLong(3, cursor.getLong(0));
+                    update.executeUpdateDelete();
+                }
+            }
+            db.execSQL("ALTER TABLE session_summaries ADD COLUMN distance REAL NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE session_summaries ADD COLUMN durationMs INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE session_summaries ADD COLUMN best1kMs INTEGER");
+            db.execSQL("ALTER TABLE session_summaries ADD COLUMN best5kMs INTEGER");
+            db.execSQL("ALTER TABLE session_summaries ADD COLUMN best10kMs INTEGER");
+            db.execSQL("ALTER TABLE session_summaries ADD COLUMN splits TEXT");
+        }
+    };
+
+    /**
+     * v8 → v9：原生上传确认列。此前原生上传与 JS 共用 isAcked，已确认的点无法区分来源，
+     * 一律视为服务端已有（两条路径都已送达），回填 isUploaded = isAcked，避免升级后整批重传。
+     * 升级后 JS 的确认（setPointsAcked）同样置 isUploaded，见 LocationEntity 的上传归属说明。
+     */
+    static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE location_records ADD COLUMN isUploaded INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("UPDATE location_records SET isUploaded = isAcked");
+            db.execSQL("CREATE INDEX IF NOT EXISTS index_location_records_sessionId_isUploaded "
+                    + "ON location_records (sessionId, isUploaded)");
+        }
+    };
+
+    static final Migration[] ALL = {
+            MIGRATION_1_2,
+            MIGRATION_2_3,
+            MIGRATION_3_4,
+            MIGRATION_4_5,
+            MIGRATION_5_6,
+            MIGRATION_6_7,
+            MIGRATION_7_8,
+            MIGRATION_8_9,
+    };
+}
@@ -0,0 +1,15 @@
+package com.xiangfei.citylord.db;
+
+/**
+ * 跨会话最快用时记录（SessionSummaryDao.getBest1k / getBest5k / getBest10k）。
+ */
+public class PersonalRecord {
+
+    public String sessionId;
+
+    /** 该会话的开始时间（毫秒） */
+    public long startedAt;
+
+    /** 最快用时（毫秒） */
+    public long durationMs;
+}
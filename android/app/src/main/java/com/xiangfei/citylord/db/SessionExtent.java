@@ -0,0 +1,18 @@
+package com.xiangfei.citylord.db;
+
+/**
+ * 单个会话的点数 / 时间跨度 / 里程（LocationDao.getSessionExtent），导出时在流式写点之前写入汇总字段。
+ */
+public class SessionExtent {
+
+    public int pointCount;
+
+    /** 首点时间戳（毫秒），无记录时为 0 */
+    public long firstTimestamp;
+
+    /** 末点时间戳（毫秒），无记录时为 0 */
+    public long lastTimestamp;
+
+    /** 累计里程（米，cumDistance 最大值） */
+    public double distance;
+}
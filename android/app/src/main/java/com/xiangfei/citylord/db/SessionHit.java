@@ -0,0 +1,16 @@
+package com.xiangfei.citylord.db;
+
+/**
+ * 空间查询结果：某个跑步会话在查询区域内的落点统计（LocationDao.getSessionsInBounds）。
+ */
+public class SessionHit {
+
+    public String sessionId;
+
+    /** 区域内的定位点数 */
+    public int pointCount;
+
+    /** 区域内首个 / 最后一个点的时间戳（毫秒） */
+    public long firstTimestamp;
+    public long lastTimestamp;
+}
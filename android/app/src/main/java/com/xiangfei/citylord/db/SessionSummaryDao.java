@@ -0,0 +1,38 @@
+package com.xiangfei.citylord.db;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+/**
+ * Room DAO：跑步会话汇总。
+ *
+ * 同 LocationDao，所有方法同步执行，调用方须在后台线程调用。
+ */
+@Dao
+public interface SessionSummaryDao {
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsert(SessionSummaryEntity entity);
+
+    @Query("SELECT * FROM session_summaries WHERE sessionId = :sessionId")
+    SessionSummaryEntity get(String sessionId);
+
+    /** 全部会话中最快的 1 / 5 / 10 公里（无记录时为 null） */
+    @Query("SELECT sessionId, startedAt, best1kMs AS durationMs FROM session_summaries "
+            + "WHERE best1kMs IS NOT NULL ORDER BY best1kMs LIMIT 1")
+    PersonalRecord getBest1k();
+
+    @Query("SELECT sessionId, startedAt, best5kMs AS durationMs FROM session_summaries "
+            + "WHERE best5kMs IS NOT NULL ORDER BY best5kMs LIMIT 1")
+    PersonalRecord getBest5k();
+
+    @Query("SELECT sessionId, startedAt, best10kMs AS durationMs FROM session_summaries "
+            + "WHERE best10kMs IS NOT NULL ORDER BY best10kMs LIMIT 1")
+    PersonalRecord getBest10k();
+
+    /** 单次最长里程（米） */
+    @Query("SELECT MAX(distance) FROM session_summaries")
+    Double getLongestDistance();
+}
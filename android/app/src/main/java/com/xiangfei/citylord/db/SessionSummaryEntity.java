@@ -0,0 +1,70 @@
+package com.xiangfei.citylord.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * Room 实体：跑步会话汇总（每个会话一行）。
+ *
+ * 由 Service 在跑步中周期性 REPLACE 写入（非每个定位点），服务被杀恢复后读回以接续累计值。
+ * 高度相关字段来自气压计（ElevationTracker）；设备无气压计时 hasBarometer = false，其余为 0 / null。
+ * 里程 / 分段 / 最快用时来自 BestEfforts；splits 为 null 表示尚未计算（v8 之前的会话由 Plugin 按需回填）。
+ */
+@Entity(tableName = "session_summaries")
+public class SessionSummaryEntity {
+
+    /** 跑步会话 ID（runId） */
+    @PrimaryKey
+    @NonNull
+    @ColumnInfo(name = "sessionId")
+    public String sessionId = "";
+
+    /** 跑步开始时间（ms since epoch） */
+    @ColumnInfo(name = "startedAt")
+    public long startedAt;
+
+    /** 最近一次写入时间 */
+    @ColumnInfo(name = "updatedAt")
+    public long updatedAt;
+
+    /** 累计爬升（米） */
+    @ColumnInfo(name = "elevationGain")
+    public double elevationGain;
+
+    /** 累计下降（米） */
+    @ColumnInfo(name = "elevationLoss")
+    public double elevationLoss;
+
+    /** 会话内最低 / 最高气压高度（米），无气压读数时为 null */
+    @ColumnInfo(name = "minAltitude")
+    public Double minAltitude;
+
+    @ColumnInfo(name = "maxAltitude")
+    public Double maxAltitude;
+
+    @ColumnInfo(name = "hasBarometer")
+    public boolean hasBarometer;
+
+    /** 累计里程（米）/ 用时（毫秒） */
+    @ColumnInfo(name = "distance", defaultValue = "0")
+    public double distance;
+
+    @ColumnInfo(name = "durationMs", defaultValue = "0")
+    public long durationMs;
+
+    /** 会话内最快 1 / 5 / 10 公里用时（毫秒），未跑到该距离时为 null */
+    @ColumnInfo(name = "best1kMs")
+    public Long best1kMs;
+
+    @ColumnInfo(name = "best5kMs")
+    public Long best5kMs;
+
+    @ColumnInfo(name = "best10kMs")
+    public Long best10kMs;
+
+    /** 每公里分段用时（毫秒，逗号分隔，不含末尾不足 1 公里的部分） */
+    @ColumnInfo(name = "splits")
+    public String splits;
+}
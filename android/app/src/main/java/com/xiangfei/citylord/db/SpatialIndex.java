@@ -0,0 +1,252 @@
+package com.xiangfei.citylord.db;
+
+import androidx.sqlite.db.SimpleSQLiteQuery;
+import androidx.sqlite.db.SupportSQLiteQuery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * location_records 的空间索引：Z 序（Morton）键 + 普通 B-tree 索引。
+ *
+ * 为什么不用 SQLite R-tree 虚表：Android 各版本系统 SQLite 是否编译 RTREE 模块不统一，
+ * 且虚表不受 Room 管理，插入 / 清理都要另写触发器同步。这里改为在行上存一列 spatialKey：
+ *  - 经纬度各量化为 31 位（约 2 cm），按位交错成 62 位 Z 序键；
+ *  - 键是行的一部分，insert / purge / 坐标修正天然同步，无需额外维护；
+ *  - 矩形查询先按四叉树把矩形拆成至多 MAX_RANGES 段连续键区间（BETWEEN 走索引，
+ *    SQLite 对 OR 连接的区间逐段走索引再合并），再用经纬度精确过滤边缘格的多余行。
+ *
+ * 半径查询取外接矩形后在 Java 侧按距离过滤。不处理跨 180° 经线的矩形（国内业务不涉及）。
+ */
+public final class SpatialIndex {
+
+    /** 单轴量化位数 */
+    static final int BITS = 31;
+    /** 矩形拆分出的键区间上限（每段 2 个绑定参数） */
+    public static final int MAX_RANGES = 32;
+
+    private static final long AXIS_CELLS = 1L << BITS;
+    private static final double METERS_PER_DEG = 6378137.0 * Math.PI / 180.0;
+
+    private SpatialIndex() {
+    }
+
+    // -------------------------------------------------------------------
+    // Key
+    // -------------------------------------------------------------------
+
+    /** 经纬度 → Z 序键（经度占偶数位、纬度占奇数位） */
+    public static long key(double lat, double lng) {
+        return interleave(quantizeLng(lng), quantizeLat(lat));
+    }
+
+    static int quantizeLat(double lat) {
+        return quantize((lat + 90.0) / 180.0);
+    }
+
+    static int quantizeLng(double lng) {
+        return quantize((lng + 180.0) / 360.0);
+    }
+
+    private static int quantize(double unit) {
+        long q = (long) Math.floor(unit * AXIS_CELLS);
+        if (q < 0) return 0;
+        if (q >= AXIS_CELLS) return (int) (AXIS_CELLS - 1);
+        return (int) q;
+    }
+
+    static long interleave(int x, int y) {
+        return spread(x) | (spread(y) << 1);
+    }
+
+    /** 32 位整数的各位拉开一位间隔 */
+    private static long spread(int value) {
+        long v = value & 0xFFFFFFFFL;
+        v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+        v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+        v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | (v << 2)) & 0x3333333333333333L;
+        v = (v | (v << 1)) & 0x5555555555555555L;
+        return v;
+    }
+
+    // -------------------------------------------------------------------
+    // Range decomposition
+    // -------------------------------------------------------------------
+
+    /**
+     * 把矩形拆成按键升序、互不重叠的闭区间 {lo0, hi0, lo1, hi1, ...}。
+     *
+     * 自顶向下逐层细分四叉树：完全落在矩形内的格直接输出为一段区间，与边界相交的格继续细分；
+     * 细分后可能超过 maxRanges 时停止，把剩余边界格整格输出（多出的行由经纬度条件过滤）。
+     * 相邻区间最后合并。
+     */
+    public static long[] ranges(double minLat, double minLng, double maxLat, double maxLng, int maxRanges) {
+        if (minLat > maxLat || minLng > maxLng) {
+            throw new IllegalArgumentException("empty or antimeridian-crossing bounds");
+        }
+        int x0 = quantizeLng(minLng);
+        int x1 = quantizeLng(maxLng);
+        int y0 = quantizeLat(minLat);
+        int y1 = quantizeLat(maxLat);
+
+        List<long[]> out = new ArrayList<>();
+        // 当前层与矩形相交的格（左下角量化坐标）
+        int[] cellX = {0};
+        int[] cellY = {0};
+        int cells = 1;
+        long size = AXIS_CELLS;
+        while (cells > 0) {
+            int[] partialX = new int[cells];
+            int[] partialY = new int[cells];
+            int partial = 0;
+            for (int i = 0; i < cells; i++) {
+                long cx = cellX[i];
+                long cy = cellY[i];
+                if (cx >= x0 && cx + size - 1 <= x1 && cy >= y0 && cy + size - 1 <= y1) {
+                    out.add(cellRange(cellX[i], cellY[i], size));
+                } else {
+                    partialX[partial] = cellX[i];
+                    partialY[partial] = cellY[i];
+                    partial++;
+                }
+            }
+            if (partial == 0) break;
+            if (size == 1 || out.size() + partial * 4 > maxRanges) {
+                for (int i = 0; i < partial; i++) {
+                    out.add(cellRange(partialX[i], partialY[i], size));
+                }
+                break;
+            }
+
+            long half = size >> 1;
+            int[] nextX = new int[partial * 4];
+            int[] nextY = new int[partial * 4];
+            int next = 0;
+            for (int i = 0; i < partial; i++) {
+                for (int k = 0; k < 4; k++) {
+                    long cx = partialX[i] + ((k & 1) != 0 ? half : 0);
+                    long cy = partialY[i] + ((k & 2) != 0 ? half : 0);
+                    if (cx > x1 || cx + half - 1 < x0 || cy > y1 || cy + half - 1 < y0) continue;
+                    nextX[next] = (int) cx;
+                    nextY[next] = (int) cy;
+                    next++;
+                }
+            }
+            cellX = nextX;
+            cellY = nextY;
+            cells = next;
+            size = half;
+        }
+        return merge(out);
+    }
+
+    private static long[] cellRange(int x, int y, long size) {
+        long lo = interleave(x, y);
+        return new long[]{lo, lo + size * size - 1};
+    }
+
+    private static long[] merge(List<long[]> ranges) {
+        ranges.sort((a, b) -> Long.compare(a[0], b[0]));
+        long[] out = new long[ranges.size() * 2];
+        int n = 0;
+        for (long[] range : ranges) {
+            if (n > 0 && out[n - 1] + 1 >= range[0]) {
+                out[n - 1] = Math.max(out[n - 1], range[1]);
+            } else {
+                out[n++] = range[0];
+                out[n++] = range[1];
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    // -------------------------------------------------------------------
+    // SQL
+    // -------------------------------------------------------------------
+
+    /**
+     * 矩形内的定位点，按 sessionId、timestamp 排序。
+     *
+     * @param sessionId null 表示跨所有会话
+     * @param limit     ≤ 0 表示不限
+     */
+    static SupportSQLiteQuery pointsInBounds(double minLat, double minLng, double maxLat, double maxLng,
+                                             String sessionId, int limit) {
+        List<Object> args = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT * FROM location_records WHERE ");
+        appendBoundsFilter(sql, args, minLat, minLng, maxLat, maxLng);
+        if (sessionId != null) {
+            sql.append(" AND sessionId = ?");
+            args.add(sessionId);
+        }
+        sql.append(" ORDER BY sessionId, timestamp");
+        if (limit > 0) {
+            sql.append(" LIMIT ").append(limit);
+        }
+        return new SimpleSQLiteQuery(sql.toString(), args.toArray());
+    }
+
+    /** 经过矩形的跑步会话（不含 idle），最近的在前 */
+    static SupportSQLiteQuery sessionsInBounds(double minLat, double minLng, double maxLat, double maxLng) {
+        List<Object> args = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT sessionId, COUNT(*) AS pointCount, "
+                + "MIN(timestamp) AS firstTimestamp, MAX(timestamp) AS lastTimestamp "
+                + "FROM location_records WHERE ");
+        appendBoundsFilter(sql, args, minLat, minLng, maxLat, maxLng);
+        sql.append(" AND sessionId != 'idle' GROUP BY sessionId ORDER BY lastTimestamp DESC");
+        return new SimpleSQLiteQuery(sql.toString(), args.toArray());
+    }
+
+    /**
+     * 矩形内 id > afterId 的跑步轨迹点（不含 idle 与航位推算插值点），只取 id / latitude / longitude，
+     * 按 id 升序。供热力图瓦片补算，调用方以 Cursor 流式读取。
+     */
+    public static SupportSQLiteQuery trackPointsAfter(double minLat, double minLng, double maxLat, double maxLng,
+                                                      long afterId) {
+        List<Object> args = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT id, latitude, longitude FROM location_records WHERE ");
+        appendBoundsFilter(sql, args, minLat, minLng, maxLat, maxLng);
+        sql.append(" AND id > ? AND sessionId != 'idle' AND isInterpolated = 0 ORDER BY id");
+        args.add(afterId);
+        return new SimpleSQLiteQuery(sql.toString(), args.toArray());
+    }
+
+    private static void appendBoundsFilter(StringBuilder sql, List<Object> args,
+                                           double minLat, double minLng, double maxLat, double maxLng) {
+        long[] ranges = ranges(minLat, minLng, maxLat, maxLng, MAX_RANGES);
+        sql.append('(');
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (i > 0) sql.append(" OR ");
+            sql.append("spatialKey BETWEEN ? AND ?");
+            args.add(ranges[i]);
+            args.add(ranges[i + 1]);
+        }
+        sql.append(") AND latitude BETWEEN ? AND ? AND longitude BETWEEN ? AND ?");
+        args.add(minLat);
+        args.add(maxLat);
+        args.add(minLng);
+        args.add(maxLng);
+    }
+
+    // -------------------------------------------------------------------
+    // Radius helpers
+    // -------------------------------------------------------------------
+
+    /** 圆的外接矩形 {minLat, minLng, maxLat, maxLng} */
+    static double[] boundsAround(double lat, double lng, double radiusM) {
+        double dLat = radiusM / METERS_PER_DEG;
+        double dLng = radiusM / (METERS_PER_DEG * Math.max(Math.cos(Math.toRadians(lat)), 1e-6));
+        return new double[]{
+                Math.max(-90.0, lat - dLat), Math.max(-180.0, lng - dLng),
+                Math.min(90.0, lat + dLat), Math.min(180.0, lng + dLng)};
+    }
+
+    /** 两点间距离（米，等距圆柱近似，查询半径在数公里内误差可忽略） */
+    static double distanceMeters(double lat1, double lng1, double lat2, double lng2) {
+        double x = (lng2 - lng1) * METERS_PER_DEG * Math.cos(Math.toRadians((lat1 + lat2) / 2.0));
+        double y = (lat2 - lat1) * METERS_PER_DEG;
+        return Math.hypot(x, y);
+    }
+}
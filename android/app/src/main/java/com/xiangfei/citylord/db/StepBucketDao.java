@@ -0,0 +1,50 @@
+package com.xiangfei.citylord.db;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import com.xiangfei.citylord.StepBuckets;
+
+import java.util.List;
+
+/**
+ * Room DAO：分钟级步数桶。
+ *
+ * 同 LocationDao，所有方法同步执行，调用方须在后台线程调用。
+ */
+@Dao
+public interface StepBucketDao {
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsert(StepBucketEntity entity);
+
+    @Query("SELECT * FROM step_buckets WHERE hourStart = :hourStart")
+    StepBucketEntity get(long hourStart);
+
+    /** [fromHour, toHour] 范围内的小时桶，按时间升序 */
+    @Query("SELECT * FROM step_buckets WHERE hourStart >= :fromHour AND hourStart <= :toHour ORDER BY hourStart ASC")
+    List<StepBucketEntity> getRange(long fromHour, long toHour);
+
+    @Query("DELETE FROM step_buckets WHERE hourStart < :beforeHour")
+    int purgeOlderThan(long beforeHour);
+
+    /**
+     * 把一小时内新增的分钟步数累加进已有行（进程重启后同一小时会多次写入，不能直接覆盖）。
+     */
+    @Transaction
+    default void addCounts(long hourStart, int[] minuteDeltas) {
+        StepBucketEntity existing = get(hourStart);
+        int[] merged = existing != null ? StepBuckets.decode(existing.counts) : new int[StepBuckets.MINUTES_PER_HOUR];
+        for (int i = 0; i < merged.length && i < minuteDeltas.length; i++) {
+            merged[i] += minuteDeltas[i];
+        }
+        StepBucketEntity entity = new StepBucketEntity();
+        entity.hourStart = hourStart;
+        entity.counts = StepBuckets.encode(merged);
+        entity.total = StepBuckets.sum(merged);
+        upsert(entity);
+    }
+}
@@ -0,0 +1,31 @@
+package com.xiangfei.citylord.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * Room 实体：每小时一行的分钟级步数桶。
+ *
+ * 一小时 60 个分钟桶打包为 120 字节 BLOB（uint16 大端，单分钟上限 65535 步），
+ * 比“每分钟一行”少约 60 倍的行数与索引开销，按小时 REPLACE 写入。
+ * 编解码见 StepBuckets.encode / decode。
+ */
+@Entity(tableName = "step_buckets")
+public class StepBucketEntity {
+
+    /** 小时起点（epoch ms，按 UTC 整点对齐） */
+    @PrimaryKey
+    @ColumnInfo(name = "hourStart")
+    public long hourStart;
+
+    /** 60 个分钟桶，uint16 大端 */
+    @NonNull
+    @ColumnInfo(name = "counts", typeAffinity = ColumnInfo.BLOB)
+    public byte[] counts = new byte[0];
+
+    /** 本小时总步数（冗余，便于按天汇总时不解包） */
+    @ColumnInfo(name = "total")
+    public int total;
+}
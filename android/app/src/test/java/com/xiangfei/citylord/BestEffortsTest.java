@@ -0,0 +1,147 @@
+package com.xiangfei.citylord;
+
+import static org.junit.Assert.*;
+
+import com.xiangfei.citylord.db.SessionSummaryEntity;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BestEffortsTest {
+
+    private static final double LAT = 30.27;
+    private static final double LNG = 120.15;
+    private static final double METERS_PER_DEG = 6378137.0 * Math.PI / 180.0;
+    private static final long T0 = 1_700_000_000_000L;
+
+    /** 每秒一个点正北匀速跑：{公里数, 每公里秒数} 依次拼接，返回各点 {lat, lng, timestamp} */
+    private static List<double[]> run(double[][] legs) {
+        List<double[]> points = new ArrayList<>();
+        double lat = LAT;
+        long t = T0;
+        points.add(new double[]{lat, LNG, t});
+        for (double[] leg : legs) {
+            int seconds = (int) Math.round(leg[0] * leg[1]);
+            double speed = 1000.0 / leg[1];
+            for (int i = 0; i < seconds; i++) {
+                lat += speed / METERS_PER_DEG;
+                t += 1000;
+                points.add(new double[]{lat, LNG, t});
+            }
+        }
+        return points;
+    }
+
+    private static BestEfforts feed(List<double[]> points, long startedAt) {
+        BestEfforts efforts = new BestEfforts();
+        efforts.reset("run-1");
+        for (double[] p : points) efforts.onPoint(p[0], p[1], (long) p[2], startedAt);
+        return efforts;
+    }
+
+    /** 3 公里 5:00 配速 + 4 公里 4:00 配速 + 1 公里 6:00 配速 */
+    private static List<double[]> twoPaceRun() {
+        return run(new double[][]{{3, 300}, {4, 240}, {1, 360}});
+    }
+
+    @Test
+    public void bestEffortsOnTwoPaceRun() {
+        BestEfforts efforts = feed(twoPaceRun(), 0);
+        assertEquals(8000, efforts.getDistance(), 0.01);
+        assertEquals(3 * 300_000 + 4 * 240_000 + 360_000, efforts.getElapsed());
+        // 最快 1 公里落在快段内
+        assertEquals(240_000, efforts.getBest(0), 2);
+        // 最快 5 公里：快段 4 公里 + 其前 1 公里慢段（优于其后 6:00 的 1 公里）
+        assertEquals(4 * 240_000 + 300_000, efforts.getBest(1), 2);
+        assertEquals(-1, efforts.getBest(2));
+    }
+
+    @Test
+    public void splitsPerKilometer() {
+        BestEfforts efforts = feed(twoPaceRun(), 0);
+        assertEquals(8, efforts.getSplitCount());
+        long[] expected = {300_000, 300_000, 300_000, 240_000, 240_000, 240_000, 240_000, 360_000};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], efforts.getSplit(i), 2);
+        }
+    }
+
+    @Test
+    public void elapsedCountsFromStartedAt() {
+        List<double[]> points = run(new double[][]{{1, 300}});
+        BestEfforts efforts = feed(points, T0 - 8_000);
+        assertEquals(308_000, efforts.getElapsed());
+        // 首个分段包含等待首个定位的时间，最快 1 公里不包含
+        assertEquals(308_000, efforts.getSplit(0), 2);
+        assertEquals(300_000, efforts.getBest(0), 2);
+    }
+
+    @Test
+    public void replayMatchesLiveFeed() {
+        List<double[]> points = twoPaceRun();
+        BestEfforts live = new BestEfforts();
+        BestEfforts replayed = new BestEfforts();
+        live.reset("run-1");
+        replayed.reset("run-1");
+        for (double[] p : points) {
+            live.onPoint(p[0], p[1], (long) p[2], 0);
+            replayed.replay(live.getDistance(), live.getElapsed(), p[0], p[1], (long) p[2]);
+        }
+        for (int k = 0; k < BestEfforts.TARGET_METERS.length; k++) {
+            assertEquals(live.getBest(k), replayed.getBest(k));
+        }
+        assertEquals(live.getSplitCount(), replayed.getSplitCount());
+
+        // 恢复后接续：回放前半段，再实时喂后半段
+        BestEfforts resumed = new BestEfforts();
+        resumed.reset("run-1");
+        BestEfforts reference = new BestEfforts();
+        reference.reset("run-1");
+        int half = points.size() / 2;
+        for (int i = 0; i < points.size(); i++) {
+            double[] p = points.get(i);
+            reference.onPoint(p[0], p[1], (long) p[2], 0);
+            if (i < half) {
+                resumed.replay(reference.getDistance(), reference.getElapsed(), p[0], p[1], (long) p[2]);
+            } else {
+                resumed.onPoint(p[0], p[1], (long) p[2], 0);
+            }
+        }
+        assertEquals(reference.getDistance(), resumed.getDistance(), 1e-6);
+        assertEquals(reference.getBest(1), resumed.getBest(1));
+    }
+
+    @Test
+    public void ignoresJitterAndDrift() {
+        BestEfforts efforts = new BestEfforts();
+        efforts.reset("run-1");
+        efforts.onPoint(LAT, LNG, T0, 0);
+        efforts.onPoint(LAT + 0.3 / METERS_PER_DEG, LNG, T0 + 1000, 0);
+        assertEquals(0, efforts.getDistance(), 0.0);
+        efforts.onPoint(LAT + 500 / METERS_PER_DEG, LNG, T0 + 2000, 0);
+        assertEquals(0, efforts.getDistance(), 0.0);
+        efforts.onPoint(LAT + 510 / METERS_PER_DEG, LNG, T0 + 3000, 0);
+        assertEquals(10, efforts.getDistance(), 1e-6);
+    }
+
+    @Test
+    public void fillSummaryAndSplitEncoding() {
+        BestEfforts efforts = feed(run(new double[][]{{2.5, 300}}), 0);
+        SessionSummaryEntity summary = new SessionSummaryEntity();
+        efforts.fillSummary(summary);
+        assertEquals(2500, summary.distance, 0.01);
+        assertEquals(750_000, summary.durationMs);
+        assertNotNull(summary.best1kMs);
+        assertNull(summary.best5kMs);
+        assertNull(summary.best10kMs);
+        long[] splits = BestEfforts.parseSplits(summary.splits);
+        assertEquals(2, splits.length);
+        assertEquals(efforts.getSplit(1), splits[1]);
+
+        assertEquals(0, BestEfforts.parseSplits(null).length);
+        assertEquals(0, BestEfforts.parseSplits("").length);
+        assertEquals("", BestEfforts.formatSplits(new long[0], 0));
+    }
+}
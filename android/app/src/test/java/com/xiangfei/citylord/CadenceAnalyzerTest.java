@@ -0,0 +1,93 @@
+package com.xiangfei.citylord;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class CadenceAnalyzerTest {
+
+    private static final int RATE_HZ = 50;
+    private static final long START_NS = 5_000_000_000L;
+
+    /**
+     * 以约 RATE_HZ（±2 ms 抖动）推入竖直方向正弦加速度 + 高斯噪声，返回最后一次分析结果。
+     *
+     * @param spm       步频；0 表示只有噪声
+     * @param amplitude 正弦幅值（m/s²）
+     * @param noise     噪声标准差（m/s²）
+     */
+    private static CadenceAnalyzer.Result run(CadenceAnalyzer analyzer, float spm, float amplitude, float noise,
+                                              double seconds, long seed) {
+        Random random = new Random(seed);
+        double stepHz = spm / 60.0;
+        long periodNs = 1_000_000_000L / RATE_HZ;
+        for (long t = START_NS; t < START_NS + (long) (seconds * 1e9); ) {
+            double s = (t - START_NS) / 1e9;
+            float z = (float) (CadenceAnalyzer.GRAVITY + amplitude * Math.sin(2 * Math.PI * stepHz * s)
+                    + random.nextGaussian() * noise);
+            float x = (float) (random.nextGaussian() * noise);
+            analyzer.push(t, x, 0f, z);
+            t += periodNs + (random.nextInt(5) - 2) * 1_000_000L;
+        }
+        CadenceAnalyzer.Result result = new CadenceAnalyzer.Result();
+        analyzer.copyResult(result);
+        return result;
+    }
+
+    @Test
+    public void detectsStepRatesAcrossRange() {
+        for (float spm : new float[]{90f, 150f, 175f, 230f}) {
+            CadenceAnalyzer.Result result = run(new CadenceAnalyzer(RATE_HZ), spm, 4f, 0.8f, 8, (long) spm);
+            assertTrue("no analysis at " + spm, result.analyses > 0);
+            assertEquals("cadence at " + spm, spm, result.cadenceSpm, spm * 0.03f);
+            assertTrue(result.confidence >= CadenceAnalyzer.MIN_CONFIDENCE);
+            assertTrue(result.peakG > 1.2f);
+            assertTrue(result.groundContactMs > 0f);
+        }
+    }
+
+    @Test
+    public void stationaryReportsZero() {
+        CadenceAnalyzer.Result result = run(new CadenceAnalyzer(RATE_HZ), 0f, 0f, 0.1f, 8, 1);
+        assertTrue(result.analyses > 0);
+        assertEquals(0f, result.cadenceSpm, 0f);
+        assertEquals(0f, result.confidence, 0f);
+    }
+
+    @Test
+    public void aperiodicNoiseBelowConfidenceReportsZero() {
+        CadenceAnalyzer.Result result = run(new CadenceAnalyzer(RATE_HZ), 0f, 0f, 2.0f, 8, 2);
+        assertTrue(result.analyses > 0);
+        assertEquals(0f, result.cadenceSpm, 0f);
+    }
+
+    @Test
+    public void firstAnalysisWaitsForFullWindow() {
+        CadenceAnalyzer analyzer = new CadenceAnalyzer(RATE_HZ);
+        CadenceAnalyzer.Result result = run(analyzer, 160f, 4f, 0.3f, CadenceAnalyzer.WINDOW_SECONDS - 0.5, 4);
+        assertEquals(0, result.analyses);
+    }
+
+    @Test
+    public void eventGapRefillsWindowAndResetClearsResult() {
+        CadenceAnalyzer analyzer = new CadenceAnalyzer(RATE_HZ);
+        CadenceAnalyzer.Result result = run(analyzer, 160f, 4f, 0.3f, 8, 5);
+        long analyses = result.analyses;
+        assertTrue(analyses > 0);
+
+        // 超过 0.5 s 的事件间隔后窗口重新填充，填满前不再分析
+        long t = START_NS + 20_000_000_000L;
+        for (int i = 0; i < RATE_HZ * 2; i++, t += 20_000_000L) {
+            assertFalse(analyzer.push(t, 0f, 0f, CadenceAnalyzer.GRAVITY + (float) Math.sin(i)));
+        }
+        analyzer.copyResult(result);
+        assertEquals(analyses, result.analyses);
+
+        analyzer.reset();
+        analyzer.copyResult(result);
+        assertEquals(0f, result.cadenceSpm, 0f);
+        assertEquals(0f, result.peakG, 0f);
+    }
+}
@@ -0,0 +1,106 @@
+package com.xiangfei.citylord;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class DeadReckonerTest {
+
+    private static final double LAT = 39.9;
+    private static final double LNG = 116.4;
+
+    @Test
+    public void noEstimatesBeforeOutage() {
+        DeadReckoner dr = new DeadReckoner();
+        dr.onStepCount(1000, 0);
+        dr.onGoodFix(LAT, LNG, 0, 90f, 3f);
+        for (int i = 1; i <= 4; i++) {
+            assertNull(dr.onStepCount(1000 + i * 3, i * 1000L));
+        }
+        assertFalse(dr.isOutage(DeadReckoner.OUTAGE_AFTER_MS));
+        assertTrue(dr.isOutage(DeadReckoner.OUTAGE_AFTER_MS + 1));
+        assertEquals(0, dr.pendingCount());
+    }
+
+    @Test
+    public void reckonsAlongBearingAndReconcilesOnNextFix() {
+        DeadReckoner dr = new DeadReckoner();
+        dr.onStepCount(1000, 0);
+        dr.onGoodFix(LAT, LNG, 0, 90f, 3f);
+
+        // 断档：每 10 步推进 7.5 米，正东方向
+        DeadReckoner.Estimate last = null;
+        for (int i = 1; i <= 4; i++) {
+            DeadReckoner.Estimate e = dr.onStepCount(1000 + i * 10, 5000L + i * 1000);
+            assertNotNull(e);
+            assertEquals(i - 1, e.index);
+            assertEquals(10 * DeadReckoner.DEFAULT_STRIDE_M, e.stepDistance, 1e-9);
+            assertEquals(LAT, e.lat, 1e-6);
+            assertEquals(i * 7.5, DeadReckoner.distance(LAT, LNG, e.lat, e.lng), 0.01);
+            last = e;
+        }
+        assertEquals(4, dr.pendingCount());
+        assertTrue(last.accuracy > 5f);
+
+        // 真实位置在起点正东 40 米：误差 10 米按累计推算距离线性分摊，终点与真实定位重合
+        double[] fix = DeadReckoner.destination(LAT, LNG, 90.0, 40.0);
+        DeadReckoner.Reconciliation r = dr.onGoodFix(fix[0], fix[1], 10_000L, 90f, 3f);
+        assertNotNull(r);
+        assertEquals(4, r.count());
+        assertEquals(30.0, r.reckonedMeters, 1e-9);
+        assertEquals(10.0, r.errorMeters, 0.01);
+        assertEquals(fix[0], r.lat[3], 1e-9);
+        assertEquals(fix[1], r.lng[3], 1e-9);
+        for (int i = 0; i < 4; i++) {
+            assertEquals((i + 1) * 10.0, DeadReckoner.distance(LAT, LNG, r.lat[i], r.lng[i]), 0.01);
+        }
+        assertEquals(0, dr.pendingCount());
+    }
+
+    @Test
+    public void needsBearingBeforeReckoning() {
+        DeadReckoner dr = new DeadReckoner();
+        dr.onStepCount(0, 0);
+        // 静止、无方向角：没有可信方向，不推算
+        dr.onGoodFix(LAT, LNG, 0, 0f, 0f);
+        assertNull(dr.onStepCount(20, 6000));
+        assertEquals(0, dr.pendingCount());
+    }
+
+    @Test
+    public void learnsStrideFromGoodFixes() {
+        DeadReckoner dr = new DeadReckoner();
+        dr.onStepCount(0, 0);
+        dr.onGoodFix(LAT, LNG, 0, 90f, 3f);
+        dr.onStepCount(100, 1000);
+        double[] next = DeadReckoner.destination(LAT, LNG, 90.0, 100.0);
+        assertNull(dr.onGoodFix(next[0], next[1], 2000, 90f, 3f));
+        // 样本 1.0 m/步，EMA：0.75 × 0.8 + 1.0 × 0.2
+        assertEquals(0.8, dr.getStride(), 1e-6);
+    }
+
+    @Test
+    public void ignoresStepCounterResetAndImplausibleJumps() {
+        DeadReckoner dr = new DeadReckoner();
+        dr.onStepCount(1000, 0);
+        dr.onGoodFix(LAT, LNG, 0, 90f, 3f);
+        assertNull(dr.onStepCount(5, 5000));
+        assertNull(dr.onStepCount(5000, 6000));
+        assertNotNull(dr.onStepCount(5010, 7000));
+        assertEquals(1, dr.pendingCount());
+    }
+
+    @Test
+    public void resetKeepsLearnedStride() {
+        DeadReckoner dr = new DeadReckoner();
+        dr.setStride(1.1);
+        dr.setStride(5.0);
+        assertEquals(1.1, dr.getStride(), 0.0);
+        dr.onStepCount(0, 0);
+        dr.onGoodFix(LAT, LNG, 0, 90f, 3f);
+        dr.reset();
+        assertFalse(dr.isOutage(60_000));
+        assertNull(dr.onStepCount(10, 60_000));
+        assertEquals(1.1, dr.getStride(), 0.0);
+    }
+}
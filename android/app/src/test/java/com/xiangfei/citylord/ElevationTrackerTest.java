@@ -0,0 +1,110 @@
+package com.xiangfei.citylord;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ElevationTrackerTest {
+
+    private static final long SECOND_NS = 1_000_000_000L;
+
+    /** 标准大气下高度 h（米）对应的气压（hPa） */
+    private static float hPa(double h) {
+        return (float) (ElevationTracker.SEA_LEVEL_HPA * Math.pow(1.0 - h / 44330.0, 5.255));
+    }
+
+    /** 每秒一个读数，从 fromM 线性变化到 toM，返回下一个时间戳 */
+    private static long ramp(ElevationTracker tracker, long t, double fromM, double toM, int seconds) {
+        for (int i = 0; i <= seconds; i++, t += SECOND_NS) {
+            tracker.onPressure(hPa(fromM + (toM - fromM) * i / seconds), t);
+        }
+        return t;
+    }
+
+    @Test
+    public void pressureToAltitude() {
+        ElevationTracker tracker = new ElevationTracker();
+        tracker.onPressure((float) ElevationTracker.SEA_LEVEL_HPA, SECOND_NS);
+        assertEquals(0.0, tracker.getAltitude(), 0.1);
+
+        tracker = new ElevationTracker();
+        // 标准大气 1000 m ≈ 898.75 hPa
+        tracker.onPressure(898.75f, SECOND_NS);
+        assertEquals(1000.0, tracker.getAltitude(), 1.0);
+    }
+
+    @Test
+    public void noReadingIsNaN() {
+        ElevationTracker tracker = new ElevationTracker();
+        assertFalse(tracker.hasAltitude());
+        assertTrue(Double.isNaN(tracker.getAltitude()));
+        assertTrue(Double.isNaN(tracker.getMin()));
+        assertTrue(Double.isNaN(tracker.getMax()));
+        tracker.onPressure(0f, SECOND_NS);
+        assertFalse(tracker.hasAltitude());
+        assertEquals(0.0, tracker.getGain(), 0.0);
+    }
+
+    @Test
+    public void jitterBelowHysteresisAddsNothing() {
+        ElevationTracker tracker = new ElevationTracker();
+        long t = SECOND_NS;
+        for (int i = 0; i < 600; i++, t += SECOND_NS) {
+            tracker.onPressure(hPa(100.0 + (i % 2 == 0 ? 1.2 : -1.2)), t);
+        }
+        assertEquals(0.0, tracker.getGain(), 0.0);
+        assertEquals(0.0, tracker.getLoss(), 0.0);
+        assertEquals(100.0, tracker.getAltitude(), 1.5);
+    }
+
+    @Test
+    public void climbAndDescentAccumulate() {
+        ElevationTracker tracker = new ElevationTracker();
+        long t = ramp(tracker, SECOND_NS, 20, 20, 30);
+        t = ramp(tracker, t, 20, 70, 120);
+        t = ramp(tracker, t, 70, 70, 60);
+        t = ramp(tracker, t, 70, 30, 100);
+        ramp(tracker, t, 30, 30, 60);
+        // 滞回与低通只留下不足一个阈值的余量
+        assertEquals(50.0, tracker.getGain(), ElevationTracker.HYSTERESIS_M);
+        assertEquals(40.0, tracker.getLoss(), ElevationTracker.HYSTERESIS_M);
+        assertEquals(20.0, tracker.getMin(), 0.5);
+        assertEquals(70.0, tracker.getMax(), 0.5);
+        assertEquals(30.0, tracker.getAltitude(), 0.5);
+    }
+
+    @Test
+    public void spikeIsIgnored() {
+        ElevationTracker tracker = new ElevationTracker();
+        long t = ramp(tracker, SECOND_NS, 50, 50, 10);
+        tracker.onPressure(hPa(200), t);
+        ramp(tracker, t + SECOND_NS, 50, 50, 10);
+        assertEquals(0.0, tracker.getGain(), 0.0);
+        assertEquals(50.0, tracker.getMax(), 0.1);
+    }
+
+    @Test
+    public void longGapReseedsWithoutCounting() {
+        ElevationTracker tracker = new ElevationTracker();
+        long t = ramp(tracker, SECOND_NS, 50, 50, 10);
+        // 2 分钟无读数后已在 40 米之上
+        ramp(tracker, t + 120 * SECOND_NS, 90, 90, 10);
+        assertEquals(0.0, tracker.getGain(), 0.0);
+        assertEquals(90.0, tracker.getAltitude(), 0.1);
+        assertEquals(90.0, tracker.getMax(), 0.1);
+    }
+
+    @Test
+    public void resetAndSeedTotals() {
+        ElevationTracker tracker = new ElevationTracker();
+        ramp(tracker, SECOND_NS, 0, 30, 60);
+        assertTrue(tracker.getGain() > 20);
+        tracker.reset();
+        assertFalse(tracker.hasAltitude());
+        assertEquals(0.0, tracker.getGain(), 0.0);
+        assertTrue(Double.isNaN(tracker.getMax()));
+        tracker.seedTotals(120.5, 80.25);
+        assertEquals(120.5, tracker.getGain(), 0.0);
+        assertEquals(80.25, tracker.getLoss(), 0.0);
+    }
+}
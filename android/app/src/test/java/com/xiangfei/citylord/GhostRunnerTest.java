@@ -0,0 +1,160 @@
+package com.xiangfei.citylord;
+
+import static org.junit.Assert.*;
+
+import com.xiangfei.citylord.db.LocationEntity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class GhostRunnerTest {
+
+    private static final double LAT = 39.9;
+    private static final double LNG = 116.4;
+    private static final double METERS_PER_DEG = 6378137.0 * Math.PI / 180.0;
+    private static final long T0 = 1_700_000_000_000L;
+    /** 幽灵按下开始 5 秒后才拿到首个定位 */
+    private static final long FIRST_FIX_WAIT_MS = 5_000;
+
+    private final GhostRunner ghost = GhostRunner.getInstance();
+
+    /** 正北匀速 3 m/s：每 10 秒一个点、相距 30 米，共 101 个点（3 公里、1000 秒） */
+    private static final long[] timestamps = new long[101];
+    private static final double[] lats = new double[101];
+    private static final double[] lngs = new double[101];
+
+    static {
+        for (int i = 0; i <= 100; i++) {
+            timestamps[i] = T0 + i * 10_000L;
+            lats[i] = LAT + i * 30.0 / METERS_PER_DEG;
+            lngs[i] = LNG;
+        }
+    }
+
+    @Before
+    public void loadGhost() {
+        ghost.load("ghost-1", T0 - FIRST_FIX_WAIT_MS, timestamps, lats, lngs);
+    }
+
+    @Test
+    public void timeAxisStartsAtGhostStartedAt() {
+        assertEquals(3000, ghost.getTotalDistance(), 1e-6);
+        assertEquals(FIRST_FIX_WAIT_MS + 1_000_000, ghost.getDuration());
+
+        // 同样等待 5 秒首个定位、同样配速：并肩
+        GhostRunner.State s = ghost.onFix(FIRST_FIX_WAIT_MS + 100_000, 300);
+        assertEquals(300, s.ghostDistance, 1e-6);
+        assertEquals(0, s.leadMeters, 1e-6);
+        assertEquals(0, s.leadSeconds, 1e-6);
+        assertEquals(lats[10], s.ghostLat, 1e-12);
+        assertFalse(s.ghostFinished);
+    }
+
+    @Test
+    public void ghostWaitsAtStartBeforeItsFirstFix() {
+        GhostRunner.State s = ghost.onFix(2_000, 0);
+        assertEquals(0, s.ghostDistance, 0.0);
+        assertEquals(lats[0], s.ghostLat, 0.0);
+        assertEquals(lngs[0], s.ghostLng, 0.0);
+        assertEquals(0, s.leadMeters, 0.0);
+        assertFalse(s.ghostFinished);
+    }
+
+    @Test
+    public void withoutStartedAtFirstPointIsZero() {
+        ghost.load("ghost-1", 0, timestamps, lats, lngs);
+        assertEquals(1_000_000, ghost.getDuration());
+        assertEquals(300, ghost.onFix(100_000, 300).ghostDistance, 1e-6);
+        // 开始时刻晚于首点（数据异常）时同样以首点为零点
+        ghost.load("ghost-1", T0 + 1, timestamps, lats, lngs);
+        assertEquals(1_000_000, ghost.getDuration());
+    }
+
+    @Test
+    public void leadInMetersAndSeconds() {
+        // 用时 105 秒、已跑 330 米：幽灵此刻 300 米，到 330 米要 115 秒
+        GhostRunner.State s = ghost.onFix(FIRST_FIX_WAIT_MS + 100_000, 330);
+        assertEquals(30, s.leadMeters, 1e-6);
+        assertEquals(10, s.leadSeconds, 1e-6);
+        // 插值：用时 110 秒时幽灵在 315 米
+        s = ghost.onFix(FIRST_FIX_WAIT_MS + 105_000, 300);
+        assertEquals(315, s.ghostDistance, 1e-6);
+        assertEquals(-15, s.leadMeters, 1e-6);
+        assertEquals(-5, s.leadSeconds, 1e-6);
+    }
+
+    @Test
+    public void ghostStopsAtFinish() {
+        GhostRunner.State s = ghost.onFix(2_000_000, 3100);
+        assertTrue(s.ghostFinished);
+        assertEquals(3000, s.ghostDistance, 1e-6);
+        assertEquals(lats[100], s.ghostLat, 0.0);
+        assertEquals(100, s.leadMeters, 1e-6);
+        assertTrue(Double.isNaN(s.leadSeconds));
+    }
+
+    @Test
+    public void announcesPeriodicallyAndOnLeadChange() {
+        assertEquals(GhostRunner.ANNOUNCE_NONE, ghost.onFix(60_000, 100).announce);
+        assertEquals(GhostRunner.ANNOUNCE_PERIODIC, ghost.onFix(GhostRunner.VOICE_INTERVAL_MS, 100).announce);
+        // 反超：距上次播报不足 MIN_SWAP_VOICE_GAP_MS 时暂不播
+        long t = GhostRunner.VOICE_INTERVAL_MS + 10_000;
+        assertEquals(GhostRunner.ANNOUNCE_NONE, ghost.onFix(t, 600).announce);
+        t = GhostRunner.VOICE_INTERVAL_MS + GhostRunner.MIN_SWAP_VOICE_GAP_MS;
+        assertEquals(GhostRunner.ANNOUNCE_TOOK_LEAD, ghost.onFix(t, 600).announce);
+        // 并肩（死区内）不算翻转：幽灵此刻在 (t − 5 s) × 3 m/s
+        t += GhostRunner.MIN_SWAP_VOICE_GAP_MS;
+        double ghostAtT = (t - FIRST_FIX_WAIT_MS) * 3 / 1000.0;
+        GhostRunner.State s = ghost.onFix(t, ghostAtT - 2);
+        assertEquals(-2, s.leadMeters, 1e-6);
+        assertEquals(GhostRunner.ANNOUNCE_NONE, s.announce);
+    }
+
+    @Test
+    public void loadSessionSkipsMockAndInaccurateFixes() {
+        List<LocationEntity> points = new ArrayList<>();
+        for (int i = 0; i <= 100; i++) {
+            LocationEntity p = new LocationEntity();
+            p.timestamp = timestamps[i];
+            p.latitude = lats[i];
+            p.longitude = lngs[i];
+            p.accuracy = 5f;
+            points.add(p);
+        }
+        // 漂移到 1 公里外的模拟定位、低精度基站点：不计入里程
+        points.get(50).isMock = true;
+        points.get(50).latitude += 0.01;
+        points.get(60).accuracy = 500f;
+        points.get(60).latitude += 0.01;
+        ghost.loadSession("ghost-2", T0 - FIRST_FIX_WAIT_MS, points);
+        assertEquals("ghost-2", ghost.getSessionId());
+        assertEquals(99, ghost.getPointCount());
+        assertEquals(3000, ghost.getTotalDistance(), 1e-6);
+    }
+
+    @Test
+    public void driftStepIsNotCounted() {
+        double[] driftLats = lats.clone();
+        driftLats[50] += 500.0 / METERS_PER_DEG;
+        ghost.load("ghost-3", 0, timestamps, driftLats, lngs);
+        // 进出漂移点的两步都超过 MAX_STEP_M
+        assertEquals(3000 - 60, ghost.getTotalDistance(), 1e-6);
+    }
+
+    @Test
+    public void rejectsTooFewPoints() {
+        try {
+            ghost.load("ghost-4", 0, new long[]{T0}, new double[]{LAT}, new double[]{LNG});
+            fail("应拒绝少于 2 个点的轨迹");
+        } catch (IllegalArgumentException expected) {
+            // 保留原幽灵
+        }
+        assertEquals("ghost-1", ghost.getSessionId());
+        ghost.clear();
+        assertFalse(ghost.isActive());
+        assertNull(ghost.onFix(1000, 10));
+    }
+}
@@ -0,0 +1,120 @@
+package com.xiangfei.citylord;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * HexGrid 单元测试：编码往返、拓扑一致性与固定回归向量。
+ */
+public class HexGridTest {
+
+    private final HexGrid grid = HexGrid.getDefault();
+
+    @Test
+    public void regressionVectors() {
+        // 编号一旦上线即写入领地数据，任何改动投影 / 编码的提交都会在这里失败
+        assertEquals("1807bf85804466a", HexGrid.toString(grid.latLngToCell(39.908722, 116.397499)));
+        assertEquals("1808740c802551e", HexGrid.toString(grid.latLngToCell(23.129110, 113.264385)));
+        assertEquals("1808b4128033a0b", HexGrid.toString(grid.latLngToCell(31.230416, 121.473701)));
+        assertEquals("180e9bed7fc775d", HexGrid.toString(grid.latLngToCell(-33.8688, 151.2093)));
+    }
+
+    @Test
+    public void centerRoundTrip() {
+        double[][] points = {{39.908722, 116.397499}, {23.129110, 113.264385}, {-33.8688, 151.2093}, {0.0001, -0.0001}};
+        for (double[] p : points) {
+            long cell = grid.latLngToCell(p[0], p[1]);
+            assertTrue(HexGrid.isValidCell(cell));
+            double[] center = grid.cellToLatLng(cell);
+            assertEquals(cell, grid.latLngToCell(center[0], center[1]));
+        }
+    }
+
+    @Test
+    public void pointStaysWithinCellRadius() {
+        double lat = 39.9;
+        double metersPerDegLat = 111320.0;
+        double maxRadius = HexGrid.DEFAULT_RADIUS_M * Math.cos(Math.toRadians(lat))
+                / Math.cos(Math.toRadians(HexGrid.REFERENCE_LAT));
+        for (int i = 0; i < 200; i++) {
+            double pLat = lat + i * 0.0000137;
+            double pLng = 116.4 + i * 0.0000191;
+            double[] c = grid.cellToLatLng(grid.latLngToCell(pLat, pLng));
+            double dy = (pLat - c[0]) * metersPerDegLat;
+            double dx = (pLng - c[1]) * metersPerDegLat * Math.cos(Math.toRadians(lat));
+            assertTrue("distance to center", Math.sqrt(dx * dx + dy * dy) <= maxRadius + 0.01);
+        }
+    }
+
+    @Test
+    public void boundaryVerticesAreEquidistantFromCenter() {
+        long cell = grid.latLngToCell(23.129110, 113.264385);
+        double[] c = grid.cellToLatLng(cell);
+        double[] b = grid.cellToBoundary(cell);
+        assertEquals(12, b.length);
+        double first = -1;
+        for (int i = 0; i < 6; i++) {
+            double d = Math.hypot(b[i * 2] - c[0], (b[i * 2 + 1] - c[1]) * Math.cos(Math.toRadians(c[0])));
+            if (first < 0) first = d;
+            assertEquals(first, d, first * 0.01);
+        }
+    }
+
+    @Test
+    public void neighborsAreReciprocalAtDistanceOne() {
+        long cell = grid.latLngToCell(31.230416, 121.473701);
+        long[] ns = HexGrid.neighbors(cell);
+        Set<Long> unique = new HashSet<>();
+        for (long n : ns) {
+            assertTrue(HexGrid.areNeighborCells(cell, n));
+            assertEquals(1, HexGrid.gridDistance(n, cell));
+            boolean back = false;
+            for (long m : HexGrid.neighbors(n)) back |= m == cell;
+            assertTrue("neighbor reciprocity", back);
+            unique.add(n);
+        }
+        assertEquals(6, unique.size());
+    }
+
+    @Test
+    public void gridDiskSizeAndRings() {
+        long cell = grid.latLngToCell(39.908722, 116.397499);
+        for (int k = 0; k <= 5; k++) {
+            long[] disk = HexGrid.gridDisk(cell, k);
+            assertEquals(1 + 3 * k * (k + 1), disk.length);
+            Set<Long> unique = new HashSet<>();
+            for (long c : disk) {
+                unique.add(c);
+                assertTrue(HexGrid.gridDistance(cell, c) <= k);
+            }
+            assertEquals(disk.length, unique.size());
+        }
+    }
+
+    @Test
+    public void gridPathIsContiguous() {
+        long from = grid.latLngToCell(39.9000, 116.4000);
+        long to = grid.latLngToCell(39.9012, 116.4021);
+        int distance = HexGrid.gridDistance(from, to);
+        long[] out = new long[distance + 1];
+        int n = HexGrid.gridPath(from, to, out);
+        assertEquals(distance + 1, n);
+        assertEquals(from, out[0]);
+        assertEquals(to, out[n - 1]);
+        for (int i = 1; i < n; i++) {
+            assertTrue(HexGrid.areNeighborCells(out[i - 1], out[i]));
+        }
+    }
+
+    @Test
+    public void idStringRoundTrip() {
+        long cell = grid.latLngToCell(-33.8688, 151.2093);
+        assertEquals(cell, HexGrid.fromString(HexGrid.toString(cell)));
+        assertFalse(HexGrid.isValidCell(0L));
+        assertFalse(HexGrid.isValidCell(-1L));
+    }
+}
@@ -0,0 +1,177 @@
+package com.xiangfei.citylord;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * HexPolyfill 单元测试：与逐格判断中心点的暴力解对比，城市街区级（几千顶点）环并行 / 单线程结果一致。
+ */
+public class HexPolyfillTest {
+
+    private static final double M_PER_DEG = 111319.49;
+    private final HexGrid grid = HexGrid.getDefault();
+
+    @Test
+    public void matchesBruteForceOnConcavePolygon() {
+        double[][] ring = star(39.9, 116.4, 12, 300, 120);
+        long[] cells = HexPolyfill.polyfill(grid, ring[0], ring[1], null);
+        assertEquals(toSet(bruteForce(ring[0], ring[1])), toSet(cells));
+    }
+
+    @Test
+    public void closedAndOpenRingsAgree() {
+        double[][] ring = star(23.13, 113.26, 7, 150, 90);
+        int n = ring[0].length;
+        double[] lats = Arrays.copyOf(ring[0], n + 1);
+        double[] lngs = Arrays.copyOf(ring[1], n + 1);
+        lats[n] = lats[0];
+        lngs[n] = lngs[0];
+        assertArrayEquals(HexPolyfill.polyfill(grid, ring[0], ring[1], null),
+                HexPolyfill.polyfill(grid, lats, lngs, null));
+    }
+
+    @Test
+    public void degenerateInputReturnsEmpty() {
+        assertEquals(0, HexPolyfill.polyfill(grid, new double[]{39.9, 39.91}, new double[]{116.4, 116.41}, null).length);
+        // 小于一个格子、又没有覆盖任何中心的三角形
+        long cell = grid.latLngToCell(39.9, 116.4);
+        double[] c = grid.cellToLatLng(cell);
+        double d = 1.0 / M_PER_DEG;
+        double[] lats = {c[0] + 3 * d, c[0] + 3 * d, c[0] + 4 * d};
+        double[] lngs = {c[1] + 3 * d, c[1] + 4 * d, c[1] + 3 * d};
+        assertEquals(0, HexPolyfill.polyfill(grid, lats, lngs, null).length);
+    }
+
+    @Test
+    public void cellsAreUniqueAndInsidePolygon() {
+        double[][] ring = star(31.23, 121.47, 9, 400, 200);
+        long[] cells = HexPolyfill.polyfill(grid, ring[0], ring[1]);
+        assertEquals(cells.length, toSet(cells).size());
+        for (long cell : cells) {
+            double[] center = grid.cellToLatLng(cell);
+            assertTrue(contains(ring[0], ring[1], center[0], center[1]));
+        }
+    }
+
+    @Test
+    public void cityBlockLoopParallelMatchesSequential() {
+        // 约 3 km × 2 km 的街区绕行环：每 2.5 米一个顶点、左右交替偏 1.5 米，共 4000 个顶点
+        double[][] ring = cityBlockLoop(39.9, 116.4, 3000, 2000, 2.5);
+        assertTrue(ring[0].length > 3000);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            long[] sequential = HexPolyfill.polyfill(grid, ring[0], ring[1], null);
+            long[] parallel = HexPolyfill.polyfill(grid, ring[0], ring[1], pool);
+            assertArrayEquals(sequential, parallel);
+            // 约 600 万 m² / 每格约 200 m²（北京纬度格子缩小到 0.88²）
+            assertTrue(sequential.length > 20000 && sequential.length < 40000);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // -------------------------------------------------------------------
+    // Helpers
+    // -------------------------------------------------------------------
+
+    private long[] bruteForce(double[] lats, double[] lngs) {
+        double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+        double minLng = Double.MAX_VALUE, maxLng = -Double.MAX_VALUE;
+        for (int i = 0; i < lats.length; i++) {
+            minLat = Math.min(minLat, lats[i]);
+            maxLat = Math.max(maxLat, lats[i]);
+            minLng = Math.min(minLng, lngs[i]);
+            maxLng = Math.max(maxLng, lngs[i]);
+        }
+        long a = grid.latLngToCell(minLat, minLng);
+        long b = grid.latLngToCell(maxLat, maxLng);
+        int k = HexGrid.gridDistance(a, b) + 2;
+        long center = grid.latLngToCell((minLat + maxLat) / 2, (minLng + maxLng) / 2);
+        Set<Long> out = new HashSet<>();
+        for (long cell : HexGrid.gridDisk(center, k)) {
+            // 直接用格子中心的平面坐标，避免经纬度往返的浮点误差
+            double x = grid.getRadiusMeters() * Math.sqrt(3.0) * (HexGrid.q(cell) + HexGrid.r(cell) / 2.0);
+            double y = 1.5 * grid.getRadiusMeters() * HexGrid.r(cell);
+            if (containsPlanar(lats, lngs, x, y)) out.add(cell);
+        }
+        long[] arr = new long[out.size()];
+        int i = 0;
+        for (long c : out) arr[i++] = c;
+        return arr;
+    }
+
+    private boolean containsPlanar(double[] lats, double[] lngs, double x, double y) {
+        boolean inside = false;
+        int n = lats.length;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            double xi = grid.projectX(lngs[i]), yi = grid.projectY(lats[i]);
+            double xj = grid.projectX(lngs[j]), yj = grid.projectY(lats[j]);
+            if ((yi <= y && y < yj) || (yj <= y && y < yi)) {
+                double xc = xi + (y - yi) * (xj - xi) / (yj - yi);
+                if (x < xc) inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    private boolean contains(double[] lats, double[] lngs, double lat, double lng) {
+        return containsPlanar(lats, lngs, grid.projectX(lng), grid.projectY(lat));
+    }
+
+    private static Set<Long> toSet(long[] cells) {
+        Set<Long> set = new HashSet<>();
+        for (long c : cells) set.add(c);
+        return set;
+    }
+
+    /** 星形（凹）多边形：points 个尖角，外半径 / 内半径（米） */
+    private static double[][] star(double lat, double lng, int points, double outer, double inner) {
+        int n = points * 2;
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        double cos = Math.cos(Math.toRadians(lat));
+        for (int i = 0; i < n; i++) {
+            double radius = i % 2 == 0 ? outer : inner;
+            double angle = Math.PI * i / points;
+            lats[i] = lat + radius * Math.sin(angle) / M_PER_DEG;
+            lngs[i] = lng + radius * Math.cos(angle) / (M_PER_DEG * cos);
+        }
+        return new double[][]{lats, lngs};
+    }
+
+    /** 矩形环，每条边按 step 米一段、交替内外偏 1.5 米（模拟沿街区绕行的 GPS 轨迹） */
+    private static double[][] cityBlockLoop(double lat, double lng, double width, double height, double step) {
+        int perSideX = (int) (width / step);
+        int perSideY = (int) (height / step);
+        int n = 2 * (perSideX + perSideY);
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        double cos = Math.cos(Math.toRadians(lat));
+        int k = 0;
+        for (int side = 0; side < 4; side++) {
+            int steps = side % 2 == 0 ? perSideX : perSideY;
+            for (int s = 0; s < steps; s++) {
+                double t = s * step;
+                double jitter = (s % 2 == 0) ? 1.5 : -1.5;
+                double x, y;
+                switch (side) {
+                    case 0: x = t; y = jitter; break;
+                    case 1: x = width + jitter; y = t; break;
+                    case 2: x = width - t; y = height + jitter; break;
+                    default: x = jitter; y = height - t; break;
+                }
+                lats[k] = lat + y / M_PER_DEG;
+                lngs[k] = lng + x / (M_PER_DEG * cos);
+                k++;
+            }
+        }
+        return new double[][]{lats, lngs};
+    }
+}
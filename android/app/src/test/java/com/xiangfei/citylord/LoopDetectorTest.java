@@ -0,0 +1,128 @@
+package com.xiangfei.citylord;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class LoopDetectorTest {
+
+    private static final double LAT = 39.9;
+    private static final double LNG = 116.4;
+    private static final double METERS_PER_DEG = 6378137.0 * Math.PI / 180.0;
+
+    /** 以 (LAT, LNG) 为原点、东 x 米北 y 米的点 */
+    private static double[] at(double x, double y) {
+        return new double[]{LAT + y / METERS_PER_DEG,
+                LNG + x / (METERS_PER_DEG * Math.cos(Math.toRadians(LAT)))};
+    }
+
+    /** 逆时针跑 laps 圈 100 米见方的路线，每 2 米一个点，返回各点 {x, y} */
+    private static List<double[]> square(int laps) {
+        List<double[]> points = new ArrayList<>();
+        for (int lap = 0; lap < laps; lap++) {
+            for (int i = 0; i < 50; i++) points.add(new double[]{i * 2.0, 0});
+            for (int i = 0; i < 50; i++) points.add(new double[]{100, i * 2.0});
+            for (int i = 0; i < 50; i++) points.add(new double[]{100 - i * 2.0, 100});
+            for (int i = 0; i < 50; i++) points.add(new double[]{0, 100 - i * 2.0});
+        }
+        points.add(new double[]{0, 0});
+        return points;
+    }
+
+    private static List<double[]> run(LoopDetector detector, List<double[]> points) {
+        List<double[]> loops = new ArrayList<>();
+        long ts = 1_700_000_000_000L;
+        for (double[] p : points) {
+            double[] ll = at(p[0], p[1]);
+            detector.onFix(ll[0], ll[1], ts, loop -> loops.add(new double[]{
+                    loop.startIndex, loop.endIndex, loop.area, loop.perimeter}));
+            ts += 1000;
+        }
+        return loops;
+    }
+
+    @Test
+    public void closesSquareOnceWithShoelaceArea() {
+        LoopDetector detector = new LoopDetector();
+        List<double[]> loops = run(detector, square(1));
+        assertEquals(1, loops.size());
+        double[] loop = loops.get(0);
+        assertEquals(0, (int) loop[0]);
+        // 回到起点 30 米以内即闭合，闭合边沿西边线，面积仍为整块 100 × 100
+        assertEquals(10_000, loop[2], 50);
+        assertEquals(400, loop[3], 2);
+        assertTrue(loop[1] < 200);
+    }
+
+    @Test
+    public void secondLapAnchorsAfterFirstLoop() {
+        LoopDetector detector = new LoopDetector();
+        List<double[]> loops = run(detector, square(2));
+        assertEquals(2, loops.size());
+        assertEquals(loops.get(0)[1], loops.get(1)[0], 0.0);
+        assertEquals(10_000, loops.get(1)[2], 50);
+    }
+
+    @Test
+    public void outAndBackHasNoArea() {
+        // 折返跑：回程与去程相距 0.3 米，围出的面积始终 < MIN_AREA_M2
+        List<double[]> points = new ArrayList<>();
+        for (int i = 0; i <= 100; i++) points.add(new double[]{i * 2.0, 0});
+        for (int i = 100; i >= 0; i--) points.add(new double[]{i * 2.0, 0.3});
+        LoopDetector detector = new LoopDetector();
+        assertTrue(run(detector, points).isEmpty());
+    }
+
+    @Test
+    public void tightTurnIsNotALoop() {
+        // 20 米见方的小圈：点数间隔够，但路径不足 MIN_LOOP_PATH_M
+        List<double[]> points = new ArrayList<>();
+        for (int i = 0; i < 10; i++) points.add(new double[]{i * 2.0, 0});
+        for (int i = 0; i < 10; i++) points.add(new double[]{20, i * 2.0});
+        for (int i = 0; i < 10; i++) points.add(new double[]{20 - i * 2.0, 20});
+        for (int i = 0; i <= 10; i++) points.add(new double[]{0, 20 - i * 2.0});
+        assertTrue(run(new LoopDetector(), points).isEmpty());
+    }
+
+    @Test
+    public void dropsJitterAndTracksProspectiveArea() {
+        LoopDetector detector = new LoopDetector();
+        double[] a = at(0, 0);
+        double[] b = at(1.0, 0);
+        assertTrue(detector.onFix(a[0], a[1], 0, null));
+        assertFalse(detector.onFix(b[0], b[1], 1000, null));
+        assertEquals(1, detector.getPointCount());
+
+        // 跑完三条边：此刻回到起点可圈住整块
+        List<double[]> points = square(1).subList(1, 151);
+        run(detector, points);
+        assertEquals(10_000, detector.getProspectiveArea(), 50);
+        assertEquals(Math.hypot(2, 100), detector.getDistanceToLoopStart(), 0.5);
+    }
+
+    @Test
+    public void restoreMatchesLiveTracking() {
+        List<double[]> points = square(1).subList(0, 170);
+        LoopDetector live = new LoopDetector();
+        run(live, points);
+
+        int n = points.size();
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        long[] ts = new long[n];
+        for (int i = 0; i < n; i++) {
+            double[] ll = at(points.get(i)[0], points.get(i)[1]);
+            lats[i] = ll[0];
+            lngs[i] = ll[1];
+            ts[i] = 1_700_000_000_000L + i * 1000L;
+        }
+        LoopDetector restored = new LoopDetector();
+        restored.restore(lats, lngs, ts);
+        assertEquals(live.getPointCount(), restored.getPointCount());
+        assertEquals(live.getProspectiveArea(), restored.getProspectiveArea(), 1e-6);
+        assertEquals(live.getDistanceToLoopStart(), restored.getDistanceToLoopStart(), 1e-6);
+    }
+}
@@ -0,0 +1,128 @@
+package com.xiangfei.citylord;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class PolygonValidatorTest {
+
+    private static final double LAT = 39.9;
+    private static final double LNG = 116.4;
+    private static final double METERS_PER_DEG = 6378137.0 * Math.PI / 180.0;
+
+    /** 局部平面（东 x 米、北 y 米）顶点 → {lats, lngs} */
+    private static double[][] ring(double... xy) {
+        int n = xy.length / 2;
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        double metersPerDegLng = METERS_PER_DEG * Math.cos(Math.toRadians(LAT));
+        for (int i = 0; i < n; i++) {
+            lngs[i] = LNG + xy[2 * i] / metersPerDegLng;
+            lats[i] = LAT + xy[2 * i + 1] / METERS_PER_DEG;
+        }
+        return new double[][]{lats, lngs};
+    }
+
+    private static PolygonValidator.Result validate(double[][] ring) {
+        return PolygonValidator.validate(ring[0], ring[1]);
+    }
+
+    private static boolean hasIssue(PolygonValidator.Result result, String code) {
+        for (PolygonValidator.Issue issue : result.issues) {
+            if (code.equals(issue.code)) return true;
+        }
+        return false;
+    }
+
+    /** 输出环逆时针、首尾不重复，且再次校验为简单多边形 */
+    private static void assertSimpleCounterClockwise(PolygonValidator.Ring ring) {
+        int n = ring.lats.length;
+        assertTrue(n >= 3);
+        assertFalse(ring.lats[0] == ring.lats[n - 1] && ring.lngs[0] == ring.lngs[n - 1]);
+        double sum = 0;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            sum += (ring.lngs[j] - LNG) * (ring.lats[i] - LAT) - (ring.lngs[i] - LNG) * (ring.lats[j] - LAT);
+        }
+        assertTrue("应为逆时针", sum > 0);
+        assertEquals(PolygonValidator.STATUS_VALID, PolygonValidator.validate(ring.lats, ring.lngs).status);
+    }
+
+    @Test
+    public void simpleSquareIsValid() {
+        // 顺时针输入、首尾重复
+        PolygonValidator.Result result = validate(ring(0, 0, 0, 100, 100, 100, 100, 0, 0, 0));
+        assertEquals(PolygonValidator.STATUS_VALID, result.status);
+        assertEquals(1, result.rings.size());
+        assertEquals(0, result.kinkCount);
+        assertEquals(10_000, result.rings.get(0).area, 1);
+        assertEquals(result.rawArea, result.finalArea, 1e-9);
+        assertEquals(4, result.rings.get(0).lats.length);
+        assertSimpleCounterClockwise(result.rings.get(0));
+    }
+
+    @Test
+    public void bowtieSplitsIntoTwoTriangles() {
+        // 8 字形：两条对角边在 (50, 50) 相交
+        PolygonValidator.Result result = validate(ring(0, 0, 100, 100, 100, 0, 0, 100));
+        assertEquals(PolygonValidator.STATUS_REPAIRED, result.status);
+        assertEquals(1, result.kinkCount);
+        assertTrue(hasIssue(result, PolygonValidator.ISSUE_SELF_INTERSECTION));
+        assertEquals(2, result.rings.size());
+        for (PolygonValidator.Ring r : result.rings) {
+            assertEquals(2_500, r.area, 1);
+            assertSimpleCounterClockwise(r);
+        }
+        assertEquals(5_000, result.finalArea, 2);
+        // 两半有向面积相互抵消
+        assertEquals(0, result.rawArea, 1);
+    }
+
+    @Test
+    public void tTouchSplitsAtTouchingVertex() {
+        // 顶点 (50, 0) 落在底边 (0, 0)–(100, 0) 上：T 形相接
+        PolygonValidator.Result result = validate(ring(
+                0, 0, 100, 0, 100, 100, 60, 100, 50, 0, 40, 100, 0, 100));
+        assertEquals(PolygonValidator.STATUS_REPAIRED, result.status);
+        assertTrue(hasIssue(result, PolygonValidator.ISSUE_SELF_INTERSECTION));
+        assertEquals(2, result.rings.size());
+        for (PolygonValidator.Ring r : result.rings) {
+            assertEquals(4_500, r.area, 1);
+            assertSimpleCounterClockwise(r);
+        }
+        assertEquals(9_000, result.finalArea, 2);
+    }
+
+    @Test
+    public void removesDuplicatesAndSpikes() {
+        // 重复点 + 右边中点向外 40 米又原路折返的尖刺
+        PolygonValidator.Result result = validate(ring(
+                0, 0, 100, 0, 100, 0.01, 100, 50, 140, 50, 100, 50.5, 100, 100, 0, 100));
+        assertTrue(hasIssue(result, PolygonValidator.ISSUE_DUPLICATE_VERTEX));
+        assertTrue(hasIssue(result, PolygonValidator.ISSUE_SPIKE));
+        assertEquals(PolygonValidator.STATUS_REPAIRED, result.status);
+        assertEquals(1, result.rings.size());
+        assertEquals(10_000, result.rings.get(0).area, 30);
+        assertSimpleCounterClockwise(result.rings.get(0));
+    }
+
+    @Test
+    public void dropsSmallLobeAfterSplit() {
+        // 8 字形的右半约 45 m²，不足 MIN_RING_AREA_M2：丢弃，只保留左半约 4545 m²
+        PolygonValidator.Result result = validate(ring(0, 0, 100, 10, 100, 0, 0, 100));
+        assertEquals(PolygonValidator.STATUS_REPAIRED, result.status);
+        assertEquals(1, result.rings.size());
+        assertEquals(4_545, result.rings.get(0).area, 2);
+        assertSimpleCounterClockwise(result.rings.get(0));
+        assertTrue(hasIssue(result, PolygonValidator.ISSUE_SMALL_RING_DROPPED));
+    }
+
+    @Test
+    public void tooFewVerticesIsInvalid() {
+        PolygonValidator.Result result = validate(ring(0, 0, 100, 0, 100, 0.01, 0, 0));
+        assertEquals(PolygonValidator.STATUS_INVALID, result.status);
+        assertTrue(result.rings.isEmpty());
+        assertTrue(hasIssue(result, PolygonValidator.ISSUE_TOO_FEW_VERTICES));
+        assertEquals(PolygonValidator.STATUS_INVALID,
+                PolygonValidator.validate(new double[0], new double[0]).status);
+    }
+}
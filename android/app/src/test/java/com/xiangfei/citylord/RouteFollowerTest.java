@@ -0,0 +1,161 @@
+package com.xiangfei.citylord;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class RouteFollowerTest {
+
+    private static final double LAT = 31.23;
+    private static final double LNG = 121.47;
+    private static final double METERS_PER_DEG = 6378137.0 * Math.PI / 180.0;
+    private static final double METERS_PER_DEG_LNG = METERS_PER_DEG * Math.cos(Math.toRadians(LAT));
+
+    private static double lat(double y) {
+        return LAT + y / METERS_PER_DEG;
+    }
+
+    private static double lng(double x) {
+        return LNG + x / METERS_PER_DEG_LNG;
+    }
+
+    /** 依次经过 (x, y) 米的路线 */
+    private static RouteFollower route(double... xy) {
+        int n = xy.length / 2;
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        for (int i = 0; i < n; i++) {
+            lngs[i] = lng(xy[2 * i]);
+            lats[i] = lat(xy[2 * i + 1]);
+        }
+        RouteFollower follower = new RouteFollower();
+        follower.setRoute("route-1", lats, lngs);
+        return follower;
+    }
+
+    private static final class Events implements RouteFollower.Listener {
+        int off;
+        int back;
+
+        @Override
+        public void onOffCourse(RouteFollower.Progress progress) {
+            off++;
+        }
+
+        @Override
+        public void onBackOnCourse(RouteFollower.Progress progress) {
+            back++;
+        }
+    }
+
+    @Test
+    public void projectsOntoNearestSegment() {
+        RouteFollower follower = route(0, 0, 500, 0, 1000, 0);
+        assertEquals(1000, follower.getTotalLength(), 1e-6);
+        RouteFollower.Progress p = follower.onFix(lat(5), lng(650), null);
+        assertTrue(p.matched);
+        assertEquals(1, p.segmentIndex);
+        assertEquals(5, p.crossTrack, 0.01);
+        assertEquals(650, p.progress, 0.01);
+        assertEquals(350, p.remaining, 0.01);
+        assertFalse(p.offCourse);
+    }
+
+    @Test
+    public void offCourseAndBackWithHysteresis() {
+        RouteFollower follower = route(0, 0, 1000, 0);
+        Events events = new Events();
+        follower.onFix(lat(0), lng(100), events);
+        // 偏离 50 米：第 OFF_COURSE_FIXES 个点才触发
+        for (int i = 1; i <= RouteFollower.OFF_COURSE_FIXES; i++) {
+            RouteFollower.Progress p = follower.onFix(lat(50), lng(100 + i * 5), events);
+            assertEquals(i == RouteFollower.OFF_COURSE_FIXES, p.offCourse);
+        }
+        assertEquals(1, events.off);
+        // 30 米处在两个阈值之间：保持偏航
+        follower.onFix(lat(30), lng(130), events);
+        follower.onFix(lat(30), lng(135), events);
+        assertEquals(0, events.back);
+        for (int i = 1; i <= RouteFollower.BACK_ON_COURSE_FIXES; i++) {
+            follower.onFix(lat(5), lng(140 + i * 5), events);
+        }
+        assertEquals(1, events.back);
+        assertFalse(follower.getProgress().offCourse);
+    }
+
+    @Test
+    public void farFromRouteIsUnmatchedAndCountsAsOff() {
+        RouteFollower follower = route(0, 0, 1000, 0);
+        Events events = new Events();
+        follower.onFix(lat(0), lng(200), events);
+        RouteFollower.Progress p = null;
+        for (int i = 0; i < RouteFollower.OFF_COURSE_FIXES; i++) {
+            p = follower.onFix(lat(2000), lng(200), events);
+        }
+        assertFalse(p.matched);
+        assertTrue(Double.isNaN(p.crossTrack));
+        // 未匹配时保留上一次的进度
+        assertEquals(200, p.progress, 0.01);
+        assertEquals(1, events.off);
+    }
+
+    @Test
+    public void outAndBackFollowsRunnerDirection() {
+        // 往返同一条路：去程为线段 0–1、返程为线段 2–3
+        RouteFollower follower = route(0, 0, 250, 0, 500, 0, 250, 0, 0, 0);
+        for (int x = 0; x <= 300; x += 10) {
+            follower.onFix(lat(1), lng(x), null);
+        }
+        assertEquals(300, follower.getProgress().progress, 0.5);
+        for (int x = 300; x <= 500; x += 10) {
+            follower.onFix(lat(1), lng(x), null);
+        }
+        for (int x = 490; x >= 200; x -= 10) {
+            follower.onFix(lat(1), lng(x), null);
+        }
+        RouteFollower.Progress p = follower.getProgress();
+        assertTrue(p.segmentIndex >= 2);
+        assertEquals(800, p.progress, 0.5);
+        assertEquals(200, p.remaining, 0.5);
+    }
+
+    @Test
+    public void restartKeepsRouteAndResetsProgress() {
+        RouteFollower follower = route(0, 0, 1000, 0);
+        follower.onFix(lat(0), lng(600), null);
+        follower.restart();
+        assertTrue(follower.hasRoute());
+        assertEquals(0, follower.getProgress().progress, 0.0);
+        assertEquals(1000, follower.getProgress().remaining, 1e-6);
+        follower.clear();
+        assertFalse(follower.hasRoute());
+        assertNull(follower.onFix(lat(0), lng(0), null));
+    }
+
+    @Test
+    public void saveAndLoadRoundTrip() throws IOException {
+        RouteFollower follower = route(0, 0, 300, 0, 300, 400);
+        File file = File.createTempFile("route", ".bin");
+        file.deleteOnExit();
+        follower.save(file);
+
+        RouteFollower restored = new RouteFollower();
+        assertTrue(restored.load(file));
+        assertEquals("route-1", restored.getRouteId());
+        assertEquals(3, restored.getPointCount());
+        assertEquals(700, restored.getTotalLength(), 1e-6);
+        assertEquals(500, restored.onFix(lat(200), lng(302), null).progress, 0.01);
+
+        new RouteFollower().save(file);
+        assertFalse(file.exists());
+        assertFalse(restored.load(file));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSinglePointRoute() {
+        new RouteFollower().setRoute("r", new double[]{LAT}, new double[]{LNG});
+    }
+}
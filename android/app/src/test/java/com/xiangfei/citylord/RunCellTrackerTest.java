@@ -0,0 +1,72 @@
+package com.xiangfei.citylord;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RunCellTrackerTest {
+
+    private final HexGrid grid = HexGrid.getDefault();
+
+    @Test
+    public void countsEachCellOnce() {
+        RunCellTracker tracker = new RunCellTracker(grid);
+        tracker.startSession("run-1");
+        final List<Long> entered = new ArrayList<>();
+        RunCellTracker.Listener listener = (cell, count) -> {
+            entered.add(cell);
+            assertEquals(entered.size(), count);
+        };
+        // 往返跑：第二趟经过的都是已有格子
+        for (int i = 0; i <= 100; i++) {
+            tracker.onFix(39.9, 116.4 + i * 0.00002, listener);
+        }
+        int outbound = tracker.getCellCount();
+        for (int i = 100; i >= 0; i--) {
+            assertEquals(0, tracker.onFix(39.9, 116.4 + i * 0.00002, listener));
+        }
+        assertEquals(outbound, tracker.getCellCount());
+        assertEquals(outbound, entered.size());
+    }
+
+    @Test
+    public void fillsCellsSkippedBetweenFixes() {
+        RunCellTracker tracker = new RunCellTracker(grid);
+        tracker.startSession("run-1");
+        long from = grid.latLngToCell(39.9, 116.4);
+        long to = grid.latLngToCell(39.9, 116.4006);
+        tracker.onFix(39.9, 116.4, null);
+        tracker.onFix(39.9, 116.4006, null);
+        assertEquals(HexGrid.gridDistance(from, to) + 1, tracker.getCellCount());
+    }
+
+    @Test
+    public void restoreMatchesLiveTracking() {
+        int n = 60;
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        RunCellTracker live = new RunCellTracker(grid);
+        live.startSession("run-2");
+        for (int i = 0; i < n; i++) {
+            lats[i] = 23.13 + i * 0.00003;
+            lngs[i] = 113.26 + i * 0.00001;
+            live.onFix(lats[i], lngs[i], null);
+        }
+        RunCellTracker restored = new RunCellTracker(grid);
+        restored.restore("run-2", lats, lngs);
+        assertEquals(live.getCellCount(), restored.getCellCount());
+        for (long cell : live.getCells()) {
+            assertTrue(restored.contains(cell));
+        }
+    }
+
+    @Test
+    public void ignoresFixesWithoutSession() {
+        RunCellTracker tracker = new RunCellTracker(grid);
+        assertEquals(0, tracker.onFix(39.9, 116.4, null));
+        assertEquals(0, tracker.getCellCount());
+    }
+}
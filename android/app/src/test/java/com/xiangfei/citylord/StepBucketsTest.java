@@ -0,0 +1,114 @@
+package com.xiangfei.citylord;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class StepBucketsTest {
+
+    /** 2023-11-14 22:00:00 UTC，整点 */
+    private static final long HOUR = 1_699_999_200_000L;
+    private static final long MIN = StepBuckets.MINUTE_MS;
+
+    @Test
+    public void hourStartAlignsToUtcHour() {
+        assertEquals(HOUR, StepBuckets.hourStart(HOUR));
+        assertEquals(HOUR, StepBuckets.hourStart(HOUR + StepBuckets.HOUR_MS - 1));
+        assertEquals(HOUR + StepBuckets.HOUR_MS, StepBuckets.hourStart(HOUR + StepBuckets.HOUR_MS));
+        assertEquals(-StepBuckets.HOUR_MS, StepBuckets.hourStart(-1));
+    }
+
+    @Test
+    public void firstEventOnlySetsBaseline() {
+        StepBuckets buckets = new StepBuckets();
+        assertEquals(0, buckets.onStepCount(10_000, HOUR));
+        assertFalse(buckets.hasPending());
+        assertEquals(12, buckets.onStepCount(10_012, HOUR + 5_000));
+        assertTrue(buckets.hasPending());
+    }
+
+    @Test
+    public void deltasLandInEventMinute() {
+        StepBuckets buckets = new StepBuckets();
+        buckets.onStepCount(100, HOUR);
+        buckets.onStepCount(130, HOUR + 59_999);
+        buckets.onStepCount(150, HOUR + MIN);
+        buckets.onStepCount(160, HOUR + 59 * MIN + 59_999);
+        List<StepBuckets.Pending> drained = buckets.drain();
+        assertEquals(1, drained.size());
+        int[] counts = drained.get(0).counts;
+        assertEquals(HOUR, drained.get(0).hourStart);
+        assertEquals(30, counts[0]);
+        assertEquals(20, counts[1]);
+        assertEquals(10, counts[59]);
+        assertEquals(60, StepBuckets.sum(counts));
+        assertFalse(buckets.hasPending());
+        assertTrue(buckets.drain().isEmpty());
+    }
+
+    @Test
+    public void crossingTheHourSplitsIntoTwoPending() {
+        StepBuckets buckets = new StepBuckets();
+        buckets.onStepCount(0, HOUR + 59 * MIN);
+        buckets.onStepCount(40, HOUR + 59 * MIN + 30_000);
+        buckets.onStepCount(90, HOUR + StepBuckets.HOUR_MS + 10_000);
+        List<StepBuckets.Pending> drained = buckets.drain();
+        assertEquals(2, drained.size());
+        assertEquals(HOUR, drained.get(0).hourStart);
+        assertEquals(40, drained.get(0).counts[59]);
+        assertEquals(HOUR + StepBuckets.HOUR_MS, drained.get(1).hourStart);
+        assertEquals(50, drained.get(1).counts[0]);
+    }
+
+    @Test
+    public void counterResetAndJumpsAreIgnored() {
+        StepBuckets buckets = new StepBuckets();
+        buckets.onStepCount(50_000, HOUR);
+        // 重启后计步器从 0 重新累计：负增量不计入，但以新值为基线继续
+        assertEquals(0, buckets.onStepCount(3, HOUR + MIN));
+        assertEquals(7, buckets.onStepCount(10, HOUR + 2 * MIN));
+        // 超过单事件上限的跳变视为重置
+        assertEquals(0, buckets.onStepCount(10 + 5_000, HOUR + 3 * MIN));
+        assertEquals(0, buckets.onStepCount(10 + 5_000, HOUR + 4 * MIN));
+        assertEquals(5, buckets.onStepCount(10 + 5_005, HOUR + 5 * MIN));
+        int[] counts = buckets.drain().get(0).counts;
+        assertEquals(0, counts[1]);
+        assertEquals(7, counts[2]);
+        assertEquals(0, counts[3]);
+        assertEquals(5, counts[5]);
+        assertEquals(12, StepBuckets.sum(counts));
+    }
+
+    @Test
+    public void blobRoundTripsAndClamps() {
+        int[] counts = new int[StepBuckets.MINUTES_PER_HOUR];
+        counts[0] = 1;
+        counts[17] = 256;
+        counts[30] = 0xFFFF;
+        counts[59] = 180;
+        byte[] blob = StepBuckets.encode(counts);
+        assertEquals(StepBuckets.MINUTES_PER_HOUR * 2, blob.length);
+        // uint16 大端
+        assertEquals(1, blob[34]);
+        assertEquals(0, blob[35]);
+        assertArrayEquals(counts, StepBuckets.decode(blob));
+
+        counts[5] = 70_000;
+        counts[6] = -3;
+        int[] decoded = StepBuckets.decode(StepBuckets.encode(counts));
+        assertEquals(0xFFFF, decoded[5]);
+        assertEquals(0, decoded[6]);
+    }
+
+    @Test
+    public void decodeToleratesShortOrMissingBlob() {
+        assertEquals(0, StepBuckets.sum(StepBuckets.decode(null)));
+        int[] decoded = StepBuckets.decode(new byte[]{0, 9, 1, 0, 7});
+        assertEquals(9, decoded[0]);
+        assertEquals(256, decoded[1]);
+        assertEquals(0, decoded[2]);
+        assertEquals(StepBuckets.MINUTES_PER_HOUR, decoded.length);
+    }
+}
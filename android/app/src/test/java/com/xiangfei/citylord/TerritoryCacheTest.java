@@ -0,0 +1,104 @@
+package com.xiangfei.citylord;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * TerritoryCache 单元测试：快照 / 增量语义、阵营关系，以及百万格的内存占用与查询。
+ */
+public class TerritoryCacheTest {
+
+    private static final TerritoryCache.Owner[] OWNERS = {
+            new TerritoryCache.Owner("user-a", "red"),
+            new TerritoryCache.Owner("user-b", "red"),
+            new TerritoryCache.Owner("user-c", "blue"),
+    };
+
+    @Test
+    public void snapshotThenDelta() throws IOException {
+        TerritoryCache cache = new TerritoryCache(tempDir());
+        long c1 = HexGrid.pack(10, 20);
+        long c2 = HexGrid.pack(11, 20);
+        long c3 = HexGrid.pack(12, 20);
+        cache.loadSnapshot(OWNERS, records(new long[]{c1, c2}, new int[]{1, 3}), "user-a", "red");
+        assertTrue(cache.isLoaded());
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.get(c1));
+        assertEquals(3, cache.get(c2));
+        assertEquals(0, cache.get(c3));
+
+        // c1 失守变无主、c2 易主、c3 被新领主（序号 4）占领
+        int applied = cache.applyDelta(new int[]{4}, new TerritoryCache.Owner[]{new TerritoryCache.Owner("user-d", null)},
+                records(new long[]{c1, c2, c3}, new int[]{0, 2, 4}));
+        assertEquals(3, applied);
+        assertEquals(0, cache.get(c1));
+        assertEquals(2, cache.get(c2));
+        assertEquals(4, cache.get(c3));
+        assertEquals(2, cache.size());
+        assertEquals("user-d", cache.getOwner(4).ownerId);
+    }
+
+    @Test
+    public void relationFollowsSelfAndFaction() throws IOException {
+        TerritoryCache cache = new TerritoryCache(tempDir());
+        cache.loadSnapshot(OWNERS, new byte[0], "user-a", "red");
+        assertEquals(TerritoryCache.RELATION_SELF, cache.relation(1));
+        assertEquals(TerritoryCache.RELATION_ALLY, cache.relation(2));
+        assertEquals(TerritoryCache.RELATION_ENEMY, cache.relation(3));
+        assertNull(cache.relation(0));
+        assertNull(cache.relation(99));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedRecords() throws IOException {
+        new TerritoryCache(tempDir()).loadSnapshot(OWNERS, new byte[13], null, null);
+    }
+
+    @Test
+    public void millionCellsMemoryAndLookup() throws IOException {
+        int n = 1_000_000;
+        HexGrid grid = HexGrid.getDefault();
+        long origin = grid.latLngToCell(39.9, 116.4);
+        long[] cells = new long[n];
+        int[] owners = new int[n];
+        int side = 1000;
+        for (int i = 0; i < n; i++) {
+            cells[i] = HexGrid.pack(HexGrid.q(origin) + i % side, HexGrid.r(origin) + i / side);
+            owners[i] = 1 + i % OWNERS.length;
+        }
+        TerritoryCache cache = new TerritoryCache(tempDir());
+        cache.loadSnapshot(OWNERS, records(cells, owners), "user-a", "red");
+        assertEquals(n, cache.size());
+        // 负载因子 ≤ 0.5：2^21 槽 × 12 字节
+        assertEquals((1L << 21) * 12, cache.memoryBytes());
+
+        Random random = new Random(7);
+        for (int i = 0; i < 100_000; i++) {
+            int k = random.nextInt(n);
+            assertEquals(owners[k], cache.get(cells[k]));
+            // 落在快照外的格子
+            assertEquals(0, cache.get(HexGrid.pack(-5000 - random.nextInt(n), 7)));
+        }
+    }
+
+    private static byte[] records(long[] cells, int[] owners) {
+        ByteBuffer buf = ByteBuffer.allocate(cells.length * TerritoryCache.RECORD_BYTES);
+        for (int i = 0; i < cells.length; i++) {
+            buf.putLong(cells[i]).putInt(owners[i]);
+        }
+        return buf.array();
+    }
+
+    private static File tempDir() throws IOException {
+        File dir = File.createTempFile("territory", "");
+        if (!dir.delete() || !dir.mkdirs()) throw new IOException("temp dir");
+        dir.deleteOnExit();
+        return dir;
+    }
+}
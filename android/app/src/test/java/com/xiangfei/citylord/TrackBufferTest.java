@@ -0,0 +1,100 @@
+package com.xiangfei.citylord;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TrackBufferTest {
+
+    private static final long T0 = 1_700_000_000_000L;
+
+    private static TrackBuffer filled(String sessionId, int n) {
+        TrackBuffer buffer = new TrackBuffer();
+        buffer.reset(sessionId, true);
+        for (int i = 0; i < n; i++) {
+            buffer.append(22.54 + i * 1e-5, 114.06 + i * 1e-5, T0 + i * 1000L, 5.5f, 3.21f, 90.4f, i % 7 == 0);
+        }
+        return buffer;
+    }
+
+    @Test
+    public void appendGrowsAndKeepsValues() {
+        TrackBuffer buffer = filled("run-1", 5000);
+        assertEquals(5000, buffer.size());
+        assertTrue(buffer.memoryBytes() >= 5000L * TrackBuffer.BYTES_PER_POINT);
+
+        TrackBuffer.Slice slice = buffer.sliceAfter("run-1", 0, Integer.MAX_VALUE);
+        assertEquals(5000, slice.count);
+        assertFalse(slice.capped);
+        for (int i : new int[]{0, 1023, 1024, 1536, 4999}) {
+            assertEquals(22.54 + i * 1e-5, slice.lat(i), 0.5e-6);
+            assertEquals(114.06 + i * 1e-5, slice.lng(i), 0.5e-6);
+            assertEquals(T0 + i * 1000L, slice.timestamp(i));
+            assertEquals(5.5f, slice.accuracy(i), 0.05f);
+            assertEquals(3.21f, slice.speed(i), 0.005f);
+            assertEquals(90.4f, slice.bearing(i), 0.05f);
+            assertEquals(i % 7 == 0, slice.interpolated(i));
+        }
+    }
+
+    @Test
+    public void dropsNonIncreasingTimestamps() {
+        TrackBuffer buffer = filled("run-1", 3);
+        buffer.append(0, 0, T0 + 2000L, 0f, 0f, 0f, false);
+        buffer.append(0, 0, T0, 0f, 0f, 0f, false);
+        assertEquals(3, buffer.size());
+    }
+
+    @Test
+    public void sliceAfterTimestampAndCap() {
+        TrackBuffer buffer = filled("run-1", 100);
+        TrackBuffer.Slice slice = buffer.sliceAfter("run-1", T0 + 49_000L, 1000);
+        assertEquals(50, slice.count);
+        assertEquals(T0 + 50_000L, slice.timestamp(0));
+
+        // 介于两个点之间的时间戳
+        slice = buffer.sliceAfter("run-1", T0 + 49_500L, 1000);
+        assertEquals(T0 + 50_000L, slice.timestamp(0));
+
+        slice = buffer.sliceAfter("run-1", T0 + 49_000L, 10);
+        assertEquals(10, slice.count);
+        assertTrue(slice.capped);
+        assertEquals(T0 + 59_000L, slice.timestamp(9));
+
+        assertEquals(0, buffer.sliceAfter("run-1", T0 + 99_000L, 1000).count);
+    }
+
+    @Test
+    public void resetOnSessionChange() {
+        TrackBuffer buffer = filled("run-1", 100);
+        buffer.reset("run-2", true);
+        assertEquals("run-2", buffer.getSessionId());
+        assertEquals(0, buffer.size());
+        assertNull(buffer.sliceAfter("run-1", 0, 1000));
+        assertEquals(0, buffer.sliceAfter("run-2", 0, 1000).count);
+        assertFalse(buffer.updatePosition("run-1", T0, 0, 0));
+    }
+
+    @Test
+    public void resumedSessionOnlyServesAfterFirstBufferedPoint() {
+        TrackBuffer buffer = new TrackBuffer();
+        buffer.reset("run-1", false);
+        assertFalse(buffer.canServe("run-1", T0));
+        for (int i = 10; i < 20; i++) buffer.append(22.54, 114.06, T0 + i * 1000L, 5f, 3f, 0f, false);
+        // 进程重启前写入的点只在 Room 中
+        assertFalse(buffer.canServe("run-1", T0 + 5_000L));
+        assertNull(buffer.sliceAfter("run-1", T0 + 5_000L, 1000));
+        assertTrue(buffer.canServe("run-1", T0 + 10_000L));
+        assertEquals(9, buffer.sliceAfter("run-1", T0 + 10_000L, 1000).count);
+    }
+
+    @Test
+    public void updatePositionByTimestamp() {
+        TrackBuffer buffer = filled("run-1", 10);
+        assertTrue(buffer.updatePosition("run-1", T0 + 3000L, 22.6, 114.1));
+        assertFalse(buffer.updatePosition("run-1", T0 + 3500L, 22.6, 114.1));
+        TrackBuffer.Slice slice = buffer.sliceAfter("run-1", T0 + 2000L, 1);
+        assertEquals(22.6, slice.lat(0), 1e-6);
+        assertEquals(114.1, slice.lng(0), 1e-6);
+    }
+}
@@ -0,0 +1,152 @@
+package com.xiangfei.citylord;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * TrackCodec v1 的参考解码器（服务端实现的对照）。
+ *
+ * 只按 TrackCodec 文档中的格式说明实现，常量均为字面值、不引用编码器，编码器改动格式而未同步文档时测试即失败。
+ */
+final class TrackCodecDecoder {
+
+    static final class Point {
+        long timestamp;
+        double lat;
+        double lng;
+        float accuracy;
+        float speed;
+        int bearing;
+        /** 无海拔时为 null */
+        Double altitude;
+        int cadence;
+        float strideLength;
+        int groundContactMs;
+        boolean mock;
+        boolean interpolated;
+    }
+
+    static final class Track {
+        int version;
+        int compression;
+        String sessionId;
+        final List<Point> points = new ArrayList<>();
+    }
+
+    private TrackCodecDecoder() {
+    }
+
+    static Track decode(byte[] data) throws IOException {
+        if (data.length < 16 + 4) throw new IOException("数据过短: " + data.length);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        DataInputStream trailer = new DataInputStream(new ByteArrayInputStream(data, data.length - 4, 4));
+        if ((int) crc.getValue() != trailer.readInt()) throw new IOException("CRC32 校验失败");
+
+        DataInputStream header = new DataInputStream(new ByteArrayInputStream(data, 0, 16));
+        if (header.readInt() != 0x434C5431) throw new IOException("magic 不符");
+        Track track = new Track();
+        track.version = header.readUnsignedByte();
+        if (track.version != 1) throw new IOException("不支持的版本 " + track.version);
+        track.compression = header.readUnsignedByte();
+        header.readUnsignedShort();
+        int count = header.readInt();
+        int bodyLength = header.readInt();
+        if (count < 0 || bodyLength < 0) throw new IOException("头部数值非法");
+
+        InputStream compressed = new ByteArrayInputStream(data, 16, data.length - 16 - 4);
+        InputStream raw;
+        switch (track.compression) {
+            case 0: raw = compressed; break;
+            case 1: raw = new InflaterInputStream(compressed); break;
+            case 2: raw = new GZIPInputStream(compressed); break;
+            default: throw new IOException("未知压缩方式 " + track.compression);
+        }
+        byte[] body = readAll(raw);
+        if (body.length != bodyLength) throw new IOException("正文长度 " + body.length + " ≠ 头部 " + bodyLength);
+
+        Reader in = new Reader(body);
+        int idLength = (int) in.unsigned();
+        track.sessionId = new String(in.bytes(idLength), StandardCharsets.UTF_8);
+        for (int i = 0; i < count; i++) {
+            Point p = new Point();
+            int flags = in.u8();
+            p.mock = (flags & 1) != 0;
+            p.interpolated = (flags & 2) != 0;
+            p.altitude = (flags & 4) != 0 ? 0.0 : null;
+            track.points.add(p);
+        }
+        long acc = 0;
+        for (Point p : track.points) p.timestamp = acc += in.signed();
+        acc = 0;
+        for (Point p : track.points) p.lat = (acc += in.signed()) / 1e6;
+        acc = 0;
+        for (Point p : track.points) p.lng = (acc += in.signed()) / 1e6;
+        for (Point p : track.points) p.accuracy = in.unsigned() / 10f;
+        for (Point p : track.points) p.speed = in.unsigned() / 100f;
+        for (Point p : track.points) p.bearing = (int) in.unsigned();
+        acc = 0;
+        for (Point p : track.points) {
+            if (p.altitude != null) p.altitude = (acc += in.signed()) / 10.0;
+        }
+        for (Point p : track.points) p.cadence = (int) in.unsigned();
+        for (Point p : track.points) p.strideLength = in.unsigned() / 100f;
+        for (Point p : track.points) p.groundContactMs = (int) in.unsigned();
+        if (in.pos != body.length) throw new IOException("正文尾部多出 " + (body.length - in.pos) + " 字节");
+        return track;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+
+    private static final class Reader {
+        final byte[] body;
+        int pos;
+
+        Reader(byte[] body) {
+            this.body = body;
+        }
+
+        int u8() throws IOException {
+            if (pos >= body.length) throw new IOException("正文截断");
+            return body[pos++] & 0xFF;
+        }
+
+        byte[] bytes(int n) throws IOException {
+            if (n < 0 || pos + n > body.length) throw new IOException("正文截断");
+            byte[] out = new byte[n];
+            System.arraycopy(body, pos, out, 0, n);
+            pos += n;
+            return out;
+        }
+
+        long unsigned() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = u8();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+            throw new IOException("varint 过长");
+        }
+
+        long signed() throws IOException {
+            long v = unsigned();
+            return (v >>> 1) ^ -(v & 1);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.xiangfei.citylord;
+
+import static org.junit.Assert.*;
+
+import com.xiangfei.citylord.db.LocationEntity;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * TrackCodec 单元测试：经参考解码器 TrackCodecDecoder 往返、校验失败，以及与逐点 JSON 的体积对比。
+ */
+public class TrackCodecTest {
+
+    private static final int[] COMPRESSIONS = {
+            TrackCodec.COMPRESSION_NONE, TrackCodec.COMPRESSION_DEFLATE, TrackCodec.COMPRESSION_GZIP};
+
+    @Test
+    public void roundTripWithinQuantization() throws IOException {
+        List<LocationEntity> points = syntheticRun("run-回放", 2000, 1);
+        for (int compression : COMPRESSIONS) {
+            TrackCodecDecoder.Track track = TrackCodecDecoder.decode(TrackCodec.encode("run-回放", points, compression));
+            assertEquals(1, track.version);
+            assertEquals(compression, track.compression);
+            assertEquals("run-回放", track.sessionId);
+            assertEquals(points.size(), track.points.size());
+            for (int i = 0; i < points.size(); i++) {
+                LocationEntity expected = points.get(i);
+                TrackCodecDecoder.Point actual = track.points.get(i);
+                assertEquals(expected.timestamp, actual.timestamp);
+                assertEquals(expected.latitude, actual.lat, 0.5e-6);
+                assertEquals(expected.longitude, actual.lng, 0.5e-6);
+                assertEquals(expected.accuracy, actual.accuracy, 0.05f);
+                assertEquals(expected.speed, actual.speed, 0.005f);
+                assertEquals(((Math.round(expected.bearing) % 360) + 360) % 360, actual.bearing);
+                if (expected.altitude == null) {
+                    assertNull(actual.altitude);
+                } else {
+                    assertEquals(expected.altitude, actual.altitude, 0.05);
+                }
+                assertEquals(Math.round(expected.cadence), actual.cadence);
+                assertEquals(expected.strideLength, actual.strideLength, 0.005f);
+                assertEquals(Math.round(expected.groundContactMs), actual.groundContactMs);
+                assertEquals(expected.isMock, actual.mock);
+                assertEquals(expected.isInterpolated, actual.interpolated);
+            }
+        }
+    }
+
+    @Test
+    public void emptyTrackRoundTrips() throws IOException {
+        TrackCodecDecoder.Track track = TrackCodecDecoder.decode(
+                TrackCodec.encode("empty", Collections.emptyList(), TrackCodec.COMPRESSION_GZIP));
+        assertEquals("empty", track.sessionId);
+        assertTrue(track.points.isEmpty());
+    }
+
+    @Test
+    public void corruptedByteFailsChecksum() {
+        byte[] data = TrackCodec.encode("run-1", syntheticRun("run-1", 300, 2), TrackCodec.COMPRESSION_DEFLATE);
+        for (int offset : new int[]{0, TrackCodec.HEADER_BYTES + 3, data.length / 2, data.length - 1}) {
+            byte[] copy = data.clone();
+            copy[offset] ^= 0x10;
+            try {
+                TrackCodecDecoder.decode(copy);
+                fail("第 " + offset + " 字节损坏未被发现");
+            } catch (IOException expected) {
+                assertTrue(expected.getMessage().contains("CRC32"));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownCompression() {
+        TrackCodec.encode("run-1", new ArrayList<>(), 7);
+    }
+
+    @Test
+    public void typicalRunIsTenTimesSmallerThanJson() throws IOException {
+        // 1 小时、1 Hz 的跑步
+        List<LocationEntity> points = syntheticRun("run-typical", 3600, 3);
+        byte[] json = toJson(points).getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream gz = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gz)) {
+            out.write(json);
+        }
+
+        // 压缩编码应 ≥ 10 倍小于逐点 JSON，且小于 gzip 后的 JSON
+        for (int compression : COMPRESSIONS) {
+            byte[] encoded = TrackCodec.encode("run-typical", points, compression);
+            if (compression != TrackCodec.COMPRESSION_NONE) {
+                assertTrue("压缩后应 ≥ 10 倍小于 JSON: " + encoded.length + " vs " + json.length,
+                        encoded.length * 10L <= json.length);
+                assertTrue(encoded.length < gz.size());
+            }
+        }
+    }
+
+    /** 逐点 JSON（getOfflineLocations 的字段），作为体积基线 */
+    private static String toJson(List<LocationEntity> points) {
+        StringBuilder sb = new StringBuilder("[");
+        for (LocationEntity p : points) {
+            if (sb.length() > 1) sb.append(',');
+            sb.append("{\"id\":").append(p.id)
+                    .append(",\"lat\":").append(p.latitude)
+                    .append(",\"lng\":").append(p.longitude)
+                    .append(",\"accuracy\":").append(p.accuracy)
+                    .append(",\"speed\":").append(p.speed)
+                    .append(",\"bearing\":").append(p.bearing)
+                    .append(",\"timestamp\":").append(p.timestamp)
+                    .append(",\"isMock\":").append(p.isMock)
+                    .append(",\"interpolated\":").append(p.isInterpolated)
+                    .append(",\"cadence\":").append(p.cadence)
+                    .append(",\"strideLength\":").append(p.strideLength)
+                    .append(",\"groundContactMs\":").append(p.groundContactMs);
+            if (p.altitude != null) sb.append(",\"altitude\":").append(p.altitude.doubleValue());
+            sb.append(",\"coordSystem\":\"gcj02\"}");
+        }
+        return sb.append(']').toString();
+    }
+
+    /** 模拟一次跑步：约 3 m/s、航向随机游走、±2 m 定位噪声、约 1 s 间隔，偶有航位推算插值点 */
+    static List<LocationEntity> syntheticRun(String sessionId, int n, long seed) {
+        Random random = new Random(seed);
+        double metersPerDeg = 6378137.0 * Math.PI / 180.0;
+        double lat = 39.9;
+        double lng = 116.4;
+        double heading = random.nextDouble() * 2 * Math.PI;
+        double altitude = 50.0;
+        long timestamp = 1_700_000_000_000L;
+        List<LocationEntity> points = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            heading += random.nextGaussian() * 0.1;
+            double speed = 3.0 + random.nextGaussian() * 0.3;
+            lat += speed * Math.cos(heading) / metersPerDeg;
+            lng += speed * Math.sin(heading) / (metersPerDeg * Math.cos(Math.toRadians(lat)));
+            altitude += random.nextGaussian() * 0.2;
+            timestamp += 1000 + random.nextInt(40) - 20;
+
+            LocationEntity p = new LocationEntity();
+            p.id = i + 1;
+            p.sessionId = sessionId;
+            p.latitude = lat + random.nextGaussian() * 2.0 / metersPerDeg;
+            p.longitude = lng + random.nextGaussian() * 2.0 / metersPerDeg;
+            p.timestamp = timestamp;
+            p.accuracy = 3f + random.nextFloat() * 12f;
+            p.speed = (float) speed;
+            p.bearing = (float) ((Math.toDegrees(heading) % 360 + 360) % 360);
+            p.isInterpolated = random.nextInt(200) == 0;
+            p.cadence = 165f + random.nextFloat() * 15f;
+            p.strideLength = (float) (speed * 60.0 / p.cadence);
+            p.groundContactMs = 220f + random.nextFloat() * 40f;
+            p.altitude = i % 500 == 0 ? null : altitude;
+            points.add(p);
+        }
+        return points;
+    }
+}
@@ -0,0 +1,78 @@
+package com.xiangfei.citylord;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TrackExporterTest {
+
+    private static String fixed(double value, int decimals) {
+        StringBuilder sb = new StringBuilder();
+        TrackExporter.appendFixed(sb, value, decimals);
+        return sb.toString();
+    }
+
+    @Test
+    public void appendFixedRoundsAndPads() {
+        assertEquals("3.1", fixed(3.14159, 1));
+        assertEquals("2.72", fixed(2.71828, 2));
+        assertEquals("10.0", fixed(9.96, 1));
+        assertEquals("114.0000012", fixed(114.0000012, 7));
+        assertEquals("22.5400000", fixed(22.54, 7));
+        assertEquals("0.05", fixed(0.05, 2));
+        assertEquals("42", fixed(41.6, 0));
+    }
+
+    @Test
+    public void appendFixedNegatives() {
+        assertEquals("-0.1", fixed(-0.05, 1));
+        assertEquals("-12.35", fixed(-12.345, 2));
+        assertEquals("-33.8688197", fixed(-33.8688197, 7));
+        // 舍入为零时不输出 "-0.0"
+        assertEquals("0.0", fixed(-0.04, 1));
+        assertEquals("0.00", fixed(-0.0, 2));
+    }
+
+    @Test
+    public void appendFixedNeverUsesScientificNotation() {
+        assertEquals("0.0000001", fixed(1e-7, 7));
+        assertEquals("12345678.9", fixed(1.23456789e7, 1));
+    }
+
+    @Test
+    public void gcj02ToWgs84InvertsForwardOffset() {
+        double[][] wgs = {{39.9087, 116.3975}, {22.5431, 114.0579}, {31.2304, 121.4737}, {43.8171, 87.6168}};
+        double[] offset = new double[2];
+        double[] back = new double[2];
+        for (double[] p : wgs) {
+            TrackExporter.gcj02Offset(p[0], p[1], offset);
+            // 国内偏移量级为数百米
+            assertTrue(Math.abs(offset[0]) + Math.abs(offset[1]) > 0.001);
+            assertTrue(Math.abs(offset[0]) < 0.01 && Math.abs(offset[1]) < 0.01);
+            TrackExporter.gcj02ToWgs84(p[0] + offset[0], p[1] + offset[1], back);
+            // 约 1 厘米
+            assertEquals(p[0], back[0], 1e-7);
+            assertEquals(p[1], back[1], 1e-7);
+        }
+    }
+
+    @Test
+    public void gcj02ToWgs84KnownOffsetInBeijing() {
+        double[] out = new double[2];
+        TrackExporter.gcj02ToWgs84(39.9087, 116.3975, out);
+        // 北京地区 GCJ-02 相对 WGS-84 约北偏 0.0013°、东偏 0.0062°
+        assertEquals(39.9087 - 0.0013, out[0], 0.0003);
+        assertEquals(116.3975 - 0.0062, out[1], 0.0003);
+    }
+
+    @Test
+    public void gcj02ToWgs84LeavesPointsOutsideChina() {
+        double[] out = new double[2];
+        TrackExporter.gcj02ToWgs84(51.5074, -0.1278, out);
+        assertEquals(51.5074, out[0], 0.0);
+        assertEquals(-0.1278, out[1], 0.0);
+        TrackExporter.gcj02ToWgs84(-33.8688, 151.2093, out);
+        assertEquals(-33.8688, out[0], 0.0);
+        assertEquals(151.2093, out[1], 0.0);
+    }
+}
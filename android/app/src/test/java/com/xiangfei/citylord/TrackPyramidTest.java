@@ -0,0 +1,142 @@
+package com.xiangfei.citylord;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TrackPyramidTest {
+
+    private static final double LAT = 22.54;
+    private static final double LNG = 114.06;
+    /** 每点 10 米 */
+    private static final double STEP_DEG = 10.0 / 111_320.0;
+    private static final int CHUNK = TrackPyramid.CHUNK;
+
+    /** 正北直线 n 个点 */
+    private static TrackPyramid straight(int n) {
+        TrackPyramid pyramid = new TrackPyramid("run-1");
+        for (int i = 0; i < n; i++) pyramid.append(i + 1, LAT + i * STEP_DEG, LNG);
+        return pyramid;
+    }
+
+    /** U 形：向北一块、向东一块、向南一块，恰好封闭 3 块且没有尾块线段 */
+    private static TrackPyramid uShape() {
+        TrackPyramid pyramid = new TrackPyramid("run-u");
+        int id = 1;
+        for (int i = 0; i <= CHUNK; i++) pyramid.append(id++, LAT + i * STEP_DEG, LNG);
+        double top = LAT + CHUNK * STEP_DEG;
+        for (int i = 1; i <= CHUNK; i++) pyramid.append(id++, top, LNG + i * STEP_DEG);
+        double east = LNG + CHUNK * STEP_DEG;
+        for (int i = 1; i <= CHUNK; i++) pyramid.append(id++, top - i * STEP_DEG, east);
+        return pyramid;
+    }
+
+    private static void assertConsecutive(TrackPyramid.Slice slice, int from, int to) {
+        assertEquals(to - from + 1, slice.vertexCount);
+        for (int k = 0; k < slice.vertexCount; k++) {
+            assertEquals(Math.round((LAT + (from + k) * STEP_DEG) * 1e6), slice.latE6[k]);
+        }
+    }
+
+    @Test
+    public void rawQueryAcrossSealedChunkBoundary() {
+        TrackPyramid pyramid = straight(600);
+        // 视口只覆盖第 200–300 个点：跨越块 0 / 块 1 的边界（下标 256），两块整体输出为一段，边界点不重复
+        TrackPyramid.Slice slice = pyramid.query(LAT + 200 * STEP_DEG, LNG - 0.001,
+                LAT + 300 * STEP_DEG, LNG + 0.001, TrackPyramid.RAW_ZOOM);
+        assertEquals(-1, slice.levelZoom);
+        assertEquals(1, slice.partCount);
+        assertConsecutive(slice, 0, 2 * CHUNK);
+        assertEquals(slice.vertexCount, slice.partSizes[0]);
+
+        TrackPyramid.Slice all = pyramid.query(LAT - 0.01, LNG - 0.01, LAT + 0.1, LNG + 0.01, 18);
+        assertEquals(1, all.partCount);
+        assertConsecutive(all, 0, 599);
+    }
+
+    @Test
+    public void nonAdjacentChunksSplitIntoParts() {
+        TrackPyramid pyramid = uShape();
+        assertEquals(3 * CHUNK + 1, pyramid.getPointCount());
+        // 南侧窄条：与北行块、南行块相交，与顶部的东行块不相交
+        TrackPyramid.Slice slice = pyramid.query(LAT - 0.0001, LNG - 0.0001,
+                LAT + 10 * STEP_DEG, LNG + (CHUNK + 1) * STEP_DEG, TrackPyramid.RAW_ZOOM);
+        assertEquals(2, slice.partCount);
+        assertEquals(CHUNK + 1, slice.partSizes[0]);
+        assertEquals(CHUNK + 1, slice.partSizes[1]);
+        assertEquals(Math.round(LAT * 1e6), slice.latE6[0]);
+        assertEquals(Math.round(LAT * 1e6), slice.latE6[slice.vertexCount - 1]);
+    }
+
+    @Test
+    public void simplifiedLevelKeepsCornersOnly() {
+        TrackPyramid pyramid = uShape();
+        TrackPyramid.Slice slice = pyramid.query(LAT - 0.01, LNG - 0.01, LAT + 0.1, LNG + 0.1, 12);
+        assertEquals(12, slice.levelZoom);
+        assertEquals(1, slice.partCount);
+        // 起点、两个拐角、终点
+        assertEquals(4, slice.vertexCount);
+        double[] bounds = pyramid.getBounds();
+        assertEquals(LAT, bounds[0], 1e-6);
+        assertEquals(LNG + CHUNK * STEP_DEG, bounds[3], 1e-6);
+    }
+
+    @Test
+    public void unsealedTailIsQueriedAndSimplified() {
+        TrackPyramid pyramid = straight(CHUNK + 44);
+        // 只覆盖尾块的视口：从块边界点开始
+        TrackPyramid.Slice tail = pyramid.query(LAT + (CHUNK + 10) * STEP_DEG, LNG - 0.001,
+                LAT + (CHUNK + 40) * STEP_DEG, LNG + 0.001, TrackPyramid.RAW_ZOOM);
+        assertEquals(1, tail.partCount);
+        assertConsecutive(tail, CHUNK, CHUNK + 43);
+
+        // 简化层级：封闭块保留首尾，尾块即时简化后与之相接，共用的块边界点只出现一次
+        TrackPyramid.Slice simplified = pyramid.query(LAT - 0.01, LNG - 0.01, LAT + 0.1, LNG + 0.01, 14);
+        assertEquals(1, simplified.partCount);
+        assertEquals(3, simplified.vertexCount);
+        assertEquals(Math.round((LAT + CHUNK * STEP_DEG) * 1e6), simplified.latE6[1]);
+        assertEquals(Math.round((LAT + (CHUNK + 43) * STEP_DEG) * 1e6), simplified.latE6[2]);
+    }
+
+    @Test
+    public void singlePointAndEmptyViewport() {
+        TrackPyramid pyramid = straight(1);
+        TrackPyramid.Slice slice = pyramid.query(LAT - 0.001, LNG - 0.001, LAT + 0.001, LNG + 0.001, 10);
+        assertEquals(1, slice.partCount);
+        assertEquals(1, slice.vertexCount);
+
+        TrackPyramid.Slice miss = straight(600).query(LAT + 1, LNG + 1, LAT + 2, LNG + 2, 16);
+        assertEquals(0, miss.partCount);
+        assertEquals(0, miss.vertexCount);
+        assertEquals(0, miss.encode().length);
+    }
+
+    @Test
+    public void appendDeduplicatesByRowId() {
+        TrackPyramid pyramid = straight(10);
+        assertFalse(pyramid.append(5, LAT, LNG));
+        assertFalse(pyramid.append(10, LAT, LNG));
+        assertTrue(pyramid.append(11, LAT + 10 * STEP_DEG, LNG));
+        // rowId ≤ 0 不参与去重
+        assertTrue(pyramid.append(0, LAT + 11 * STEP_DEG, LNG));
+        assertEquals(12, pyramid.getPointCount());
+        assertEquals(11, pyramid.getLastRowId());
+    }
+
+    @Test
+    public void levelSelection() {
+        assertEquals(0, TrackPyramid.levelFor(3));
+        assertEquals(0, TrackPyramid.levelFor(8));
+        assertEquals(1, TrackPyramid.levelFor(9));
+        assertEquals(TrackPyramid.LEVEL_ZOOMS.length - 1, TrackPyramid.levelFor(16));
+        assertEquals(-1, TrackPyramid.levelFor(TrackPyramid.RAW_ZOOM));
+        assertEquals(TrackPyramid.RAW_ZOOM, TrackPyramid.zoomForResolution(0, LAT));
+        // 赤道 z0 约 156543 米 / 像素，每级减半；向上取整到不粗于所需分辨率的缩放
+        assertEquals(10, TrackPyramid.zoomForResolution(156_543.0 / 1000, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvertedBounds() {
+        straight(10).query(LAT + 1, LNG, LAT, LNG + 1, 12);
+    }
+}
@@ -0,0 +1,332 @@
+package com.xiangfei.citylord;
+
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.xiangfei.citylord.db.LocationEntity;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * TrackUploader 集成测试：本地 HTTP 服务作为服务端替身（TrackCodecDecoder 解码、按 Idempotency-Key 去重），
+ * 注入 503 / 提交后丢响应 / 413 / 401，验证续传、幂等与确认水位。
+ */
+public class TrackUploaderTest {
+
+    private static final String TOKEN = "test-token";
+
+    private HttpServer server;
+    private URL endpoint;
+
+    // ---- 服务端替身状态（仅在服务端线程写，测试线程在 syncAll 返回后读） ----
+    private final Map<String, List<Long>> received = new LinkedHashMap<>();
+    private final Set<String> committedKeys = new HashSet<>();
+    private int duplicateDeliveries;
+    private final Random faults = new Random(11);
+    /** 请求失败注入：先于提交返回 503 的概率 / 提交后返回 500（响应丢失）的概率 */
+    private double failBeforeCommit;
+    private double failAfterCommit;
+    /** 点数超过此值返回 413；≤ 0 表示不限 */
+    private int maxPointsPerRequest;
+    /** 第几个请求（从 1 计）提交后返回 500；0 表示不注入 */
+    private int dropResponseAtRequest;
+    private int requestCount;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/tracks", this::handle);
+        server.start();
+        endpoint = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/tracks");
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void resumesThroughInjectedFailuresWithoutDuplicates() {
+        failBeforeCommit = 0.2;
+        failAfterCommit = 0.1;
+        MemoryStore store = new MemoryStore();
+        store.add("run-a", 5000, 1);
+        store.add("run-b", 3100, 2);
+        store.add("run-c", 7, 3);
+
+        int chunkPoints = 1000;
+        int failures = 0;
+        int rounds = 0;
+        TrackUploader.Stats stats;
+        do {
+            // 每轮相当于 WorkManager 的一次（重试）执行：与 TrackSyncWorker 一样新建 uploader，块大小取自上一轮
+            assertTrue("重试轮数过多", ++rounds <= 200);
+            TrackUploader uploader = new TrackUploader(endpoint, TOKEN, store).setChunkPoints(chunkPoints);
+            stats = uploader.syncAll(null);
+            assertNotEquals(TrackUploader.OUTCOME_FATAL, stats.outcome);
+            chunkPoints = uploader.getChunkPoints();
+            failures += stats.failures;
+        } while (stats.outcome != TrackUploader.OUTCOME_COMPLETE);
+
+        for (Map.Entry<String, List<LocationEntity>> session : store.sessions.entrySet()) {
+            List<Long> got = received.get(session.getKey());
+            assertNotNull(got);
+            assertEquals("每个点恰好送达一次", session.getValue().size(), got.size());
+            for (int i = 0; i < got.size(); i++) {
+                assertEquals(session.getValue().get(i).timestamp, (long) got.get(i));
+                assertTrue(session.getValue().get(i).isUploaded);
+                // JS 侧的确认（acknowledgeLocations）不受原生上传影响
+                assertFalse(session.getValue().get(i).isAcked);
+            }
+        }
+        assertTrue(store.pendingSessions().isEmpty());
+        assertTrue(store.inFlight.isEmpty());
+        assertTrue("应注入过提交后丢响应", duplicateDeliveries > 0);
+        assertTrue(failures > 0);
+    }
+
+    @Test
+    public void lostResponseAfterShrinkResendsSameRange() {
+        maxPointsPerRequest = 600;
+        dropResponseAtRequest = 3;
+        MemoryStore store = new MemoryStore();
+        store.add("run-a", 2500, 8);
+
+        // 2000 → 413，1000 → 413，500 提交后响应丢失
+        TrackUploader.Stats stats = new TrackUploader(endpoint, TOKEN, store).syncAll(null);
+        assertEquals(TrackUploader.OUTCOME_RETRY, stats.outcome);
+        assertEquals(500, received.get("run-a").size());
+        assertEquals(2500, store.unuploaded("run-a"));
+
+        // 下一轮：新 uploader、默认块大小，服务端也不再限制点数；在途块仍按原区间、原幂等键重发
+        maxPointsPerRequest = 0;
+        stats = new TrackUploader(endpoint, TOKEN, store).syncAll(null);
+        assertEquals(TrackUploader.OUTCOME_COMPLETE, stats.outcome);
+        assertEquals(1, duplicateDeliveries);
+        assertEquals(2500, received.get("run-a").size());
+        assertEquals(0, store.unuploaded("run-a"));
+    }
+
+    @Test
+    public void retryThenOtherSessionKeepsInFlightRange() {
+        dropResponseAtRequest = 1;
+        MemoryStore store = new MemoryStore();
+        store.add("run-a", 1500, 9);
+        store.add("run-b", 1200, 10);
+
+        // run-a 的首块提交后响应丢失，本轮 RETRY
+        TrackUploader.Stats stats = new TrackUploader(endpoint, TOKEN, store).setChunkPoints(1000).syncAll(null);
+        assertEquals(TrackUploader.OUTCOME_RETRY, stats.outcome);
+        assertNotNull(store.inFlight("run-a"));
+
+        // 下一轮先处理 run-b、块大小已变：run-b 的在途块不能覆盖 run-a 的，run-a 仍按原区间、原幂等键重发
+        store.reverseSessions = true;
+        stats = new TrackUploader(endpoint, TOKEN, store).syncAll(null);
+        assertEquals(TrackUploader.OUTCOME_COMPLETE, stats.outcome);
+        assertEquals(1, duplicateDeliveries);
+        assertEquals(1500, received.get("run-a").size());
+        assertEquals(1200, received.get("run-b").size());
+        assertTrue(store.inFlight.isEmpty());
+    }
+
+    @Test
+    public void shrinksChunkOnPayloadTooLarge() {
+        maxPointsPerRequest = 600;
+        MemoryStore store = new MemoryStore();
+        store.add("run-a", 2500, 4);
+        TrackUploader uploader = new TrackUploader(endpoint, TOKEN, store);
+
+        TrackUploader.Stats stats = uploader.syncAll(null);
+        assertEquals(TrackUploader.OUTCOME_COMPLETE, stats.outcome);
+        assertEquals(500, uploader.getChunkPoints());
+        assertEquals(2, stats.failures);
+        assertEquals(2500, stats.points);
+        assertEquals(2500, received.get("run-a").size());
+    }
+
+    @Test
+    public void unauthorizedIsFatalAndLeavesPointsUnuploaded() {
+        MemoryStore store = new MemoryStore();
+        store.add("run-a", 1200, 5);
+        TrackUploader.Stats stats = new TrackUploader(endpoint, "wrong-token", store).syncAll(null);
+        assertEquals(TrackUploader.OUTCOME_FATAL, stats.outcome);
+        assertEquals(401, stats.lastStatus);
+        assertEquals(0, stats.points);
+        assertEquals(1200, store.unuploaded("run-a"));
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void networkErrorIsRetried() throws IOException {
+        MemoryStore store = new MemoryStore();
+        store.add("run-a", 100, 6);
+        server.stop(0);
+        TrackUploader.Stats stats = new TrackUploader(endpoint, TOKEN, store).syncAll(null);
+        assertEquals(TrackUploader.OUTCOME_RETRY, stats.outcome);
+        assertEquals(-1, stats.lastStatus);
+        assertEquals(100, store.unuploaded("run-a"));
+        startServer();
+    }
+
+    @Test
+    public void stopSignalEndsRoundAfterCurrentChunk() {
+        MemoryStore store = new MemoryStore();
+        store.add("run-a", 3000, 7);
+        int[] checks = {0};
+        TrackUploader uploader = new TrackUploader(endpoint, TOKEN, store).setChunkPoints(1000);
+        TrackUploader.Stats stats = uploader.syncAll(() -> ++checks[0] > 1);
+        assertEquals(TrackUploader.OUTCOME_RETRY, stats.outcome);
+        assertEquals(1, stats.chunks);
+        assertEquals(2000, store.unuploaded("run-a"));
+
+        stats = uploader.syncAll(null);
+        assertEquals(TrackUploader.OUTCOME_COMPLETE, stats.outcome);
+        assertEquals(3000, received.get("run-a").size());
+    }
+
+    // ---- 服务端替身 ----
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body = readAll(exchange.getRequestBody());
+        requestCount++;
+        String auth = exchange.getRequestHeaders().getFirst("Authorization");
+        if (!("Bearer " + TOKEN).equals(auth)) {
+            respond(exchange, 401);
+            return;
+        }
+        int count = Integer.parseInt(exchange.getRequestHeaders().getFirst("X-Track-Points"));
+        if (maxPointsPerRequest > 0 && count > maxPointsPerRequest) {
+            respond(exchange, 413);
+            return;
+        }
+        if (faults.nextDouble() < failBeforeCommit) {
+            respond(exchange, 503);
+            return;
+        }
+        TrackCodecDecoder.Track track;
+        try {
+            track = TrackCodecDecoder.decode(body);
+        } catch (IOException e) {
+            respond(exchange, 400);
+            return;
+        }
+        String key = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+        if (key == null || !key.startsWith(track.sessionId + ":") || track.points.size() != count) {
+            respond(exchange, 400);
+            return;
+        }
+        if (committedKeys.add(key)) {
+            List<Long> timestamps = received.computeIfAbsent(track.sessionId, k -> new ArrayList<>());
+            for (TrackCodecDecoder.Point p : track.points) timestamps.add(p.timestamp);
+        } else {
+            duplicateDeliveries++;
+        }
+        boolean drop = requestCount == dropResponseAtRequest || faults.nextDouble() < failAfterCommit;
+        respond(exchange, drop ? 500 : 200);
+    }
+
+    private static void respond(HttpExchange exchange, int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+
+    /** 与 Room 实现语义一致的内存 Store：id 全局递增，isUploaded 为确认水位，在途块跨 uploader 保留 */
+    private static final class MemoryStore implements TrackUploader.Store {
+        final Map<String, List<LocationEntity>> sessions = new LinkedHashMap<>();
+        private long nextId = 1;
+        final Map<String, long[]> inFlight = new HashMap<>();
+        /** 倒序返回待传会话，模拟 DISTINCT 查询不保证顺序 */
+        boolean reverseSessions;
+
+        void add(String sessionId, int n, long seed) {
+            List<LocationEntity> points = TrackCodecTest.syntheticRun(sessionId, n, seed);
+            for (LocationEntity p : points) p.id = nextId++;
+            sessions.put(sessionId, points);
+        }
+
+        int unuploaded(String sessionId) {
+            int n = 0;
+            for (LocationEntity p : sessions.get(sessionId)) if (!p.isUploaded) n++;
+            return n;
+        }
+
+        @Override
+        public List<String> pendingSessions() {
+            List<String> out = new ArrayList<>();
+            for (String sessionId : sessions.keySet()) {
+                if (unuploaded(sessionId) > 0) out.add(sessionId);
+            }
+            if (reverseSessions) Collections.reverse(out);
+            return out;
+        }
+
+        @Override
+        public List<LocationEntity> nextChunk(String sessionId, int limit) {
+            List<LocationEntity> out = new ArrayList<>();
+            for (LocationEntity p : sessions.get(sessionId)) {
+                if (p.isUploaded) continue;
+                out.add(p);
+                if (out.size() >= limit) break;
+            }
+            return out;
+        }
+
+        @Override
+        public void ack(String sessionId, long throughId) {
+            for (LocationEntity p : sessions.get(sessionId)) {
+                if (p.id <= throughId) p.isUploaded = true;
+            }
+        }
+
+        @Override
+        public List<LocationEntity> range(String sessionId, long firstId, long lastId) {
+            List<LocationEntity> out = new ArrayList<>();
+            for (LocationEntity p : sessions.get(sessionId)) {
+                if (!p.isUploaded && p.id >= firstId && p.id <= lastId) out.add(p);
+            }
+            return out;
+        }
+
+        @Override
+        public long[] inFlight(String sessionId) {
+            return inFlight.get(sessionId);
+        }
+
+        @Override
+        public void setInFlight(String sessionId, long firstId, long lastId) {
+            inFlight.put(sessionId, new long[]{firstId, lastId});
+        }
+
+        @Override
+        public void clearInFlight(String sessionId) {
+            inFlight.remove(sessionId);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.xiangfei.citylord.db;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * SpatialIndex 单元测试：Z 序键、矩形拆区间的正确性，
+ * 以及 100 万历史点下"区间 + 有序键"（模拟 spatialKey B-tree 索引）与全表扫描结果一致、多余候选行有限。
+ */
+public class SpatialIndexTest {
+
+    @Test
+    public void keyPreservesAxisOrderWithinCell() {
+        long a = SpatialIndex.key(39.9, 116.4);
+        assertEquals(a, SpatialIndex.key(39.9, 116.4));
+        assertTrue(a > 0);
+        // 同一 Z 序父格内，东侧 / 北侧的键更大
+        assertTrue(SpatialIndex.interleave(2, 0) > SpatialIndex.interleave(1, 0));
+        assertTrue(SpatialIndex.interleave(0, 1) > SpatialIndex.interleave(1, 0));
+        assertEquals(0L, SpatialIndex.interleave(0, 0));
+        assertEquals((1L << 62) - 1, SpatialIndex.interleave(Integer.MAX_VALUE, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void rangesAreSortedDisjointAndBounded() {
+        long[] ranges = SpatialIndex.ranges(39.90, 116.38, 39.92, 116.41, SpatialIndex.MAX_RANGES);
+        assertTrue(ranges.length >= 2);
+        assertTrue(ranges.length / 2 <= SpatialIndex.MAX_RANGES);
+        for (int i = 0; i < ranges.length; i += 2) {
+            assertTrue(ranges[i] <= ranges[i + 1]);
+            if (i > 0) assertTrue(ranges[i - 1] + 1 < ranges[i]);
+        }
+    }
+
+    @Test
+    public void everyPointInsideBoundsIsCovered() {
+        Random random = new Random(3);
+        for (int trial = 0; trial < 200; trial++) {
+            double minLat = 22 + random.nextDouble() * 18;
+            double minLng = 100 + random.nextDouble() * 20;
+            double maxLat = minLat + random.nextDouble() * 0.05;
+            double maxLng = minLng + random.nextDouble() * 0.05;
+            long[] ranges = SpatialIndex.ranges(minLat, minLng, maxLat, maxLng, SpatialIndex.MAX_RANGES);
+            for (int i = 0; i < 200; i++) {
+                double lat = minLat + random.nextDouble() * (maxLat - minLat);
+                double lng = minLng + random.nextDouble() * (maxLng - minLng);
+                assertTrue(covered(ranges, SpatialIndex.key(lat, lng)));
+            }
+            // 四个角也必须覆盖（闭区间）
+            assertTrue(covered(ranges, SpatialIndex.key(minLat, minLng)));
+            assertTrue(covered(ranges, SpatialIndex.key(maxLat, maxLng)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvertedBounds() {
+        SpatialIndex.ranges(40, 117, 39, 116, SpatialIndex.MAX_RANGES);
+    }
+
+    @Test
+    public void distanceAndBoundsAroundAgree() {
+        double[] b = SpatialIndex.boundsAround(39.9, 116.4, 500);
+        assertEquals(500, SpatialIndex.distanceMeters(39.9, 116.4, b[2], 116.4), 0.5);
+        assertEquals(500, SpatialIndex.distanceMeters(39.9, 116.4, 39.9, b[3]), 0.5);
+    }
+
+    @Test
+    public void millionPointRangesMatchFullScan() {
+        int n = 1_000_000;
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        // 约 400 次跑步、每次 2500 点的随机游走，分布在 40 km 见方的城区内
+        Random random = new Random(11);
+        int perRun = 2500;
+        for (int run = 0, i = 0; i < n; run++) {
+            double lat = 39.75 + random.nextDouble() * 0.36;
+            double lng = 116.20 + random.nextDouble() * 0.47;
+            double heading = random.nextDouble() * Math.PI * 2;
+            for (int k = 0; k < perRun && i < n; k++, i++) {
+                heading += (random.nextDouble() - 0.5) * 0.3;
+                lat += Math.sin(heading) * 3e-5;
+                lng += Math.cos(heading) * 4e-5;
+                lats[i] = lat;
+                lngs[i] = lng;
+            }
+        }
+
+        // 模拟 spatialKey 索引：按键排序的 (key, rowid)
+        long[] index = new long[n];
+        for (int i = 0; i < n; i++) index[i] = SpatialIndex.key(lats[i], lngs[i]);
+        int[] order = sortedOrder(index);
+        long[] sortedKeys = new long[n];
+        for (int i = 0; i < n; i++) sortedKeys[i] = index[order[i]];
+
+        int queries = 200;
+        long candidates = 0;
+        long matches = 0;
+        for (int q = 0; q < queries; q++) {
+            // 街区级查询框：200 m – 1 km
+            double minLat = 39.80 + random.nextDouble() * 0.25;
+            double minLng = 116.25 + random.nextDouble() * 0.35;
+            double maxLat = minLat + (200 + random.nextDouble() * 800) / 111320.0;
+            double maxLng = minLng + (200 + random.nextDouble() * 800) / 85000.0;
+
+            long[] ranges = SpatialIndex.ranges(minLat, minLng, maxLat, maxLng, SpatialIndex.MAX_RANGES);
+            int viaIndex = 0;
+            for (int r = 0; r < ranges.length; r += 2) {
+                int pos = lowerBound(sortedKeys, ranges[r]);
+                for (; pos < n && sortedKeys[pos] <= ranges[r + 1]; pos++) {
+                    candidates++;
+                    int row = order[pos];
+                    if (lats[row] >= minLat && lats[row] <= maxLat && lngs[row] >= minLng && lngs[row] <= maxLng) {
+                        viaIndex++;
+                    }
+                }
+            }
+
+            int viaScan = 0;
+            for (int i = 0; i < n; i++) {
+                if (lats[i] >= minLat && lats[i] <= maxLat && lngs[i] >= minLng && lngs[i] <= maxLng) viaScan++;
+            }
+            assertEquals(viaScan, viaIndex);
+            matches += viaIndex;
+        }
+        assertTrue(matches > 0);
+        // 索引扫描的多余行应当有限（边缘格被经纬度条件过滤）
+        assertTrue(candidates < matches * 4 + queries * 64L);
+    }
+
+    private static boolean covered(long[] ranges, long key) {
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (key >= ranges[i] && key <= ranges[i + 1]) return true;
+        }
+        return false;
+    }
+
+    private static int lowerBound(long[] sorted, long key) {
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /** 按键排序后的行下标（同键按下标，等同 B-tree 索引的 (key, rowid) 顺序） */
+    private static int[] sortedOrder(long[] keys) {
+        int n = keys.length;
+        Integer[] idx = new Integer[n];
+        for (int i = 0; i < n; i++) idx[i] = i;
+        Arrays.sort(idx, (a, b) -> Long.compare(keys[a], keys[b]));
+        int[] out = new int[n];
+        for (int i = 0; i < n; i++) out[i] = idx[i];
+        return out;
+    }
+}
@@ -44,6 +44,131 @@ export interface AMapPosition {
     provider?: string;
     /** 是否可能为模拟设备或伪造位置信号（反作弊特征） */
     isMock?: boolean;
+    /** true 表示这是读取自本地缓存的最后已知位置（临时定位），真实定位随后到达 */
+    provisional?: boolean;
+    /** 临时定位的年龄（ms），仅 provisional 时存在 */
+    ageMs?: number;
+    /** true 表示 GNSS 断档期间由步数航位推算生成的插值点，断档结束后可能经 'trackReconciled' 修正 */
+    interpolated?: boolean;
+    /** 步频（步/分），仅开启 cadence 且检测到步态时存在 */
+    cadence?: number;
+    /** 步长（米/步），低速时为 0 */
+    strideLength?: number;
+    /** 单步触地时长估计（ms，提示性指标） */
+    groundContactMs?: number;
+    /** 跑步中：若此刻直线回到环起点（起点或上一个环的终点）可圈住的面积（m²） */
+    prospectiveArea?: number;
+    /** 跑步中：当前点到环起点的直线距离（米） */
+    distanceToLoopStart?: number;
+    /** 跑步中且设置了规划路线：到最近线段的横向距离、沿路线已完成 / 剩余距离（米）、是否处于偏航状态 */
+    routeCrossTrack?: number;
+    routeProgress?: number;
+    routeRemaining?: number;
+    routeOffCourse?: boolean;
+    /** 跑步中且启动了幽灵跑者：幽灵在同一用时的位置与里程（米） */
+    ghostLat?: number;
+    ghostLng?: number;
+    ghostDistance?: number;
+    /** 领先为正：米差（我的里程 − 幽灵里程）、秒差（幽灵到达我当前里程的用时 − 我的用时；超出幽灵总里程时缺省） */
+    ghostLeadMeters?: number;
+    ghostLeadSeconds?: number;
+    ghostFinished?: boolean;
+}
+
+/** GNSS 断档结束后对本次插值点的坐标修正（按 timestamp 替换已收到的点） */
+export interface TrackReconciledEvent {
+    points: Array<{ timestamp: number; lat: number; lng: number }>;
+    /** 推算终点与断档后首个好定位的距离（米） */
+    errorMeters: number;
+}
+
+/** 跑步进入新的领地格（六边形格网，外接圆半径 10 米） */
+export interface CellEnteredEvent {
+    /** 16 进制 cell ID（64 位，字符串传递避免精度丢失） */
+    cellId: string;
+    /** 本次跑步已经过的不同格子数（含该格） */
+    cellCount: number;
+    /** 格子中心 */
+    lat: number;
+    lng: number;
+    timestamp: number;
+}
+
+/** 跑步轨迹闭环：回到更早某点 30 米内且圈住面积 > 100 m² */
+export interface LoopClosedEvent {
+    /** 环在原生轨迹中的下标区间（含两端，与 JS path 下标无关，请以 timestamp 对齐） */
+    startIndex: number;
+    endIndex: number;
+    startTimestamp: number;
+    endTimestamp: number;
+    /** 闭合面积（m²，鞋带公式）与周长（米，含闭合边） */
+    area: number;
+    perimeter: number;
+    /** 环覆盖的领地格（格子中心在环内，16 进制 cell ID）；计算失败时缺省 */
+    cells?: string[];
+    /** 本地拓扑预检结果（见 validateLoop）；自交环的 cells 按修复后的子环计算 */
+    validation?: LoopValidationStatus;
+    kinkCount?: number;
+}
+
+export type LoopValidationStatus = 'valid' | 'repaired' | 'invalid';
+
+/** validateLoop 诊断项 */
+export interface LoopValidationIssue {
+    code: 'too_few_vertices' | 'duplicate_vertex' | 'spike' | 'self_intersection' | 'small_ring_dropped' | 'repair_limit';
+    /** 对应输入顶点下标；交点等新生成的点为 -1 */
+    index: number;
+    lat: number;
+    lng: number;
+    /** 附加数值（丢弃子环的面积 m² 等），无则为 0 */
+    value: number;
+}
+
+export interface LoopValidationResult {
+    status: LoopValidationStatus;
+    /** 拆开的自交数 */
+    kinkCount: number;
+    /** 清理后原始环面积与修复后各环面积之和（m²） */
+    rawArea: number;
+    finalArea: number;
+    /** 修复后的简单环（逆时针，首尾不重复） */
+    rings: Array<Array<{ lat: number; lng: number }>>;
+    issues: LoopValidationIssue[];
+}
+
+/** 进入 / 离开某领主的领地（原生缓存在每次换格时查询，息屏时同样工作） */
+export interface TerritoryEvent {
+    /** 触发事件时所在格（离开事件为离开后进入的格） */
+    cellId: string;
+    /** 领主序号（loadTerritorySnapshot 的 owners 下标 + 1） */
+    ownerIndex: number;
+    ownerId: string;
+    faction?: string;
+    relation: 'self' | 'ally' | 'enemy';
+    timestamp: number;
+}
+
+/** 规划路线偏航 / 回到路线（原生判定，带滞回；息屏时同时语音播报） */
+export interface RouteCourseEvent {
+    /** 到最近线段的横向距离（米）；搜索半径（约 400 米）内没有线段时不存在 */
+    crossTrack?: number;
+    segmentIndex?: number;
+    /** 沿路线已完成 / 剩余距离（米） */
+    progress: number;
+    remaining: number;
+    timestamp: number;
+}
+
+/** 每次定位引擎启动后的首个有效定位（TTFF 埋点） */
+export interface AMapFirstFixEvent {
+    /** 从 startLocation 到首个有效定位的耗时（ms） */
+    ttffMs: number;
+    /** 启动时高德 client 是否已预热 */
+    warm: boolean;
+    /** 触发本次启动的订阅：'service' | 'watch' | 'once' */
+    startedBy: string;
+    accuracy: number;
+    locationType: number;
 }
 
 // ---------------------------------------------------------------------------
@@ -72,6 +197,13 @@ export interface GetCurrentPositionOptions {
     timeout?: number;
     /** 允许接受 SDK 缓存的最大年龄（ms），默认 5000。设为 0 表示不接受缓存 */
     cacheMaxAge?: number;
+    /**
+     * 需要等待真实定位时，立即以最后已知位置 resolve（provisional=true），
+     * 真实定位到达后通过 'locationRefined' 事件返回，失败时触发 'locationRefineFailed'。默认 false
+     */
+    allowProvisional?: boolean;
+    /** 可接受的最后已知位置最大年龄（ms），默认 24 小时 */
+    provisionalMaxAge?: number;
 }
 
 export interface StartWatchOptions {
@@ -114,10 +246,174 @@ export interface OfflineLocationRecord {
     timestamp: number;
     /** 是否为模拟定位 */
     isMock: boolean;
+    /** 是否为航位推算插值点 */
+    interpolated: boolean;
+    /** 步频（步/分），0 表示不可用 */
+    cadence: number;
+    /** 步长（米/步），0 表示不可用 */
+    strideLength: number;
+    /** 单步触地时长估计（ms），0 表示不可用 */
+    groundContactMs: number;
+    /** 平滑后的气压高度（米），无气压计时不存在 */
+    altitude?: number;
     /** 坐标系（固定为 'gcj02'） */
     coordSystem: 'gcj02';
 }
 
+/** 空间查询返回的历史定位点（跨会话） */
+export interface SpatialLocationRecord {
+    id: number;
+    sessionId: string;
+    lat: number;
+    lng: number;
+    accuracy: number;
+    speed: number;
+    timestamp: number;
+    interpolated: boolean;
+    coordSystem: 'gcj02';
+}
+
+/** 经过查询区域的跑步会话 */
+export interface SessionHit {
+    sessionId: string;
+    /** 区域内的定位点数 */
+    pointCount: number;
+    /** 区域内首个 / 最后一个点的时间戳（ms） */
+    firstTimestamp: number;
+    lastTimestamp: number;
+}
+
+export interface BoundsQuery {
+    minLat: number;
+    minLng: number;
+    maxLat: number;
+    maxLng: number;
+}
+
+/** 个人热力图瓦片（Web Mercator z/x/y，GCJ-02） */
+export interface HeatmapTile {
+    x: number;
+    y: number;
+    /** 瓦片内总访问次数 */
+    total: number;
+    /** 单格最大访问次数（用于归一化着色） */
+    max: number;
+    /** base64：bins × bins 个 int32 大端，行优先、第 0 行在北 */
+    counts: string;
+}
+
+// ---------------------------------------------------------------------------
+// 会话汇总
+// ---------------------------------------------------------------------------
+
+export interface SessionSummary {
+    sessionId: string;
+    startedAt: number;
+    updatedAt: number;
+    /** 累计爬升（米，3 米滞回） */
+    elevationGain: number;
+    /** 累计下降（米） */
+    elevationLoss: number;
+    /** 会话内最低 / 最高气压高度（米，标准大气） */
+    minAltitude?: number;
+    maxAltitude?: number;
+    hasBarometer: boolean;
+    /** 累计里程（米）/ 用时（ms） */
+    distance: number;
+    durationMs: number;
+    /** 会话内最快 1 / 5 / 10 公里用时（ms，滑动窗口），未跑到该距离时不存在 */
+    best1kMs?: number;
+    best5kMs?: number;
+    best10kMs?: number;
+    /** 每公里分段用时（ms），不含末尾不足 1 公里的部分 */
+    splits: number[];
+}
+
+export interface BestEffort {
+    /** 目标距离（米）：1000 / 5000 / 10000 */
+    distance: number;
+    durationMs: number;
+}
+
+/** 跑步中每完成一个整公里 */
+export interface SplitEvent {
+    /** 第几公里（从 1 开始） */
+    index: number;
+    /** 该公里用时（ms） */
+    splitMs: number;
+    /** 本次跑步已用时间（ms） */
+    elapsedMs: number;
+    /** 本次跑步目前的最快用时（只含已跑到的距离） */
+    bestEfforts: BestEffort[];
+}
+
+export interface PersonalRecord extends BestEffort {
+    sessionId: string;
+    startedAt: number;
+}
+
+/** exportSession 长会话导出进度（每 5000 个点一次，点数更少的会话不触发） */
+export interface ExportProgressEvent {
+    sessionId: string;
+    written: number;
+    total: number;
+}
+
+// ---------------------------------------------------------------------------
+// 计步传感器唤醒统计
+// ---------------------------------------------------------------------------
+
+export interface StepSensorHour {
+    /** 小时起点（UTC 整点，ms） */
+    hourStart: number;
+    /** onSensorChanged 回调次数 */
+    events: number;
+    /** 投递次数（CPU 唤醒次数） */
+    wakeups: number;
+    /** 该小时内是否全程开启硬件批量上报 */
+    batched: boolean;
+}
+
+export interface StepSensorStats {
+    hours: StepSensorHour[];
+    batchedHours: number;
+    unbatchedHours: number;
+    batchedAvgWakeupsPerHour: number | null;
+    unbatchedAvgWakeupsPerHour: number | null;
+    currentHour: StepSensorHour;
+    batching: boolean;
+}
+
+// ---------------------------------------------------------------------------
+// 会话连续性报告
+// ---------------------------------------------------------------------------
+
+/** 断档原因：服务重启 / Doze / 只有定位错误 / 原地不动被 2 米过滤 / 未知 */
+export type ContinuityGapCause = 'restart' | 'doze' | 'gnss_error' | 'stationary' | 'unknown';
+
+export interface ContinuityReport {
+    sessionId: string;
+    firstTs: number;
+    lastTs: number;
+    spanMs: number;
+    points: number;
+    /** 相邻落盘点间隔超过此值记为断档（ms） */
+    thresholdMs: number;
+    gapCount: number;
+    /** 非 stationary 断档总时长（真实数据丢失） */
+    lossMs: number;
+    stationaryMs: number;
+    /** 1 - lossMs / spanMs，百分比保留一位小数 */
+    coveragePct: number;
+    longestGapMs: number;
+    longestGapStart: number;
+    longestGapCause?: ContinuityGapCause;
+    causes: Record<ContinuityGapCause, number>;
+    /** 最近 50 个断档：[startTs, durationMs, cause]，旧 → 新 */
+    gaps: Array<[number, number, ContinuityGapCause]>;
+    updatedAt: number;
+}
+
 // ---------------------------------------------------------------------------
 // Plugin 接口
 // ---------------------------------------------------------------------------
@@ -145,6 +441,58 @@ export interface AMapLocationPlugin {
         handler: (data: AMapLocationError) => void,
     ): Promise<PluginListenerHandle>;
 
+    /** allowProvisional 的 getCurrentPosition 已返回临时定位后，真实定位通过此事件到达 */
+    addListener(
+        eventName: 'locationRefined',
+        handler: (data: AMapPosition) => void,
+    ): Promise<PluginListenerHandle>;
+
+    /** allowProvisional 的 getCurrentPosition 已返回临时定位后，真实定位失败（超时为 code -2） */
+    addListener(
+        eventName: 'locationRefineFailed',
+        handler: (data: AMapLocationError) => void,
+    ): Promise<PluginListenerHandle>;
+
+    addListener(
+        eventName: 'firstFix',
+        handler: (data: AMapFirstFixEvent) => void,
+    ): Promise<PluginListenerHandle>;
+
+    addListener(
+        eventName: 'trackReconciled',
+        handler: (data: TrackReconciledEvent) => void,
+    ): Promise<PluginListenerHandle>;
+
+    addListener(
+        eventName: 'cellEntered',
+        handler: (data: CellEnteredEvent) => void,
+    ): Promise<PluginListenerHandle>;
+
+    addListener(
+        eventName: 'loopClosed',
+        handler: (data: LoopClosedEvent) => void,
+    ): Promise<PluginListenerHandle>;
+
+    addListener(
+        eventName: 'territoryEnter' | 'territoryExit',
+        handler: (data: TerritoryEvent) => void,
+    ): Promise<PluginListenerHandle>;
+
+    addListener(
+        eventName: 'offCourse' | 'backOnCourse',
+        handler: (data: RouteCourseEvent) => void,
+    ): Promise<PluginListenerHandle>;
+
+    addListener(
+        eventName: 'split',
+        handler: (data: SplitEvent) => void,
+    ): Promise<PluginListenerHandle>;
+
+    addListener(
+        eventName: 'exportProgress',
+        handler: (data: ExportProgressEvent) => void,
+    ): Promise<PluginListenerHandle>;
+
     addListener(
         eventName: 'logEvent',
         listenerFunc: (log: { eventName: string; reason?: string; data?: string; ts: number }) => void
@@ -173,6 +521,7 @@ export interface AMapLocationPlugin {
      *
      * @param options.notificationTitle 通知标题（默认 "City Lord"）
      * @param options.notificationBody  通知内容（默认 "正在追踪您的位置…"）
+     * @returns provisional: 最后已知位置（存在时），可立即居中地图；首个真实定位随后经 locationUpdate 到达
      */
     startTracking(options?: {
         notificationTitle?: string;
@@ -180,13 +529,279 @@ export interface AMapLocationPlugin {
         runId?: string;
         interval?: number;
         startedAt?: number;
-    }): Promise<void>;
+        /** 跑步中开启加速度计步频分析（步频 / 步长 / 触地提示随 locationUpdate 下发），默认 false */
+        cadence?: boolean;
+    }): Promise<{ provisional?: AMapPosition }>;
 
     /**
      * 停止前台定位 Service，移除常驻通知，释放所有定位资源。
+     * 视为用户主动停止：不再触发闹钟 / WorkManager 自动重启。
      */
     stopTracking(): Promise<void>;
 
+    /**
+     * 会话黑匣子连续性报告（随定位点增量计算并存储，无需重扫数据库）。
+     * 无该会话记录时 report 为 null。
+     */
+    getContinuityReport(options: { sessionId: string }): Promise<{ report: ContinuityReport | null }>;
+
+    /**
+     * 跑步会话汇总（跑步中约每 30 秒更新，停止追踪时写入最终值）。
+     * 爬升 / 下降来自气压计，设备无气压计时 hasBarometer 为 false。
+     * 分段与最快用时原生逐点增量计算；升级前的历史会话首次查询时回填并缓存。
+     */
+    getSessionSummary(options: { sessionId: string }): Promise<{ summary: SessionSummary | null }>;
+
+    /**
+     * 全部会话的最快 1 / 5 / 10 公里（没有跑到该距离的记录不出现）与单次最长里程（米）。
+     * backfilled：本次为历史会话回填汇总的个数（只在升级后首次调用时非 0）。
+     */
+    getPersonalRecords(): Promise<{ records: PersonalRecord[]; longestDistance: number; backfilled: number }>;
+
+    // ---- 历史轨迹空间查询（spatialKey 索引，不扫全表） ----
+    /**
+     * 矩形内的历史定位点，按 sessionId、timestamp 排序。
+     * 不传 sessionId 时跨所有会话；limit 默认 10000。
+     */
+    queryPointsInBounds(options: BoundsQuery & { sessionId?: string; limit?: number }): Promise<{ locations: SpatialLocationRecord[]; count: number }>;
+
+    /** 距 (lat, lng) radius 米以内的历史定位点 */
+    queryPointsNearby(options: {
+        lat: number;
+        lng: number;
+        radius: number;
+        sessionId?: string;
+        limit?: number;
+    }): Promise<{ locations: SpatialLocationRecord[]; count: number }>;
+
+    /** 经过矩形的历史跑步（不含 idle），最近的在前 */
+    getSessionsInBounds(options: BoundsQuery): Promise<{ sessions: SessionHit[] }>;
+
+    /**
+     * 视口内的个人热力图瓦片（原生按落盘轨迹增量维护，无需拉取历史点）。
+     * zoom 夹到 [10, 16]，单次最多 64 个瓦片（超出时 reject，应降低 zoom）；只返回有访问记录的瓦片。
+     */
+    getHeatmapTiles(options: BoundsQuery & { zoom: number }): Promise<{ zoom: number; bins: number; tiles: HeatmapTile[] }>;
+
+    /**
+     * 视口内的会话轨迹，按 zoom 取原生预简化的层级（Douglas-Peucker，容差约 1 像素；zoom ≥ 17 返回原始点），
+     * 只含与视口相交的部分。跑步中随落盘增量更新，不含航位推算插值点。
+     * data：base64 的 int32 大端 (latE6, lngE6) 顶点对（GCJ-02，度 × 1e6）；
+     * parts：依次每段折线的顶点数（视口外的部分使轨迹断开成多段）。
+     */
+    getTrackForViewport(options: BoundsQuery & { sessionId: string; zoom: number }): Promise<{
+        data: string;
+        parts: number[];
+        vertices: number;
+        totalPoints: number;
+        /** 使用的简化层级；-1 表示原始点 */
+        levelZoom: number;
+    }>;
+
+    /**
+     * 会话轨迹缩略图：原生在后台线程池（2 线程）按固定样式渲染透明底 PNG，磁盘 LRU 缓存（16 MB），
+     * 按会话、样式版本、尺寸与轨迹数据版本命名，跑步中轨迹变长会自动生成新图；已结束会话先查磁盘缓存，
+     * 定位点已被清理的历史会话只要渲染过仍可取到。
+     * url 可直接作为 <img src>；width / height 为像素，默认 320 × 200，夹到 [32, 1024]。
+     */
+    getTrackThumbnail(options: { sessionId: string; width?: number; height?: number }): Promise<{
+        url: string;
+        path: string;
+        cached: boolean;
+        width: number;
+        height: number;
+    }>;
+
+    /**
+     * 会话轨迹导出为 GPX 1.1 / TCX 文件（原生 Cursor 流式写入，内存与跑步长短无关），写入应用私有目录，
+     * 同会话同格式的再次导出覆盖旧文件。coordSystem 默认 'wgs84'（由 GCJ-02 反算，GPX / TCX 消费方的坐标系）。
+     * gzip 时文件名追加 .gz。长会话的进度见 'exportProgress' 事件。
+     */
+    exportSession(options: {
+        sessionId: string;
+        format?: 'gpx' | 'tcx';
+        gzip?: boolean;
+        coordSystem?: 'wgs84' | 'gcj02';
+    }): Promise<{
+        path: string;
+        url: string;
+        format: 'gpx' | 'tcx';
+        gzip: boolean;
+        points: number;
+        bytes: number;
+    }>;
+
+    /**
+     * 会话轨迹编码为紧凑二进制上传格式（TrackCodec v1：版本化头部、列式差分 varint、量化质量字段、
+     * 压缩正文与 CRC32 尾部），典型跑步比逐点 JSON 小一个数量级以上。compression 默认 'gzip'。
+     */
+    encodeSession(options: { sessionId: string; compression?: 'none' | 'deflate' | 'gzip' }): Promise<{
+        /** base64 */
+        data: string;
+        bytes: number;
+        points: number;
+        version: number;
+    }>;
+
+    /**
+     * 原生轨迹上传（WorkManager）：开启后，用户结束跑步时与每 6 小时在满足约束（联网、可选非计费网络 / 充电）时，
+     * 把已结束跑步的未上传点按 TrackCodec gzip 分块 POST 到 endpoint（头部 Idempotency-Key、Authorization: Bearer），
+     * 服务端 2xx 确认后标记为已上传（原生 isUploaded，与 acknowledgeLocations 的已同步标记独立，
+     * getOfflineLocations 的返回不受影响）。进行中的跑步不上传；被杀后 1 小时内未恢复的跑步视为已结束。
+     * 响应丢失的块按同一区间与 Idempotency-Key 重发。开启期间，3 天前的旧点须已上传才会被清理。
+     * 失败指数退避重试；鉴权失败等 4xx 不再重试，需重新配置。endpoint 为空表示关闭。
+     */
+    configureTrackSync(options: {
+        endpoint?: string | null;
+        authToken?: string;
+        requiresCharging?: boolean;
+        unmeteredOnly?: boolean;
+    }): Promise<{ enabled: boolean }>;
+
+    /** 原生轨迹上传状态与累计指标（字节为实际发出的请求正文，含失败重发） */
+    getTrackSyncStatus(): Promise<{
+        enabled: boolean;
+        /** 跑步会话（不含 idle）中尚未由原生上传确认的点数 */
+        pendingPoints: number;
+        totalPoints: number;
+        totalBytes: number;
+        totalChunks: number;
+        lastRunAt?: number;
+        lastOutcome?: 'complete' | 'retry' | 'fatal';
+        lastError?: string;
+        lastPointsPerSec?: number;
+        lastBytesPerSec?: number;
+    }>;
+
+    /**
+     * 本次跑步经过的领地格（服务被杀恢复后由已落盘轨迹重建）。
+     * cells 与 'cellEntered' 的 cellId 同格式，无序。
+     */
+    getRunCells(): Promise<{ sessionId: string | null; count: number; cells: string[] }>;
+
+    /**
+     * 任意闭合环覆盖的领地格（格子中心在环内即计入，与 cellEntered 同一格网），
+     * 大环在原生侧多核并行计算。首尾点相同与否均可。
+     */
+    polyfillLoop(options: { points: Array<{ lat: number; lng: number }> }): Promise<{ cells: string[] }>;
+
+    /**
+     * 闭合环上传前的本地拓扑预检：去除重复点与尖刺，O(n log n) 扫描线检测自交，
+     * 在交点处拆成多个简单环（同服务端 unkinkPolygon），面积 ≤ 50 m² 的子环丢弃。
+     */
+    validateLoop(options: { points: Array<{ lat: number; lng: number }> }): Promise<LoopValidationResult>;
+
+    // ---- 原生领地归属缓存 ----
+    /**
+     * 整体下发领地归属快照（替换原缓存并落盘，进程被杀后自动恢复）。
+     * data 为 base64 紧凑记录：每条 12 字节 = cell ID（int64 大端，即 cellId 的 16 进制值）+ 领主序号（int32 大端）。
+     * 内存约 24 MB / 百万格。
+     */
+    loadTerritorySnapshot(options: {
+        /** 下标 i 对应领主序号 i + 1 */
+        owners: Array<{ ownerId: string; faction?: string | null }>;
+        data: string;
+        selfOwnerId?: string;
+        selfFaction?: string;
+    }): Promise<{ cells: number; memoryBytes: number }>;
+
+    /**
+     * 增量更新领地归属：记录格式同快照，领主序号 0 表示该格变为无主。
+     */
+    applyTerritoryDelta(options: {
+        owners?: Array<{ index: number; ownerId: string; faction?: string | null }>;
+        data: string;
+    }): Promise<{ applied: number; cells: number }>;
+
+    getTerritoryCacheStats(): Promise<{ loaded: boolean; cells: number; owners: number; memoryBytes: number }>;
+
+    // ---- 规划路线跟随 ----
+    /**
+     * 设置规划路线（替换旧路线）。原生为线段建网格索引，跑步中逐点计算横向偏离与进度：
+     * 偏离 > 40 米连续 3 个点触发 'offCourse'，偏航后 < 20 米连续 2 个点触发 'backOnCourse'。
+     * 路线落盘，服务被杀恢复后自动加载。
+     */
+    setPlannedRoute(options: { routeId?: string; points: Array<{ lat: number; lng: number }> }): Promise<{ points: number; length: number }>;
+
+    clearPlannedRoute(): Promise<void>;
+
+    getRouteProgress(): Promise<{
+        active: boolean;
+        routeId?: string | null;
+        length: number;
+        matched: boolean;
+        segmentIndex?: number;
+        crossTrack?: number;
+        progress: number;
+        remaining: number;
+        offCourse: boolean;
+    }>;
+
+    // ---- 幽灵跑者 ----
+    /**
+     * 以历史会话为幽灵对比本次跑步：轨迹一次性载入原生内存，之后每个定位点原生计算领先 / 落后
+     * （随 locationUpdate 的 ghost* 字段返回），每 2 分钟及反超时语音播报。服务被杀恢复后自动重新载入。
+     * 双方用时都从各自 startedAt 起算。轨迹取自本机 location_records：已同步的点只保留最近 3 天，
+     * 更早的会话在本机没有轨迹点时 reject。
+     */
+    startGhost(options: { sessionId: string }): Promise<{ sessionId: string; points: number; distance: number; duration: number }>;
+
+    stopGhost(): Promise<void>;
+
+    getGhostStatus(): Promise<{
+        active: boolean;
+        sessionId?: string | null;
+        /** 幽灵总里程（米）/ 总用时（ms） */
+        distance: number;
+        duration: number;
+        /** 本次跑步是否已对比过定位点；为 false 时下列字段缺省 */
+        valid: boolean;
+        ghostLat?: number;
+        ghostLng?: number;
+        ghostDistance?: number;
+        leadMeters?: number;
+        leadSeconds?: number;
+        ghostFinished?: boolean;
+    }>;
+
+    /**
+     * 最近 20 次前台服务被杀后的恢复记录（旧 → 新）。
+     * gapMs：死亡前最后一个定位点到恢复后首个定位点的间隔。
+     */
+    getRecoveryHistory(): Promise<{
+        history: Array<{
+            runId: string;
+            source: 'alarm' | 'work' | 'sticky';
+            gapMs: number;
+            recoveredAt: number;
+        }>;
+    }>;
+
+    /**
+     * 分钟级步数历史（默认最近 24 小时，最长 7 天）。
+     * counts[i] 为 startMinute + i 分钟内的步数。
+     */
+    getStepBuckets(options?: { from?: number; to?: number }): Promise<{
+        startMinute: number;
+        counts: number[];
+        total: number;
+    }>;
+
+    /**
+     * 计步传感器每小时唤醒统计；batched 为 true 的小时全程开启硬件批量上报，
+     * 与 batched 为 false 的小时对比即可看出批量上报前后的唤醒次数。
+     */
+    getStepSensorStats(): Promise<StepSensorStats>;
+
+    /** 步频管线每小时 CPU 耗时（预算内满速 50 Hz，超过一半降为 25 Hz，超预算暂停到下一整点） */
+    getCadenceStats(): Promise<{
+        budgetMsPerHour: number;
+        hours: Array<{ hourStart: number; cpuMs: number; analyses: number; mode: 'full' | 'reduced' | 'suspended' }>;
+    }>;
+
+    /** 开关计步硬件批量上报（默认开启），关闭后回退为逐事件上报 */
+    setStepBatching(options: { enabled: boolean }): Promise<void>;
+
     /**
      * 更新前台通知中显示的步数。
      * 通知格式："今日 X 步 · 每日跑步语录"
@@ -236,6 +851,7 @@ export interface AMapLocationPlugin {
     /**
      * 将指定 ID 的离线定位记录标记为已同步 (isAcked = true)。
      * JS 层确认处理完毕后调用，完成 ACK 闭环，防止下次苏醒时重复拉取。
+     * 确认即视为 JS 已送达服务端：同时标记为已上传，原生轨迹上传不再重发这些点。
      *
      * @param options.ids 需要标记的记录 ID 数组
      * @returns 成功 ACK 的记录数
@@ -246,8 +862,9 @@ export interface AMapLocationPlugin {
 
     /**
      * 亮屏恢复时增量补帧（Hydration）。
-     * 根据 sessionId 和 sinceTimestamp 从 Room 数据库拉取息屏期间丢失的坐标点，
-     * 实现轨迹缝合。返回的点按时间戳升序排列，JS 层需依次注入状态引擎。
+     * 根据 sessionId 和 sinceTimestamp 拉取息屏期间丢失的坐标点，实现轨迹缝合。
+     * 当前跑步优先由原生进程内缓冲返回，进程重启后回退 Room 数据库。
+     * 返回的点按时间戳升序排列，JS 层需依次注入状态引擎。
      *
      * 安全上限：单次最多返回 1000 点，防止 OOM。
      *
@@ -263,9 +880,12 @@ export interface AMapLocationPlugin {
             accuracy: number;
             speed: number;
             bearing: number;
+            interpolated?: boolean;
         }>;
         count: number;
         capped: boolean;
+        /** 数据来源：'memory' = 原生内存缓冲，'room' = Room 数据库 */
+        source?: 'memory' | 'room';
     }>;
 
 